@@ -1,20 +1,24 @@
 package debugRenderer;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.opengl.GL40;
-import org.lwjgl.system.MemoryStack;
 
 import entities.Camera;
 import shaders.ShaderProgram;
 
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.lwjgl.opengl.GL40.*;
 
 public class DebugRenderer {
+
+    private final GraphicsDevice gl = Graphics.device();
+
     private final int maxVertices = 500000;
     private final int vaoId;
     private final int vboId;
@@ -25,20 +29,20 @@ public class DebugRenderer {
 
     public DebugRenderer() {
         // Create VAO and VBO
-        vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
+        vaoId = gl.genVertexArrays();
+        gl.bindVertexArray(vaoId);
 
-        vboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        glBufferData(GL_ARRAY_BUFFER, maxVertices * 6 * Float.BYTES, GL_DYNAMIC_DRAW);
+        vboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vboId);
+        gl.bufferData(GL_ARRAY_BUFFER, maxVertices * 6 * Float.BYTES, GL_DYNAMIC_DRAW);
 
         // Define the vertex layout: 3 floats for position, 3 for color
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 6 * Float.BYTES, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, 6 * Float.BYTES, 3 * Float.BYTES);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 6 * Float.BYTES, 0);
+        gl.enableVertexAttribArray(0);
+        gl.vertexAttribPointer(1, 3, GL_FLOAT, false, 6 * Float.BYTES, 3 * Float.BYTES);
+        gl.enableVertexAttribArray(1);
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
 
         // Load the debug shader
         shader = new ShaderProgram("src/debugRenderer/debug_vertex.glsl", null, null, null, "src/debugRenderer/debug_fragment.glsl");
@@ -76,7 +80,7 @@ public class DebugRenderer {
         if (debugObjects.isEmpty()) return;
 
         // Enable wireframe mode
-        glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
+        gl.polygonMode(GL_FRONT_AND_BACK, GL_LINE);
 
         // Build vertex data
         List<Float> vertexData = new ArrayList<>();
@@ -85,39 +89,30 @@ public class DebugRenderer {
         }
 
         // Upload data to the GPU
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
+        gl.bindBuffer(GL_ARRAY_BUFFER, vboId);
         int vertexCount = Math.min(vertexData.size(), maxVertices * 6);
         for (int i = 0; i < vertexCount; i++) {
             buffer[i] = vertexData.get(i);
         }
-        glBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
+        gl.bufferSubData(GL_ARRAY_BUFFER, 0, buffer);
 
         // Render using the debug shader
         shader.bind();
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(16);
-
-            // Set projection matrix
-            projectionMatrix.get(fb);
-            shader.setUniformMat4("projection", false, fb);
-
-            // Set view matrix
-            fb.clear();
-            viewMatrix.get(fb);
-            shader.setUniformMat4("view", false, fb);
-        }
+        // Set projection and view matrices
+        shader.setUniformMat4("projection", false, projectionMatrix);
+        shader.setUniformMat4("view", false, viewMatrix);
 
-        glBindVertexArray(vaoId);
+        gl.bindVertexArray(vaoId);
 
         // Draw all primitives
-        glDrawArrays(GL_LINES, 0, vertexCount / 6);
+        gl.drawArrays(GL_LINES, 0, vertexCount / 6);
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
         shader.unbind();
 
         // Restore default polygon mode
-        glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
+        gl.polygonMode(GL_FRONT_AND_BACK, GL_FILL);
         
         clear();
     }
@@ -127,8 +122,8 @@ public class DebugRenderer {
     }
 
     public void cleanup() {
-        glDeleteBuffers(vboId);
-        glDeleteVertexArrays(vaoId);
+        gl.deleteBuffers(vboId);
+        gl.deleteVertexArrays(vaoId);
         shader.destroy();
     }
 }
\ No newline at end of file
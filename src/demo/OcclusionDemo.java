@@ -0,0 +1,111 @@
+package demo;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Entity;
+import occlusion.OcclusionCuller;
+import toolbox.Frustum;
+import toolbox.Mesh;
+
+/**
+ * Checks the CPU occlusion culler against setups with a known answer and times it. Needs no
+ * window or GL context.
+ *
+ * The camera sits at the origin looking down -z at a 20 x 20 wall 30 units away. Spheres
+ * behind the wall must be culled, spheres in front of it, beside it or poking out past its
+ * edge must not. Exits with status 1 if any case fails.
+ *
+ * Usage: OcclusionDemo
+ */
+public class OcclusionDemo {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        OcclusionCuller culler = new OcclusionCuller(256, 128);
+        Mesh mesh = new Mesh(0, 0, 15f);
+        Entity wall = new Entity(mesh, 0, new Vector3f(0, 0, -30), new Vector3f(0, 0, 0), 1f);
+        culler.addOccluder(wall, quad(10));
+
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(70), 2f, 0.1f, 1000f);
+        Matrix4f view = new Matrix4f().lookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+        Frustum frustum = new Frustum();
+        frustum.calculateFrustum(projection, view);
+        culler.render(null, projection, view, frustum);
+
+        check(culler, "small sphere behind the wall", 0, 0, -60, 1, false);
+        check(culler, "large sphere behind the wall", 0, 0, -80, 8, false);
+        check(culler, "sphere just behind the wall", 0, 0, -32, 1, false);
+        check(culler, "sphere in front of the wall", 0, 0, -20, 1, true);
+        check(culler, "sphere touching the wall", 0, 0, -29.5f, 1, true);
+        check(culler, "sphere beside the wall", 25, 0, -60, 1, true);
+        check(culler, "sphere poking out past the edge", 0, 11, -40, 3, true);
+        check(culler, "sphere bigger than the wall", 0, 0, -60, 40, true);
+        check(culler, "sphere around the camera", 0, 0, 0, 1, true);
+        check(culler, "the wall itself", 0, 0, -30, wall.getBoundingRadius(), true);
+
+        // Seen from behind the wall the same spheres are in front of it
+        Matrix4f behind = new Matrix4f().lookAt(0, 0, -100, 0, 0, 0, 0, 1, 0);
+        frustum.calculateFrustum(projection, behind);
+        culler.render(null, projection, behind, frustum);
+        check(culler, "sphere seen from the other side", 0, 0, -60, 1, true);
+        check(culler, "camera side sphere seen from behind", 0, 0, -10, 1, false);
+
+        // Timing with a full triangle budget spread over the screen
+        OcclusionCuller busy = new OcclusionCuller(256, 128);
+        for (int i = 0; i < 64; i++) {
+            Entity e = new Entity(mesh, 0, new Vector3f((i % 8 - 4) * 12, (i / 8 - 4) * 6, -40 - i), new Vector3f(0, i, 0), 0.5f);
+            busy.addOccluder(e, grid(8));
+        }
+        frustum.calculateFrustum(projection, view);
+        int frames = 500;
+        for (int i = 0; i < frames; i++) {
+            busy.render(null, projection, view, frustum);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            busy.render(null, projection, view, frustum);
+        }
+        double ms = (System.nanoTime() - start) / (double) frames / 1_000_000.0;
+        System.out.printf("[Occlusion] %d occluders, %d triangles rasterized: %.3f ms per frame%n",
+                busy.getOccludersDrawn(), busy.getRasterizer().getTriangleCount(), ms);
+
+        System.out.println(failures == 0 ? "[Occlusion] all cases passed" : "[Occlusion] " + failures + " cases failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(OcclusionCuller culler, String name, float x, float y, float z, float radius, boolean expectVisible) {
+        boolean visible = culler.isVisible(x, y, z, radius);
+        if (visible != expectVisible) {
+            failures++;
+        }
+        System.out.printf("[Occlusion] %-8s %s (%s)%n", visible == expectVisible ? "ok" : "FAILED", name,
+                visible ? "visible" : "hidden");
+    }
+
+    /** Square in the xy plane, two triangles. */
+    private static float[] quad(float half) {
+        return new float[] {
+                -half, -half, 0, half, -half, 0, half, half, 0,
+                -half, -half, 0, half, half, 0, -half, half, 0 };
+    }
+
+    /** A cells x cells grid of quads in the xy plane, 2 * cells * cells triangles. */
+    private static float[] grid(int cells) {
+        float[] triangles = new float[cells * cells * 18];
+        float size = 10f / cells;
+        int i = 0;
+        for (int y = 0; y < cells; y++) {
+            for (int x = 0; x < cells; x++) {
+                float x0 = x * size - 5, y0 = y * size - 5, x1 = x0 + size, y1 = y0 + size;
+                float[] cell = { x0, y0, 0, x1, y0, 0, x1, y1, 0, x0, y0, 0, x1, y1, 0, x0, y1, 0 };
+                System.arraycopy(cell, 0, triangles, i, cell.length);
+                i += cell.length;
+            }
+        }
+        return triangles;
+    }
+}
@@ -0,0 +1,282 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Light;
+import shadows.PointShadowPasses;
+import shadows.PointShadowScheduler;
+import shadows.ShadowAtlas;
+
+/**
+ * Checks the point shadow atlas and scheduler against setups with a known answer. Needs no
+ * window or GL context.
+ *
+ * The atlas cases allocate, free and refill tiles and look at where they land. The scheduler
+ * cases place a camera in front of lights of range ~10 and move it, so a light's projected
+ * radius (its importance) is known, then check tile sizes, the faces picked per frame and how
+ * long the round robin takes to get back to every face. Exits with status 1 if any case fails.
+ *
+ * Usage: PointShadowDemo
+ */
+public class PointShadowDemo {
+
+    private static final int SCREEN_HEIGHT = 720;
+
+    private static int failures;
+
+    private static final Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(70), 16f / 9f, 0.1f, 1000f);
+    private static final Matrix4f view = new Matrix4f();
+    private static final Vector3f camera = new Vector3f();
+    private static final PointShadowPasses passes = new PointShadowPasses();
+
+    public static void main(String[] args) {
+        atlasCases();
+        hysteresisCases();
+        budgetCases();
+        roundRobinCases();
+
+        System.out.println(failures == 0 ? "[PointShadow] all cases passed" : "[PointShadow] " + failures + " cases failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void atlasCases() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+
+        // 1) Four quarters fill it, a fifth tile does not fit
+        int[] quarters = new int[4];
+        for (int i = 0; i < 4; i++) {
+            quarters[i] = atlas.allocate(512);
+        }
+        check("four quarters fill the atlas", atlas.getUsedArea() == 1024 * 1024 && disjoint(atlas, quarters));
+        check("no tile left in a full atlas", atlas.allocate(64) == -1);
+
+        // 2) Freed siblings merge back, the whole atlas is one tile again
+        for (int quarter : quarters) {
+            atlas.free(quarter);
+        }
+        int whole = atlas.allocate(1024);
+        check("freed quarters merge into the whole atlas", whole >= 0 && atlas.getX(whole) == 0 && atlas.getY(whole) == 0);
+        atlas.free(whole);
+
+        // 3) One used child keeps its parent split
+        int small = atlas.allocate(64);
+        int other = atlas.allocate(64);
+        check("small tiles are packed next to each other", atlas.getSize(small) == 64
+                && Math.abs(atlas.getX(small) - atlas.getX(other)) + Math.abs(atlas.getY(small) - atlas.getY(other)) == 64);
+        atlas.free(small);
+        check("a used sibling keeps the atlas split", atlas.allocate(1024) == -1);
+        atlas.free(other);
+        whole = atlas.allocate(1024);
+        check("last sibling freed merges every level", whole >= 0);
+        atlas.free(whole);
+
+        // 4) Mixed sizes until full never overlap and stay inside the atlas
+        List<Integer> tiles = new ArrayList<>();
+        int[] sizes = { 256, 64, 128, 64, 512, 64, 128 };
+        for (int i = 0; ; i++) {
+            int handle = atlas.allocate(sizes[i % sizes.length]);
+            if (handle < 0) {
+                handle = atlas.allocate(64);
+                if (handle < 0) {
+                    break;
+                }
+            }
+            tiles.add(handle);
+        }
+        int[] handles = tiles.stream().mapToInt(Integer::intValue).toArray();
+        check("mixed tiles fill the atlas without overlapping", atlas.getUsedArea() == 1024 * 1024 && disjoint(atlas, handles));
+        for (int handle : handles) {
+            atlas.free(handle);
+        }
+        check("freeing every mixed tile empties the atlas", atlas.getUsedArea() == 0 && atlas.allocate(1024) >= 0);
+    }
+
+    private static void hysteresisCases() {
+        PointShadowScheduler scheduler = new PointShadowScheduler(new ShadowAtlas(2048, 64), 256, SCREEN_HEIGHT);
+        List<Light> lights = lights(1);
+        Light light = lights.get(PointShadowScheduler.FIRST_POINT_LIGHT);
+        light.setPosition(new Vector3f(0, 0, 0));
+
+        // Camera on +z looking at the light, at the distance that gives the light that many pixels
+        lookAt(light, 100);
+        schedule(scheduler, lights, 6);
+        check("100 px light gets 64 px tiles", scheduler.getTileSize(2) == 64);
+        lookAt(light, 140);
+        schedule(scheduler, lights, 6);
+        check("140 px keeps the 64 px tiles", scheduler.getTileSize(2) == 64);
+        lookAt(light, 170);
+        schedule(scheduler, lights, 6);
+        check("170 px grows to 128 px tiles", scheduler.getTileSize(2) == 128);
+        check("grown tiles are drawn again", facesOf(2, 0, 6) && scheduler.isShadowed(2));
+        lookAt(light, 100);
+        schedule(scheduler, lights, 6);
+        check("100 px keeps the 128 px tiles", scheduler.getTileSize(2) == 128);
+        lookAt(light, 80);
+        schedule(scheduler, lights, 6);
+        check("80 px shrinks to 64 px tiles", scheduler.getTileSize(2) == 64);
+        lookAt(light, 1000);
+        schedule(scheduler, lights, 6);
+        check("large light is held at the largest tile", scheduler.getTileSize(2) == 256);
+        camera.set(0, 0, 500);
+        view.setLookAt(camera.x, camera.y, camera.z, 0, 0, 1000, 0, 1, 0);
+        schedule(scheduler, lights, 6);
+        check("light behind the camera gives its tiles back", scheduler.getTileSize(2) == 0
+                && scheduler.getAtlas().getUsedArea() == 0);
+    }
+
+    private static void budgetCases() {
+        PointShadowScheduler scheduler = new PointShadowScheduler(new ShadowAtlas(2048, 64), 256, SCREEN_HEIGHT);
+        List<Light> lights = lights(3);
+        // Camera at the origin looking down -z, nearer lights are more important
+        lights.get(2).setPosition(new Vector3f(-5, 0, -80));
+        lights.get(3).setPosition(new Vector3f(0, 0, -40));
+        lights.get(4).setPosition(new Vector3f(5, 0, -60));
+        camera.set(0, 0, 0);
+        view.setLookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+
+        // 1) New faces, most important light first, never more than the budget
+        schedule(scheduler, lights, 8);
+        check("first frame draws the budget", passes.getFaceCount() == 8);
+        check("first frame starts with the nearest light", facesOf(3, 0, 6) && facesOf(4, 6, 8));
+        check("no shadow before all six faces are drawn", scheduler.isShadowed(3) && !scheduler.isShadowed(4));
+        schedule(scheduler, lights, 8);
+        check("second frame finishes the undrawn faces", passes.getFaceCount() == 8 && facesOf(4, 0, 4) && facesOf(2, 4, 8));
+        schedule(scheduler, lights, 8);
+        check("third frame starts with the last undrawn faces", facesOf(2, 0, 2));
+        check("every light shadowed once all faces are drawn", scheduler.isShadowed(2) && scheduler.isShadowed(3)
+                && scheduler.isShadowed(4));
+        check("drawn lights have records", passes.getLightCount() == lights.size() && passes.getRecords()[2 * PointShadowPasses.RECORD_FLOATS + 3] == 1);
+
+        // 2) A light that moved is redrawn before the round robin
+        lights.get(2).setPosition(new Vector3f(-5, 1, -80));
+        schedule(scheduler, lights, 8);
+        check("moved light is redrawn first", passes.getFaceCount() == 8 && facesOf(2, 0, 6));
+        check("moved light keeps its old shadow while redrawn", scheduler.isShadowed(2));
+
+        // 3) A light the camera is inside of takes at most half the budget
+        lights.get(3).setPosition(new Vector3f(0, 0, -2));
+        schedule(scheduler, lights, 8);
+        schedule(scheduler, lights, 8);
+        check("close light gets the largest tile", scheduler.getTileSize(3) == 256);
+        schedule(scheduler, lights, 8);
+        check("close light faces come first, half the budget", passes.getFaceCount() == 8 && facesOf(3, 0, 4));
+    }
+
+    private static void roundRobinCases() {
+        int far = 6, budget = 6;
+        PointShadowScheduler scheduler = new PointShadowScheduler(new ShadowAtlas(2048, 64), 256, SCREEN_HEIGHT);
+        List<Light> lights = lights(far + 1);
+        lights.get(2).setPosition(new Vector3f(0, 0, -3)); // The camera is inside its range
+        for (int i = 0; i < far; i++) {
+            lights.get(3 + i).setPosition(new Vector3f(i * 10 - 25, 0, -100));
+        }
+        camera.set(0, 0, 0);
+        view.setLookAt(0, 0, 0, 0, 0, -1, 0, 1, 0);
+
+        int warmup = 0;
+        while (!allShadowed(scheduler, lights) && warmup < 100) {
+            schedule(scheduler, lights, budget);
+            warmup++;
+        }
+        check("every light shadowed after " + warmup + " frames", allShadowed(scheduler, lights));
+
+        // Half the budget goes to the close light, the rest walks over all faces
+        int slots = (far + 1) * PointShadowScheduler.FACES;
+        int bound = (slots + budget / 2 - 1) / (budget / 2) + 1;
+        Set<Long> seen = new HashSet<>();
+        int frames = 0;
+        boolean everyFrameFull = true;
+        while (seen.size() < far * PointShadowScheduler.FACES && frames < bound * 4) {
+            schedule(scheduler, lights, budget);
+            everyFrameFull &= passes.getFaceCount() == budget && facesOf(2, 0, budget / 2);
+            for (int face = 0; face < passes.getFaceCount(); face++) {
+                if (passes.getFaceLight(face) != 2) {
+                    seen.add(((long) passes.getFaceX(face) << 32) | passes.getFaceY(face));
+                }
+            }
+            frames++;
+        }
+        check("static frames draw the budget, close light first", everyFrameFull);
+        check("round robin reaches all " + far * PointShadowScheduler.FACES + " far faces in " + frames
+                + " frames (at most " + bound + ")", seen.size() == far * PointShadowScheduler.FACES && frames <= bound);
+    }
+
+    /** The sun, the moon and count shadow casting point lights of range ~10. */
+    private static List<Light> lights(int count) {
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(new Vector3f(0, -1, 0), new Vector3f(1)));
+        lights.add(new Light(new Vector3f(0, 1, 0), new Vector3f(0.2f)));
+        for (int i = 0; i < count; i++) {
+            Light light = new Light(new Vector3f(), new Vector3f(1), new Vector3f(1, 0, 1));
+            light.setCastShadow(true);
+            lights.add(light);
+        }
+        return lights;
+    }
+
+    /** Puts the camera on +z of the light, where its range projects to that many pixels. */
+    private static void lookAt(Light light, float pixels) {
+        float pixelsPerRadius = projection.m11() * SCREEN_HEIGHT * 0.5f;
+        float distance = light.getEffectiveDistance() * pixelsPerRadius / pixels;
+        Vector3f p = light.getPosition();
+        camera.set(p.x, p.y, p.z + distance);
+        view.setLookAt(camera.x, camera.y, camera.z, p.x, p.y, p.z, 0, 1, 0);
+    }
+
+    private static void schedule(PointShadowScheduler scheduler, List<Light> lights, int budget) {
+        scheduler.schedule(lights, camera, view, projection, budget, passes);
+    }
+
+    private static boolean allShadowed(PointShadowScheduler scheduler, List<Light> lights) {
+        for (int i = PointShadowScheduler.FIRST_POINT_LIGHT; i < lights.size(); i++) {
+            if (!scheduler.isShadowed(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether the faces from start to end (exclusive) of this frame belong to the light. */
+    private static boolean facesOf(int light, int start, int end) {
+        if (passes.getFaceCount() < end) {
+            return false;
+        }
+        for (int face = start; face < end; face++) {
+            if (passes.getFaceLight(face) != light) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean disjoint(ShadowAtlas atlas, int[] handles) {
+        for (int a = 0; a < handles.length; a++) {
+            int ax = atlas.getX(handles[a]), ay = atlas.getY(handles[a]), as = atlas.getSize(handles[a]);
+            if (handles[a] < 0 || ax < 0 || ay < 0 || ax + as > atlas.getAtlasSize() || ay + as > atlas.getAtlasSize()) {
+                return false;
+            }
+            for (int b = a + 1; b < handles.length; b++) {
+                int bx = atlas.getX(handles[b]), by = atlas.getY(handles[b]), bs = atlas.getSize(handles[b]);
+                if (ax < bx + bs && bx < ax + as && ay < by + bs && by < ay + as) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("[PointShadow] %-8s %s%n", passed ? "ok" : "FAILED", name);
+    }
+}
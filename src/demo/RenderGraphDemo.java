@@ -0,0 +1,157 @@
+package demo;
+
+import static org.lwjgl.opengl.GL30.*;
+
+import renderer.RenderGraph;
+
+/**
+ * Checks the render graph compiler against small graphs with a known answer. Needs no window
+ * or GL context, only {@link RenderGraph#compile} runs.
+ *
+ * The bloom graph has a side chain nothing reads, which must be culled, and a blur chain whose
+ * half size textures can share a physical texture once the earlier one is read for the last
+ * time. The forward graph has consecutive passes drawing into the same target, which must not
+ * bind it again, and a depth and a color texture of the same size that must never share.
+ * Exits with status 1 if any case fails.
+ *
+ * Usage: RenderGraphDemo
+ */
+public class RenderGraphDemo {
+
+    private static final RenderGraph.PassBody NOTHING = targets -> { };
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        bloomCases();
+        forwardCases();
+        errorCases();
+
+        System.out.println(failures == 0 ? "[RenderGraph] all cases passed" : "[RenderGraph] " + failures + " cases failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void bloomCases() {
+        RenderGraph graph = new RenderGraph(1280, 720);
+        int scene = graph.createTexture("Scene", 1280, 720, GL_RGBA16F);
+        int depth = graph.createTexture("Depth", 1280, 720, GL_DEPTH_COMPONENT24);
+        int luma = graph.createTexture("Luma", 1280, 720, GL_R16F);
+        int overlay = graph.createTexture("Overlay", 1280, 720, GL_RGBA8);
+        int bright = graph.createTexture("Bright", 640, 360, GL_RGBA16F);
+        int blurH = graph.createTexture("Blur H", 640, 360, GL_RGBA16F);
+        int blurV = graph.createTexture("Blur V", 640, 360, GL_RGBA16F);
+
+        RenderGraph.Pass scenePass = graph.addPass("Scene", NOTHING).write(scene).write(depth);
+        RenderGraph.Pass histogram = graph.addPass("Histogram", NOTHING).read(scene).write(luma);
+        RenderGraph.Pass exposure = graph.addPass("Exposure overlay", NOTHING).read(luma).write(overlay);
+        graph.addPass("Bright", NOTHING).read(scene).write(bright);
+        graph.addPass("Blur H", NOTHING).read(bright).write(blurH);
+        graph.addPass("Blur V", NOTHING).read(blurH).write(blurV);
+        RenderGraph.Pass combine = graph.addPass("Combine", NOTHING).read(scene).read(blurV).write(RenderGraph.BACKBUFFER);
+        graph.compile();
+        System.out.print("[RenderGraph] " + graph.describe());
+
+        // 1) Culling, the overlay chain ends in a texture nothing reads
+        check("unread pass is culled", !graph.isScheduled(exposure));
+        check("pass only feeding a culled pass is culled", !graph.isScheduled(histogram));
+        check("passes reaching the backbuffer are kept", graph.getScheduledCount() == 5
+                && graph.isScheduled(scenePass) && graph.isScheduled(combine));
+        check("culled textures get no lifetime and no texture", graph.getFirstUse(luma) == -1 && graph.getPhysical(luma) == -1
+                && graph.getFirstUse(overlay) == -1 && graph.getPhysical(overlay) == -1);
+
+        // 2) Lifetimes, positions in the schedule
+        checkLifetime(graph, scene, 0, 4);
+        checkLifetime(graph, depth, 0, 0);
+        checkLifetime(graph, bright, 1, 2);
+        checkLifetime(graph, blurH, 2, 3);
+        checkLifetime(graph, blurV, 3, 4);
+
+        // 3) Aliasing
+        check("Blur V reuses Bright, read for the last time by the pass before",
+                graph.getPhysical(blurV) == graph.getPhysical(bright));
+        check("Blur H overlaps Bright and gets its own texture", graph.getPhysical(blurH) != graph.getPhysical(bright));
+        check("4 textures for 5 used resources", graph.getPhysicalCount() == 4);
+
+        // 4) Targets, Blur V draws into the same texture as Bright, so the same framebuffer
+        check("aliased passes share a target", graph.getTargetCount() == 4);
+        check("every pass binds, each draws into another target than the one before", graph.getBindCount() == 5);
+    }
+
+    private static void forwardCases() {
+        RenderGraph graph = new RenderGraph(1280, 720);
+        int color = graph.createTexture("Color", 1280, 720, GL_RGBA16F);
+        int depth = graph.createTexture("Depth", 1280, 720, GL_DEPTH_COMPONENT24);
+        int ldr = graph.createTexture("LDR", 1280, 720, GL_RGBA8);
+        int graded = graph.createTexture("Graded", 1280, 720, GL_RGBA16F);
+        int sharpened = graph.createTexture("Sharpened", 1280, 720, GL_RGBA8);
+
+        graph.addPass("Opaque", NOTHING).write(color).write(depth);
+        graph.addPass("Transparent", NOTHING).write(color).write(depth);
+        graph.addPass("Tonemap", NOTHING).read(color).write(ldr);
+        graph.addPass("Grade", NOTHING).read(ldr).write(graded);
+        graph.addPass("Sharpen", NOTHING).read(graded).write(sharpened);
+        graph.addPass("Present", NOTHING).read(sharpened).write(RenderGraph.BACKBUFFER);
+        graph.addPass("UI", NOTHING).write(RenderGraph.BACKBUFFER);
+        graph.compile();
+        System.out.print("[RenderGraph] " + graph.describe());
+
+        check("nothing culled", graph.getScheduledCount() == 7);
+        checkLifetime(graph, color, 0, 2);
+        checkLifetime(graph, depth, 0, 1);
+        checkLifetime(graph, ldr, 2, 3);
+        check("free depth texture is not reused for a color texture", graph.getPhysical(ldr) != graph.getPhysical(depth));
+        check("Graded reuses Color, same size and format", graph.getPhysical(graded) == graph.getPhysical(color));
+        check("Sharpened reuses LDR, same size and format", graph.getPhysical(sharpened) == graph.getPhysical(ldr));
+        check("3 textures for 5 resources", graph.getPhysicalCount() == 3);
+        check("same target twice in a row binds once, 5 binds for 7 passes", graph.getBindCount() == 5);
+
+        // Adding a pass invalidates the compile
+        graph.addPass("Late", NOTHING).write(RenderGraph.BACKBUFFER);
+        check("adding a pass needs a new compile", !graph.isCompiled());
+        graph.compile();
+        check("pass after UI on the backbuffer does not bind", graph.getScheduledCount() == 8 && graph.getBindCount() == 5);
+    }
+
+    private static void errorCases() {
+        RenderGraph graph = new RenderGraph(64, 64);
+        int texture = graph.createTexture("Never written", 64, 64, GL_RGBA8);
+        graph.addPass("Reader", NOTHING).read(texture).write(RenderGraph.BACKBUFFER);
+        check("reading a texture nothing wrote is an error", fails(graph));
+
+        graph = new RenderGraph(64, 64);
+        texture = graph.createTexture("Feedback", 64, 64, GL_RGBA8);
+        graph.addPass("Writer", NOTHING).write(texture);
+        graph.addPass("Feedback", NOTHING).read(texture).write(texture);
+        graph.addPass("Present", NOTHING).read(texture).write(RenderGraph.BACKBUFFER);
+        check("sampling the texture a pass draws into is an error", fails(graph));
+
+        graph = new RenderGraph(64, 64);
+        texture = graph.createTexture("Extra", 64, 64, GL_RGBA8);
+        graph.addPass("Both", NOTHING).write(RenderGraph.BACKBUFFER).write(texture);
+        check("drawing into the backbuffer and a texture at once is an error", fails(graph));
+    }
+
+    private static void checkLifetime(RenderGraph graph, int resource, int first, int last) {
+        int actualFirst = graph.getFirstUse(resource), actualLast = graph.getLastUse(resource);
+        check(graph.getResourceName(resource) + " lives from pass " + first + " to " + last
+                + " (" + actualFirst + " to " + actualLast + ")", actualFirst == first && actualLast == last);
+    }
+
+    private static boolean fails(RenderGraph graph) {
+        try {
+            graph.compile();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.printf("[RenderGraph] %-8s %s%n", passed ? "ok" : "FAILED", name);
+    }
+}
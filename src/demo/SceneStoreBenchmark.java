@@ -0,0 +1,131 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Entity;
+import entities.SceneStore;
+import renderer.FramePacket;
+import toolbox.Frustum;
+import toolbox.Mesh;
+
+/**
+ * Compares a frame's CPU transform work for entities kept as objects in a List against the same
+ * entities in a {@link SceneStore}. Needs no window or GL context.
+ *
+ * Each frame moves a share of the entities, then frustum culls all of them and copies the model
+ * matrices of the visible ones into a draw list, like MasterRenderer.collectVisible does. The
+ * store is measured twice: testing every bounding sphere, and walking its spatial index.
+ *
+ * Usage: SceneStoreBenchmark [entities] [moving percent]   (default 100000 and 10)
+ */
+public class SceneStoreBenchmark {
+
+    private static final int WARMUP_FRAMES = 50;
+    private static final int FRAMES = 200;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int movingPercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int moving = count * movingPercent / 100;
+
+        // A mesh without a VAO, only its radius matters here
+        Mesh mesh = new Mesh(0, 0, 1f);
+        List<Entity> objects = createEntities(mesh, count);
+        List<Entity> handles = createEntities(mesh, count);
+        SceneStore store = new SceneStore(count);
+        for (Entity e : handles) {
+            store.add(e);
+        }
+
+        Frustum frustum = new Frustum();
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(90), 16f / 9f, 0.1f, 5000f);
+        Matrix4f view = new Matrix4f().lookAt(0, 50, 0, 200, 0, 200, 0, 1, 0);
+        frustum.calculateFrustum(projection, view);
+
+        FramePacket.DrawList drawList = new FramePacket.DrawList();
+        int[] visibleIds = new int[store.getIdLimit()];
+
+        System.out.printf("[SceneStore] %d entities, %d moving per frame%n", count, moving);
+
+        // 1) Current layout: walk the list, every entity is its own object graph
+        double listMs = measure(frame -> {
+            move(objects, moving, frame);
+            drawList.clear();
+            for (Entity e : objects) {
+                if (frustum.contains(e.getPosition(), e.getBoundingRadius())) {
+                    drawList.add(e, e.getModelMatrix());
+                }
+            }
+        });
+        System.out.printf("[SceneStore] List<Entity>      %.3f ms/frame (%d visible)%n", listMs, drawList.size());
+
+        // 2) Structure of arrays: one pass over the bounds, matrices copied straight from the store
+        Matrix4f model = new Matrix4f();
+        double linearMs = measure(frame -> {
+            move(handles, moving, frame);
+            drawList.clear();
+            int visible = frustum.cullSpheres(store.getBounds(), store.getIdLimit(), visibleIds);
+            for (int i = 0; i < visible; i++) {
+                int id = visibleIds[i];
+                drawList.add(store.getEntity(id), store.getModelMatrix(id, model));
+            }
+        });
+        System.out.printf("[SceneStore] SceneStore        %.3f ms/frame (%d visible)%n", linearMs, drawList.size());
+
+        // 3) Same store, culled through the BVH
+        store.rebuildSpatialIndex();
+        double storeMs = measure(frame -> {
+            move(handles, moving, frame);
+            drawList.clear();
+            int visible = store.cull(frustum, visibleIds);
+            float[] matrices = store.getMatrices();
+            for (int i = 0; i < visible; i++) {
+                int id = visibleIds[i];
+                drawList.add(store.getEntity(id), matrices, id * 16);
+            }
+        });
+        System.out.printf("[SceneStore] SceneStore + BVH  %.3f ms/frame (%d visible)%n", storeMs, drawList.size());
+        System.out.printf("[SceneStore] speedup           %.2fx%n", listMs / storeMs);
+    }
+
+    private interface Frame {
+        void run(int frame);
+    }
+
+    private static double measure(Frame frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame.run(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.run(WARMUP_FRAMES + i);
+        }
+        return (System.nanoTime() - start) / (double) FRAMES / 1_000_000.0;
+    }
+
+    private static void move(List<Entity> entities, int moving, int frame) {
+        float offset = (frame & 1) == 0 ? 0.5f : -0.5f;
+        for (int i = 0; i < moving; i++) {
+            Entity e = entities.get(i);
+            Vector3f p = e.getPosition();
+            e.setPosition(p.x, p.y + offset, p.z);
+        }
+    }
+
+    private static List<Entity> createEntities(Mesh mesh, int count) {
+        // Same seed for both layouts so they see the same scene
+        Random random = new Random(42);
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Vector3f position = new Vector3f(random.nextFloat() * 4000 - 2000, random.nextFloat() * 100, random.nextFloat() * 4000 - 2000);
+            Vector3f rotation = new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat());
+            entities.add(new Entity(mesh, 0, position, rotation, 0.5f + random.nextFloat() * 4));
+        }
+        return entities;
+    }
+}
@@ -17,6 +17,7 @@ public class Camera {
     private Vector3f right = new Vector3f();
     private Vector3f up = new Vector3f();
     private final Vector3f worldUp = new Vector3f(0, 1, 0);
+    private final Matrix4f flatView = new Matrix4f();
 
     // Movement & mouse settings
     private float moveSpeed = 250.5f;
@@ -126,16 +127,22 @@ public class Camera {
     }
 
     public Matrix4f getViewMatrix() {
-        return new Matrix4f().lookAt(
-                position,
-                new Vector3f(position).add(front),
-                up
+        return getViewMatrix(new Matrix4f());
+    }
+
+    /** Writes the view matrix into dest without allocating, for code that runs every frame. */
+    public Matrix4f getViewMatrix(Matrix4f dest) {
+        return dest.setLookAt(
+                position.x, position.y, position.z,
+                position.x + front.x, position.y + front.y, position.z + front.z,
+                up.x, up.y, up.z
         );
     }
     
     // You can use this if you need a "flat" view matrix (for example, in UI rendering)
+    // Shared identity, callers must not modify it
     public Matrix4f getFlatViewMatrix() {
-        return new Matrix4f().identity();
+        return flatView;
     }
 
     public Vector3f getPosition() {
@@ -231,10 +238,37 @@ public class Camera {
                 }
             }
         }
-        
+
         return corners;
     }
-    
+
+    /**
+     * Corners of the slice of the view frustum between two view distances, in the same order as
+     * {@link #getFrustumCorners(Matrix4f)}. Built from the camera vectors and the scale of a
+     * symmetric perspective projection instead of its inverse, which stays precise for slices
+     * far in front of the near plane. Writes into dest, which needs 8 vectors.
+     */
+    public Vector3f[] getFrustumCorners(Matrix4f projectionMatrix, float near, float far, Vector3f[] dest) {
+        // Half width and height of the slice per unit of distance
+        float tanX = 1.0f / projectionMatrix.m00();
+        float tanY = 1.0f / projectionMatrix.m11();
+
+        int i = 0;
+        for (int x = -1; x <= 1; x += 2) {
+            for (int y = -1; y <= 1; y += 2) {
+                for (int z = -1; z <= 1; z += 2) {
+                    float distance = z < 0 ? near : far;
+                    float sx = x * tanX * distance, sy = y * tanY * distance;
+                    dest[i++].set(position)
+                            .fma(sx, right)
+                            .fma(sy, up)
+                            .fma(distance, front);
+                }
+            }
+        }
+        return dest;
+    }
+
     
 
     /**
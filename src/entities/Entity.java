@@ -35,6 +35,18 @@ public class Entity {
     
     private boolean hasTransparency;
     private boolean hasOpaque;
+    private boolean alphaTested; // Cut-out texture: discards, but never blends
+    
+    // World transform cache. Rebuilt lazily after position, rotation, scale or mesh change.
+    private final Matrix4f modelMatrix = new Matrix4f();
+    private float boundingRadius;
+    private boolean transformDirty = true;
+    private int transformVersion;
+    
+    // Set while the entity lives in a SceneStore. The transform is then owned by the store and
+    // position, rotation and modelMatrix above are only views refreshed from it.
+    private SceneStore store;
+    private int storeId = -1;
     
     
     
@@ -59,22 +71,34 @@ public class Entity {
         return mesh;
     }
 
+    /**
+     * Live position. Use {@link #setPosition(Vector3f)} to move the entity, or call
+     * {@link #markTransformDirty()} after changing the returned vector in place.
+     */
     public Vector3f getPosition() {
+        if (store != null) {
+            store.getPosition(storeId, position);
+        }
         return position;
     }
 
+    /**
+     * Live rotation in radians. Same rules as {@link #getPosition()}.
+     */
     public Vector3f getRotation() {
+        if (store != null) {
+            store.getRotation(storeId, rotation);
+        }
         return rotation;
     }
 
     public float getScale() {
-        return scale;
+        return store != null ? store.getScale(storeId) : scale;
     }
 
     public void setPosition(Vector3f newPos) {
-        this.position.set(newPos);
+        setPosition(newPos.x, newPos.y, newPos.z);
     }
-    // Similarly, setRotation, setScale, etc.
 
 	public int getTextureId() {
 		return textureId;
@@ -142,14 +166,29 @@ public class Entity {
 
 	public void setMesh(Mesh mesh) {
 		this.mesh = mesh;
+		if (store != null) {
+			store.setMeshRadius(storeId, mesh.getFurthestPoint());
+		} else {
+			markTransformDirty();
+		}
 	}
 
 	public void setRotation(Vector3f rotation) {
-		this.rotation = rotation;
+		if (store != null) {
+			store.setRotation(storeId, rotation.x, rotation.y, rotation.z);
+		} else if (!this.rotation.equals(rotation)) {
+			this.rotation.set(rotation);
+			markTransformDirty();
+		}
 	}
 
 	public void setScale(float scale) {
-		this.scale = scale;
+		if (store != null) {
+			store.setScale(storeId, scale);
+		} else if (this.scale != scale) {
+			this.scale = scale;
+			markTransformDirty();
+		}
 	}
 
 	public Vector3f getParallaxScale() {
@@ -176,9 +215,25 @@ public class Entity {
 		this.hasOpaque = hasOpaque;
 	}
 
+	public boolean isAlphaTested() {
+		return alphaTested;
+	}
+
+	/**
+	 * Marks the texture as a cut-out (leaves, fences). Such entities are drawn after the opaque
+	 * ones without blending, instead of in the sorted transparent pass.
+	 */
+	public void setAlphaTested(boolean alphaTested) {
+		this.alphaTested = alphaTested;
+	}
+
 	public void setPosition(float x, float y, float z) {
-		this.position = new Vector3f(x,y,z);
-		
+		if (store != null) {
+			store.setPosition(storeId, x, y, z);
+		} else if (!position.equals(x, y, z)) {
+			position.set(x, y, z);
+			markTransformDirty();
+		}
 	}
 	
 	public org.lwjgl.util.vector.Matrix4f createTransformationMatrix() {
@@ -192,16 +247,84 @@ public class Entity {
 		return matrix;
 	}
 
+	/**
+	 * World matrix (translation * rotateXYZ * scale). Cached, only rebuilt after the transform
+	 * changed. The returned matrix is shared, copy it instead of modifying it.
+	 */
 	public Matrix4f getModelMatrix() {
-		Matrix4f model = new Matrix4f()
-    		    .identity()
-    		    //.scale(this.getScale(),this.getScale(),this.getScale())            // Scale first
-    		    .rotateXYZ(this.getRotation().x, this.getRotation().y, this.getRotation().z)         // Rotate next
-    		    .translate(this.getPosition());    // Finally translate
-
-    		model.setTranslation(this.getPosition());
-    		model.scale(this.getScale(),this.getScale(),this.getScale());
-    		return model;
+		if (store != null) {
+			return store.getModelMatrix(storeId, modelMatrix);
+		}
+		updateTransform();
+		return modelMatrix;
+	}
+
+	/**
+	 * Radius of the world bounding sphere around {@link #getPosition()}.
+	 */
+	public float getBoundingRadius() {
+		if (store != null) {
+			return store.getBoundingRadius(storeId);
+		}
+		updateTransform();
+		return boundingRadius;
+	}
+
+	/**
+	 * Increases every time the world transform changes, so caches built from it can tell they are stale.
+	 */
+	public int getTransformVersion() {
+		return store != null ? store.getVersion(storeId) : transformVersion;
+	}
+
+	/**
+	 * Call after changing {@link #getPosition()} or {@link #getRotation()} in place.
+	 */
+	public void markTransformDirty() {
+		if (store != null) {
+			// The vectors are views, write them back
+			store.setPosition(storeId, position.x, position.y, position.z);
+			store.setRotation(storeId, rotation.x, rotation.y, rotation.z);
+			return;
+		}
+		transformDirty = true;
+		transformVersion++;
+	}
+
+	private void updateTransform() {
+		if (!transformDirty) {
+			return;
+		}
+		modelMatrix.translation(position)
+				.rotateXYZ(rotation.x, rotation.y, rotation.z)
+				.scale(scale);
+		boundingRadius = mesh.getFurthestPoint() * scale;
+		transformDirty = false;
+	}
+
+	/** The store this entity lives in, or null. */
+	public SceneStore getStore() {
+		return store;
+	}
+
+	/** Dense id inside {@link #getStore()}, -1 when not in a store. */
+	public int getStoreId() {
+		return storeId;
+	}
+
+	void attach(SceneStore store, int id) {
+		this.store = store;
+		this.storeId = id;
+	}
+
+	void detach(float px, float py, float pz, float rx, float ry, float rz, float scale, int version) {
+		store = null;
+		storeId = -1;
+		position.set(px, py, pz);
+		rotation.set(rx, ry, rz);
+		this.scale = scale;
+		transformVersion = version;
+		transformDirty = true;
 	}
 
 	public int getId() {
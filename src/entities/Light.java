@@ -107,8 +107,14 @@ public class Light {
     }
 
     public static float calculateLightContribution(Light light, Entity entity) {
+        return calculateLightContribution(light, entity.getPosition().distance(light.getPosition()));
+    }
+
+    /**
+     * Attenuation of a light at the given distance, 0 beyond its effective distance.
+     */
+    public static float calculateLightContribution(Light light, float distance) {
         float effectiveDistance = light.getEffectiveDistance();
-        float distance = entity.getPosition().distance(light.getPosition());
 
         if (distance > effectiveDistance) {
             return 0.0f;
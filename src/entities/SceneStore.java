@@ -0,0 +1,439 @@
+package entities;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import toolbox.DynamicBvh;
+import toolbox.Frustum;
+
+/**
+ * Structure-of-arrays storage for entity transforms and bounds.
+ *
+ * Every entity added to the store gets a dense id that stays the same until it is removed. Ids
+ * of removed entities are reused. All per-entity data lives in flat float arrays indexed by that
+ * id, so culling and matrix updates are plain loops over contiguous memory instead of pointer
+ * chasing through {@link Entity} and its vectors.
+ *
+ * Once added, an {@link Entity} is only a handle: its transform getters and setters read and
+ * write the store. Bounding spheres are kept up to date by the setters (a copy and a multiply).
+ * World matrices are rebuilt lazily, either for the visible entities in {@link #cull} or in bulk
+ * with {@link #updateTransforms()}.
+ *
+ * Every bounding sphere also lives in a {@link DynamicBvh}, refitted by the same setters, so
+ * frustum, ray and sphere queries only visit the part of the scene they touch. Call
+ * {@link #rebuildSpatialIndex()} after loading a level to get a well balanced tree for it.
+ *
+ * Not thread safe. Use it from one thread at a time (the {@link renderer.FramePipeline} worker
+ * or the main thread after a sync).
+ */
+public class SceneStore {
+
+    // Stores with more ids than this update their matrices on the fork-join pool
+    private static final int PARALLEL_THRESHOLD = 16384;
+    private static final int PARALLEL_CHUNK = 4096;
+
+    private Entity[] entities;
+    private float[] positions;   // x, y, z
+    private float[] rotations;   // x, y, z in radians, applied as rotateXYZ
+    private float[] scales;
+    private float[] meshRadii;   // furthest mesh vertex from the origin, unscaled
+    private float[] bounds;      // world sphere: x, y, z, radius
+    private float[] matrices;    // column major world matrices
+    private int[] versions;
+    private boolean[] dirty;     // world matrix is stale
+    private int dirtyCount;
+    private int[] proxies;       // leaf in the spatial index
+
+    private final DynamicBvh spatialIndex = new DynamicBvh();
+    private long[] hitBits = new long[0]; // query results by id, to hand them out in id order
+
+    private int[] freeIds;
+    private int freeCount;
+
+    private int idLimit;         // every id handed out so far is below this
+    private int size;
+
+    public SceneStore() {
+        this(1024);
+    }
+
+    public SceneStore(int initialCapacity) {
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    private void allocate(int capacity) {
+        entities = entities == null ? new Entity[capacity] : Arrays.copyOf(entities, capacity);
+        positions = grow(positions, capacity * 3);
+        rotations = grow(rotations, capacity * 3);
+        scales = grow(scales, capacity);
+        meshRadii = grow(meshRadii, capacity);
+        bounds = grow(bounds, capacity * 4);
+        matrices = grow(matrices, capacity * 16);
+        versions = versions == null ? new int[capacity] : Arrays.copyOf(versions, capacity);
+        dirty = dirty == null ? new boolean[capacity] : Arrays.copyOf(dirty, capacity);
+        freeIds = freeIds == null ? new int[capacity] : Arrays.copyOf(freeIds, capacity);
+        proxies = proxies == null ? new int[capacity] : Arrays.copyOf(proxies, capacity);
+    }
+
+    private static float[] grow(float[] array, int length) {
+        return array == null ? new float[length] : Arrays.copyOf(array, length);
+    }
+
+    /**
+     * Moves the entity's transform into the store and turns the entity into a handle.
+     *
+     * @return the id of the entity
+     */
+    public int add(Entity entity) {
+        if (entity.getStore() != null) {
+            throw new IllegalStateException("Entity already belongs to a scene store");
+        }
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (idLimit == entities.length) {
+                allocate(entities.length * 2);
+            }
+            id = idLimit++;
+        }
+
+        Vector3f position = entity.getPosition();
+        Vector3f rotation = entity.getRotation();
+        entities[id] = entity;
+        positions[id * 3] = position.x;
+        positions[id * 3 + 1] = position.y;
+        positions[id * 3 + 2] = position.z;
+        rotations[id * 3] = rotation.x;
+        rotations[id * 3 + 1] = rotation.y;
+        rotations[id * 3 + 2] = rotation.z;
+        scales[id] = entity.getScale();
+        meshRadii[id] = entity.getMesh().getFurthestPoint();
+        versions[id] = entity.getTransformVersion();
+        proxies[id] = DynamicBvh.NULL_NODE;
+        updateBounds(id);
+        markDirty(id);
+        int b = id * 4;
+        float r = bounds[b + 3];
+        proxies[id] = spatialIndex.createProxy(bounds[b] - r, bounds[b + 1] - r, bounds[b + 2] - r,
+                bounds[b] + r, bounds[b + 1] + r, bounds[b + 2] + r, id);
+
+        entity.attach(this, id);
+        size++;
+        return id;
+    }
+
+    /**
+     * Copies the transform back into the entity and frees its id.
+     */
+    public void remove(Entity entity) {
+        if (entity.getStore() != this) {
+            throw new IllegalArgumentException("Entity does not belong to this scene store");
+        }
+        int id = entity.getStoreId();
+        entity.detach(positions[id * 3], positions[id * 3 + 1], positions[id * 3 + 2],
+                rotations[id * 3], rotations[id * 3 + 1], rotations[id * 3 + 2], scales[id], versions[id]);
+        entities[id] = null;
+        spatialIndex.destroyProxy(proxies[id]);
+        proxies[id] = DynamicBvh.NULL_NODE;
+        // A free slot can never pass a frustum test
+        bounds[id * 4 + 3] = Float.NEGATIVE_INFINITY;
+        if (dirty[id]) {
+            dirty[id] = false;
+            dirtyCount--;
+        }
+        freeIds[freeCount++] = id;
+        size--;
+    }
+
+    // Transform access by id
+
+    public Vector3f getPosition(int id, Vector3f dest) {
+        return dest.set(positions[id * 3], positions[id * 3 + 1], positions[id * 3 + 2]);
+    }
+
+    public void setPosition(int id, float x, float y, float z) {
+        int i = id * 3;
+        if (positions[i] != x || positions[i + 1] != y || positions[i + 2] != z) {
+            positions[i] = x;
+            positions[i + 1] = y;
+            positions[i + 2] = z;
+            updateBounds(id);
+            markDirty(id);
+        }
+    }
+
+    public Vector3f getRotation(int id, Vector3f dest) {
+        return dest.set(rotations[id * 3], rotations[id * 3 + 1], rotations[id * 3 + 2]);
+    }
+
+    public void setRotation(int id, float x, float y, float z) {
+        int i = id * 3;
+        if (rotations[i] != x || rotations[i + 1] != y || rotations[i + 2] != z) {
+            rotations[i] = x;
+            rotations[i + 1] = y;
+            rotations[i + 2] = z;
+            markDirty(id);
+        }
+    }
+
+    public float getScale(int id) {
+        return scales[id];
+    }
+
+    public void setScale(int id, float scale) {
+        if (scales[id] != scale) {
+            scales[id] = scale;
+            updateBounds(id);
+            markDirty(id);
+        }
+    }
+
+    public void setMeshRadius(int id, float radius) {
+        meshRadii[id] = radius;
+        updateBounds(id);
+        markDirty(id);
+    }
+
+    public int getVersion(int id) {
+        return versions[id];
+    }
+
+    /** Copies the world matrix of an entity into dest, rebuilding it first if needed. */
+    public Matrix4f getModelMatrix(int id, Matrix4f dest) {
+        if (dirty[id]) {
+            updateTransform(id);
+        }
+        return dest.set(matrices, id * 16);
+    }
+
+    public float getBoundingRadius(int id) {
+        return bounds[id * 4 + 3];
+    }
+
+    private void markDirty(int id) {
+        versions[id]++;
+        if (!dirty[id]) {
+            dirty[id] = true;
+            dirtyCount++;
+        }
+    }
+
+    private void updateBounds(int id) {
+        int p = id * 3;
+        int b = id * 4;
+        bounds[b] = positions[p];
+        bounds[b + 1] = positions[p + 1];
+        bounds[b + 2] = positions[p + 2];
+        bounds[b + 3] = meshRadii[id] * scales[id];
+
+        if (proxies[id] != DynamicBvh.NULL_NODE) {
+            float r = bounds[b + 3];
+            spatialIndex.moveProxy(proxies[id], bounds[b] - r, bounds[b + 1] - r, bounds[b + 2] - r,
+                    bounds[b] + r, bounds[b + 1] + r, bounds[b + 2] + r);
+        }
+    }
+
+    // Bulk operations
+
+    /**
+     * Rebuilds the world matrix of every entity whose transform changed. Costs nothing when the
+     * scene did not move. Large stores are split over the fork-join pool.
+     */
+    public void updateTransforms() {
+        if (dirtyCount == 0) {
+            return;
+        }
+        if (idLimit >= PARALLEL_THRESHOLD) {
+            int chunks = (idLimit + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int end = Math.min(idLimit, (chunk + 1) * PARALLEL_CHUNK);
+                for (int id = chunk * PARALLEL_CHUNK; id < end; id++) {
+                    if (dirty[id]) {
+                        buildMatrix(id);
+                    }
+                }
+            });
+        } else {
+            for (int id = 0; id < idLimit; id++) {
+                if (dirty[id]) {
+                    buildMatrix(id);
+                }
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    private void updateTransform(int id) {
+        buildMatrix(id);
+        dirty[id] = false;
+        dirtyCount--;
+    }
+
+    /**
+     * World matrix = translation * rotateXYZ * scale, written straight into the arrays.
+     * Same result as the JOML chain translation(p).rotateXYZ(r).scale(s). Only touches the
+     * slot of id, so chunks of ids can be built on several threads.
+     */
+    private void buildMatrix(int id) {
+        int p = id * 3;
+        float sx = (float) Math.sin(rotations[p]), cx = (float) Math.cos(rotations[p]);
+        float sy = (float) Math.sin(rotations[p + 1]), cy = (float) Math.cos(rotations[p + 1]);
+        float sz = (float) Math.sin(rotations[p + 2]), cz = (float) Math.cos(rotations[p + 2]);
+        float s = scales[id];
+
+        int m = id * 16;
+        matrices[m] = cy * cz * s;
+        matrices[m + 1] = (sx * sy * cz + cx * sz) * s;
+        matrices[m + 2] = (sx * sz - cx * sy * cz) * s;
+        matrices[m + 3] = 0;
+        matrices[m + 4] = -cy * sz * s;
+        matrices[m + 5] = (cx * cz - sx * sy * sz) * s;
+        matrices[m + 6] = (cx * sy * sz + sx * cz) * s;
+        matrices[m + 7] = 0;
+        matrices[m + 8] = sy * s;
+        matrices[m + 9] = -sx * cy * s;
+        matrices[m + 10] = cx * cy * s;
+        matrices[m + 11] = 0;
+        matrices[m + 12] = positions[p];
+        matrices[m + 13] = positions[p + 1];
+        matrices[m + 14] = positions[p + 2];
+        matrices[m + 15] = 1;
+        dirty[id] = false;
+    }
+
+    /**
+     * Writes the ids of all entities whose bounding sphere touches the frustum into out, in
+     * ascending order, and makes sure their world matrices are current. Matrices of culled
+     * entities stay stale.
+     *
+     * @param out must hold at least {@link #getIdLimit()} ids
+     * @return number of ids written
+     */
+    public int cull(Frustum frustum, int[] out) {
+        // 1) Walk the tree
+        int found = spatialIndex.queryFrustum(frustum, out);
+        // 2) Test the tight spheres of the leaves it returned, in id order
+        int words = toHitBits(out, found);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            long bits = hitBits[w];
+            while (bits != 0) {
+                int id = (w << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int b = id * 4;
+                if (frustum.contains(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3])) {
+                    if (dirty[id]) {
+                        updateTransform(id);
+                    }
+                    out[count++] = id;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the bit of every id in ids. Tree order jumps all over the arrays, id order walks them
+     * front to back, which is much kinder to the cache once the results are used.
+     *
+     * @return number of words of {@link #hitBits} in use
+     */
+    private int toHitBits(int[] ids, int count) {
+        int words = (idLimit + 63) >>> 6;
+        if (hitBits.length < words) {
+            hitBits = new long[Math.max(words, hitBits.length * 2)];
+        } else {
+            Arrays.fill(hitBits, 0, words, 0L);
+        }
+        for (int i = 0; i < count; i++) {
+            hitBits[ids[i] >>> 6] |= 1L << ids[i];
+        }
+        return words;
+    }
+
+    /**
+     * Writes the ids of all entities whose bounding sphere is hit by the ray within maxDistance.
+     * The direction must be normalized. Hits are not sorted by distance.
+     *
+     * @param out must hold at least {@link #getIdLimit()} ids
+     * @return number of ids written
+     */
+    public int queryRay(Vector3f origin, Vector3f direction, float maxDistance, int[] out) {
+        int found = spatialIndex.queryRay(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, maxDistance, out);
+        int count = 0;
+        for (int i = 0; i < found; i++) {
+            int id = out[i];
+            int b = id * 4;
+            float ox = bounds[b] - origin.x, oy = bounds[b + 1] - origin.y, oz = bounds[b + 2] - origin.z;
+            float r = bounds[b + 3];
+            // Closest point of the ray to the center, clamped to the segment
+            float t = Math.max(0, Math.min(maxDistance, ox * direction.x + oy * direction.y + oz * direction.z));
+            float dx = ox - direction.x * t, dy = oy - direction.y * t, dz = oz - direction.z * t;
+            if (dx * dx + dy * dy + dz * dz < r * r) {
+                out[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the ids of all entities whose bounding sphere overlaps the given sphere.
+     *
+     * @param out must hold at least {@link #getIdLimit()} ids
+     * @return number of ids written
+     */
+    public int querySphere(float x, float y, float z, float radius, int[] out) {
+        int found = spatialIndex.querySphere(x, y, z, radius, out);
+        int count = 0;
+        for (int i = 0; i < found; i++) {
+            int id = out[i];
+            int b = id * 4;
+            float dx = bounds[b] - x, dy = bounds[b + 1] - y, dz = bounds[b + 2] - z;
+            float reach = bounds[b + 3] + radius;
+            if (dx * dx + dy * dy + dz * dz <= reach * reach) {
+                out[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rebuilds the spatial index from scratch with a surface area heuristic. Incremental updates
+     * keep the tree valid but not optimal, so call this after loading a level or adding many
+     * entities at once.
+     */
+    public void rebuildSpatialIndex() {
+        spatialIndex.rebuild();
+    }
+
+    public DynamicBvh getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public Entity getEntity(int id) {
+        return entities[id];
+    }
+
+    /** World matrices, 16 floats per id. Valid for the ids returned by {@link #cull} or after {@link #updateTransforms()}. */
+    public float[] getMatrices() {
+        return matrices;
+    }
+
+    /** World bounding spheres, 4 floats per id. Always current. */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /** Upper bound (exclusive) of the ids in use, free ids included. */
+    public int getIdLimit() {
+        return idLimit;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,86 @@
+package graphics;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures the GPU time of a range of commands with GL_TIME_ELAPSED queries.
+ *
+ * Results arrive a few frames late, so the timer cycles through a small ring of queries and
+ * only reads the ones the driver reports as available. Reading never blocks the CPU.
+ * {@link #getMillis} is smoothed over the last frames.
+ */
+public class GpuTimer {
+
+    private static final int RING = 4;
+    private static final float SMOOTHING = 0.1f;
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private final int[] queries = new int[RING];
+    private final boolean[] pending = new boolean[RING];
+    private int next;
+    private boolean running;
+
+    private float millis;
+    private float lastMillis;
+    private boolean hasResult;
+
+    public GpuTimer() {
+        for (int i = 0; i < RING; i++) {
+            queries[i] = gl.genQueries();
+        }
+    }
+
+    /** Starts timing. Only one GL_TIME_ELAPSED query may run at a time. */
+    public void begin() {
+        collect();
+        if (pending[next]) {
+            return; // Driver is too far behind, skip this frame
+        }
+        gl.beginQuery(GL_TIME_ELAPSED, queries[next]);
+        running = true;
+    }
+
+    public void end() {
+        if (!running) {
+            return;
+        }
+        gl.endQuery(GL_TIME_ELAPSED);
+        pending[next] = true;
+        next = (next + 1) % RING;
+        running = false;
+    }
+
+    /**
+     * Reads every finished query without waiting for the others, oldest first, so the smoothing
+     * sees the samples in order and lastMillis ends on the newest.
+     */
+    private void collect() {
+        for (int k = 0; k < RING; k++) {
+            int i = (next + k) % RING; // next is the oldest slot once the ring has wrapped
+            if (pending[i] && gl.getQueryObjecti(queries[i], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+                float ms = gl.getQueryObjectui64(queries[i], GL_QUERY_RESULT) / 1_000_000f;
+                millis = hasResult ? millis + (ms - millis) * SMOOTHING : ms;
+                lastMillis = ms;
+                hasResult = true;
+                pending[i] = false;
+            }
+        }
+    }
+
+    /** Smoothed GPU time of the timed range in milliseconds, 0 until the first result. */
+    public float getMillis() {
+        return millis;
+    }
+
+    /** Unsmoothed GPU time of the newest finished query, a few frames old. */
+    public float getLastMillis() {
+        return lastMillis;
+    }
+
+    public void cleanup() {
+        for (int query : queries) {
+            gl.deleteQueries(query);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package graphics;
+
+/**
+ * Holds the {@link GraphicsDevice} the engine renders with.
+ *
+ * Defaults to {@link LwjglGraphicsDevice}. Set a different device before creating any
+ * renderer or loading any asset, renderers keep the device they were created with.
+ */
+public final class Graphics {
+
+    private static GraphicsDevice device;
+
+    private Graphics() {
+    }
+
+    public static GraphicsDevice device() {
+        if (device == null) {
+            device = new LwjglGraphicsDevice();
+        }
+        return device;
+    }
+
+    public static void setDevice(GraphicsDevice newDevice) {
+        device = newDevice;
+    }
+
+    public static boolean isHeadless() {
+        return device().isHeadless();
+    }
+}
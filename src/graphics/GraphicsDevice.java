@@ -0,0 +1,186 @@
+package graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Thin layer over the OpenGL calls the engine makes.
+ *
+ * Renderers, loaders and {@link shaders.ShaderProgram} call through this interface instead of
+ * the static LWJGL bindings. Constants are still the regular GL enums (GL_TEXTURE_2D, ...).
+ *
+ * Two implementations exist:
+ *   - {@link LwjglGraphicsDevice}: forwards every call to LWJGL (the normal windowed engine)
+ *   - {@link HeadlessGraphicsDevice}: no GPU needed, records commands and counts draws, binds,
+ *     uploaded bytes and state changes so the CPU side of a frame can be measured on build machines
+ *
+ * The active device is held by {@link Graphics}.
+ */
+public interface GraphicsDevice {
+
+    // -------------------------------------------------------------------
+    // Object lifetime
+    // -------------------------------------------------------------------
+    int genVertexArrays();
+    int genBuffers();
+    int genTextures();
+    int genFramebuffers();
+    int genRenderbuffers();
+    int genQueries();
+
+    void deleteVertexArrays(int vao);
+    void deleteBuffers(int buffer);
+    void deleteTextures(int texture);
+    void deleteFramebuffers(int framebuffer);
+    void deleteRenderbuffers(int renderbuffer);
+    void deleteQueries(int query);
+
+    // -------------------------------------------------------------------
+    // Binding
+    // -------------------------------------------------------------------
+    void bindVertexArray(int vao);
+    void bindBuffer(int target, int buffer);
+    void bindBufferBase(int target, int index, int buffer);
+    void activeTexture(int unit);
+    void bindTexture(int target, int texture);
+    void bindFramebuffer(int target, int framebuffer);
+    void bindRenderbuffer(int target, int renderbuffer);
+    void useProgram(int program);
+
+    // -------------------------------------------------------------------
+    // Buffer data
+    // -------------------------------------------------------------------
+    void bufferData(int target, long size, int usage);
+    void bufferData(int target, FloatBuffer data, int usage);
+    void bufferData(int target, IntBuffer data, int usage);
+    void bufferData(int target, float[] data, int usage);
+    void bufferData(int target, int[] data, int usage);
+    void bufferSubData(int target, long offset, FloatBuffer data);
+    void bufferSubData(int target, long offset, float[] data);
+
+    // -------------------------------------------------------------------
+    // Vertex input
+    // -------------------------------------------------------------------
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+    void vertexAttribIPointer(int index, int size, int type, int stride, long pointer);
+    void vertexAttribDivisor(int index, int divisor);
+    void enableVertexAttribArray(int index);
+    void disableVertexAttribArray(int index);
+
+    // -------------------------------------------------------------------
+    // Drawing
+    // -------------------------------------------------------------------
+    void drawArrays(int mode, int first, int count);
+    void drawElements(int mode, int count, int type, long indices);
+    void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride);
+    void patchParameteri(int pname, int value);
+
+    // -------------------------------------------------------------------
+    // Fixed function state
+    // -------------------------------------------------------------------
+    void enable(int cap);
+    void disable(int cap);
+    void blendFunc(int sfactor, int dfactor);
+    void cullFace(int mode);
+    void frontFace(int dir);
+    void depthFunc(int func);
+    void depthMask(boolean flag);
+    void colorMask(boolean red, boolean green, boolean blue, boolean alpha);
+    void polygonMode(int face, int mode);
+    void viewport(int x, int y, int width, int height);
+    void scissor(int x, int y, int width, int height);
+    void clearColor(float r, float g, float b, float a);
+    void clear(int mask);
+    void drawBuffer(int buf);
+    void readBuffer(int src);
+    void drawBuffers(int[] bufs);
+
+    // -------------------------------------------------------------------
+    // Textures and framebuffers
+    // -------------------------------------------------------------------
+    void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                    int format, int type, ByteBuffer pixels);
+    void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                    int format, int type, FloatBuffer pixels);
+    void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                    int format, int type, ByteBuffer pixels);
+    void texParameteri(int target, int pname, int param);
+    void texParameterf(int target, int pname, float param);
+    void texParameterfv(int target, int pname, float[] params);
+    void generateMipmap(int target);
+    void texBuffer(int target, int internalFormat, int buffer);
+    void getTexImage(int target, int level, int format, int type, FloatBuffer pixels);
+
+    void framebufferTexture2D(int target, int attachment, int texTarget, int texture, int level);
+    void framebufferTextureLayer(int target, int attachment, int texture, int level, int layer);
+    void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer);
+    void renderbufferStorage(int target, int internalFormat, int width, int height);
+    int checkFramebufferStatus(int target);
+    void blitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1,
+                         int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter);
+
+    // -------------------------------------------------------------------
+    // Shaders and programs
+    // -------------------------------------------------------------------
+    int createProgram();
+    int createShader(int type);
+    void shaderSource(int shader, CharSequence source);
+    void compileShader(int shader);
+    int getShaderi(int shader, int pname);
+    String getShaderInfoLog(int shader);
+    void attachShader(int program, int shader);
+    void detachShader(int program, int shader);
+    void deleteShader(int shader);
+    void linkProgram(int program);
+    int getProgrami(int program, int pname);
+    String getProgramInfoLog(int program);
+    void deleteProgram(int program);
+    int getUniformLocation(int program, CharSequence name);
+    void programParameteri(int program, int pname, int value);
+    /** Binary of a linked program, its format in format[0]. Empty if the driver has none. */
+    byte[] getProgramBinary(int program, int[] format);
+    /** Loads a binary from {@link #getProgramBinary}. Check GL_LINK_STATUS, drivers may reject it. */
+    void programBinary(int program, int format, byte[] binary);
+    /** GL_KHR_parallel_shader_compile: how many threads the driver may compile on. */
+    void maxShaderCompilerThreads(int count);
+
+    // -------------------------------------------------------------------
+    // Uniforms
+    // -------------------------------------------------------------------
+    void uniform1i(int location, int value);
+    void uniform1iv(int location, int[] value);
+    void uniform1f(int location, float value);
+    void uniform2f(int location, float x, float y);
+    void uniform3f(int location, float x, float y, float z);
+    void uniform4f(int location, float x, float y, float z, float w);
+    void uniformMatrix3fv(int location, boolean transpose, float[] value);
+    void uniformMatrix4fv(int location, boolean transpose, float[] value);
+    void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value);
+
+    // -------------------------------------------------------------------
+    // Queries
+    // -------------------------------------------------------------------
+    void beginQuery(int target, int query);
+    void endQuery(int target);
+    int getQueryObjecti(int query, int pname);
+    long getQueryObjectui64(int query, int pname);
+
+    int getError();
+    float getFloat(int pname);
+    String getString(int name);
+
+    // -------------------------------------------------------------------
+    // Capabilities
+    // -------------------------------------------------------------------
+    /** True if glMultiDrawElementsIndirect and SSBOs (GL 4.3) are available. */
+    boolean supportsMultiDrawIndirect();
+    /** True if EXT_texture_filter_anisotropic is available. */
+    boolean supportsAnisotropicFiltering();
+    /** True if program binaries (GL 4.1) are available and the driver offers at least one format. */
+    boolean supportsProgramBinary();
+    /** True if GL_KHR_parallel_shader_compile or its ARB twin is available. */
+    boolean supportsParallelShaderCompile();
+    /** True if there is no real GPU behind this device. */
+    boolean isHeadless();
+}
@@ -0,0 +1,463 @@
+package graphics;
+
+import static org.lwjgl.opengl.GL43C.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link GraphicsDevice} without a GPU behind it.
+ *
+ * Every call is counted (and optionally logged) instead of executed. Object names are handed
+ * out from a counter, shaders always compile and framebuffers are always complete, so the whole
+ * renderer can run on a machine without a display or GL driver. Only GL enums are referenced
+ * from LWJGL, which are compile time constants, so no natives get loaded.
+ *
+ * The counters answer "how much work did the CPU hand to the driver": draw calls, binds,
+ * uploaded bytes, state changes and uniform uploads. Call {@link #resetCounters()} at the start
+ * of a frame to get per-frame numbers.
+ */
+public class HeadlessGraphicsDevice implements GraphicsDevice {
+
+    /** Every call the device can receive. */
+    public enum Command {
+        GEN, DELETE,
+        BIND_VERTEX_ARRAY, BIND_BUFFER, BIND_BUFFER_BASE, ACTIVE_TEXTURE, BIND_TEXTURE,
+        BIND_FRAMEBUFFER, BIND_RENDERBUFFER, USE_PROGRAM,
+        BUFFER_DATA, BUFFER_SUB_DATA,
+        VERTEX_ATTRIB, DRAW_ARRAYS, DRAW_ELEMENTS, MULTI_DRAW_INDIRECT, PATCH_PARAMETER,
+        STATE, VIEWPORT, CLEAR,
+        TEX_IMAGE, TEX_PARAMETER, GENERATE_MIPMAP, GET_TEX_IMAGE,
+        FRAMEBUFFER_ATTACH, RENDERBUFFER_STORAGE, BLIT_FRAMEBUFFER,
+        SHADER, PROGRAM, UNIFORM_LOCATION, UNIFORM,
+        QUERY
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    private final boolean multiDrawIndirect;
+
+    private int nextName = 1;
+
+    // Counters since the last reset.
+    private final long[] commandCounts = new long[COMMANDS.length];
+    private long drawCalls;
+    private long drawnCommands;
+    private long bytesUploaded;
+
+    // Optional command log (ordinals of Command).
+    private boolean recording;
+    private int[] log = new int[1024];
+    private int logSize;
+
+    // Uniform locations per program, so repeated lookups return the same value.
+    // Indexed by program name, which are small and sequential. A map keyed by Integer would box
+    // every lookup once the names pass 127, and the frame would no longer allocate nothing.
+    private final List<Map<String, Integer>> uniformLocations = new ArrayList<>();
+
+    public HeadlessGraphicsDevice() {
+        this(true);
+    }
+
+    /**
+     * @param multiDrawIndirect what {@link #supportsMultiDrawIndirect()} reports, so both
+     *                          submission paths can be measured
+     */
+    public HeadlessGraphicsDevice(boolean multiDrawIndirect) {
+        this.multiDrawIndirect = multiDrawIndirect;
+    }
+
+    // -------------------------------------------------------------------
+    // Counters and log
+    // -------------------------------------------------------------------
+    private void record(Command command) {
+        commandCounts[command.ordinal()]++;
+        if (recording) {
+            if (logSize == log.length) {
+                log = Arrays.copyOf(log, log.length * 2);
+            }
+            log[logSize++] = command.ordinal();
+        }
+    }
+
+    /** Starts or stops appending every call to the command log. */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public int getLogSize() {
+        return logSize;
+    }
+
+    public Command getLoggedCommand(int index) {
+        return COMMANDS[log[index]];
+    }
+
+    public void clearLog() {
+        logSize = 0;
+    }
+
+    /** Clears all counters and the log. */
+    public void resetCounters() {
+        Arrays.fill(commandCounts, 0);
+        drawCalls = 0;
+        drawnCommands = 0;
+        bytesUploaded = 0;
+        logSize = 0;
+    }
+
+    public long getCount(Command command) {
+        return commandCounts[command.ordinal()];
+    }
+
+    /** glDrawArrays, glDrawElements and glMultiDrawElementsIndirect calls. */
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    /** Draws issued, counting every command of a multi-draw. */
+    public long getDrawnCommands() {
+        return drawnCommands;
+    }
+
+    /** VAO, buffer, texture, framebuffer, renderbuffer and program binds. */
+    public long getBinds() {
+        return getCount(Command.BIND_VERTEX_ARRAY) + getCount(Command.BIND_BUFFER)
+                + getCount(Command.BIND_BUFFER_BASE) + getCount(Command.BIND_TEXTURE)
+                + getCount(Command.BIND_FRAMEBUFFER) + getCount(Command.BIND_RENDERBUFFER)
+                + getCount(Command.USE_PROGRAM);
+    }
+
+    /** Bytes passed to buffer and texture uploads. */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /** Enable/disable, blend, cull, depth, polygon mode, viewport and draw buffer changes. */
+    public long getStateChanges() {
+        return getCount(Command.STATE) + getCount(Command.VIEWPORT) + getCount(Command.ACTIVE_TEXTURE)
+                + getCount(Command.PATCH_PARAMETER);
+    }
+
+    public long getUniformUploads() {
+        return getCount(Command.UNIFORM);
+    }
+
+    public long getTotalCommands() {
+        long total = 0;
+        for (long c : commandCounts) {
+            total += c;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "draws=" + drawCalls + " (" + drawnCommands + " commands)"
+                + " binds=" + getBinds()
+                + " state=" + getStateChanges()
+                + " uniforms=" + getUniformUploads()
+                + " uploaded=" + bytesUploaded + "B"
+                + " total=" + getTotalCommands();
+    }
+
+    private int newName() {
+        record(Command.GEN);
+        return nextName++;
+    }
+
+    // -------------------------------------------------------------------
+    // Object lifetime
+    // -------------------------------------------------------------------
+    @Override public int genVertexArrays() { return newName(); }
+    @Override public int genBuffers() { return newName(); }
+    @Override public int genTextures() { return newName(); }
+    @Override public int genFramebuffers() { return newName(); }
+    @Override public int genRenderbuffers() { return newName(); }
+    @Override public int genQueries() { return newName(); }
+
+    @Override public void deleteVertexArrays(int vao) { record(Command.DELETE); }
+    @Override public void deleteBuffers(int buffer) { record(Command.DELETE); }
+    @Override public void deleteTextures(int texture) { record(Command.DELETE); }
+    @Override public void deleteFramebuffers(int framebuffer) { record(Command.DELETE); }
+    @Override public void deleteRenderbuffers(int renderbuffer) { record(Command.DELETE); }
+    @Override public void deleteQueries(int query) { record(Command.DELETE); }
+
+    // -------------------------------------------------------------------
+    // Binding
+    // -------------------------------------------------------------------
+    @Override public void bindVertexArray(int vao) { record(Command.BIND_VERTEX_ARRAY); }
+    @Override public void bindBuffer(int target, int buffer) { record(Command.BIND_BUFFER); }
+    @Override public void bindBufferBase(int target, int index, int buffer) { record(Command.BIND_BUFFER_BASE); }
+    @Override public void activeTexture(int unit) { record(Command.ACTIVE_TEXTURE); }
+    @Override public void bindTexture(int target, int texture) { record(Command.BIND_TEXTURE); }
+    @Override public void bindFramebuffer(int target, int framebuffer) { record(Command.BIND_FRAMEBUFFER); }
+    @Override public void bindRenderbuffer(int target, int renderbuffer) { record(Command.BIND_RENDERBUFFER); }
+    @Override public void useProgram(int program) { record(Command.USE_PROGRAM); }
+
+    // -------------------------------------------------------------------
+    // Buffer data
+    // -------------------------------------------------------------------
+    private void upload(Command command, long bytes) {
+        record(command);
+        bytesUploaded += bytes;
+    }
+
+    @Override public void bufferData(int target, long size, int usage) { record(Command.BUFFER_DATA); }
+    @Override public void bufferData(int target, FloatBuffer data, int usage) { upload(Command.BUFFER_DATA, (long) data.remaining() * Float.BYTES); }
+    @Override public void bufferData(int target, IntBuffer data, int usage) { upload(Command.BUFFER_DATA, (long) data.remaining() * Integer.BYTES); }
+    @Override public void bufferData(int target, float[] data, int usage) { upload(Command.BUFFER_DATA, (long) data.length * Float.BYTES); }
+    @Override public void bufferData(int target, int[] data, int usage) { upload(Command.BUFFER_DATA, (long) data.length * Integer.BYTES); }
+    @Override public void bufferSubData(int target, long offset, FloatBuffer data) { upload(Command.BUFFER_SUB_DATA, (long) data.remaining() * Float.BYTES); }
+    @Override public void bufferSubData(int target, long offset, float[] data) { upload(Command.BUFFER_SUB_DATA, (long) data.length * Float.BYTES); }
+
+    // -------------------------------------------------------------------
+    // Vertex input
+    // -------------------------------------------------------------------
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        record(Command.VERTEX_ATTRIB);
+    }
+
+    @Override
+    public void vertexAttribIPointer(int index, int size, int type, int stride, long pointer) {
+        record(Command.VERTEX_ATTRIB);
+    }
+
+    @Override public void vertexAttribDivisor(int index, int divisor) { record(Command.VERTEX_ATTRIB); }
+    @Override public void enableVertexAttribArray(int index) { record(Command.VERTEX_ATTRIB); }
+    @Override public void disableVertexAttribArray(int index) { record(Command.VERTEX_ATTRIB); }
+
+    // -------------------------------------------------------------------
+    // Drawing
+    // -------------------------------------------------------------------
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        record(Command.DRAW_ARRAYS);
+        drawCalls++;
+        drawnCommands++;
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, long indices) {
+        record(Command.DRAW_ELEMENTS);
+        drawCalls++;
+        drawnCommands++;
+    }
+
+    @Override
+    public void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride) {
+        record(Command.MULTI_DRAW_INDIRECT);
+        drawCalls++;
+        drawnCommands += drawCount;
+    }
+
+    @Override public void patchParameteri(int pname, int value) { record(Command.PATCH_PARAMETER); }
+
+    // -------------------------------------------------------------------
+    // Fixed function state
+    // -------------------------------------------------------------------
+    @Override public void enable(int cap) { record(Command.STATE); }
+    @Override public void disable(int cap) { record(Command.STATE); }
+    @Override public void blendFunc(int sfactor, int dfactor) { record(Command.STATE); }
+    @Override public void cullFace(int mode) { record(Command.STATE); }
+    @Override public void frontFace(int dir) { record(Command.STATE); }
+    @Override public void depthFunc(int func) { record(Command.STATE); }
+    @Override public void depthMask(boolean flag) { record(Command.STATE); }
+    @Override public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) { record(Command.STATE); }
+    @Override public void polygonMode(int face, int mode) { record(Command.STATE); }
+    @Override public void viewport(int x, int y, int width, int height) { record(Command.VIEWPORT); }
+    @Override public void scissor(int x, int y, int width, int height) { record(Command.STATE); }
+    @Override public void clearColor(float r, float g, float b, float a) { record(Command.STATE); }
+    @Override public void clear(int mask) { record(Command.CLEAR); }
+    @Override public void drawBuffer(int buf) { record(Command.STATE); }
+    @Override public void readBuffer(int src) { record(Command.STATE); }
+    @Override public void drawBuffers(int[] bufs) { record(Command.STATE); }
+
+    // -------------------------------------------------------------------
+    // Textures and framebuffers
+    // -------------------------------------------------------------------
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                           int format, int type, ByteBuffer pixels) {
+        upload(Command.TEX_IMAGE, pixels != null ? pixels.remaining() : 0);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                           int format, int type, FloatBuffer pixels) {
+        upload(Command.TEX_IMAGE, pixels != null ? (long) pixels.remaining() * Float.BYTES : 0);
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                           int format, int type, ByteBuffer pixels) {
+        upload(Command.TEX_IMAGE, pixels != null ? pixels.remaining() : 0);
+    }
+
+    @Override public void texParameteri(int target, int pname, int param) { record(Command.TEX_PARAMETER); }
+    @Override public void texParameterf(int target, int pname, float param) { record(Command.TEX_PARAMETER); }
+    @Override public void texParameterfv(int target, int pname, float[] params) { record(Command.TEX_PARAMETER); }
+    @Override public void generateMipmap(int target) { record(Command.GENERATE_MIPMAP); }
+    @Override public void texBuffer(int target, int internalFormat, int buffer) { record(Command.TEX_IMAGE); }
+
+    @Override
+    public void getTexImage(int target, int level, int format, int type, FloatBuffer pixels) {
+        // Nothing was rendered, read back black.
+        record(Command.GET_TEX_IMAGE);
+        for (int i = pixels.position(); i < pixels.limit(); i++) {
+            pixels.put(i, 0f);
+        }
+    }
+
+    @Override
+    public void framebufferTexture2D(int target, int attachment, int texTarget, int texture, int level) {
+        record(Command.FRAMEBUFFER_ATTACH);
+    }
+
+    @Override
+    public void framebufferTextureLayer(int target, int attachment, int texture, int level, int layer) {
+        record(Command.FRAMEBUFFER_ATTACH);
+    }
+
+    @Override
+    public void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+        record(Command.FRAMEBUFFER_ATTACH);
+    }
+
+    @Override
+    public void renderbufferStorage(int target, int internalFormat, int width, int height) {
+        record(Command.RENDERBUFFER_STORAGE);
+    }
+
+    @Override
+    public int checkFramebufferStatus(int target) {
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void blitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1,
+                                int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter) {
+        record(Command.BLIT_FRAMEBUFFER);
+    }
+
+    // -------------------------------------------------------------------
+    // Shaders and programs
+    // -------------------------------------------------------------------
+    @Override public int createProgram() { record(Command.PROGRAM); return nextName++; }
+    @Override public int createShader(int type) { record(Command.SHADER); return nextName++; }
+    @Override public void shaderSource(int shader, CharSequence source) { record(Command.SHADER); }
+    @Override public void compileShader(int shader) { record(Command.SHADER); }
+    @Override public String getShaderInfoLog(int shader) { return ""; }
+    @Override public void attachShader(int program, int shader) { record(Command.PROGRAM); }
+    @Override public void detachShader(int program, int shader) { record(Command.PROGRAM); }
+    @Override public void deleteShader(int shader) { record(Command.SHADER); }
+    @Override public void linkProgram(int program) { record(Command.PROGRAM); }
+    @Override public String getProgramInfoLog(int program) { return ""; }
+    @Override public void deleteProgram(int program) { record(Command.PROGRAM); }
+    @Override public void programParameteri(int program, int pname, int value) { record(Command.PROGRAM); }
+    @Override public byte[] getProgramBinary(int program, int[] format) { return new byte[0]; }
+    @Override public void programBinary(int program, int format, byte[] binary) { record(Command.PROGRAM); }
+    @Override public void maxShaderCompilerThreads(int count) { }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        return pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        return (pname == GL_LINK_STATUS || pname == GL_VALIDATE_STATUS) ? GL_TRUE : 0;
+    }
+
+    @Override
+    public int getUniformLocation(int program, CharSequence name) {
+        record(Command.UNIFORM_LOCATION);
+        while (uniformLocations.size() <= program) {
+            uniformLocations.add(null);
+        }
+        Map<String, Integer> locations = uniformLocations.get(program);
+        if (locations == null) {
+            locations = new HashMap<>();
+            uniformLocations.set(program, locations);
+        }
+        String key = name.toString();
+        Integer location = locations.get(key);
+        if (location == null) {
+            location = locations.size();
+            locations.put(key, location);
+        }
+        return location;
+    }
+
+    // -------------------------------------------------------------------
+    // Uniforms
+    // -------------------------------------------------------------------
+    @Override public void uniform1i(int location, int value) { record(Command.UNIFORM); }
+    @Override public void uniform1iv(int location, int[] value) { record(Command.UNIFORM); }
+    @Override public void uniform1f(int location, float value) { record(Command.UNIFORM); }
+    @Override public void uniform2f(int location, float x, float y) { record(Command.UNIFORM); }
+    @Override public void uniform3f(int location, float x, float y, float z) { record(Command.UNIFORM); }
+    @Override public void uniform4f(int location, float x, float y, float z, float w) { record(Command.UNIFORM); }
+    @Override public void uniformMatrix3fv(int location, boolean transpose, float[] value) { record(Command.UNIFORM); }
+    @Override public void uniformMatrix4fv(int location, boolean transpose, float[] value) { record(Command.UNIFORM); }
+    @Override public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value) { record(Command.UNIFORM); }
+
+    // -------------------------------------------------------------------
+    // Queries
+    // -------------------------------------------------------------------
+    @Override public void beginQuery(int target, int query) { record(Command.QUERY); }
+    @Override public void endQuery(int target) { record(Command.QUERY); }
+
+    @Override
+    public int getQueryObjecti(int query, int pname) {
+        return pname == GL_QUERY_RESULT_AVAILABLE ? GL_TRUE : 0;
+    }
+
+    @Override
+    public long getQueryObjectui64(int query, int pname) {
+        return 0L;
+    }
+
+    @Override public int getError() { return GL_NO_ERROR; }
+    @Override public float getFloat(int pname) { return 1.0f; }
+
+    @Override
+    public String getString(int name) {
+        return "Headless";
+    }
+
+    // -------------------------------------------------------------------
+    // Capabilities
+    // -------------------------------------------------------------------
+    @Override
+    public boolean supportsMultiDrawIndirect() {
+        return multiDrawIndirect;
+    }
+
+    @Override
+    public boolean supportsAnisotropicFiltering() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsProgramBinary() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsParallelShaderCompile() {
+        return false;
+    }
+
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+}
@@ -0,0 +1,281 @@
+package graphics;
+
+import static org.lwjgl.opengl.GL43C.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBParallelShaderCompile;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.opengl.KHRParallelShaderCompile;
+
+/**
+ * {@link GraphicsDevice} that forwards straight to the LWJGL bindings.
+ * Needs a current GL context on the calling thread.
+ */
+public class LwjglGraphicsDevice implements GraphicsDevice {
+
+    private GLCapabilities capabilities;
+
+    private GLCapabilities caps() {
+        if (capabilities == null) {
+            capabilities = GL.getCapabilities();
+        }
+        return capabilities;
+    }
+
+    // -------------------------------------------------------------------
+    // Object lifetime
+    // -------------------------------------------------------------------
+    @Override public int genVertexArrays() { return glGenVertexArrays(); }
+    @Override public int genBuffers() { return glGenBuffers(); }
+    @Override public int genTextures() { return glGenTextures(); }
+    @Override public int genFramebuffers() { return glGenFramebuffers(); }
+    @Override public int genRenderbuffers() { return glGenRenderbuffers(); }
+    @Override public int genQueries() { return glGenQueries(); }
+
+    @Override public void deleteVertexArrays(int vao) { glDeleteVertexArrays(vao); }
+    @Override public void deleteBuffers(int buffer) { glDeleteBuffers(buffer); }
+    @Override public void deleteTextures(int texture) { glDeleteTextures(texture); }
+    @Override public void deleteFramebuffers(int framebuffer) { glDeleteFramebuffers(framebuffer); }
+    @Override public void deleteRenderbuffers(int renderbuffer) { glDeleteRenderbuffers(renderbuffer); }
+    @Override public void deleteQueries(int query) { glDeleteQueries(query); }
+
+    // -------------------------------------------------------------------
+    // Binding
+    // -------------------------------------------------------------------
+    @Override public void bindVertexArray(int vao) { glBindVertexArray(vao); }
+    @Override public void bindBuffer(int target, int buffer) { glBindBuffer(target, buffer); }
+    @Override public void bindBufferBase(int target, int index, int buffer) { glBindBufferBase(target, index, buffer); }
+    @Override public void activeTexture(int unit) { glActiveTexture(unit); }
+    @Override public void bindTexture(int target, int texture) { glBindTexture(target, texture); }
+    @Override public void bindFramebuffer(int target, int framebuffer) { glBindFramebuffer(target, framebuffer); }
+    @Override public void bindRenderbuffer(int target, int renderbuffer) { glBindRenderbuffer(target, renderbuffer); }
+    @Override public void useProgram(int program) { glUseProgram(program); }
+
+    // -------------------------------------------------------------------
+    // Buffer data
+    // -------------------------------------------------------------------
+    @Override public void bufferData(int target, long size, int usage) { glBufferData(target, size, usage); }
+    @Override public void bufferData(int target, FloatBuffer data, int usage) { glBufferData(target, data, usage); }
+    @Override public void bufferData(int target, IntBuffer data, int usage) { glBufferData(target, data, usage); }
+    @Override public void bufferData(int target, float[] data, int usage) { glBufferData(target, data, usage); }
+    @Override public void bufferData(int target, int[] data, int usage) { glBufferData(target, data, usage); }
+    @Override public void bufferSubData(int target, long offset, FloatBuffer data) { glBufferSubData(target, offset, data); }
+    @Override public void bufferSubData(int target, long offset, float[] data) { glBufferSubData(target, offset, data); }
+
+    // -------------------------------------------------------------------
+    // Vertex input
+    // -------------------------------------------------------------------
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribIPointer(int index, int size, int type, int stride, long pointer) {
+        glVertexAttribIPointer(index, size, type, stride, pointer);
+    }
+
+    @Override public void vertexAttribDivisor(int index, int divisor) { glVertexAttribDivisor(index, divisor); }
+    @Override public void enableVertexAttribArray(int index) { glEnableVertexAttribArray(index); }
+    @Override public void disableVertexAttribArray(int index) { glDisableVertexAttribArray(index); }
+
+    // -------------------------------------------------------------------
+    // Drawing
+    // -------------------------------------------------------------------
+    @Override public void drawArrays(int mode, int first, int count) { glDrawArrays(mode, first, count); }
+    @Override public void drawElements(int mode, int count, int type, long indices) { glDrawElements(mode, count, type, indices); }
+
+    @Override
+    public void multiDrawElementsIndirect(int mode, int type, long indirect, int drawCount, int stride) {
+        glMultiDrawElementsIndirect(mode, type, indirect, drawCount, stride);
+    }
+
+    @Override public void patchParameteri(int pname, int value) { glPatchParameteri(pname, value); }
+
+    // -------------------------------------------------------------------
+    // Fixed function state
+    // -------------------------------------------------------------------
+    @Override public void enable(int cap) { glEnable(cap); }
+    @Override public void disable(int cap) { glDisable(cap); }
+    @Override public void blendFunc(int sfactor, int dfactor) { glBlendFunc(sfactor, dfactor); }
+    @Override public void cullFace(int mode) { glCullFace(mode); }
+    @Override public void frontFace(int dir) { glFrontFace(dir); }
+    @Override public void depthFunc(int func) { glDepthFunc(func); }
+    @Override public void depthMask(boolean flag) { glDepthMask(flag); }
+    @Override public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) { glColorMask(red, green, blue, alpha); }
+    @Override public void polygonMode(int face, int mode) { glPolygonMode(face, mode); }
+    @Override public void viewport(int x, int y, int width, int height) { glViewport(x, y, width, height); }
+    @Override public void scissor(int x, int y, int width, int height) { glScissor(x, y, width, height); }
+    @Override public void clearColor(float r, float g, float b, float a) { glClearColor(r, g, b, a); }
+    @Override public void clear(int mask) { glClear(mask); }
+    @Override public void drawBuffer(int buf) { glDrawBuffer(buf); }
+    @Override public void readBuffer(int src) { glReadBuffer(src); }
+    @Override public void drawBuffers(int[] bufs) { glDrawBuffers(bufs); }
+
+    // -------------------------------------------------------------------
+    // Textures and framebuffers
+    // -------------------------------------------------------------------
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                           int format, int type, ByteBuffer pixels) {
+        glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                           int format, int type, FloatBuffer pixels) {
+        glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void texImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                           int format, int type, ByteBuffer pixels) {
+        glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+    }
+
+    @Override public void texParameteri(int target, int pname, int param) { glTexParameteri(target, pname, param); }
+    @Override public void texParameterf(int target, int pname, float param) { glTexParameterf(target, pname, param); }
+    @Override public void texParameterfv(int target, int pname, float[] params) { glTexParameterfv(target, pname, params); }
+    @Override public void generateMipmap(int target) { glGenerateMipmap(target); }
+    @Override public void texBuffer(int target, int internalFormat, int buffer) { glTexBuffer(target, internalFormat, buffer); }
+
+    @Override
+    public void getTexImage(int target, int level, int format, int type, FloatBuffer pixels) {
+        glGetTexImage(target, level, format, type, pixels);
+    }
+
+    @Override
+    public void framebufferTexture2D(int target, int attachment, int texTarget, int texture, int level) {
+        glFramebufferTexture2D(target, attachment, texTarget, texture, level);
+    }
+
+    @Override
+    public void framebufferTextureLayer(int target, int attachment, int texture, int level, int layer) {
+        glFramebufferTextureLayer(target, attachment, texture, level, layer);
+    }
+
+    @Override
+    public void framebufferRenderbuffer(int target, int attachment, int renderbufferTarget, int renderbuffer) {
+        glFramebufferRenderbuffer(target, attachment, renderbufferTarget, renderbuffer);
+    }
+
+    @Override
+    public void renderbufferStorage(int target, int internalFormat, int width, int height) {
+        glRenderbufferStorage(target, internalFormat, width, height);
+    }
+
+    @Override public int checkFramebufferStatus(int target) { return glCheckFramebufferStatus(target); }
+
+    @Override
+    public void blitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1,
+                                int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter) {
+        glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+    }
+
+    // -------------------------------------------------------------------
+    // Shaders and programs
+    // -------------------------------------------------------------------
+    @Override public int createProgram() { return glCreateProgram(); }
+    @Override public int createShader(int type) { return glCreateShader(type); }
+    @Override public void shaderSource(int shader, CharSequence source) { glShaderSource(shader, source); }
+    @Override public void compileShader(int shader) { glCompileShader(shader); }
+    @Override public int getShaderi(int shader, int pname) { return glGetShaderi(shader, pname); }
+    @Override public String getShaderInfoLog(int shader) { return glGetShaderInfoLog(shader); }
+    @Override public void attachShader(int program, int shader) { glAttachShader(program, shader); }
+    @Override public void detachShader(int program, int shader) { glDetachShader(program, shader); }
+    @Override public void deleteShader(int shader) { glDeleteShader(shader); }
+    @Override public void linkProgram(int program) { glLinkProgram(program); }
+    @Override public int getProgrami(int program, int pname) { return glGetProgrami(program, pname); }
+    @Override public String getProgramInfoLog(int program) { return glGetProgramInfoLog(program); }
+    @Override public void deleteProgram(int program) { glDeleteProgram(program); }
+    @Override public int getUniformLocation(int program, CharSequence name) { return glGetUniformLocation(program, name); }
+    @Override public void programParameteri(int program, int pname, int value) { glProgramParameteri(program, pname, value); }
+
+    @Override
+    public byte[] getProgramBinary(int program, int[] format) {
+        int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return new byte[0];
+        }
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        int[] written = new int[1];
+        glGetProgramBinary(program, written, format, binary);
+        byte[] bytes = new byte[written[0]];
+        binary.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void programBinary(int program, int format, byte[] binary) {
+        ByteBuffer buffer = BufferUtils.createByteBuffer(binary.length);
+        buffer.put(binary).flip();
+        glProgramBinary(program, format, buffer);
+    }
+
+    @Override
+    public void maxShaderCompilerThreads(int count) {
+        if (caps().GL_KHR_parallel_shader_compile) {
+            KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR(count);
+        } else {
+            ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB(count);
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Uniforms
+    // -------------------------------------------------------------------
+    @Override public void uniform1i(int location, int value) { glUniform1i(location, value); }
+    @Override public void uniform1iv(int location, int[] value) { glUniform1iv(location, value); }
+    @Override public void uniform1f(int location, float value) { glUniform1f(location, value); }
+    @Override public void uniform2f(int location, float x, float y) { glUniform2f(location, x, y); }
+    @Override public void uniform3f(int location, float x, float y, float z) { glUniform3f(location, x, y, z); }
+    @Override public void uniform4f(int location, float x, float y, float z, float w) { glUniform4f(location, x, y, z, w); }
+    @Override public void uniformMatrix3fv(int location, boolean transpose, float[] value) { glUniformMatrix3fv(location, transpose, value); }
+    @Override public void uniformMatrix4fv(int location, boolean transpose, float[] value) { glUniformMatrix4fv(location, transpose, value); }
+    @Override public void uniformMatrix4fv(int location, boolean transpose, FloatBuffer value) { glUniformMatrix4fv(location, transpose, value); }
+
+    // -------------------------------------------------------------------
+    // Queries
+    // -------------------------------------------------------------------
+    @Override public void beginQuery(int target, int query) { glBeginQuery(target, query); }
+    @Override public void endQuery(int target) { glEndQuery(target); }
+    @Override public int getQueryObjecti(int query, int pname) { return glGetQueryObjecti(query, pname); }
+    @Override public long getQueryObjectui64(int query, int pname) { return glGetQueryObjectui64(query, pname); }
+
+    @Override public int getError() { return glGetError(); }
+    @Override public float getFloat(int pname) { return glGetFloat(pname); }
+    @Override public String getString(int name) { return glGetString(name); }
+
+    // -------------------------------------------------------------------
+    // Capabilities
+    // -------------------------------------------------------------------
+    @Override
+    public boolean supportsMultiDrawIndirect() {
+        return caps().OpenGL43;
+    }
+
+    @Override
+    public boolean supportsAnisotropicFiltering() {
+        return caps().GL_EXT_texture_filter_anisotropic;
+    }
+
+    @Override
+    public boolean supportsProgramBinary() {
+        return caps().OpenGL41 && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+    }
+
+    @Override
+    public boolean supportsParallelShaderCompile() {
+        return caps().GL_KHR_parallel_shader_compile || caps().GL_ARB_parallel_shader_compile;
+    }
+
+    @Override
+    public boolean isHeadless() {
+        return false;
+    }
+}
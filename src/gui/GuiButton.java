@@ -1,5 +1,6 @@
 package gui;
 
+import graphics.Graphics;
 import org.lwjgl.glfw.GLFW;
 import static org.lwjgl.glfw.GLFW.*;
 
@@ -35,8 +36,9 @@ public class GuiButton extends GuiTexture {
         // Darken when hovered
         brightness = isHovered ? 0.35f : 1.0f;
 
-        // Get the current mouse button state
-        boolean currentPressed = glfwGetMouseButton(glfwGetCurrentContext(), GLFW_MOUSE_BUTTON_LEFT) == GLFW_PRESS;
+        // Get the current mouse button state (there is no window to ask when running headless)
+        boolean currentPressed = !Graphics.isHeadless()
+                && glfwGetMouseButton(glfwGetCurrentContext(), GLFW_MOUSE_BUTTON_LEFT) == GLFW_PRESS;
         
         // Run the click action only when the button is hovered,
         // currently pressed, but was not pressed in the previous check.
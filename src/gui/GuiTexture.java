@@ -1,5 +1,8 @@
 package gui;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import loaders.TextureLoader;
 import settings.EngineSettings;
 
@@ -7,6 +10,9 @@ import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL40.*;
 
 public class GuiTexture {
+
+	private final GraphicsDevice gl = Graphics.device();
+
 	private int textureId = -1; // Default no texture
 	private Vector4f color; // Color if no texture
     private int width;
@@ -68,17 +74,17 @@ public class GuiTexture {
     }
 
     public void bind(int textureUnit) {
-        glActiveTexture(GL_TEXTURE0 + textureUnit);
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        gl.activeTexture(GL_TEXTURE0 + textureUnit);
+        gl.bindTexture(GL_TEXTURE_2D, textureId);
     }
 
     public void unbind(int textureUnit) {
-        glActiveTexture(GL_TEXTURE0 + textureUnit);
-        glBindTexture(GL_TEXTURE_2D, 0);
+        gl.activeTexture(GL_TEXTURE0 + textureUnit);
+        gl.bindTexture(GL_TEXTURE_2D, 0);
     }
 
     public void destroy() {
-        glDeleteTextures(textureId);
+        gl.deleteTextures(textureId);
     }
     
     public Vector4f getColor() {
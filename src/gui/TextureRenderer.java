@@ -1,7 +1,9 @@
 package gui;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL40;
 import shaders.ShaderProgram;
@@ -15,6 +17,9 @@ import java.util.List;
 import static org.lwjgl.opengl.GL40.*;
 
 public class TextureRenderer {
+
+    private final GraphicsDevice gl = Graphics.device();
+
     private ShaderProgram shaderProgram;
     private int vaoId;
     private int vboId;
@@ -48,31 +53,31 @@ public class TextureRenderer {
     }
 
     private void setupMesh() {
-        vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
+        vaoId = gl.genVertexArrays();
+        gl.bindVertexArray(vaoId);
 
         // Vertex Buffer Object
-        vboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
+        vboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vboId);
         FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(VERTICES.length);
         vertexBuffer.put(VERTICES).flip();
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
 
         // Position attribute
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 5 * Float.BYTES, 0);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 5 * Float.BYTES, 0);
+        gl.enableVertexAttribArray(0);
 
         // Texture coordinate attribute
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 5 * Float.BYTES, 3 * Float.BYTES);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, 5 * Float.BYTES, 3 * Float.BYTES);
+        gl.enableVertexAttribArray(1);
 
         // Element Buffer Object
-        int eboId = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboId);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, INDICES, GL_STATIC_DRAW);
+        int eboId = gl.genBuffers();
+        gl.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboId);
+        gl.bufferData(GL_ELEMENT_ARRAY_BUFFER, INDICES, GL_STATIC_DRAW);
 
         // Unbind VAO
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
     }
 
     public void addTexture(GuiTexture texture) {
@@ -88,26 +93,16 @@ public class TextureRenderer {
         textures.remove(texture);
     }
 
-    FloatBuffer projBuffer;
-    FloatBuffer viewBuffer;
     GuiTexture texture;
-    Matrix4f model;
-    FloatBuffer modelBuffer;
+    private final Matrix4f model = new Matrix4f(); // Reused for every texture, every frame
     public void render(Matrix4f projection, Matrix4f view, double mouseX, double mouseY) {
         shaderProgram.bind();
 
         // Set projection and view matrices
-        try (org.lwjgl.system.MemoryStack stack = org.lwjgl.system.MemoryStack.stackPush()) {
-            projBuffer = stack.mallocFloat(16);
-            projection.get(projBuffer);
-            shaderProgram.setUniformMat4("projection", false, projBuffer);
-
-            viewBuffer = stack.mallocFloat(16);
-            view.get(viewBuffer);
-            shaderProgram.setUniformMat4("view", false, viewBuffer);
-        }
+        shaderProgram.setUniformMat4("projection", false, projection);
+        shaderProgram.setUniformMat4("view", false, view);
 
-        glBindVertexArray(vaoId);
+        gl.bindVertexArray(vaoId);
         EngineSettings.overTexture = false;
         for (int i = 0; i < textures.size(); i++) {
             texture = textures.get(i);
@@ -138,30 +133,27 @@ public class TextureRenderer {
             }
 
             // Calculate model matrix for position and scale
-            model = new Matrix4f()
-            	    .translate(new Vector3f(texture.getPosX(), texture.getPosY(), 0.0f)) // Move to position
+            model.translation(texture.getPosX(), texture.getPosY(), 0.0f) // Move to position
             	    .rotateZ((float) Math.toRadians(texture.getRotation())) // Rotate around Z-axis
-            	    .scale(new Vector3f(texture.getScaleX(), texture.getScaleY(), 1.0f)); // Scale
+            	    .scale(texture.getScaleX(), texture.getScaleY(), 1.0f); // Scale
 
-            modelBuffer = BufferUtils.createFloatBuffer(16);
-            model.get(modelBuffer);
-            shaderProgram.setUniformMat4("model", false, modelBuffer);
+            shaderProgram.setUniformMat4("model", false, model);
 
             // Draw the quad
-            glDrawElements(GL_TRIANGLES, INDICES.length, GL_UNSIGNED_INT, 0);
+            gl.drawElements(GL_TRIANGLES, INDICES.length, GL_UNSIGNED_INT, 0);
             // Unbind texture
             texture.unbind(0);
             
             
         }
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
         shaderProgram.unbind();
     }
 
     public void cleanUp() {
-        glDeleteBuffers(vboId);
-        glDeleteVertexArrays(vaoId);
+        gl.deleteBuffers(vboId);
+        gl.deleteVertexArrays(vaoId);
         for (GuiTexture texture : textures) {
             texture.destroy();
         }
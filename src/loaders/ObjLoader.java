@@ -1,5 +1,8 @@
 package loaders;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import settings.EngineSettings;
@@ -208,32 +211,33 @@ public class ObjLoader {
 
         // STEP 7: Create VAO, VBO and upload data to the GPU.
         long uploadStartTime = System.nanoTime();
-        int vao = glGenVertexArrays();
-        glBindVertexArray(vao);
+        GraphicsDevice gl = Graphics.device();
+        int vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
 
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
 
         FloatBuffer fb = ByteBuffer.allocateDirect(finalData.length * Float.BYTES)
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
         fb.put(finalData).flip();
-        glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
 
         int stride = 11 * Float.BYTES;
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
+        gl.enableVertexAttribArray(0);
 
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
+        gl.enableVertexAttribArray(1);
 
-        glVertexAttribPointer(2, 3, GL_FLOAT, false, stride, 5L * Float.BYTES);
-        glEnableVertexAttribArray(2);
+        gl.vertexAttribPointer(2, 3, GL_FLOAT, false, stride, 5L * Float.BYTES);
+        gl.enableVertexAttribArray(2);
 
-        glVertexAttribPointer(3, 3, GL_FLOAT, false, stride, 8L * Float.BYTES);
-        glEnableVertexAttribArray(3);
+        gl.vertexAttribPointer(3, 3, GL_FLOAT, false, stride, 8L * Float.BYTES);
+        gl.enableVertexAttribArray(3);
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
         long uploadEndTime = System.nanoTime();
 
         // Create the mesh including the mesh data.
@@ -1,5 +1,8 @@
 package loaders;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.lwjgl.stb.STBImage;
 import org.lwjgl.system.MemoryStack;
 import settings.EngineSettings;
@@ -12,16 +15,29 @@ import static org.lwjgl.opengl.GL40.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import org.lwjgl.opengl.EXTTextureFilterAnisotropic;
-import org.lwjgl.opengl.GL;
 
 public class TextureLoader {
 
     private static final String TEXTURE_DIR = "res/";
     private static final boolean DEBUG = true;
 
-    // Set vertical flip once for all texture loads.
-    static {
-        STBImage.stbi_set_flip_vertically_on_load(false);
+    // Set vertical flip once for all texture loads (lazily, so headless runs never touch STB).
+    private static boolean stbConfigured = false;
+
+    private static void configureStb() {
+        if (!stbConfigured) {
+            STBImage.stbi_set_flip_vertically_on_load(false);
+            stbConfigured = true;
+        }
+    }
+
+    /**
+     * Without a GPU there is nothing to upload to, so skip decoding and hand out a name.
+     */
+    private static int loadHeadlessTexture(String filename) {
+        int textureId = Graphics.device().genTextures();
+        EngineSettings.textureCache.put(filename, textureId);
+        return textureId;
     }
 
     /**
@@ -33,6 +49,11 @@ public class TextureLoader {
         if (EngineSettings.textureCache.containsKey(filename)) {
             return EngineSettings.textureCache.get(filename);
         }
+        if (Graphics.isHeadless()) {
+            return loadHeadlessTexture(filename);
+        }
+        GraphicsDevice gl = Graphics.device();
+        configureStb();
 
         String filePath = TEXTURE_DIR + filename;
         int width, height;
@@ -58,24 +79,24 @@ public class TextureLoader {
 
         // 2) Create an OpenGL texture and upload the image data
         long gpuUploadStart = System.nanoTime();
-        int textureId = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        int textureId = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D, textureId);
 
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
+        gl.texImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
                      GL_RGBA, GL_UNSIGNED_BYTE, imageData);
-        glGenerateMipmap(GL_TEXTURE_2D);
+        gl.generateMipmap(GL_TEXTURE_2D);
 
         // Set filtering and wrapping
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
 
         // Anisotropic filtering (if supported)
-        if (GL.getCapabilities().GL_EXT_texture_filter_anisotropic) {
-            float maxAnisotropy = glGetFloat(EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
+        if (gl.supportsAnisotropicFiltering()) {
+            float maxAnisotropy = gl.getFloat(EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
             float desiredAnisotropy = Math.min(16.0f, maxAnisotropy);
-            glTexParameterf(GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, desiredAnisotropy);
+            gl.texParameterf(GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, desiredAnisotropy);
         }
         long gpuUploadEnd = System.nanoTime();
 
@@ -105,6 +126,11 @@ public class TextureLoader {
         if (EngineSettings.textureCache.containsKey(filename)) {
             return EngineSettings.textureCache.get(filename);
         }
+        if (Graphics.isHeadless()) {
+            return loadHeadlessTexture(filename);
+        }
+        GraphicsDevice gl = Graphics.device();
+        configureStb();
 
         String filePath = TEXTURE_DIR + filename;
         int width, height;
@@ -129,16 +155,16 @@ public class TextureLoader {
 
         // 2) Create texture and upload image data with explicit parameters
         long gpuUploadStart = System.nanoTime();
-        int textureId = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureId);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
+        int textureId = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D, textureId);
+        gl.texImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
                      GL_RGBA, GL_UNSIGNED_BYTE, imageData);
 
         // Set explicit filtering and wrapping options
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
         long gpuUploadEnd = System.nanoTime();
 
         STBImage.stbi_image_free(imageData);
@@ -166,6 +192,11 @@ public class TextureLoader {
         if (EngineSettings.textureCache.containsKey(filename)) {
             return EngineSettings.textureCache.get(filename);
         }
+        if (Graphics.isHeadless()) {
+            return loadHeadlessTexture(filename);
+        }
+        GraphicsDevice gl = Graphics.device();
+        configureStb();
 
         String filePath = TEXTURE_DIR + filename;
         int width, height;
@@ -190,23 +221,23 @@ public class TextureLoader {
 
         // 2) Create texture and upload HDR image data
         long gpuUploadStart = System.nanoTime();
-        int textureId = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        int textureId = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D, textureId);
 
         // Use a floating-point internal format (GL_RGBA16F is common for HDR)
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0,
+        gl.texImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0,
                      GL_RGBA, GL_FLOAT, imageData);
-        glGenerateMipmap(GL_TEXTURE_2D);
+        gl.generateMipmap(GL_TEXTURE_2D);
 
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
 
-        if (GL.getCapabilities().GL_EXT_texture_filter_anisotropic) {
-            float maxAnisotropy = glGetFloat(EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
+        if (gl.supportsAnisotropicFiltering()) {
+            float maxAnisotropy = gl.getFloat(EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
             float desiredAnisotropy = Math.min(16.0f, maxAnisotropy);
-            glTexParameterf(GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, desiredAnisotropy);
+            gl.texParameterf(GL_TEXTURE_2D, EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT, desiredAnisotropy);
         }
         long gpuUploadEnd = System.nanoTime();
 
@@ -0,0 +1,234 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Vector3f;
+
+import entities.Entity;
+
+import graphics.Graphics;
+import graphics.HeadlessGraphicsDevice;
+import loaders.ObjLoader;
+import loaders.TextureLoader;
+import profiler.Profiler;
+import renderer.ResolutionController;
+import settings.EngineSettings;
+import toolbox.Mesh;
+
+/**
+ * Runs the same scene and frame as {@link Main} on a {@link HeadlessGraphicsDevice}.
+ *
+ * No window, no GL context and no GPU are needed, so the CPU side of a frame (culling,
+ * sorting, uniform uploads, command generation, physics) can be measured on any machine.
+ * Textures are not decoded when headless, only their names are handed out.
+ *
+ * Usage: HeadlessRunner [frames] [--mdi] [--pipelined] [--occlusion] [--draw-lights] [--prepass] [--variants] [--no-shadow-cache] [--no-point-shadows] [--no-bloom] [--vignette] [--graph] [--dynamic-res MS] [--fixed-gpu MS] [--trace N] [--alloc] [--alloc-budget B] [--grid N]
+ *   frames       number of measured frames (default 300)
+ *   --mdi        enable the multi-draw indirect path
+ *   --pipelined  simulate and cull the next frame on a worker thread
+ *   --occlusion  cull the main pass against CPU rasterized occluders
+ *   --draw-lights  shade every draw with its own selected lights
+ *   --prepass    lay down opaque depth before the main pass
+ *   --variants   draw every material with its own shader variant
+ *   --no-shadow-cache  draw the static shadow casters again every frame
+ *   --no-point-shadows  no cube face shadows for the point lights
+ *   --no-bloom   leave the bloom passes out of the render graph
+ *   --vignette   add the vignette pass after bloom
+ *   --graph      print the compiled render graph: culled passes, aliased textures, binds
+ *   --dynamic-res MS  let the resolution controller pick the render scale, with MS as the
+ *             simulated GPU time of the scaled passes at full resolution
+ *   --fixed-gpu MS  simulated GPU time of the passes that do not scale (shadows, UI), default 0
+ *   --trace N    write the first N measured frames to traces/headless.json (Chrome trace)
+ *   --alloc      report the bytes allocated per frame by every profiler scope
+ *   --alloc-budget B  like --alloc, and exit with status 1 if the measured frames allocate
+ *             more than B bytes per frame on average
+ *   --grid N  render N generated entities instead of the demo scene. Used automatically
+ *             when the demo scene assets (sponza.obj, bush1.obj) are not checked out.
+ */
+public class HeadlessRunner {
+
+    private static final float FRAME_TIME = 1f / 60f;
+    private static final int WARMUP_FRAMES = 60;
+
+    public static void main(String[] args) {
+        int frames = 300;
+        int gridSize = 0;
+        int traceFrames = 0;
+        long allocationBudget = -1;
+        boolean printGraph = false;
+        float simulatedGpuMillis = -1;
+        float simulatedFixedGpuMillis = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--mdi")) {
+                EngineSettings.MultiDrawIndirect = true;
+            } else if (args[i].equals("--pipelined")) {
+                EngineSettings.PipelinedFrames = true;
+            } else if (args[i].equals("--occlusion")) {
+                EngineSettings.OcclusionCulling = true;
+            } else if (args[i].equals("--draw-lights")) {
+                EngineSettings.PerDrawLights = true;
+            } else if (args[i].equals("--prepass")) {
+                EngineSettings.DepthPrePass = true;
+            } else if (args[i].equals("--variants")) {
+                EngineSettings.ShaderVariants = true;
+            } else if (args[i].equals("--no-shadow-cache")) {
+                EngineSettings.ShadowCache = false;
+            } else if (args[i].equals("--no-point-shadows")) {
+                EngineSettings.PointLightShadows = false;
+            } else if (args[i].equals("--no-bloom")) {
+                EngineSettings.Bloom = false;
+            } else if (args[i].equals("--vignette")) {
+                EngineSettings.Vignette = true;
+            } else if (args[i].equals("--dynamic-res")) {
+                EngineSettings.DynamicResolution = true;
+                simulatedGpuMillis = Float.parseFloat(args[++i]);
+            } else if (args[i].equals("--fixed-gpu")) {
+                simulatedFixedGpuMillis = Float.parseFloat(args[++i]);
+            } else if (args[i].equals("--graph")) {
+                printGraph = true;
+            } else if (args[i].equals("--trace")) {
+                traceFrames = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--alloc")) {
+                Profiler.setTrackAllocations(true);
+            } else if (args[i].equals("--alloc-budget")) {
+                Profiler.setTrackAllocations(true);
+                allocationBudget = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--grid")) {
+                gridSize = Integer.parseInt(args[++i]);
+            } else {
+                frames = Integer.parseInt(args[i]);
+            }
+        }
+        if (gridSize == 0 && !(new File("res/sponza.obj").exists() && new File("res/bush1.obj").exists())) {
+            System.out.println("[Headless] Demo scene assets missing, using a generated grid instead");
+            gridSize = 1000;
+        }
+
+        HeadlessGraphicsDevice device = new HeadlessGraphicsDevice(EngineSettings.MultiDrawIndirect);
+        Graphics.setDevice(device);
+
+        long loadStart = System.nanoTime();
+        Main main = new Main();
+        if (gridSize > 0) {
+            main.initHeadless(createGrid(gridSize));
+        } else {
+            main.initHeadless();
+        }
+        System.out.printf("[Headless] Scene loaded in %.1f ms%n", (System.nanoTime() - loadStart) / 1_000_000.0);
+        main.setSimulatedGpuMillis(simulatedGpuMillis, simulatedFixedGpuMillis);
+        if (printGraph) {
+            System.out.print("[Headless] Render graph: " + main.getRenderGraph().describe());
+        }
+
+        // 1) Let the JIT settle before measuring
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            Profiler.beginFrame();
+            main.renderFrame(FRAME_TIME, 0, 0);
+            Profiler.endFrame();
+        }
+
+        // 2) Measure
+        device.resetCounters();
+        Profiler.capture(traceFrames, "traces/headless.json");
+        List<Profiler.Section> sections = Profiler.getSections();
+        long[] bytesBefore = new long[sections.size()];
+        for (int i = 0; i < bytesBefore.length; i++) {
+            bytesBefore[i] = sections.get(i).getTotalBytes();
+        }
+        long[] frameNanos = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            Profiler.beginFrame();
+            main.renderFrame(FRAME_TIME, 0, 0);
+            Profiler.endFrame();
+            frameNanos[i] = System.nanoTime() - start;
+        }
+
+        // 3) Report
+        long total = 0;
+        for (long t : frameNanos) {
+            total += t;
+        }
+        long[] sorted = frameNanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("[Headless] %d frames, CPU avg=%.3f ms p50=%.3f ms p95=%.3f ms max=%.3f ms%n",
+                frames,
+                total / (double) frames / 1_000_000.0,
+                sorted[frames / 2] / 1_000_000.0,
+                sorted[Math.min(frames - 1, (int) (frames * 0.95))] / 1_000_000.0,
+                sorted[frames - 1] / 1_000_000.0);
+        System.out.printf("[Headless] per frame: draws=%.1f commands=%.1f binds=%.1f state=%.1f uniforms=%.1f uploaded=%.0f B%n",
+                device.getDrawCalls() / (double) frames,
+                device.getDrawnCommands() / (double) frames,
+                device.getBinds() / (double) frames,
+                device.getStateChanges() / (double) frames,
+                device.getUniformUploads() / (double) frames,
+                device.getBytesUploaded() / (double) frames);
+
+        if (EngineSettings.DynamicResolution) {
+            ResolutionController controller = main.getResolutionController();
+            System.out.printf("[Headless] render scale %.2f (%.1f ms of %.1f ms budget), %d changes, %d pooled textures%n",
+                    controller.getScale(),
+                    simulatedFixedGpuMillis + simulatedGpuMillis * controller.getScale() * controller.getScale(),
+                    EngineSettings.DynamicResolutionBudget, controller.getChanges(), main.getRenderTargets().getTextureCount());
+        }
+
+        boolean overBudget = Profiler.isTrackingAllocations()
+                && reportAllocations(sections, bytesBefore, frames, allocationBudget);
+
+        main.cleanup();
+        if (overBudget) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the bytes every scope allocated per measured frame. The top level scopes of all
+     * threads add up to the whole frame.
+     *
+     * @return true if a budget is set and the frame allocated more
+     */
+    private static boolean reportAllocations(List<Profiler.Section> sections, long[] bytesBefore, int frames, long budget) {
+        long frameBytes = 0;
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < sections.size(); i++) {
+            Profiler.Section section = sections.get(i);
+            long perFrame = (section.getTotalBytes() - bytesBefore[i]) / frames;
+            if (section.getDepth() == 0) {
+                frameBytes += perFrame;
+            }
+            report.append(String.format("[Headless]   %s%s [%s]: %d B%n",
+                    "  ".repeat(section.getDepth()), section.getName(), section.getThreadName(), perFrame));
+        }
+        System.out.printf("[Headless] allocated per frame: %d B%n%s", frameBytes, report);
+        if (budget >= 0 && frameBytes > budget) {
+            System.out.printf("[Headless] FAILED: %d B per frame is over the allocation budget of %d B%n", frameBytes, budget);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A square grid of crates, spheres and planes using the assets that ship with the repo.
+     */
+    private static List<Entity> createGrid(int count) {
+        Mesh[] meshes = { ObjLoader.loadObj("crate"), ObjLoader.loadObj("sphere"), ObjLoader.loadObj("plane") };
+        int albedo = TextureLoader.loadTexture("peeling-painted-metal_albedo.png");
+        int normal = TextureLoader.loadTexture("peeling-painted-metal_normal-ogl.png");
+
+        List<Entity> scene = new ArrayList<>(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        float spacing = 10f;
+        for (int i = 0; i < count; i++) {
+            float x = (i % side - side / 2) * spacing;
+            float z = (i / side - side / 2) * spacing;
+            Entity e = new Entity(meshes[i % meshes.length], albedo, new Vector3f(x, 0, z), new Vector3f(0, 0, 0), 1f);
+            e.setNormalMapId(normal);
+            scene.add(e);
+        }
+        return scene;
+    }
+}
@@ -1,5 +1,8 @@
 package main;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.lwjgl.*;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
@@ -9,15 +12,30 @@ import debugRenderer.DebugRenderer;
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import entities.SceneStore;
+import occlusion.OcclusionCuller;
 import gui.TextureRenderer;
 import loaders.ObjLoader;
 import loaders.SceneLoader;
 import loaders.TextureLoader;
 import physics.PhysicsManager;
 import postProcessing.BloomRenderer;
+import postProcessing.FullScreenQuad;
 import postProcessing.PostProcessingRenderer;
+import renderer.FramePacket;
+import renderer.FramePacket.DrawList;
+import renderer.FramePipeline;
 import renderer.MasterRenderer;
+import renderer.RenderGraph;
+import renderer.RenderTargetPool;
+import renderer.ResolutionController;
+import profiler.FrameStats;
+import profiler.Profiler;
+import profiler.ProfilerOverlay;
 import settings.EngineSettings;
+import shaders.ShaderProgram;
+import shadows.PointShadowRenderer;
+import shadows.PointShadowScheduler;
 import shadows.ShadowRenderer;
 import skybox.SkyboxRenderer;
 import terrain.TerrainRenderer;
@@ -28,6 +46,7 @@ import terrain.TerrainGenerator;
 import terrain.AdaptiveTerrainGenerator;
 import toolbox.Equations;
 import toolbox.Mesh;
+import toolbox.MeshPool;
 import toolbox.MousePicker;
 
 import org.joml.Matrix4f;
@@ -45,19 +64,21 @@ import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.opengl.GL40.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 public class Main {
 
+    private final GraphicsDevice gl = Graphics.device();
+
     private long window;
     private final int width = 900;
     private final int height = 600;
     
-    private int frames = 0;
-    private double timeCounter = 0.0;
+    // Frame times of the last second, p99 and GC spikes included, instead of only an average
+    private static final float FRAME_BUDGET_MS = 1000f / 60f;
+    private static final String FRAME_STATS_CSV = "traces/frame-times.csv";
+    private final FrameStats frameStats = new FrameStats(FRAME_BUDGET_MS);
     public static int currentFPS = 0; // optional: store current FPS
 
     public Random random = new Random();
@@ -70,12 +91,27 @@ public class Main {
     private TextureRenderer textureRenderer;
     
     private TextRenderer textRenderer;
+    private ProfilerOverlay profilerOverlay;
+    private final double[] mouseX = new double[1], mouseY = new double[1]; // Cursor, read every frame
+    private final StringBuilder hudText = new StringBuilder(); // Reused, the HUD is redrawn every frame
     //Skybox renderer
     private SkyboxRenderer skyboxRenderer;
     //Main post processing renderer
     private PostProcessingRenderer postRenderer;
     //Bloom
     private BloomRenderer bloomRenderer;
+    private FullScreenQuad fullScreenQuad;
+    // Scene, bloom, post-processing and UI passes, built again when a setting adds or removes one
+    private RenderGraph renderGraph;
+    private final RenderTargetPool renderTargets = new RenderTargetPool();
+    private boolean graphBloom, graphVignette; // Settings the render graph was built with
+    private float renderScale = 1; // Scale the render graph was built with
+    private ResolutionController resolutionController;
+    private float simulatedGpuMillis = -1, simulatedFixedGpuMillis; // Headless only, see setSimulatedGpuMillis
+    // GPU passes drawn at the render scale, the others (shadow maps, UI, post process) cost the same at any scale
+    private static final String[] SCALED_GPU_PASSES = { MasterRenderer.PRE_PASS, MasterRenderer.MAIN_PASS, "Debug", "Skybox", "Bloom" };
+    private FramePacket framePacket; // Packet the render graph passes draw, set every frame
+    private double frameMouseX, frameMouseY;
     //
     private PhysicsManager physicsManager;
     
@@ -88,6 +124,13 @@ public class Main {
     private AdaptiveTerrainGenerator adaptiveGen;
     //
     private ShadowRenderer shadowRenderer;
+    private PointShadowRenderer pointShadowRenderer;
+    // Simulation and culling, optionally one frame ahead on a worker thread
+    private FramePipeline framePipeline;
+    private float frameDeltaTime;
+    private final Matrix4f debugModel = new Matrix4f();
+    private final Vector3f debugScale = new Vector3f();
+    private final Vector3f debugPosition = new Vector3f();
     //
     //private ShadowMapRenderer shadowMapRenderer;
     
@@ -97,6 +140,8 @@ public class Main {
 
     // Some example entities
     private List<Entity> entities = new ArrayList<>();
+    // Transforms and bounds of everything in entities, culled as flat arrays
+    private final SceneStore scene = new SceneStore();
     List<Light> lights = new ArrayList<>();
     
     //Mouse Picker
@@ -143,10 +188,10 @@ public class Main {
        textureRenderer.addTexture(loadingScreen);
 
        // Clear both color and depth buffers
-       glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-       glViewport(0, 0, width, height); // Ensure viewport is correct
-       glEnable(GL_BLEND);
-       glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+       gl.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+       gl.viewport(0, 0, width, height); // Ensure viewport is correct
+       gl.enable(GL_BLEND);
+       gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
        
        // Render loading screen
        textureRenderer.render(new Matrix4f().ortho2D(0.0f, width, 0.0f, height), new Matrix4f().identity(), 0, 0);
@@ -159,7 +204,14 @@ public class Main {
     
     
     private void init() {
-       
+        initRenderers();
+        loadScene();
+        finishScene();
+    }
+
+    private void initRenderers() {
+        // Every renderer compiles its programs here, let the driver work on them together
+        ShaderProgram.beginBatch();
 
         camera = new Camera(new Vector3f(0,0,0), 0f, 0f);
         
@@ -177,21 +229,29 @@ public class Main {
         textRenderer.setTextColor(1.9f,1.9f, 1.9f, 1.0f);
         textRenderer.setOutlineColor(0.0f, 0.0f, 0.0f, 0.0f);
         textRenderer.setEdgeSmoothness(0.5f);
+        profilerOverlay = new ProfilerOverlay(textRenderer);
         textRenderer.setOutlineWidth(0.0f);
         
         
         skyboxRenderer = new SkyboxRenderer(window);
         
-        postRenderer = new PostProcessingRenderer(width, height, 1);
+        fullScreenQuad = new FullScreenQuad();
+        
+        postRenderer = new PostProcessingRenderer(fullScreenQuad);
         
-        bloomRenderer = new BloomRenderer(width, height);
+        bloomRenderer = new BloomRenderer(fullScreenQuad);
         
         
         
      // Initialize the ShadowMapRenderer
-        shadowRenderer = new ShadowRenderer(2048 * 16,2048 * 16);
+        shadowRenderer = new ShadowRenderer(EngineSettings.ShadowMapResolution, EngineSettings.ShadowCascades);
+        pointShadowRenderer = new PointShadowRenderer(EngineSettings.PointShadowAtlasSize, height);
+        masterRenderer.setPointShadows(pointShadowRenderer);
        
         physicsManager = new PhysicsManager();
+        shadowRenderer.setStaticCasters(physicsManager::isStatic);
+        
+        framePipeline = new FramePipeline(this::snapshotFrame, this::produceFrame);
         
         
         
@@ -231,6 +291,90 @@ public class Main {
         
         textureRenderer.addTexture(button3);
         
+        ShaderProgram.endBatch();
+        
+        resolutionController = new ResolutionController(EngineSettings.DynamicResolutionBudget,
+        		EngineSettings.DynamicResolutionMinScale, 1f, 0.1f);
+        buildRenderGraph(1f);
+    }
+    
+    /**
+     * Declares the passes after the shadow maps and creates their targets. The scene is drawn
+     * into a transient HDR texture that only the bloom passes read.
+     *
+     * @param scale scene and bloom size relative to the window, the bloom combine upsamples
+     */
+    private void buildRenderGraph(float scale) {
+        int renderWidth = Math.max(1, Math.round(width * scale));
+        int renderHeight = Math.max(1, Math.round(height * scale));
+        renderGraph = new RenderGraph(width, height);
+        int sceneColor = renderGraph.createTexture("Scene color", renderWidth, renderHeight, GL_RGBA16F);
+        int sceneDepth = renderGraph.createTexture("Scene depth", renderWidth, renderHeight, GL_DEPTH_COMPONENT24);
+        renderGraph.addPass("Scene", targets -> renderScene()).write(sceneColor).write(sceneDepth);
+        
+        int bloomTarget = RenderGraph.BACKBUFFER;
+        if (EngineSettings.Vignette) {
+        	bloomTarget = renderGraph.createTexture("Tone mapped", width, height, GL_RGBA8);
+        }
+        // Sharper the further below the window size the scene is
+        float sharpness = Math.min(1f, (1f - scale) * 2f);
+        bloomRenderer.addPasses(renderGraph, sceneColor, bloomTarget, 0.99f, 1.8f, sharpness);
+        if (EngineSettings.Vignette) {
+        	postRenderer.addPass(renderGraph, bloomTarget, RenderGraph.BACKBUFFER);
+        }
+        
+        renderGraph.addPass("UI", targets -> renderUI()).write(RenderGraph.BACKBUFFER);
+        
+        renderGraph.compile();
+        renderTargets.update(renderGraph);
+        masterRenderer.setRenderSize(renderWidth, renderHeight);
+        graphBloom = EngineSettings.Bloom;
+        graphVignette = EngineSettings.Vignette;
+        renderScale = scale;
+    }
+    
+    /**
+     * The scale to render this frame at. The controller watches the GPU time of the passes
+     * that ran last frame, split into the ones drawn at the render scale and the rest. Timer
+     * results arrive a few frames late.
+     */
+    private float pickRenderScale() {
+        if (!EngineSettings.DynamicResolution) {
+        	resolutionController.reset();
+        	return 1f;
+        }
+        if (simulatedGpuMillis >= 0) {
+        	// Headless has no GPU, the scaled passes cost the pixels they draw
+        	return resolutionController.update(simulatedGpuMillis * renderScale * renderScale, simulatedFixedGpuMillis);
+        }
+        float scaledMillis = Profiler.getGpuFrameMillis(SCALED_GPU_PASSES);
+        return resolutionController.update(scaledMillis, Profiler.getGpuFrameMillis() - scaledMillis);
+    }
+    
+    RenderGraph getRenderGraph() {
+        return renderGraph;
+    }
+    
+    RenderTargetPool getRenderTargets() {
+        return renderTargets;
+    }
+    
+    ResolutionController getResolutionController() {
+        return resolutionController;
+    }
+    
+    /**
+     * Headless only: GPU time of the scaled passes at full resolution, fed to the resolution
+     * controller scaled by the pixel count, and of the passes that do not scale. Replaces the
+     * (missing) timer results.
+     */
+    void setSimulatedGpuMillis(float scaledMillis, float fixedMillis) {
+        simulatedGpuMillis = scaledMillis;
+        simulatedFixedGpuMillis = fixedMillis;
+    }
+
+    private void loadScene() {
+        
         
         
         
@@ -441,6 +585,38 @@ public class Main {
         	entities.add(e);
         }
         
+    }
+
+    private void finishScene() {
+        for (Entity e : entities) {
+        	scene.add(e);
+        }
+        // Everything is loaded, build the best tree we can for it
+        scene.rebuildSpatialIndex();
+        System.out.println("[SceneStore] " + scene.size() + " entities, BVH height " + scene.getSpatialIndex().getHeight());
+        
+        // The biggest static meshes hide what is behind them
+        OcclusionCuller occlusionCuller = new OcclusionCuller(256, 128);
+        occlusionCuller.selectOccluders(scene, physicsManager::isStatic);
+        masterRenderer.setOcclusionCuller(occlusionCuller);
+        
+        // Put every mesh into one shared vertex/index buffer for the multi-draw indirect path
+        if (EngineSettings.MultiDrawIndirect) {
+        	MeshPool meshPool = new MeshPool();
+        	for (Entity e : entities) {
+        		meshPool.add(e.getMesh());
+        	}
+        	meshPool.upload();
+        	System.out.println("[MeshPool] " + meshPool.getMeshCount() + " meshes, " + meshPool.getVertexCount() + " vertices");
+        	masterRenderer.setMeshPool(meshPool);
+        	shadowRenderer.setMeshPool(meshPool);
+        }
+        
+        // Compile the shader variants of the scene's materials now instead of on first sight
+        if (EngineSettings.ShaderVariants) {
+        	masterRenderer.warmUpVariants(entities);
+        }
+        
         
         
         
@@ -484,33 +660,68 @@ public class Main {
    	     
    	  Light fakesun = new Light(new Vector3f(0, 20,0), new Vector3f(12,12,12),new Vector3f(1, 0.62f, 0.232f));
       lights.add(fakesun); 
+      
+      // Point lights cast cube shadows from the point shadow atlas
+      for (int i = PointShadowScheduler.FIRST_POINT_LIGHT; i < lights.size(); i++) {
+    	  lights.get(i).setCastShadow(true);
+      }
     
 	     picker = new MousePicker(width, height, camera, masterRenderer.getProjectionMatrix(), entities, lights);
+	     picker.setScene(scene);
 	        
 
         // Basic GL states
-        glEnable(GL_DEPTH_TEST);
-        glClearColor(0.2f, 0.3f, 0.4f, 1.0f);
-        //GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
-        textureRenderer.removeTexture(loadingScreen);
-        lastTime = glfwGetTime();
+        gl.enable(GL_DEPTH_TEST);
+        gl.clearColor(0.2f, 0.3f, 0.4f, 1.0f);
+        //gl.polygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
+        if (loadingScreen != null) {
+        	textureRenderer.removeTexture(loadingScreen);
+        }
+    }
+
+    /**
+     * Loads the scene without a window or loading screen. The active
+     * {@link graphics.GraphicsDevice} must already be set (see {@link HeadlessRunner}).
+     */
+    public void initHeadless() {
+        textureRenderer = new TextureRenderer();
+        init();
+    }
+
+    /**
+     * Like {@link #initHeadless()}, but renders the given entities instead of loading the
+     * demo scene. Useful when the large scene assets are not available.
+     */
+    public void initHeadless(List<Entity> scene) {
+        textureRenderer = new TextureRenderer();
+        initRenderers();
+        for (Entity e : scene) {
+        	physicsManager.addStaticAccurateCollision(e);
+        	entities.add(e);
+        }
+        finishScene();
     }
     
     
 
     private void loop() {
+        lastTime = glfwGetTime();
         while (!glfwWindowShouldClose(window)) {
+            Profiler.beginFrame();
+            Profiler.begin("Input");
             glfwPollEvents();
             double currentTime = glfwGetTime();
             float deltaTime = (float)(currentTime - lastTime);
             lastTime = currentTime;
-            frames++;
-            timeCounter += deltaTime;
-            // Once we've accumulated 1 second or more, compute FPS
-            if (timeCounter >= 1.0) {
-                currentFPS = frames;
-                frames = 0;
-                timeCounter -= 1.0;
+            // Once a second of frames is recorded, report it
+            if (frameStats.record((long) (deltaTime * 1_000_000))) {
+                currentFPS = frameStats.getFrames();
+                if (EngineSettings.MemoryUsage) {
+                	System.out.println(frameStats.describe());
+                }
+                if (EngineSettings.FrameStatsCsv) {
+                	frameStats.appendCsv(FRAME_STATS_CSV);
+                }
             }
             
             
@@ -519,8 +730,6 @@ public class Main {
             
             
             // Get Mouse Position
-            double[] mouseX = new double[1];
-            double[] mouseY = new double[1];
             glfwGetCursorPos(window, mouseX, mouseY);
 
             // Adjust Y-coordinate since OpenGL uses bottom-left as (0,0)
@@ -529,140 +738,210 @@ public class Main {
             // Update camera (WASD + mouse)
             camera.handleInput(window, deltaTime);
 
-            // Example: rotate the second cube around Y
-            if (EngineSettings.VisualiseObjects) {
-            	for (Entity e : entities) {
-                	debugRenderer.addSphere(e.getPosition(), e.getMesh().getFurthestPoint() + e.getScale(), new Vector3f(0,1,0));
-                }
-            }
-            
-            
-            if (EngineSettings.VisualiseLights) {
-            	for (Light e : lights) {
-                	debugRenderer.addSphere(e.getPosition(), 1 ,e.getColor());
-                }
-            }
-            
+            // The picker moves entities, so the frame worker has to be done with them
+            framePipeline.sync();
             if (!EngineSettings.grabMouse && EngineSettings.MouseItemPicker && !EngineSettings.overTexture) {
             	picker.update(window);
-            	picker.drawDebug(debugRenderer);
-            	picker.drawRotationDebug(debugRenderer);
-            	
-         
-            	
-            }
-            	
-            
-            
-            physicsManager.updateEntitiesFromCollisionShapes(deltaTime * 100000, entities);
-            
-            
-            
-        	//System.out.println(shadowTextureID);
-            
-            if (skyboxRenderer.isSunOut()) {
-            	 shadowRenderer.renderShadowMap(entities,
-                 		shadowRenderer.createLightSpaceMatrix(lights.get(0), camera), 
-                 		camera.getViewMatrix(),  masterRenderer.getProjectionMatrix());
-            } else {
-            	 shadowRenderer.renderShadowMap(entities,
-                 		shadowRenderer.createLightSpaceMatrix(lights.get(1), camera), 
-                 		camera.getViewMatrix(),  masterRenderer.getProjectionMatrix());
             }
-            
-           
-            int shadowTextureID = shadowRenderer.getDepthMapTexture();
-            //System.out.println(shadowTextureID);
-            int err = glGetError();
-            
-            //shadowMapRenderer.render(entities, lights.get(lights.size() - 1), camera);
-            //System.out.println(shadowMapRenderer.getShadowMap());
-            
-            //postRenderer.bindFBO();
-            bloomRenderer.bindSceneFBO();
-            glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-            
-          
+            Profiler.end();
 
-         // (Optional) Output the texture ID to the console.
-         //System.out.println("Shadow Texture ID: " + shadowTextureID);
-       
-            
-        
-            // Render everything
-            masterRenderer.render(entities, lights, camera, shadowTextureID);
-         // Assuming you have projection, view, and model matrices available.
-          
-            //terrainRenderer.renderAdaptiveTerrain(adaptiveGen, masterRenderer.getProjectionMatrix(), camera.getViewMatrix(), terrainModelMatrix, camera.getPosition(), lights);
+            renderFrame(deltaTime, mouseX[0], adjustedMouseY);
 
-           
-            
-            
-            
-            // Could add more interesting transforms as well
-            debugRenderer.render(camera, masterRenderer.getProjectionMatrix(), camera.getViewMatrix());
+            EngineSettings.updateSettings(window);
             
-            skyboxRenderer.render(camera, camera.getViewMatrix(), masterRenderer.getProjectionMatrix(), lights.get(0),lights.get(1), 1000000);            
-           
+            // Waits for vsync or for the GPU to catch up
+            Profiler.begin("Swap");
+            glfwSwapBuffers(window);
+            Profiler.end();
+            Profiler.endFrame();
+        }
+    }
 
-            
-            //postRenderer.unbindFBO(width, height);
-            bloomRenderer.unbindSceneFBO(width, height);
-            
-            //postRenderer.renderPostProcess();
-            bloomRenderer.renderBloom(width, height, 0.99f, 1.8f);
-            
-            
-            
-            //int c = Equations.combineTexturesFixed(3, 4, width, height);
-            //System.out.print(c);
-            
-            //Render Texture
-            glClear(GL_DEPTH_BUFFER_BIT);
-            glEnable(GL_BLEND);
-            glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-            textureRenderer.render(masterRenderer.getFlatProjection(), camera.getFlatViewMatrix(), mouseX[0], adjustedMouseY);
-          
-            textRenderer.renderText(""+Main.currentFPS, 0, height - 20, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
-            
-            
-            if (!EngineSettings.grabMouse) {
-            	
-            	
-            	if (EngineSettings.OpenEntity != null) {
-                    textRenderer.renderText(""+EngineSettings.OpenEntity.getId(), 0, height - 120, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
-                    textRenderer.renderText("Pos: "+EngineSettings.OpenEntity.getPosition(), 0, height - 140, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+    /**
+     * Everything that happens in a frame after input has been read: debug shapes, physics,
+     * shadows, the scene, post processing and the GUI. Does not touch the window, so it runs the
+     * same way on top of a {@link graphics.HeadlessGraphicsDevice}.
+     *
+     * @param deltaTime seconds since the last frame
+     * @param mouseX    cursor x in pixels
+     * @param mouseY    cursor y in pixels, bottom-left origin
+     */
+    public void renderFrame(float deltaTime, double mouseX, double mouseY) {
+        // Nothing below may read live entities while the worker is still moving them
+        framePipeline.sync();
+        
+        if (EngineSettings.VisualiseLights) {
+        	for (Light e : lights) {
+            	debugRenderer.addSphere(e.getPosition(), 1 ,e.getColor());
+            }
+        }
+        
+        if (!EngineSettings.grabMouse && EngineSettings.MouseItemPicker && !EngineSettings.overTexture) {
+        	picker.drawDebug(debugRenderer);
+        	picker.drawRotationDebug(debugRenderer);
+        	
+     
+        	
+        }
+        	
+        
+        
+        // Physics and culling. When pipelined this returns the packet produced last frame and
+        // starts the next one on the worker.
+        frameDeltaTime = deltaTime;
+        Profiler.begin("Frame packet");
+        FramePacket packet = EngineSettings.PipelinedFrames ? framePipeline.advance() : framePipeline.runSerial();
+        Profiler.end();
+        
+        // Only what survived culling, read from the packet since the worker may be moving entities again
+        if (EngineSettings.VisualiseObjects) {
+        	DrawList visible = packet.getMainPass();
+        	for (int i = 0; i < visible.size(); i++) {
+        		Matrix4f model = visible.getModel(i, debugModel);
+        		float radius = visible.getEntity(i).getMesh().getFurthestPoint() * model.getScale(debugScale).x;
+            	debugRenderer.addSphere(model.getTranslation(debugPosition), radius, new Vector3f(0,1,0));
+            }
+        }
+        
+        Profiler.beginPass("Shadows");
+        shadowRenderer.renderShadowMap(packet);
+        Profiler.endPass();
+        
+        Profiler.beginPass("Point shadows");
+        pointShadowRenderer.render(packet);
+        Profiler.endPass();
+        
+        int err = gl.getError();
+        
+        float scale = pickRenderScale();
+        if (graphBloom != EngineSettings.Bloom || graphVignette != EngineSettings.Vignette || scale != renderScale) {
+        	buildRenderGraph(scale);
+        }
+        framePacket = packet;
+        frameMouseX = mouseX;
+        frameMouseY = mouseY;
+        renderGraph.execute(renderTargets);
+        framePacket = null;
+    }
+    
+    /** Scene pass of the render graph, into the HDR scene color. */
+    private void renderScene() {
+        gl.clearColor(0.0f, 0.0f, 0.0f, 1.0f); // Ensure black background
+        gl.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        
+        // Render everything
+        Profiler.begin("Scene");
+        masterRenderer.render(framePacket, shadowRenderer.getDepthMapTexture());
+        Profiler.end();
+        
+        // Could add more interesting transforms as well
+        Profiler.beginPass("Debug");
+        debugRenderer.render(camera, masterRenderer.getProjectionMatrix(), framePacket.getView());
+        Profiler.endPass();
+        
+        Profiler.beginPass("Skybox");
+        skyboxRenderer.render(camera, framePacket.getView(), masterRenderer.getProjectionMatrix(), lights.get(0),lights.get(1), 1000000);            
+        Profiler.endPass();
+    }
+    
+    /** Last pass of the render graph, drawn over the final image. */
+    private void renderUI() {
+        //Render Texture
+        Profiler.beginPass("UI");
+        gl.clear(GL_DEPTH_BUFFER_BIT);
+        gl.enable(GL_BLEND);
+        gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        textureRenderer.render(masterRenderer.getFlatProjection(), camera.getFlatViewMatrix(), frameMouseX, frameMouseY);
+      
+        hudText.setLength(0);
+        hudText.append(Main.currentFPS).append(" fps  p99 ");
+        TextRenderer.appendFixed(hudText, frameStats.getP99Millis(), 1).append(" ms");
+        textRenderer.renderText(hudText, 0, height - 20, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+        if (EngineSettings.DepthPrePass) {
+        	// GPU time per pass, to see whether the pre-pass pays for itself
+        	hudText.setLength(0);
+        	TextRenderer.appendFixed(hudText.append("pre "), masterRenderer.getPrePassMillis(), 2).append(" ms  main ");
+        	TextRenderer.appendFixed(hudText, masterRenderer.getMainPassMillis(), 2).append(" ms");
+        	textRenderer.renderText(hudText, 0, height - 40, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+        }
+        if (EngineSettings.ProfilerOverlay) {
+        	profilerOverlay.render(masterRenderer.getFlatProjection(), 0, height - 60, width);
+        }
+        
+        
+        if (!EngineSettings.grabMouse) {
+        	
+        	
+        	// From the packet, the worker may be moving the entity again
+        	if (framePacket.getOpenEntity() != null) {
+                textRenderer.renderText(""+framePacket.getOpenEntity().getId(), 0, height - 120, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+                textRenderer.renderText("Pos: "+framePacket.getOpenEntityPosition(), 0, height - 140, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
 
-            	}
-            	
-            	if (EngineSettings.OpenLight != null) {
-                    textRenderer.renderText(""+EngineSettings.OpenLight.getId(), 0, height - 120, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+        	}
+        	
+        	if (EngineSettings.OpenLight != null) {
+                textRenderer.renderText(""+EngineSettings.OpenLight.getId(), 0, height - 120, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
 
-                    textRenderer.renderText(""+EngineSettings.OpenLight.getPosition(), 0, height - 140, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
+                textRenderer.renderText(""+EngineSettings.OpenLight.getPosition(), 0, height - 140, 0.25f, masterRenderer.getFlatProjection(), width, TextAlignment.LEFT);
 
-            	}
-            }
-            
-           	
-            
-            
-            EngineSettings.updateSettings(window);
-            glfwSwapBuffers(window);
+        	}
         }
+        Profiler.endPass();
     }
 
-    private void cleanup() {
+    /**
+     * Copies what the frame producer must not read live. Runs on the main thread.
+     */
+    private void snapshotFrame(FramePacket packet) {
+        Light shadowLight = skyboxRenderer.isSunOut() ? lights.get(0) : lights.get(1);
+        packet.snapshot(frameDeltaTime, camera, masterRenderer.getProjectionMatrix(), lights, shadowLight);
+        packet.setOpenEntity(EngineSettings.OpenEntity);
+    }
+    
+    /**
+     * Simulates the frame and culls both passes. Runs on the frame worker when
+     * {@link EngineSettings#PipelinedFrames} is set, so it only touches entities and physics.
+     */
+    private void produceFrame(FramePacket packet) {
+        Profiler.begin("Physics");
+        physicsManager.updateEntitiesFromCollisionShapes(packet.getDeltaTime() * 100000, entities);
+        packet.captureOpenEntity();
+        Profiler.end();
+        Profiler.begin("Shadow cull");
+        shadowRenderer.collectCasters(scene, packet);
+        Profiler.end();
+        Profiler.begin("Point shadow cull");
+        pointShadowRenderer.collectCasters(scene, packet);
+        Profiler.end();
+        Profiler.begin("Main cull");
+        masterRenderer.collectVisible(scene, packet.getView(), packet.getMainPass());
+        Profiler.end();
+        Profiler.begin("Light assignment");
+        masterRenderer.assignLights(packet);
+        Profiler.end();
+    }
+
+    public void cleanup() {
         // Cleanup
+    	framePipeline.shutdown();
 
     	//terrainRenderer.cleanup();
     	textRenderer.cleanUp();
-    	//postRenderer.cleanup();
+    	postRenderer.cleanup();
+    	bloomRenderer.cleanup();
+    	renderTargets.cleanUp();
+    	fullScreenQuad.cleanUp();
+    	shadowRenderer.cleanUp();
+    	pointShadowRenderer.cleanUp();
         masterRenderer.cleanup();
         skyboxRenderer.cleanUp();
         debugRenderer.cleanup();
         textureRenderer.cleanUp();
-        glfwFreeCallbacks(window);
-        glfwDestroyWindow(window);
-        glfwTerminate();
+        frameStats.cleanup();
+        if (window != NULL) {
+        	glfwFreeCallbacks(window);
+        	glfwDestroyWindow(window);
+        	glfwTerminate();
+        }
     }
 }
@@ -0,0 +1,226 @@
+package occlusion;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+
+/**
+ * Small software rasterizer that only writes depth, used to draw occluders on the CPU.
+ *
+ * Triangles are transformed and set up once, then binned into screen tiles. The tiles are
+ * rasterized independently, in parallel on the fork-join pool when there is enough work, so no
+ * two threads ever write the same pixel. The inner loop steps the three edge functions and the
+ * depth plane along a row of one tile, with no branches besides the coverage test, which keeps
+ * it cheap enough for C2 to unroll.
+ *
+ * Depth is NDC depth mapped to [0, 1], cleared to 1 (far). Triangles that cross the near plane
+ * are dropped rather than clipped: an occluder that draws less can only hide less, so the
+ * result stays conservative. Both faces are drawn for the same reason.
+ */
+public class DepthRasterizer {
+
+    public static final int TILE_SIZE = 32;
+
+    // Tiles rasterized on the fork-join pool once this many triangles were binned
+    private static final int PARALLEL_THRESHOLD = 256;
+    // Triangles with a smaller area (in pixels) than this cover no pixel centers worth testing
+    private static final float MIN_AREA = 1e-6f;
+
+    private final int width, height;
+    private final int tilesX, tilesY;
+    private final float[] depth;
+
+    // Set up triangles: x0, y0, z0, x1, y1, z1, x2, y2, z2 in pixels and [0, 1] depth
+    private float[] triangles = new float[9 * 1024];
+    private int triangleCount;
+
+    // Triangle indices per tile
+    private final int[][] bins;
+    private final int[] binCounts;
+
+    private final float[] clip = new float[12];
+
+    public DepthRasterizer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.depth = new float[width * height];
+        this.bins = new int[tilesX * tilesY][64];
+        this.binCounts = new int[tilesX * tilesY];
+    }
+
+    /**
+     * Starts a new frame: forgets all triangles. The depth buffer is cleared by {@link #rasterize()}.
+     */
+    public void begin() {
+        triangleCount = 0;
+        Arrays.fill(binCounts, 0);
+    }
+
+    /**
+     * Transforms a triangle soup (x, y, z per vertex, three vertices per triangle) to the screen
+     * and bins it.
+     *
+     * @param modelViewProjection clip space transform of the vertices
+     */
+    public void addTriangles(float[] vertices, int count, Matrix4f modelViewProjection) {
+        Matrix4f m = modelViewProjection;
+        for (int t = 0; t < count; t++) {
+            int v = t * 9;
+            boolean crossesNear = false;
+            for (int k = 0; k < 3; k++) {
+                float x = vertices[v + k * 3], y = vertices[v + k * 3 + 1], z = vertices[v + k * 3 + 2];
+                float cx = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+                float cy = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+                float cz = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+                float cw = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+                if (cz < -cw || cw <= 0) {
+                    crossesNear = true;
+                    break;
+                }
+                float invW = 1f / cw;
+                clip[k * 3] = (cx * invW * 0.5f + 0.5f) * width;
+                clip[k * 3 + 1] = (cy * invW * 0.5f + 0.5f) * height;
+                clip[k * 3 + 2] = Math.min(1f, cz * invW * 0.5f + 0.5f);
+            }
+            if (!crossesNear) {
+                addScreenTriangle();
+            }
+        }
+    }
+
+    private void addScreenTriangle() {
+        float x0 = clip[0], y0 = clip[1], x1 = clip[3], y1 = clip[4], x2 = clip[6], y2 = clip[7];
+        float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (Math.abs(area) < MIN_AREA) {
+            return;
+        }
+        // Pixels whose centers can be covered
+        int minX = Math.max(0, (int) Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+        int maxX = Math.min(width - 1, (int) Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+        int minY = Math.max(0, (int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+        int maxY = Math.min(height - 1, (int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        int index = triangleCount++;
+        if (triangles.length < triangleCount * 9) {
+            triangles = Arrays.copyOf(triangles, triangles.length * 2);
+        }
+        // Counter clockwise on screen, so the edge functions are positive inside
+        if (area < 0) {
+            System.arraycopy(clip, 0, triangles, index * 9, 3);
+            System.arraycopy(clip, 6, triangles, index * 9 + 3, 3);
+            System.arraycopy(clip, 3, triangles, index * 9 + 6, 3);
+        } else {
+            System.arraycopy(clip, 0, triangles, index * 9, 9);
+        }
+
+        for (int ty = minY / TILE_SIZE; ty <= maxY / TILE_SIZE; ty++) {
+            for (int tx = minX / TILE_SIZE; tx <= maxX / TILE_SIZE; tx++) {
+                int tile = ty * tilesX + tx;
+                if (binCounts[tile] == bins[tile].length) {
+                    bins[tile] = Arrays.copyOf(bins[tile], bins[tile].length * 2);
+                }
+                bins[tile][binCounts[tile]++] = index;
+            }
+        }
+    }
+
+    /**
+     * Clears the depth buffer and draws every binned triangle into it.
+     */
+    public void rasterize() {
+        int tiles = tilesX * tilesY;
+        if (triangleCount >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, tiles).parallel().forEach(this::rasterizeTile);
+        } else {
+            for (int tile = 0; tile < tiles; tile++) {
+                rasterizeTile(tile);
+            }
+        }
+    }
+
+    private void rasterizeTile(int tile) {
+        int tileMinX = (tile % tilesX) * TILE_SIZE;
+        int tileMinY = (tile / tilesX) * TILE_SIZE;
+        int tileMaxX = Math.min(width, tileMinX + TILE_SIZE) - 1;
+        int tileMaxY = Math.min(height, tileMinY + TILE_SIZE) - 1;
+
+        // 1) Clear
+        for (int y = tileMinY; y <= tileMaxY; y++) {
+            Arrays.fill(depth, y * width + tileMinX, y * width + tileMaxX + 1, 1f);
+        }
+
+        // 2) Draw
+        int[] bin = bins[tile];
+        for (int i = 0, count = binCounts[tile]; i < count; i++) {
+            rasterizeTriangle(bin[i] * 9, tileMinX, tileMinY, tileMaxX, tileMaxY);
+        }
+    }
+
+    private void rasterizeTriangle(int t, int tileMinX, int tileMinY, int tileMaxX, int tileMaxY) {
+        float[] tri = triangles;
+        float x0 = tri[t], y0 = tri[t + 1], z0 = tri[t + 2];
+        float x1 = tri[t + 3], y1 = tri[t + 4], z1 = tri[t + 5];
+        float x2 = tri[t + 6], y2 = tri[t + 7], z2 = tri[t + 8];
+
+        // 1) Edge functions e = a * x + b * y + c, positive inside
+        float a0 = y1 - y2, b0 = x2 - x1, c0 = x1 * y2 - x2 * y1; // opposite vertex 0
+        float a1 = y2 - y0, b1 = x0 - x2, c1 = x2 * y0 - x0 * y2; // opposite vertex 1
+        float a2 = y0 - y1, b2 = x1 - x0, c2 = x0 * y1 - x1 * y0; // opposite vertex 2
+        float invArea = 1f / (a0 * x0 + b0 * y0 + c0);
+
+        // 2) Depth as a plane over the screen
+        float za = (a0 * z0 + a1 * z1 + a2 * z2) * invArea;
+        float zb = (b0 * z0 + b1 * z1 + b2 * z2) * invArea;
+        float zc = (c0 * z0 + c1 * z1 + c2 * z2) * invArea;
+
+        // 3) Bounds of the triangle inside this tile
+        int minX = Math.max(tileMinX, (int) Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+        int maxX = Math.min(tileMaxX, (int) Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+        int minY = Math.max(tileMinY, (int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+        int maxY = Math.min(tileMaxY, (int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+
+        // 4) Walk the rows, sampling at pixel centers
+        float px = minX + 0.5f;
+        for (int y = minY; y <= maxY; y++) {
+            float py = y + 0.5f;
+            float e0 = a0 * px + b0 * py + c0;
+            float e1 = a1 * px + b1 * py + c1;
+            float e2 = a2 * px + b2 * py + c2;
+            float z = za * px + zb * py + zc;
+            int row = y * width;
+            for (int x = minX; x <= maxX; x++) {
+                if ((e0 >= 0) & (e1 >= 0) & (e2 >= 0)) {
+                    int i = row + x;
+                    depth[i] = Math.min(depth[i], z);
+                }
+                e0 += a0;
+                e1 += a1;
+                e2 += a2;
+                z += za;
+            }
+        }
+    }
+
+    /** Depth buffer, row major from the bottom left. Valid after {@link #rasterize()}. */
+    public float[] getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+}
@@ -0,0 +1,98 @@
+package occlusion;
+
+/**
+ * Hierarchical max-depth pyramid over an occluder depth buffer.
+ *
+ * Level 0 is the depth buffer itself, every further level halves the size and keeps the
+ * furthest depth of the (up to) 2x2 texels below it. A screen rectangle whose nearest depth is
+ * behind the furthest depth of the texels covering it is hidden. The level is chosen so the
+ * rectangle covers only a few texels, so a test costs the same for small and large objects.
+ */
+public class HiZPyramid {
+
+    private final float[][] levels;
+    private final int[] widths, heights;
+
+    public HiZPyramid(int width, int height) {
+        int count = 1;
+        for (int w = width, h = height; w > 1 || h > 1; w = (w + 1) >> 1, h = (h + 1) >> 1) {
+            count++;
+        }
+        levels = new float[count][];
+        widths = new int[count];
+        heights = new int[count];
+        for (int i = 0, w = width, h = height; i < count; i++, w = (w + 1) >> 1, h = (h + 1) >> 1) {
+            widths[i] = w;
+            heights[i] = h;
+            levels[i] = i == 0 ? null : new float[w * h];
+        }
+    }
+
+    /**
+     * Builds the coarser levels from a depth buffer of the size given to the constructor. The
+     * buffer is used as level 0 directly, not copied.
+     */
+    public void build(float[] depth) {
+        levels[0] = depth;
+        for (int i = 1; i < levels.length; i++) {
+            float[] src = levels[i - 1];
+            float[] dst = levels[i];
+            int srcW = widths[i - 1], srcH = heights[i - 1];
+            int w = widths[i], h = heights[i];
+            for (int y = 0; y < h; y++) {
+                int y0 = (y << 1) * srcW;
+                // Odd sizes: the last texel has no neighbour, use itself
+                int y1 = Math.min((y << 1) + 1, srcH - 1) * srcW;
+                for (int x = 0; x < w; x++) {
+                    int x0 = x << 1;
+                    int x1 = Math.min(x0 + 1, srcW - 1);
+                    dst[y * w + x] = Math.max(Math.max(src[y0 + x0], src[y0 + x1]), Math.max(src[y1 + x0], src[y1 + x1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests a screen rectangle in level 0 pixels against the pyramid.
+     *
+     * @param nearestDepth depth of the closest point of the object, [0, 1]
+     * @return true if every texel under the rectangle has an occluder in front of nearestDepth
+     */
+    public boolean isOccluded(float minX, float minY, float maxX, float maxY, float nearestDepth) {
+        int x0 = Math.max(0, (int) Math.floor(minX));
+        int y0 = Math.max(0, (int) Math.floor(minY));
+        int x1 = Math.min(widths[0] - 1, (int) Math.floor(maxX));
+        int y1 = Math.min(heights[0] - 1, (int) Math.floor(maxY));
+        if (x0 > x1 || y0 > y1) {
+            return false; // Off screen, the frustum test decides
+        }
+
+        // 1) Coarsest level at which the rectangle still spans at most two texels per side
+        int size = Math.max(x1 - x0, y1 - y0);
+        int level = 0;
+        while (size > 1 && level < levels.length - 1) {
+            size >>= 1;
+            level++;
+        }
+        x0 >>= level;
+        y0 >>= level;
+        x1 >>= level;
+        y1 >>= level;
+
+        // 2) Furthest occluder over those texels
+        float[] texels = levels[level];
+        int w = widths[level];
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                if (texels[y * w + x] >= nearestDepth) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+}
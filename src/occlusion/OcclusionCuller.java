@@ -0,0 +1,287 @@
+package occlusion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.joml.Matrix4f;
+
+import entities.Entity;
+import entities.SceneStore;
+import toolbox.Frustum;
+import toolbox.Mesh;
+import toolbox.MeshData;
+
+/**
+ * CPU occlusion culling against a low resolution depth buffer.
+ *
+ * Once per scene, {@link #selectOccluders} picks the largest static entities and gives each of
+ * their meshes a proxy: its biggest triangles, up to a per-mesh budget. A subset of the real
+ * surface can never hide something the full mesh would not, so the proxies stay conservative.
+ *
+ * Every frame, {@link #render} draws the proxies of the occluders inside the frustum with a
+ * {@link DepthRasterizer} and builds a {@link HiZPyramid} from the result. {@link #isVisible}
+ * then projects an object's bounding box and checks it against the pyramid.
+ *
+ * Pure Java and free of GL, so it runs on the frame worker and can be tested headless.
+ */
+public class OcclusionCuller {
+
+    // Floats per vertex in MeshData.finalData: position, uv, normal, tangent
+    private static final int FLOATS_PER_VERTEX = 11;
+
+    private final DepthRasterizer rasterizer;
+    private final HiZPyramid pyramid;
+
+    private int maxOccluders = 64;
+    private int triangleBudget = 8192;       // over all occluders
+    private int trianglesPerOccluder = 512;
+
+    private final Map<Mesh, float[]> proxies = new HashMap<>();
+    private int[] occluderIds = new int[0];
+    private Entity[] occluderEntities = new Entity[0];
+    private float[][] occluderProxies = new float[0][];
+    private int occluderCount;
+
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final Matrix4f modelViewProjection = new Matrix4f();
+    private final Matrix4f model = new Matrix4f();
+
+    // Stats of the last frame
+    private int occludersDrawn;
+    private int tested;
+    private int culled;
+
+    public OcclusionCuller(int width, int height) {
+        rasterizer = new DepthRasterizer(width, height);
+        pyramid = new HiZPyramid(width, height);
+    }
+
+    /**
+     * @param maxOccluders         most entities drawn as occluders
+     * @param triangleBudget       most proxy triangles over all occluders
+     * @param trianglesPerOccluder most triangles kept in one mesh proxy
+     */
+    public void setBudget(int maxOccluders, int triangleBudget, int trianglesPerOccluder) {
+        this.maxOccluders = maxOccluders;
+        this.triangleBudget = triangleBudget;
+        this.trianglesPerOccluder = trianglesPerOccluder;
+    }
+
+    /**
+     * Picks the occluders among the entities of a scene, largest bounding sphere first.
+     * Call again after the scene changed a lot.
+     *
+     * @param isStatic entities that never move on their own. Only those are used, anything else
+     *                 would have to be re-selected whenever it moves.
+     */
+    public void selectOccluders(SceneStore scene, Predicate<Entity> isStatic) {
+        // 1) Candidates: static entities with CPU side triangles
+        List<Integer> candidates = new ArrayList<>();
+        for (int id = 0; id < scene.getIdLimit(); id++) {
+            Entity entity = scene.getEntity(id);
+            if (entity != null && isStatic.test(entity) && proxyFor(entity.getMesh()) != null) {
+                candidates.add(id);
+            }
+        }
+        candidates.sort((a, b) -> Float.compare(scene.getBoundingRadius(b), scene.getBoundingRadius(a)));
+
+        // 2) Biggest first until one of the budgets runs out
+        occluderIds = new int[Math.min(maxOccluders, candidates.size())];
+        occluderEntities = new Entity[occluderIds.length];
+        occluderProxies = new float[occluderIds.length][];
+        occluderCount = 0;
+        int triangles = 0;
+        for (int id : candidates) {
+            if (occluderCount == occluderIds.length) {
+                break;
+            }
+            Entity entity = scene.getEntity(id);
+            float[] proxy = proxyFor(entity.getMesh());
+            int proxyTriangles = proxy.length / 9;
+            if (triangles + proxyTriangles > triangleBudget) {
+                continue;
+            }
+            triangles += proxyTriangles;
+            occluderIds[occluderCount] = id;
+            occluderEntities[occluderCount] = entity;
+            occluderProxies[occluderCount] = proxy;
+            occluderCount++;
+        }
+        System.out.println("[Occlusion] " + occluderCount + " occluders, " + triangles + " proxy triangles");
+    }
+
+    /**
+     * The biggest triangles of a mesh as x, y, z per vertex, or null if the mesh has no CPU side
+     * data. Cached per mesh, entities sharing a mesh share the proxy.
+     */
+    private float[] proxyFor(Mesh mesh) {
+        if (proxies.containsKey(mesh)) {
+            return proxies.get(mesh);
+        }
+        MeshData data = mesh.getMeshData();
+        float[] proxy = null;
+        if (data != null && data.finalData != null && data.finalData.length >= 3 * FLOATS_PER_VERTEX) {
+            proxy = buildProxy(data.finalData, trianglesPerOccluder);
+        }
+        proxies.put(mesh, proxy);
+        return proxy;
+    }
+
+    /**
+     * Keeps the largest triangles of a triangle list in interleaved vertex format.
+     */
+    static float[] buildProxy(float[] vertexData, int maxTriangles) {
+        int triangleCount = vertexData.length / (3 * FLOATS_PER_VERTEX);
+
+        // 1) Sort by area, largest first. Area and index share a long so one sort does both.
+        long[] order = new long[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            int v = t * 3 * FLOATS_PER_VERTEX;
+            float ax = vertexData[v + FLOATS_PER_VERTEX] - vertexData[v];
+            float ay = vertexData[v + FLOATS_PER_VERTEX + 1] - vertexData[v + 1];
+            float az = vertexData[v + FLOATS_PER_VERTEX + 2] - vertexData[v + 2];
+            float bx = vertexData[v + 2 * FLOATS_PER_VERTEX] - vertexData[v];
+            float by = vertexData[v + 2 * FLOATS_PER_VERTEX + 1] - vertexData[v + 1];
+            float bz = vertexData[v + 2 * FLOATS_PER_VERTEX + 2] - vertexData[v + 2];
+            float cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+            float areaSquared = cx * cx + cy * cy + cz * cz;
+            // Positive floats sort like their bits
+            order[t] = ((long) Float.floatToIntBits(areaSquared) << 32) | t;
+        }
+        Arrays.sort(order);
+
+        // 2) Copy the positions of the largest ones
+        int kept = Math.min(maxTriangles, triangleCount);
+        float[] proxy = new float[kept * 9];
+        for (int i = 0; i < kept; i++) {
+            int t = (int) order[triangleCount - 1 - i];
+            for (int k = 0; k < 3; k++) {
+                int v = (t * 3 + k) * FLOATS_PER_VERTEX;
+                proxy[i * 9 + k * 3] = vertexData[v];
+                proxy[i * 9 + k * 3 + 1] = vertexData[v + 1];
+                proxy[i * 9 + k * 3 + 2] = vertexData[v + 2];
+            }
+        }
+        return proxy;
+    }
+
+    /**
+     * Adds an occluder by hand, for scenes that are not in a {@link SceneStore}.
+     *
+     * @param triangles x, y, z per vertex, three vertices per triangle, in model space
+     */
+    public void addOccluder(Entity entity, float[] triangles) {
+        if (occluderCount == occluderIds.length) {
+            int capacity = Math.max(8, occluderCount * 2);
+            occluderIds = Arrays.copyOf(occluderIds, capacity);
+            occluderEntities = Arrays.copyOf(occluderEntities, capacity);
+            occluderProxies = Arrays.copyOf(occluderProxies, capacity);
+        }
+        occluderIds[occluderCount] = -1;
+        occluderEntities[occluderCount] = entity;
+        occluderProxies[occluderCount] = triangles;
+        occluderCount++;
+    }
+
+    /**
+     * Draws the occluders of a scene as seen through projection * view and builds the pyramid.
+     *
+     * @param frustum frustum of the same view, occluders outside it are skipped
+     */
+    public void render(SceneStore scene, Matrix4f projection, Matrix4f view, Frustum frustum) {
+        projection.mul(view, viewProjection);
+        rasterizer.begin();
+        occludersDrawn = 0;
+        tested = 0;
+        culled = 0;
+        for (int i = 0; i < occluderCount; i++) {
+            Entity entity = occluderEntities[i];
+            int id = occluderIds[i];
+            if (id >= 0) {
+                // Removed from the scene since it was selected
+                if (scene == null || scene.getEntity(id) != entity) {
+                    continue;
+                }
+                float[] bounds = scene.getBounds();
+                if (!frustum.contains(bounds[id * 4], bounds[id * 4 + 1], bounds[id * 4 + 2], bounds[id * 4 + 3])) {
+                    continue;
+                }
+                scene.getModelMatrix(id, model);
+            } else {
+                if (!frustum.contains(entity.getPosition(), entity.getBoundingRadius())) {
+                    continue;
+                }
+                model.set(entity.getModelMatrix());
+            }
+            viewProjection.mul(model, modelViewProjection);
+            rasterizer.addTriangles(occluderProxies[i], occluderProxies[i].length / 9, modelViewProjection);
+            occludersDrawn++;
+        }
+        rasterizer.rasterize();
+        pyramid.build(rasterizer.getDepth());
+    }
+
+    /**
+     * Tests a bounding sphere against the occluders drawn by the last {@link #render}. Uses the
+     * sphere's bounding box, whose nearest corner is never further away than the sphere.
+     *
+     * @return false only if the sphere is certainly hidden
+     */
+    public boolean isVisible(float x, float y, float z, float radius) {
+        tested++;
+        Matrix4f m = viewProjection;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float nearest = Float.MAX_VALUE;
+        for (int corner = 0; corner < 8; corner++) {
+            float px = (corner & 1) == 0 ? x - radius : x + radius;
+            float py = (corner & 2) == 0 ? y - radius : y + radius;
+            float pz = (corner & 4) == 0 ? z - radius : z + radius;
+            float cx = m.m00() * px + m.m10() * py + m.m20() * pz + m.m30();
+            float cy = m.m01() * px + m.m11() * py + m.m21() * pz + m.m31();
+            float cz = m.m02() * px + m.m12() * py + m.m22() * pz + m.m32();
+            float cw = m.m03() * px + m.m13() * py + m.m23() * pz + m.m33();
+            if (cz < -cw || cw <= 0) {
+                return true; // Reaches through the near plane, too close to tell
+            }
+            float invW = 1f / cw;
+            minX = Math.min(minX, cx * invW);
+            maxX = Math.max(maxX, cx * invW);
+            minY = Math.min(minY, cy * invW);
+            maxY = Math.max(maxY, cy * invW);
+            nearest = Math.min(nearest, cz * invW);
+        }
+        int width = rasterizer.getWidth(), height = rasterizer.getHeight();
+        boolean occluded = pyramid.isOccluded(
+                (minX * 0.5f + 0.5f) * width, (minY * 0.5f + 0.5f) * height,
+                (maxX * 0.5f + 0.5f) * width, (maxY * 0.5f + 0.5f) * height,
+                nearest * 0.5f + 0.5f);
+        if (occluded) {
+            culled++;
+        }
+        return !occluded;
+    }
+
+    public int getOccluderCount() {
+        return occluderCount;
+    }
+
+    public int getOccludersDrawn() {
+        return occludersDrawn;
+    }
+
+    public int getTested() {
+        return tested;
+    }
+
+    public int getCulled() {
+        return culled;
+    }
+
+    public DepthRasterizer getRasterizer() {
+        return rasterizer;
+    }
+}
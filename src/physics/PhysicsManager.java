@@ -4,6 +4,7 @@ import com.bulletphysics.BulletGlobals;
 import com.bulletphysics.collision.broadphase.BroadphaseInterface;
 import com.bulletphysics.collision.broadphase.DbvtBroadphase;
 import com.bulletphysics.collision.dispatch.CollisionDispatcher;
+import com.bulletphysics.collision.dispatch.CollisionObject;
 import com.bulletphysics.collision.dispatch.CollisionConfiguration;
 import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
 import com.bulletphysics.collision.shapes.BoxShape;
@@ -42,6 +43,11 @@ public class PhysicsManager {
     
     private Map<Entity, RigidBody> entityRigidBodyMap = new HashMap<>();
     
+    // Scratch objects for updateEntitiesFromCollisionShapes
+    private final Transform syncTransform = new Transform();
+    private final Quat4f syncRotation = new Quat4f();
+    private final org.joml.Vector3f syncEuler = new org.joml.Vector3f();
+    
     private static final ScalarType PHY_FLOAT = ScalarType.FLOAT;
 
     public PhysicsManager() {
@@ -162,6 +168,10 @@ public class PhysicsManager {
         RigidBodyConstructionInfo rbInfo = new RigidBodyConstructionInfo(mass, motionState, shape, inertia);
         RigidBody body = new RigidBody(rbInfo);
         dynamicsWorld.addRigidBody(body);
+        // Static bodies never need their AABB refreshed. While active, every step moves their
+        // broadphase proxy back into the dynamic tree and collides it with everything there, which
+        // allocates for each pair of tree nodes. Newer Bullet versions put them to sleep as well.
+        body.setActivationState(CollisionObject.ISLAND_SLEEPING);
         entityRigidBodyMap.put(entity, body);
         return body;
     }
@@ -232,6 +242,14 @@ public class PhysicsManager {
     }
 
 
+    /**
+     * True if nothing but the editor moves the entity: it has a static body or no body at all.
+     */
+    public boolean isStatic(Entity entity) {
+        RigidBody body = entityRigidBodyMap.get(entity);
+        return body == null || body.isStaticObject();
+    }
+
     /**
      * Updates the physics simulation.
      *
@@ -248,22 +266,26 @@ public class PhysicsManager {
             if (body == null) {
                 continue; // No physics body associated with this entity.
             }
+            // Static and sleeping bodies did not move, leave the entity (and its cached matrix) alone.
+            if (body.isStaticObject() || !body.isActive()) {
+                continue;
+            }
             
-            Transform transform = new Transform();
             // Retrieve the world transform from the body's motion state.
             if (body.getMotionState() != null) {
-                body.getMotionState().getWorldTransform(transform);
+                body.getMotionState().getWorldTransform(syncTransform);
 
-                // Update the entity's position.
-                Vector3f pos = new Vector3f(transform.origin);
+                // Update the entity's position. The setters only invalidate the entity's
+                // model matrix when the value really changed.
+                Vector3f pos = syncTransform.origin;
                 entity.setPosition(pos.x, pos.y, pos.z);
                 //System.out.println("Updating: " + pos);
 
                 // Update the entity's rotation if applicable.
-                Quat4f rotationQuat = new Quat4f();
-                transform.getRotation(rotationQuat);
-                Vector3f eulerRotation = quaternionToEuler(rotationQuat);
-                entity.setRotation(new org.joml.Vector3f(eulerRotation.x, eulerRotation.y, eulerRotation.z));
+                syncTransform.getRotation(syncRotation);
+                Vector3f eulerRotation = quaternionToEuler(syncRotation);
+                syncEuler.set(eulerRotation.x, eulerRotation.y, eulerRotation.z);
+                entity.setRotation(syncEuler);
             }
         }
         
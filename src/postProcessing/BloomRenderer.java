@@ -1,5 +1,8 @@
 package postProcessing;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL20.*;
@@ -8,272 +11,176 @@ import static org.lwjgl.opengl.GL30.*;
 import java.nio.FloatBuffer;
 
 import org.lwjgl.BufferUtils;
-import org.lwjgl.system.MemoryUtil;
+import renderer.RenderGraph;
+import settings.EngineSettings;
 import shaders.ShaderProgram;
-import toolbox.Equations;
 
 /**
- * This bloom renderer creates several FBOs for a multi‐pass bloom post‑processing effect.
- * The steps are:
- *   1. Render the scene into a scene FBO.
- *   2. Extract bright areas (bright pass) into a separate texture.
- *   3. Blur the bright areas using two ping–pong FBOs.
- *   4. Combine the blurred (bloom) texture with the original scene.
+ * Bloom as a chain of {@link RenderGraph} passes:
+ *   1. Extract bright areas of the scene color (bright pass) into the first level of a mip
+ *      chain, at half resolution.
+ *   2. Downsample each level into the next with a 13 tap filter, then walk back up adding a
+ *      tent filtered copy of every level onto the one above it.
+ *   3. Combine the first level (the bloom) with the scene color, with auto exposure. When the
+ *      scene is rendered below the target's resolution this is also where it is upsampled and
+ *      sharpened.
+ *
+ * The levels are R11F_G11F_B10F, 4 bytes per pixel, and every pass after the bright pass works
+ * on a quarter of the pixels of the one before, so the whole chain costs less than a single
+ * full resolution blur pass did. The wide levels give a wider glow than the blur did.
  *
- * The necessary shader sources for each pass are provided below as comments.
+ * The textures belong to the graph, this renderer only holds its programs. With
+ * {@link EngineSettings#Bloom} off the combine pass does not read the chain and the graph culls it.
  */
 public class BloomRenderer {
-    
-    // Dimensions
-    private int width;
-    private int height;
-    
-    // FBO for the original scene.
-    private int sceneFBO;
-    private int sceneTexture;
-  
 
-	private int sceneDepthRBO;
+    private final GraphicsDevice gl = Graphics.device();
     
-    // FBO for extracting bright areas.
-    private int brightFBO;
-    private int brightTexture;
+    // Mip chain, level 0 is half the scene resolution and holds the bright pass.
+    private static final int MAX_LEVELS = 6;
     
-    // Two ping-pong FBOs for blurring.
-    private int[] pingpongFBO = new int[2];
-    private int[] pingpongTexture = new int[2];
+    private final FloatBuffer pixelBuffer = BufferUtils.createFloatBuffer(4); // Average scene color, read every frame
     
-    // Full-screen quad.
-    private int quadVAO;
-    private int quadVBO;
-    
-    private int combineFBO;
-    private int combineTexture;
+    private final FullScreenQuad quad;
     
     // Shaders:
-    private ShaderProgram bloomExtractShader;  // Extract bright regions.
-    private ShaderProgram blurShader;            // Blur (takes a uniform vec2 "blurDirection").
+    private ShaderProgram downsampleShader;      // Bright pass and 13 tap downsample.
+    private ShaderProgram upsampleShader;        // Tent filter, blended onto the level above.
     private ShaderProgram bloomCombineShader;    // Combine original scene and bloom.
     
-    // Number of blur passes.
-    private int blurIterations = 12;
+    // Upsample tent radius in texels of the smaller level.
+    private float filterRadius = 1.0f;
     
-    public BloomRenderer(int width, int height) {
-        this.width = width;
-        this.height = height;
-        initSceneFBO();
-        initBrightFBO();
-        initPingPongFBOs();
-        initFullScreenQuad();
+    public BloomRenderer(FullScreenQuad quad) {
+        this.quad = quad;
         initShaders();
     }
     
-    // 1. Create the FBO for rendering the full scene.
-    private void initSceneFBO() {
-        sceneFBO = glGenFramebuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, sceneFBO);
-        
-        // Create the color texture attachment.
-        sceneTexture = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, sceneTexture);
-        //glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0, GL_RGBA, GL_FLOAT, (java.nio.ByteBuffer)null);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0, GL_RGBA, GL_FLOAT, (java.nio.ByteBuffer)null);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, sceneTexture, 0);
-        
-        // Create a renderbuffer object for depth.
-        sceneDepthRBO = glGenRenderbuffers();
-        glBindRenderbuffer(GL_RENDERBUFFER, sceneDepthRBO);
-        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT, width, height);
-        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, sceneDepthRBO);
+    // Load and initialize the shaders.
+    private void initShaders() {
+        // Load the bright pass and downsample shader.
+        downsampleShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl", 
+                                             null, null, null, 
+                                             "src/postProcessing/bloomDownsample_fragment.glsl");
         
-        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
-            System.err.println("ERROR: Scene FBO is not complete!");
-        }
+        // Load the upsample shader.
+        upsampleShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl",
+                                           null, null, null,
+                                           "src/postProcessing/bloomUpsample_fragment.glsl");
         
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        // Load the bloom combine shader.
+        bloomCombineShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl",
+                                                 null, null, null,
+                                                 "src/postProcessing/bloomCombine_fragment.glsl");
     }
     
-    // 2. Create the FBO for the bright pass.
-    private void initBrightFBO() {
-        brightFBO = glGenFramebuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, brightFBO);
-        glViewport(0, 0, width, height);
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        
-        brightTexture = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, brightTexture);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0, GL_RGBA, GL_FLOAT, (java.nio.ByteBuffer)null);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, brightTexture, 0);
+    /**
+     * Declares the bloom passes after the scene pass.
+     *
+     * @param sceneColor     HDR scene color, written by an earlier pass
+     * @param target         what the combined image is drawn into, usually the backbuffer
+     * @param threshold      The brightness threshold for bloom extraction.
+     * @param bloomIntensity The intensity for combining bloom.
+     * @param sharpness      0 to 1, how much the combine sharpens the scene color while it
+     *                       upsamples it to the target. 0 when both are the same size.
+     */
+    public void addPasses(RenderGraph graph, int sceneColor, int target, float threshold, float bloomIntensity,
+                          float sharpness) {
+        int width = graph.getWidth(sceneColor), height = graph.getHeight(sceneColor);
         
-        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
-            System.err.println("ERROR: Bright pass FBO is not complete!");
+        // 1. The levels, halving the size down to MAX_LEVELS or a few pixels.
+        int[] levels = new int[MAX_LEVELS];
+        int levelCount = 0;
+        for (int w = width / 2, h = height / 2; levelCount < MAX_LEVELS && w > 1 && h > 1; w /= 2, h /= 2) {
+            levels[levelCount] = graph.createTexture("Bloom " + levelCount, w, h, GL_R11F_G11F_B10F);
+            levelCount++;
         }
         
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-    }
-    
-    // 3. Create two ping-pong FBOs for blurring.
-    private void initPingPongFBOs() {
-        for (int i = 0; i < 2; i++) {
-            pingpongFBO[i] = glGenFramebuffers();
-            pingpongTexture[i] = glGenTextures();
-            glBindTexture(GL_TEXTURE_2D, pingpongTexture[i]);
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA16F, width, height, 0, GL_RGBA, GL_FLOAT, (java.nio.ByteBuffer)null);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-            glBindFramebuffer(GL_FRAMEBUFFER, pingpongFBO[i]);
-            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, pingpongTexture[i], 0);
-            
-            if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
-                System.err.println("ERROR: Ping-pong FBO " + i + " is not complete!");
-            }
+        // 2. Bright pass into level 0, then downsample level by level.
+        for (int level = 0; level < levelCount; level++) {
+            int source = level == 0 ? sceneColor : levels[level - 1];
+            boolean brightPass = level == 0;
+            graph.addPass("Bloom downsample " + level,
+                    targets -> downsample(targets.getTexture(source), brightPass, threshold))
+                 .read(source).write(levels[level]).profile("Bloom");
         }
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-    }
-    
-    // 4. Create a full-screen quad.
-    private void initFullScreenQuad() {
-        float[] quadVertices = {
-            // positions   // texCoords
-            -1.0f,  1.0f,  0.0f, 1.0f,
-            -1.0f, -1.0f,  0.0f, 0.0f,
-             1.0f, -1.0f,  1.0f, 0.0f,
-             
-            -1.0f,  1.0f,  0.0f, 1.0f,
-             1.0f, -1.0f,  1.0f, 0.0f,
-             1.0f,  1.0f,  1.0f, 1.0f
-        };
-        
-        quadVAO = glGenVertexArrays();
-        quadVBO = glGenBuffers();
-        glBindVertexArray(quadVAO);
-        glBindBuffer(GL_ARRAY_BUFFER, quadVBO);
-        glBufferData(GL_ARRAY_BUFFER, quadVertices, GL_STATIC_DRAW);
-        glVertexAttribPointer(0, 2, GL_FLOAT, false, 4 * Float.BYTES, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 4 * Float.BYTES, 2 * Float.BYTES);
-        glEnableVertexAttribArray(1);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
-    }
-    
-    // 5. Load and initialize the shaders.
-    private void initShaders() {
-        // Load the bloom extraction shader.
-        bloomExtractShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl", 
-                                                 null, null, null, 
-                                                 "src/postProcessing/bloomExtract_fragment.glsl");
         
-        // Load the blur shader.
-        blurShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl",
-                                       null, null, null,
-                                       "src/postProcessing/blur_fragment.glsl");
+        // 3. Back up the chain, adding each level onto the one above it.
+        for (int level = levelCount - 2; level >= 0; level--) {
+            int source = levels[level + 1];
+            graph.addPass("Bloom upsample " + level, targets -> upsample(targets.getTexture(source)))
+                 .read(source).write(levels[level]).profile("Bloom");
+        }
         
-        // Load the bloom combine shader.
-        bloomCombineShader = new ShaderProgram("src/postProcessing/postProcess_vertex.glsl",
-                                                 null, null, null,
-                                                 "src/postProcessing/bloomCombine_fragment.glsl");
+        // 4. Combine. Level 0 is the sum of every level, keep the glow about as bright as the single blur was
+        boolean bloom = EngineSettings.Bloom && levelCount > 0;
+        int bloomLevel = levels[0];
+        float intensity = bloom ? bloomIntensity / levelCount : 0;
+        RenderGraph.Pass combine = graph.addPass("Bloom combine",
+                targets -> combine(targets.getTexture(sceneColor), bloom ? targets.getTexture(bloomLevel) : 0,
+                        intensity, sharpness, width, height))
+             .read(sceneColor).write(target).profile("Bloom");
+        if (bloom) {
+            combine.read(bloomLevel);
+        }
     }
     
-    // Bind the scene FBO for rendering your scene.
-    public void bindSceneFBO() {
-        glBindFramebuffer(GL_FRAMEBUFFER, sceneFBO);
-        glBindFramebuffer(GL_FRAMEBUFFER, sceneFBO);
-        glClearColor(0.0f, 0.0f, 0.0f, 1.0f); // Ensure black background
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        glViewport(0, 0, width, height);
-
-        
+    private void downsample(int sourceTexture, boolean brightPass, float threshold) {
+        if (brightPass) {
+            // Straight after the scene, nothing here is depth tested or culled
+            gl.disable(GL_DEPTH_TEST);
+            gl.disable(GL_CULL_FACE);
+        }
+        downsampleShader.bind();
+        downsampleShader.setUniformSampler("source", 0);
+        downsampleShader.setUniform1f("threshold", threshold);
+        downsampleShader.setUniform1i("brightPass", brightPass ? 1 : 0);
+        gl.activeTexture(GL_TEXTURE0);
+        gl.bindTexture(GL_TEXTURE_2D, sourceTexture);
+        quad.draw();
+        downsampleShader.unbind();
     }
     
-    // Unbind and switch back to default framebuffer.
-    public void unbindSceneFBO(int windowWidth, int windowHeight) {
-    	glDisable(GL_DEPTH_TEST);
-        glDisable(GL_CULL_FACE);
-       glBindFramebuffer(GL_FRAMEBUFFER, 0);
-       glViewport(0, 0, windowWidth, windowHeight);
+    private void upsample(int sourceTexture) {
+        gl.enable(GL_BLEND);
+        gl.blendFunc(GL_ONE, GL_ONE);
+        upsampleShader.bind();
+        upsampleShader.setUniformSampler("source", 0);
+        upsampleShader.setUniform1f("filterRadius", filterRadius);
+        gl.activeTexture(GL_TEXTURE0);
+        gl.bindTexture(GL_TEXTURE_2D, sourceTexture);
+        quad.draw();
+        upsampleShader.unbind();
+        // The renderers after this one expect the usual alpha blending
+        gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     }
     
-    /**
-     * Perform the full bloom post-processing.
-     * First, extract bright regions from the scene into the brightTexture.
-     * Then, apply several blur passes using ping-pong FBOs.
-     * Finally, combine the blurred bloom with the original scene.
-     *
-     * @param windowWidth  The final viewport width.
-     * @param windowHeight The final viewport height.
-     * @param threshold    The brightness threshold for bloom extraction.
-     * @param bloomIntensity The intensity for combining bloom.
-     */
     float averageBrightness = 0;
     
     private float currentExposure = 1.0f;
     private float currentGamma = 1.0f;
     float smoothingFactor = 0.01f; 
     
-    public void renderBloom(int windowWidth, int windowHeight, float threshold, float bloomIntensity) {
-    // 1. Extract bright areas.
-    glDisable(GL_DEPTH_TEST);
-    glBindFramebuffer(GL_FRAMEBUFFER, brightFBO);
-    glViewport(0, 0, width, height); // Set viewport for bright FBO
-    glClear(GL_COLOR_BUFFER_BIT);
-    bloomExtractShader.bind();
-    glActiveTexture(GL_TEXTURE0);
-    glBindTexture(GL_TEXTURE_2D, sceneTexture);
-    bloomExtractShader.setUniformSampler("sceneTexture", 0);
-    bloomExtractShader.setUniform1f("threshold", threshold);
-    
-    renderQuad();
-    bloomExtractShader.unbind();
-    glEnable(GL_DEPTH_TEST);
-    
-    // 2. Blur the bright texture using ping-pong FBOs.
-    boolean horizontal = true;
-    boolean firstIteration = true;
-    blurShader.bind();
-    for (int i = 0; i < blurIterations; i++) {
-        glBindFramebuffer(GL_FRAMEBUFFER, pingpongFBO[horizontal ? 1 : 0]);
-        glViewport(0, 0, width, height); // Set viewport for ping-pong FBO
-        glClear(GL_COLOR_BUFFER_BIT);
-        blurShader.setUniform2f("blurDirection", horizontal ? 1.0f : 0.0f, horizontal ? 0.0f : 1.0f);
-        glActiveTexture(GL_TEXTURE0);
-        if (firstIteration) {
-            glBindTexture(GL_TEXTURE_2D, brightTexture);
-            firstIteration = false;
-        } else {
-            glBindTexture(GL_TEXTURE_2D, pingpongTexture[horizontal ? 0 : 1]);
-        }
-        blurShader.setUniformSampler("image", 0);
-        renderQuad();
-        horizontal = !horizontal;
-    }
-    blurShader.unbind();
+    /**
+     * Combines the scene with the bloom, with an exposure that follows the average scene
+     * brightness.
+     *
+     * @param bloomTexture 0 to leave the bloom out
+     */
+    private void combine(int sceneTexture, int bloomTexture, float bloomIntensity, float sharpness, int width, int height) {
+    gl.disable(GL_CULL_FACE);
+    gl.enable(GL_DEPTH_TEST);
     
-    // 3. Combine the original scene with the blurred bloom texture.
-    glBindFramebuffer(GL_FRAMEBUFFER, 0);
-    glViewport(0, 0, windowWidth, windowHeight); // Reset to window viewport
-    glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    // Combine the original scene with the blurred bloom texture.
+    gl.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
     bloomCombineShader.bind();
-    glActiveTexture(GL_TEXTURE0);
-    glBindTexture(GL_TEXTURE_2D, sceneTexture);
-    glGenerateMipmap(GL_TEXTURE_2D); 
+    gl.activeTexture(GL_TEXTURE0);
+    gl.bindTexture(GL_TEXTURE_2D, sceneTexture);
+    gl.generateMipmap(GL_TEXTURE_2D); 
     
- // Create a buffer to store one pixel (RGBA floats)
-    FloatBuffer pixelBuffer = BufferUtils.createFloatBuffer(4);
-
     // Read from the smallest mipmap level (assuming level = mipLevels - 1)
     int mipLevel = (int) (Math.log(Math.max(width, height)) / Math.log(2));
-    glGetTexImage(GL_TEXTURE_2D, mipLevel, GL_RGBA, GL_FLOAT, pixelBuffer);
+    gl.getTexImage(GL_TEXTURE_2D, mipLevel, GL_RGBA, GL_FLOAT, pixelBuffer);
 
  // Retrieve color components
     float r = pixelBuffer.get(0);
@@ -326,49 +233,24 @@ public class BloomRenderer {
     
     
     bloomCombineShader.setUniformSampler("sceneTexture", 0);
-    glActiveTexture(GL_TEXTURE1);
-    glBindTexture(GL_TEXTURE_2D, pingpongTexture[horizontal ? 0 : 1]);
+    gl.activeTexture(GL_TEXTURE1);
+    gl.bindTexture(GL_TEXTURE_2D, bloomTexture);
     bloomCombineShader.setUniformSampler("bloomTexture", 1);
     bloomCombineShader.setUniform1f("bloomIntensity", bloomIntensity);
+    bloomCombineShader.setUniform1f("sharpness", sharpness);
     
     
     
     
     //bloomCombineShader.setUniform1f("exposure", 4.2f);
-    renderQuad();
+    quad.draw();
+    gl.activeTexture(GL_TEXTURE0);
     bloomCombineShader.unbind();
 }
-    // Utility method to render the full-screen quad.
-    private void renderQuad() {
-        glBindVertexArray(quadVAO);
-        glDrawArrays(GL_TRIANGLES, 0, 6);
-        glBindVertexArray(0);
-    }
-    
-    public int getSceneTexture() {
-  		return sceneTexture;
-  	}
-
-  	public void setSceneTexture(int sceneTexture) {
-  		this.sceneTexture = sceneTexture;
-  	}
-    
     // Cleanup all resources.
     public void cleanup() {
-        glDeleteFramebuffers(sceneFBO);
-        glDeleteFramebuffers(brightFBO);
-        for (int fbo : pingpongFBO) {
-            glDeleteFramebuffers(fbo);
-        }
-        glDeleteTextures(sceneTexture);
-        glDeleteTextures(brightTexture);
-        for (int tex : pingpongTexture) {
-            glDeleteTextures(tex);
-        }
-        glDeleteBuffers(quadVBO);
-        glDeleteVertexArrays(quadVAO);
-        bloomExtractShader.destroy();
-        blurShader.destroy();
+        downsampleShader.destroy();
+        upsampleShader.destroy();
         bloomCombineShader.destroy();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package postProcessing;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * The two triangles every full-screen pass draws, shared by the post-processing renderers.
+ * Attribute 0 is the position (-1 to 1) and attribute 1 the texture coordinate, as
+ * postProcess_vertex.glsl expects.
+ */
+public class FullScreenQuad {
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private final int vao;
+    private final int vbo;
+
+    public FullScreenQuad() {
+        float[] quadVertices = {
+            // positions   // texCoords
+            -1.0f,  1.0f,  0.0f, 1.0f,
+            -1.0f, -1.0f,  0.0f, 0.0f,
+             1.0f, -1.0f,  1.0f, 0.0f,
+
+            -1.0f,  1.0f,  0.0f, 1.0f,
+             1.0f, -1.0f,  1.0f, 0.0f,
+             1.0f,  1.0f,  1.0f, 1.0f
+        };
+
+        vao = gl.genVertexArrays();
+        vbo = gl.genBuffers();
+        gl.bindVertexArray(vao);
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.bufferData(GL_ARRAY_BUFFER, quadVertices, GL_STATIC_DRAW);
+        gl.vertexAttribPointer(0, 2, GL_FLOAT, false, 4 * Float.BYTES, 0);
+        gl.enableVertexAttribArray(0);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, 4 * Float.BYTES, 2 * Float.BYTES);
+        gl.enableVertexAttribArray(1);
+        gl.bindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.bindVertexArray(0);
+    }
+
+    public void draw() {
+        gl.bindVertexArray(vao);
+        gl.drawArrays(GL_TRIANGLES, 0, 6);
+        gl.bindVertexArray(0);
+    }
+
+    public void cleanUp() {
+        gl.deleteBuffers(vbo);
+        gl.deleteVertexArrays(vao);
+    }
+}
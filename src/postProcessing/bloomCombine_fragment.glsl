@@ -5,14 +5,32 @@ out vec4 fragColor;
 uniform sampler2D sceneTexture;
 uniform sampler2D bloomTexture;
 uniform float bloomIntensity;
+uniform float sharpness;       // If 0, plain bilinear upsampling of a scene rendered below screen resolution.
 
 uniform float exposure;        // If 0, disable tone mapping.
 uniform float gamma;           // If 0, disable gamma correction.
 uniform float vignetteStrength; // If 0, disable vignette effect.
 
+// Bilinear upsample with a cross shaped sharpen in scene texels. The result is clamped to the
+// neighbours, so edges get crisper without a bright or dark halo around them.
+vec3 sampleScene(vec2 uv) {
+    vec3 center = texture(sceneTexture, uv).rgb;
+    if (sharpness <= 0.0) {
+        return center;
+    }
+    vec3 north = textureOffset(sceneTexture, uv, ivec2(0, 1)).rgb;
+    vec3 south = textureOffset(sceneTexture, uv, ivec2(0, -1)).rgb;
+    vec3 east = textureOffset(sceneTexture, uv, ivec2(1, 0)).rgb;
+    vec3 west = textureOffset(sceneTexture, uv, ivec2(-1, 0)).rgb;
+    vec3 low = min(center, min(min(north, south), min(east, west)));
+    vec3 high = max(center, max(max(north, south), max(east, west)));
+    vec3 sharpened = center + (4.0 * center - (north + south + east + west)) * 0.25 * sharpness;
+    return clamp(sharpened, low, high);
+}
+
 void main() {
     // Sample scene and bloom textures safely
-    vec3 sceneColor = texture(sceneTexture, passTexCoords).rgb;
+    vec3 sceneColor = sampleScene(passTexCoords);
     vec3 bloomColor = texture(bloomTexture, passTexCoords).rgb;
 
     // Ensure texture fetches return finite numbers
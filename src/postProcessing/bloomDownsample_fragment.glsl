@@ -0,0 +1,57 @@
+#version 400 core
+in vec2 passTexCoords;
+out vec4 fragColor;
+uniform sampler2D source;
+uniform int brightPass;   // 1 for the first level: Karis average and threshold
+uniform float threshold;
+
+// Luminance weighted average of a 2x2 box, keeps single bright pixels from flickering
+vec3 karisAverage(vec3 a, vec3 b, vec3 c, vec3 d) {
+    float wa = 1.0 / (1.0 + dot(a, vec3(0.2126, 0.7152, 0.0722)));
+    float wb = 1.0 / (1.0 + dot(b, vec3(0.2126, 0.7152, 0.0722)));
+    float wc = 1.0 / (1.0 + dot(c, vec3(0.2126, 0.7152, 0.0722)));
+    float wd = 1.0 / (1.0 + dot(d, vec3(0.2126, 0.7152, 0.0722)));
+    return (a * wa + b * wb + c * wc + d * wd) / (wa + wb + wc + wd);
+}
+
+void main() {
+    // 13 taps around the center, read as five overlapping 2x2 boxes
+    vec2 texel = 1.0 / vec2(textureSize(source, 0));
+    vec2 uv = passTexCoords;
+    vec3 a = texture(source, uv + texel * vec2(-2.0,  2.0)).rgb;
+    vec3 b = texture(source, uv + texel * vec2( 0.0,  2.0)).rgb;
+    vec3 c = texture(source, uv + texel * vec2( 2.0,  2.0)).rgb;
+    vec3 d = texture(source, uv + texel * vec2(-2.0,  0.0)).rgb;
+    vec3 e = texture(source, uv).rgb;
+    vec3 f = texture(source, uv + texel * vec2( 2.0,  0.0)).rgb;
+    vec3 g = texture(source, uv + texel * vec2(-2.0, -2.0)).rgb;
+    vec3 h = texture(source, uv + texel * vec2( 0.0, -2.0)).rgb;
+    vec3 i = texture(source, uv + texel * vec2( 2.0, -2.0)).rgb;
+    vec3 j = texture(source, uv + texel * vec2(-1.0,  1.0)).rgb;
+    vec3 k = texture(source, uv + texel * vec2( 1.0,  1.0)).rgb;
+    vec3 l = texture(source, uv + texel * vec2(-1.0, -1.0)).rgb;
+    vec3 m = texture(source, uv + texel * vec2( 1.0, -1.0)).rgb;
+    
+    vec3 color;
+    if (brightPass == 1) {
+        color = karisAverage(j, k, l, m) * 0.5
+              + karisAverage(a, b, d, e) * 0.125
+              + karisAverage(b, c, e, f) * 0.125
+              + karisAverage(d, e, g, h) * 0.125
+              + karisAverage(e, f, h, i) * 0.125;
+        
+        // Soft threshold with smoothstep, as the full resolution bright pass had
+        float brightness = dot(color, vec3(0.2126, 0.7152, 0.0722));
+        float softEdge = 0.05;
+        color *= smoothstep(threshold - softEdge, threshold + softEdge, brightness);
+    } else {
+        color = (j + k + l + m) * 0.125
+              + (a + c + g + i) * 0.03125
+              + (b + d + f + h) * 0.0625
+              + e * 0.125;
+    }
+    
+    // R11F_G11F_B10F has no sign bit and no NaN, keep both out
+    if (any(isnan(color)) || any(isinf(color))) color = vec3(0.0);
+    fragColor = vec4(max(color, vec3(0.0)), 1.0);
+}
@@ -0,0 +1,17 @@
+#version 400 core
+in vec2 passTexCoords;
+out vec4 fragColor;
+uniform sampler2D source;   // the next smaller level, added onto this one by blending
+uniform float filterRadius; // in texels of the source
+
+void main() {
+    // 3x3 tent
+    vec2 r = filterRadius / vec2(textureSize(source, 0));
+    vec2 uv = passTexCoords;
+    vec3 color = texture(source, uv).rgb * 4.0;
+    color += (texture(source, uv + vec2(-r.x, 0.0)).rgb + texture(source, uv + vec2(r.x, 0.0)).rgb
+            + texture(source, uv + vec2(0.0, -r.y)).rgb + texture(source, uv + vec2(0.0, r.y)).rgb) * 2.0;
+    color += texture(source, uv + vec2(-r.x, -r.y)).rgb + texture(source, uv + vec2(r.x, -r.y)).rgb
+           + texture(source, uv + vec2(-r.x, r.y)).rgb + texture(source, uv + vec2(r.x, r.y)).rgb;
+    fragColor = vec4(color / 16.0, 1.0);
+}
@@ -0,0 +1,42 @@
+package profiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Bytes allocated on the heap by the calling thread, read from the HotSpot ThreadMXBean.
+ *
+ * The counter is kept per thread by the JVM and is exact up to the TLAB it is allocating from,
+ * so two reads around a piece of code give what that code allocated. Reading it does not
+ * allocate. On JVMs without the counter {@link #isSupported} is false and every read is 0.
+ */
+public final class AllocationTracker {
+
+    private static final com.sun.management.ThreadMXBean threads;
+
+    static {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean hotspot = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            hotspot = (com.sun.management.ThreadMXBean) bean;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                hotspot = null;
+            }
+        }
+        threads = hotspot;
+    }
+
+    private AllocationTracker() {
+    }
+
+    public static boolean isSupported() {
+        return threads != null;
+    }
+
+    /** Bytes the calling thread allocated since it started, 0 if not supported. */
+    public static long currentThreadBytes() {
+        return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,221 @@
+package profiler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Frame time statistics over windows of about a second, in place of a plain FPS counter.
+ *
+ * Every frame goes into a {@link FrameTimeHistogram}. When a window is complete its p50, p95,
+ * p99 and max are kept, together with the frames over the frame budget and the garbage
+ * collections that ran meanwhile, and the histogram starts over. An average hides a single
+ * 80 ms frame, the p99 and max do not.
+ *
+ * GC pauses come from the collectors' JMX notifications, on a JMX thread. The notification
+ * arrives after the collection, often one frame later, so a frame over budget counts as a GC
+ * spike when a collection is reported in that frame or in the next one.
+ */
+public class FrameStats {
+
+    private static final long WINDOW_MICROS = 1_000_000;
+
+    private final FrameTimeHistogram histogram = new FrameTimeHistogram();
+    private final long budgetMicros;
+    private final long startNanos = System.nanoTime();
+
+    // Written by the JMX thread, taken by record
+    private final AtomicLong pendingGcCount = new AtomicLong();
+    private final AtomicLong pendingGcMicros = new AtomicLong();
+    private final NotificationListener gcListener = this::onGcNotification;
+
+    // Current window
+    private long windowMicros;
+    private int overBudget;
+    private int gcCount;
+    private long gcMicros;
+    private int gcSpikes;
+    private boolean spikeWithoutGc; // The last frame was over budget and no GC was reported yet
+
+    // Last complete window
+    private int frames;
+    private float p50, p95, p99, max;
+    private int lastOverBudget, lastGcCount, lastGcSpikes;
+    private float lastGcMillis;
+
+    private BufferedWriter csv;
+
+    /**
+     * @param budgetMillis frame time above which a frame counts as over budget
+     */
+    public FrameStats(float budgetMillis) {
+        this.budgetMicros = (long) (budgetMillis * 1000);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+            }
+        }
+    }
+
+    private void onGcNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        if (info.getGcName().endsWith("Cycles")) {
+            return; // ZGC and Shenandoah report their concurrent cycles apart from the pauses
+        }
+        pendingGcCount.incrementAndGet();
+        pendingGcMicros.addAndGet(info.getGcInfo().getDuration() * 1000);
+    }
+
+    /**
+     * Adds a frame. Call once per frame on the main thread.
+     *
+     * @return true when this frame completed a window, the getters then describe it
+     */
+    public boolean record(long frameMicros) {
+        histogram.record(frameMicros);
+
+        // 1) Collections reported since the last frame, and whether they explain a spike
+        long collections = pendingGcCount.getAndSet(0);
+        if (collections > 0) {
+            gcCount += collections;
+            gcMicros += pendingGcMicros.getAndSet(0);
+        }
+        boolean spike = frameMicros > budgetMicros;
+        if (spike) {
+            overBudget++;
+        }
+        if (collections > 0 && (spike || spikeWithoutGc)) {
+            gcSpikes++;
+            spikeWithoutGc = false;
+        } else {
+            spikeWithoutGc = spike;
+        }
+
+        // 2) Close the window
+        windowMicros += frameMicros;
+        if (windowMicros < WINDOW_MICROS) {
+            return false;
+        }
+        frames = (int) histogram.getCount();
+        p50 = histogram.getPercentile(50) / 1000f;
+        p95 = histogram.getPercentile(95) / 1000f;
+        p99 = histogram.getPercentile(99) / 1000f;
+        max = histogram.getMax() / 1000f;
+        lastOverBudget = overBudget;
+        lastGcCount = gcCount;
+        lastGcMillis = gcMicros / 1000f;
+        lastGcSpikes = gcSpikes;
+
+        histogram.reset();
+        windowMicros = 0;
+        overBudget = 0;
+        gcCount = 0;
+        gcMicros = 0;
+        gcSpikes = 0;
+        return true;
+    }
+
+    /** Frames in the last window, its FPS when the window is a second long. */
+    public int getFrames() {
+        return frames;
+    }
+
+    public float getP50Millis() {
+        return p50;
+    }
+
+    public float getP95Millis() {
+        return p95;
+    }
+
+    public float getP99Millis() {
+        return p99;
+    }
+
+    public float getMaxMillis() {
+        return max;
+    }
+
+    public int getOverBudget() {
+        return lastOverBudget;
+    }
+
+    public int getGcCount() {
+        return lastGcCount;
+    }
+
+    public int getGcSpikes() {
+        return lastGcSpikes;
+    }
+
+    /** One line summary of the last window. */
+    public String describe() {
+        return String.format("Frames: %d | p50 %.2f ms p95 %.2f ms p99 %.2f ms max %.2f ms | over budget: %d | GC: %d (%.1f ms, %d spikes)",
+                frames, p50, p95, p99, max, lastOverBudget, lastGcCount, lastGcMillis, lastGcSpikes);
+    }
+
+    /**
+     * Appends the last window as a row of a CSV file, writing the header first when the file is
+     * new. The file stays open until {@link #cleanup}.
+     */
+    public void appendCsv(String path) {
+        try {
+            if (csv == null) {
+                Path file = Paths.get(path);
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                boolean isNew = !Files.exists(file) || Files.size(file) == 0;
+                csv = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (isNew) {
+                    csv.write("seconds,frames,p50_ms,p95_ms,p99_ms,max_ms,over_budget,gc_count,gc_ms,gc_spikes\n");
+                }
+            }
+            csv.write(String.format(Locale.ROOT, "%.1f,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%.1f,%d%n",
+                    (System.nanoTime() - startNanos) / 1e9, frames, p50, p95, p99, max,
+                    lastOverBudget, lastGcCount, lastGcMillis, lastGcSpikes));
+            csv.flush();
+        } catch (IOException e) {
+            System.err.println("[FrameStats] Failed to write " + path + ": " + e.getMessage());
+            csv = null;
+        }
+    }
+
+    public void cleanup() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) gc).removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException e) {
+                    // Was never added
+                }
+            }
+        }
+        if (csv != null) {
+            try {
+                csv.close();
+            } catch (IOException e) {
+                // Nothing left to lose
+            }
+            csv = null;
+        }
+    }
+}
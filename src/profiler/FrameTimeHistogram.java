@@ -0,0 +1,91 @@
+package profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-bucketed histogram of frame times in microseconds, in the style of HdrHistogram.
+ *
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is
+ * off by at most 1 / 32 (about 3%) while 0 µs to a minute fits in a few hundred counters.
+ * Recording is a couple of atomic adds, so any thread can record without a lock and without
+ * allocating. Percentiles report the highest value of their bucket, which errs on the slow side.
+ */
+public class FrameTimeHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Longer frames are counted as this, about 67 seconds. */
+    public static final long MAX_MICROS = (1L << 26) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucket(MAX_MICROS) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS get a bucket each. Above that, the SUB_BITS + 1 highest bits
+     * pick the bucket and the bits below them are dropped.
+     */
+    private static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** Highest value that falls into a bucket. */
+    private static long highestInBucket(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket - shift * SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return frame time in microseconds that this share of the frames did not exceed, 0 when empty
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int b = 0; b < counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= target) {
+                return Math.min(highestInBucket(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Longest recorded frame in microseconds, exact. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Clears every count. Frames recorded by other threads during the reset may be lost. */
+    public void reset() {
+        for (int b = 0; b < counts.length(); b++) {
+            counts.set(b, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,402 @@
+package profiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import graphics.GpuTimer;
+
+/**
+ * Frame profiler: nested CPU scopes, GPU time per pass, and Chrome trace capture.
+ *
+ *   Profiler.begin("Physics");
+ *   ...
+ *   Profiler.end();
+ *
+ * CPU scopes nest and work on any thread. Every thread has its own stack and sections, so the
+ * frame worker does not need a lock. GPU scopes time a pass with a {@link GpuTimer}, a ring of
+ * GL_TIME_ELAPSED queries read back without stalling, and only work on the GL thread. The GL
+ * runs one such query at a time, so a GPU scope opened inside another is ignored.
+ *
+ * With {@link #setTrackAllocations} on, every CPU scope also counts the bytes its thread
+ * allocated, read from {@link AllocationTracker}, so garbage can be traced to a phase.
+ *
+ * Times are smoothed once per frame in {@link #endFrame}. While {@link #capture} runs, every
+ * scope is also kept as a trace event, and the frames are written as Chrome trace_event JSON
+ * once they are complete.
+ */
+public final class Profiler {
+
+    private static final float SMOOTHING = 0.1f;
+    private static final int MAX_DEPTH = 32;
+
+    /** A named CPU scope of one thread. */
+    public static final class Section {
+        final String name;
+        final int depth;
+        final String threadName;
+        volatile long totalNanos; // Only written by the owning thread
+        private long countedNanos;
+        volatile float millis;
+        volatile long totalBytes; // Only written by the owning thread
+        private long countedBytes;
+        volatile long frameBytes;
+
+        Section(String name, int depth, String threadName) {
+            this.name = name;
+            this.depth = depth;
+            this.threadName = threadName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        /** Smoothed time per frame in milliseconds. */
+        public float getMillis() {
+            return millis;
+        }
+
+        /** Bytes allocated in this scope since allocation tracking was turned on. */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /** Bytes allocated in this scope during the last frame. */
+        public long getFrameBytes() {
+            return frameBytes;
+        }
+    }
+
+    /** Scopes and, while capturing, the trace events of one thread. */
+    static final class Track {
+        final String threadName;
+        final long threadId;
+        final List<Section> sections = new CopyOnWriteArrayList<>(); // First use order
+        private final Map<String, Section> byName = new HashMap<>();
+        private final Section[] stack = new Section[MAX_DEPTH];
+        private final long[] starts = new long[MAX_DEPTH];
+        private final long[] allocationStarts = new long[MAX_DEPTH];
+        private int depth;
+
+        // Trace events: section, start and duration in nanoseconds
+        Section[] eventSections = new Section[1024];
+        long[] eventTimes = new long[2048];
+        int eventCount;
+
+        Track(Thread thread) {
+            threadName = thread.getName();
+            threadId = thread.getId();
+        }
+
+        synchronized void addEvent(Section section, long start, long duration) {
+            if (eventCount == eventSections.length) {
+                eventSections = Arrays.copyOf(eventSections, eventCount * 2);
+                eventTimes = Arrays.copyOf(eventTimes, eventCount * 4);
+            }
+            eventSections[eventCount] = section;
+            eventTimes[eventCount * 2] = start;
+            eventTimes[eventCount * 2 + 1] = duration;
+            eventCount++;
+        }
+    }
+
+    /** A GPU pass. */
+    public static final class GpuSection {
+        final String name;
+        final GpuTimer timer = new GpuTimer();
+        int lastFrame = -1; // Profiler frame the section last ran in
+
+        GpuSection(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Smoothed GPU time in milliseconds, a few frames late. */
+        public float getMillis() {
+            return timer.getMillis();
+        }
+    }
+
+    private static final List<Track> tracks = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Track> track = ThreadLocal.withInitial(() -> {
+        Track t = new Track(Thread.currentThread());
+        tracks.add(t);
+        return t;
+    });
+
+    // GL thread only
+    private static final List<GpuSection> gpuSections = new ArrayList<>();
+    private static final Map<String, GpuSection> gpuByName = new HashMap<>();
+    private static GpuSection gpuOpen;
+    private static int gpuNesting;
+
+    private static volatile boolean trackAllocations;
+
+    private static long frameStart;
+    private static float frameMillis;
+    private static int frameIndex; // GL thread only
+
+    // Capture
+    private static volatile boolean capturing;
+    private static int captureFramesLeft;
+    private static String capturePath;
+    private static long captureStart;
+    private static final List<long[]> captureFrames = new ArrayList<>(); // start, duration
+    private static final List<float[]> captureGpu = new ArrayList<>();    // last GPU ms per section
+
+    private Profiler() {
+    }
+
+    // -------------------------------------------------------------------
+    // CPU scopes
+    // -------------------------------------------------------------------
+
+    public static void begin(String name) {
+        Track t = track.get();
+        if (t.depth == MAX_DEPTH) {
+            throw new IllegalStateException("Profiler scopes nested deeper than " + MAX_DEPTH);
+        }
+        Section section = t.byName.get(name);
+        if (section == null) {
+            section = new Section(name, t.depth, t.threadName);
+            t.byName.put(name, section);
+            t.sections.add(section);
+        }
+        t.stack[t.depth] = section;
+        t.allocationStarts[t.depth] = trackAllocations ? AllocationTracker.currentThreadBytes() : -1;
+        t.starts[t.depth] = System.nanoTime();
+        t.depth++;
+    }
+
+    public static void end() {
+        long now = System.nanoTime();
+        Track t = track.get();
+        if (t.depth == 0) {
+            throw new IllegalStateException("Profiler.end() without begin()");
+        }
+        t.depth--;
+        Section section = t.stack[t.depth];
+        long duration = now - t.starts[t.depth];
+        section.totalNanos += duration;
+        long allocationStart = t.allocationStarts[t.depth];
+        if (allocationStart >= 0 && trackAllocations) {
+            section.totalBytes += AllocationTracker.currentThreadBytes() - allocationStart;
+        }
+        if (capturing) {
+            t.addEvent(section, t.starts[t.depth], duration);
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // GPU scopes
+    // -------------------------------------------------------------------
+
+    public static void beginGpu(String name) {
+        if (gpuNesting++ > 0) {
+            return;
+        }
+        GpuSection section = gpuByName.get(name);
+        if (section == null) {
+            section = new GpuSection(name);
+            gpuByName.put(name, section);
+            gpuSections.add(section);
+        }
+        section.timer.begin();
+        section.lastFrame = frameIndex;
+        gpuOpen = section;
+    }
+
+    public static void endGpu() {
+        if (--gpuNesting > 0) {
+            return;
+        }
+        gpuOpen.timer.end();
+        gpuOpen = null;
+    }
+
+    /** A CPU and a GPU scope of the same name, for render passes. */
+    public static void beginPass(String name) {
+        begin(name);
+        beginGpu(name);
+    }
+
+    public static void endPass() {
+        endGpu();
+        end();
+    }
+
+    /** Smoothed GPU time of a pass in milliseconds, 0 if it never ran. */
+    public static float getGpuMillis(String name) {
+        GpuSection section = gpuByName.get(name);
+        return section == null ? 0 : section.getMillis();
+    }
+
+    // -------------------------------------------------------------------
+    // Frames
+    // -------------------------------------------------------------------
+
+    /** Starts a frame on the main thread. Everything until {@link #endFrame} counts towards it. */
+    public static void beginFrame() {
+        frameStart = System.nanoTime();
+        begin("Frame");
+    }
+
+    public static void endFrame() {
+        end();
+        long duration = System.nanoTime() - frameStart;
+        float ms = duration / 1_000_000f;
+        frameMillis = frameMillis == 0 ? ms : frameMillis + (ms - frameMillis) * SMOOTHING;
+        frameIndex++;
+
+        // Time each section spent since the last frame. Other threads' totals only grow, so
+        // reading them here without a lock at worst counts a scope one frame late. Indexed
+        // loops, an iterator would be garbage every frame.
+        for (int i = 0; i < tracks.size(); i++) {
+            List<Section> sections = tracks.get(i).sections;
+            for (int j = 0; j < sections.size(); j++) {
+                Section section = sections.get(j);
+                long total = section.totalNanos;
+                float sectionMs = (total - section.countedNanos) / 1_000_000f;
+                section.countedNanos = total;
+                section.millis += (sectionMs - section.millis) * SMOOTHING;
+
+                long bytes = section.totalBytes;
+                section.frameBytes = bytes - section.countedBytes;
+                section.countedBytes = bytes;
+            }
+        }
+
+        if (capturing) {
+            captureFrames.add(new long[] {frameStart, duration});
+            float[] gpu = new float[gpuSections.size()];
+            for (int i = 0; i < gpu.length; i++) {
+                gpu[i] = gpuSections.get(i).timer.getLastMillis();
+            }
+            captureGpu.add(gpu);
+            if (--captureFramesLeft == 0) {
+                capturing = false;
+                writeCapture();
+            }
+        }
+    }
+
+    /**
+     * Records the next frames and writes them as a Chrome trace (chrome://tracing or
+     * ui.perfetto.dev). Ignored while a capture is running.
+     */
+    public static void capture(int frames, String path) {
+        if (capturing || frames <= 0) {
+            return;
+        }
+        for (Track t : tracks) {
+            synchronized (t) {
+                t.eventCount = 0;
+            }
+        }
+        captureFrames.clear();
+        captureGpu.clear();
+        captureFramesLeft = frames;
+        capturePath = path;
+        captureStart = System.nanoTime();
+        capturing = true;
+        System.out.println("[Profiler] Capturing " + frames + " frames");
+    }
+
+    public static boolean isCapturing() {
+        return capturing;
+    }
+
+    /**
+     * Counts the bytes allocated in every CPU scope from now on. Off by default, reading the
+     * counter costs a little time per scope. Scopes already open when it is turned on
+     * are counted from the next time they are entered.
+     */
+    public static void setTrackAllocations(boolean track) {
+        trackAllocations = track && AllocationTracker.isSupported();
+    }
+
+    public static boolean isTrackingAllocations() {
+        return trackAllocations;
+    }
+
+    private static void writeCapture() {
+        List<String> gpuNames = new ArrayList<>();
+        for (GpuSection section : gpuSections) {
+            gpuNames.add(section.name);
+        }
+        if (TraceWriter.write(capturePath, captureStart, tracks, captureFrames, captureGpu, gpuNames)) {
+            System.out.println("[Profiler] Wrote " + captureFrames.size() + " frames to " + capturePath);
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Results
+    // -------------------------------------------------------------------
+
+    /** Smoothed frame time in milliseconds, from {@link #beginFrame} to {@link #endFrame}. */
+    public static float getFrameMillis() {
+        return frameMillis;
+    }
+
+    /**
+     * Smoothed GPU time of the passes that ran in the last finished frame, summed. Like the
+     * passes themselves it is a few frames late, and 0 before the first results arrive.
+     */
+    public static float getGpuFrameMillis() {
+        float millis = 0;
+        for (int i = 0; i < gpuSections.size(); i++) {
+            GpuSection section = gpuSections.get(i);
+            if (section.lastFrame >= frameIndex - 1) {
+                millis += section.getMillis();
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Like {@link #getGpuFrameMillis()}, for the named passes only. Passes that did not run in
+     * the last finished frame count 0.
+     */
+    public static float getGpuFrameMillis(String[] passes) {
+        float millis = 0;
+        for (String pass : passes) {
+            GpuSection section = gpuByName.get(pass);
+            if (section != null && section.lastFrame >= frameIndex - 1) {
+                millis += section.getMillis();
+            }
+        }
+        return millis;
+    }
+
+    /** Every CPU scope of every thread, for reports. */
+    public static List<Section> getSections() {
+        List<Section> sections = new ArrayList<>();
+        for (Track t : tracks) {
+            sections.addAll(t.sections);
+        }
+        return sections;
+    }
+
+    static List<Track> getTracks() {
+        return tracks;
+    }
+
+    static List<GpuSection> getGpuSections() {
+        return gpuSections;
+    }
+}
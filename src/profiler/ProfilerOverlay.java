@@ -0,0 +1,85 @@
+package profiler;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+
+import text.TextRenderer;
+import text.TextRenderer.TextAlignment;
+
+/**
+ * Draws the {@link Profiler} times as text: the CPU scopes of every thread, indented by
+ * nesting, then the GPU passes.
+ */
+public class ProfilerOverlay {
+
+    private static final float SCALE = 0.25f;
+    private static final float LINE_HEIGHT = 20;
+    private static final float INDENT = 16;
+
+    private final TextRenderer text;
+    private final StringBuilder line = new StringBuilder(); // Reused, the overlay is redrawn every frame
+
+    public ProfilerOverlay(TextRenderer text) {
+        this.text = text;
+    }
+
+    /**
+     * @param top y of the first line, lines go down from there
+     */
+    public void render(Matrix4f projection, float x, float top, float width) {
+        float y = top;
+        line("Frame", Profiler.getFrameMillis(), x, y, projection, width);
+        y -= LINE_HEIGHT;
+
+        // 1) CPU, the calling thread first without a header
+        long self = Thread.currentThread().getId();
+        List<Profiler.Track> tracks = Profiler.getTracks();
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i).threadId == self) {
+                y = renderSections(tracks.get(i), 0, x, y, projection, width);
+            }
+        }
+        for (int i = 0; i < tracks.size(); i++) {
+            Profiler.Track track = tracks.get(i);
+            if (track.threadId != self) {
+                line.setLength(0);
+                text.renderText(line.append('[').append(track.threadName).append(']'), x, y, SCALE, projection, width, TextAlignment.LEFT);
+                y = renderSections(track, 1, x, y - LINE_HEIGHT, projection, width);
+            }
+        }
+
+        // 2) GPU
+        List<Profiler.GpuSection> gpuSections = Profiler.getGpuSections();
+        if (!gpuSections.isEmpty()) {
+            text.renderText("[GPU]", x, y, SCALE, projection, width, TextAlignment.LEFT);
+            y -= LINE_HEIGHT;
+            for (int i = 0; i < gpuSections.size(); i++) {
+                Profiler.GpuSection section = gpuSections.get(i);
+                line(section.getName(), section.getMillis(), x + INDENT, y, projection, width);
+                y -= LINE_HEIGHT;
+            }
+        }
+    }
+
+    private float renderSections(Profiler.Track track, int indent, float x, float y, Matrix4f projection, float width) {
+        List<Profiler.Section> sections = track.sections;
+        for (int i = 0; i < sections.size(); i++) {
+            Profiler.Section section = sections.get(i);
+            if (section.getName().equals("Frame") && section.getDepth() == 0) {
+                continue; // The first line
+            }
+            int depth = indent + section.getDepth();
+            line(section.getName(), section.getMillis(), x + INDENT * depth, y, projection, width);
+            y -= LINE_HEIGHT;
+        }
+        return y;
+    }
+
+    /** Draws "name 1.23 ms" without building a new String. */
+    private void line(String name, float millis, float x, float y, Matrix4f projection, float width) {
+        line.setLength(0);
+        TextRenderer.appendFixed(line.append(name).append(' '), millis, 2).append(" ms");
+        text.renderText(line, x, y, SCALE, projection, width, TextAlignment.LEFT);
+    }
+}
@@ -0,0 +1,101 @@
+package profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes a {@link Profiler} capture in the Chrome trace_event JSON format.
+ *
+ *   - every CPU scope is a complete ("X") event on the track of its thread
+ *   - GPU times are one counter ("C") event per frame. The queries only give durations, and a
+ *     few frames late, so they are shown as a graph rather than placed on a timeline.
+ *
+ * Timestamps are microseconds since the capture started.
+ */
+final class TraceWriter {
+
+    private static final int PID = 1;
+
+    private TraceWriter() {
+    }
+
+    /**
+     * @return false if the file could not be written, the reason is printed
+     */
+    static boolean write(String path, long start, List<Profiler.Track> tracks,
+                         List<long[]> frames, List<float[]> gpu, List<String> gpuNames) {
+        Path file = Paths.get(path);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+                boolean first = true;
+
+                // 1) Thread names
+                for (Profiler.Track track : tracks) {
+                    first = separator(out, first);
+                    out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + PID + ",\"tid\":" + track.threadId
+                            + ",\"args\":{\"name\":" + quote(track.threadName) + "}}");
+                }
+
+                // 2) CPU scopes
+                for (Profiler.Track track : tracks) {
+                    synchronized (track) {
+                        for (int i = 0; i < track.eventCount; i++) {
+                            first = separator(out, first);
+                            out.write("{\"name\":" + quote(track.eventSections[i].name) + ",\"cat\":\"cpu\",\"ph\":\"X\",\"pid\":" + PID
+                                    + ",\"tid\":" + track.threadId
+                                    + ",\"ts\":" + micros(track.eventTimes[i * 2] - start)
+                                    + ",\"dur\":" + micros(track.eventTimes[i * 2 + 1]) + "}");
+                        }
+                    }
+                }
+
+                // 3) GPU passes as counters
+                for (int f = 0; f < frames.size(); f++) {
+                    float[] ms = gpu.get(f);
+                    if (ms.length == 0) {
+                        continue;
+                    }
+                    first = separator(out, first);
+                    StringBuilder args = new StringBuilder();
+                    for (int i = 0; i < ms.length && i < gpuNames.size(); i++) {
+                        if (i > 0) {
+                            args.append(',');
+                        }
+                        args.append(quote(gpuNames.get(i))).append(':').append(ms[i]);
+                    }
+                    out.write("{\"name\":\"GPU ms\",\"cat\":\"gpu\",\"ph\":\"C\",\"pid\":" + PID
+                            + ",\"ts\":" + micros(frames.get(f)[0] - start) + ",\"args\":{" + args + "}}");
+                }
+                out.write("\n]}\n");
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("[Profiler] Could not write " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean separator(Writer out, boolean first) throws IOException {
+        if (!first) {
+            out.write(",\n");
+        }
+        return false;
+    }
+
+    private static String micros(long nanos) {
+        return String.format(java.util.Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
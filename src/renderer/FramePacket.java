@@ -0,0 +1,303 @@
+package renderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Light;
+import shadows.PointShadowPasses;
+import shadows.ShadowCascades;
+import shadows.ShadowRenderer;
+
+/**
+ * Everything the GL thread needs to submit one frame.
+ *
+ * A packet is filled in two steps:
+ *   1) {@link #snapshot} on the GL thread: camera matrices, lights and shadow matrices are copied
+ *      so later input or picking cannot change them
+ *   2) the frame producer (usually on the {@link FramePipeline} worker) runs the simulation and
+ *      fills the per-pass {@link DrawList}s with the visible entities and a copy of their model matrix,
+ *      and sorts the lights into the {@link LightGrid}
+ *
+ * After that the packet is only read. Renderers take their matrices from the packet and never
+ * from the entities, so the worker can already move entities for the next frame while this one
+ * is being submitted.
+ */
+public class FramePacket {
+
+    /**
+     * Visible draws of one pass: the entity (for mesh and material) and a copy of its model matrix.
+     * Optionally the lights a {@link LightSelector} picked for each draw, and the draw order
+     * of the opaque, alpha tested and transparent passes.
+     */
+    public static class DrawList {
+        private Entity[] entities = new Entity[256];
+        private float[] models = new float[256 * 16];
+        private int[] lights = new int[256 * LightSelector.MAX_LIGHTS];
+        private int[] lightCounts = new int[256];
+        private int[] order = new int[256];
+        private int opaqueCount, alphaTestedCount;
+        private int size;
+
+        public void clear() {
+            // Drop references so removed entities can be collected.
+            Arrays.fill(entities, 0, size, null);
+            size = 0;
+            opaqueCount = 0;
+            alphaTestedCount = 0;
+        }
+
+        public void add(Entity entity, Matrix4f model) {
+            ensureCapacity();
+            entities[size] = entity;
+            model.get(models, size * 16);
+            lightCounts[size] = -1;
+            size++;
+        }
+
+        /** Adds a draw whose model matrix is stored at offset in a flat matrix array. */
+        public void add(Entity entity, float[] matrices, int offset) {
+            ensureCapacity();
+            entities[size] = entity;
+            System.arraycopy(matrices, offset, models, size * 16, 16);
+            lightCounts[size] = -1;
+            size++;
+        }
+
+        private void ensureCapacity() {
+            if (size == entities.length) {
+                entities = Arrays.copyOf(entities, size * 2);
+                models = Arrays.copyOf(models, size * 2 * 16);
+                lights = Arrays.copyOf(lights, size * 2 * LightSelector.MAX_LIGHTS);
+                lightCounts = Arrays.copyOf(lightCounts, size * 2);
+                order = Arrays.copyOf(order, size * 2);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Entity getEntity(int index) {
+            return entities[index];
+        }
+
+        /** Copies the model matrix of a draw into dest. */
+        public Matrix4f getModel(int index, Matrix4f dest) {
+            return dest.set(models, index * 16);
+        }
+
+        /**
+         * Picks the lights of a draw for a bounding sphere around its model matrix translation.
+         * They are stored at index * MAX_LIGHTS in {@link #getLights}.
+         */
+        public void selectLights(int index, LightSelector selector, float radius) {
+            int m = index * 16;
+            lightCounts[index] = selector.select(models[m + 12], models[m + 13], models[m + 14], radius,
+                    lights, index * LightSelector.MAX_LIGHTS);
+        }
+
+        /** Number of lights picked for a draw, or -1 if none were picked. */
+        public int getLightCount(int index) {
+            return lightCounts[index];
+        }
+
+        public int[] getLights() {
+            return lights;
+        }
+
+        /**
+         * Draw order by pass: the first opaqueCount entries of {@link #getOrder} are the opaque
+         * draws, then alphaTestedCount alpha tested ones, then the transparent ones.
+         */
+        public void setPassCounts(int opaqueCount, int alphaTestedCount) {
+            this.opaqueCount = opaqueCount;
+            this.alphaTestedCount = alphaTestedCount;
+        }
+
+        /** Draw indices in submission order, filled by the renderer that sorts the passes. */
+        public int[] getOrder() {
+            return order;
+        }
+
+        public int getOpaqueCount() {
+            return opaqueCount;
+        }
+
+        public int getAlphaTestedCount() {
+            return alphaTestedCount;
+        }
+
+        public int getTransparentCount() {
+            return size - opaqueCount - alphaTestedCount;
+        }
+
+        /** Depth, in view space, of the center of a draw's bounds. */
+        public float getViewDepth(int index, Matrix4f view) {
+            int m = index * 16;
+            float x = models[m + 12], y = models[m + 13], z = models[m + 14];
+            return -(view.m02() * x + view.m12() * y + view.m22() * z + view.m32());
+        }
+    }
+
+    private float deltaTime;
+
+    // Camera
+    private final Matrix4f view = new Matrix4f();
+    private final Matrix4f projection = new Matrix4f();
+    private final Vector3f cameraPosition = new Vector3f();
+
+    // Lights (copies, index 0 is the sun and 1 the moon as in Main)
+    private final List<Light> lights = new ArrayList<>();
+    private final ShadowCascades shadowCascades = new ShadowCascades();
+    private final Vector3f directionalLightDir = new Vector3f();
+    private final LightGrid lightGrid = new LightGrid();
+
+    // Passes
+    private final DrawList mainPass = new DrawList();
+    private final DrawList[] shadowPasses = new DrawList[ShadowCascades.MAX_CASCADES]; // One per cascade
+    private final DrawList[] staticShadowPasses = new DrawList[ShadowCascades.MAX_CASCADES];
+    private final long[] staticShadowKeys = new long[ShadowCascades.MAX_CASCADES];
+    private final PointShadowPasses pointShadows = new PointShadowPasses();
+
+    // Editor
+    private Entity openEntity;
+    private final Vector3f openEntityPosition = new Vector3f();
+
+    public FramePacket() {
+        for (int i = 0; i < shadowPasses.length; i++) {
+            shadowPasses[i] = new DrawList();
+            staticShadowPasses[i] = new DrawList();
+        }
+    }
+
+    /**
+     * Copies the camera and lights and resets the draw lists. Call on the thread that owns them.
+     *
+     * @param shadowLight the light the shadow cascades are rendered from (sun or moon)
+     */
+    public void snapshot(float deltaTime, Camera camera, Matrix4f projection, List<Light> lights, Light shadowLight) {
+        this.deltaTime = deltaTime;
+        camera.getViewMatrix(view);
+        this.projection.set(projection);
+        cameraPosition.set(camera.getPosition());
+
+        while (this.lights.size() < lights.size()) {
+            this.lights.add(new Light(new Vector3f(), new Vector3f(), new Vector3f()));
+        }
+        while (this.lights.size() > lights.size()) {
+            this.lights.remove(this.lights.size() - 1);
+        }
+        for (int i = 0; i < lights.size(); i++) {
+            Light src = lights.get(i);
+            Light dst = this.lights.get(i);
+            dst.setPosition(src.getPosition());
+            dst.setColor(src.getColor());
+            dst.getAttenuation().set(src.getAttenuation());
+            dst.getDirection().set(src.getDirection());
+            dst.setCastShadow(src.isCastShadow());
+        }
+
+        ShadowRenderer.fitCascades(shadowLight, camera, projection, shadowCascades);
+
+        // Same inversion the shaders have always used for the sun direction
+        directionalLightDir.set(lights.get(0).getPosition()).normalize();
+        directionalLightDir.z = -directionalLightDir.z;
+        directionalLightDir.x = -directionalLightDir.x;
+
+        mainPass.clear();
+        for (int i = 0; i < shadowPasses.length; i++) {
+            shadowPasses[i].clear();
+            staticShadowPasses[i].clear();
+        }
+        pointShadows.clear();
+    }
+
+    public float getDeltaTime() {
+        return deltaTime;
+    }
+
+    public Matrix4f getView() {
+        return view;
+    }
+
+    public Matrix4f getProjection() {
+        return projection;
+    }
+
+    public Vector3f getCameraPosition() {
+        return cameraPosition;
+    }
+
+    public List<Light> getLights() {
+        return lights;
+    }
+
+    /** Shadow cascades, the shadow map is rendered and sampled with the same ones. */
+    public ShadowCascades getShadowCascades() {
+        return shadowCascades;
+    }
+
+    public Vector3f getDirectionalLightDir() {
+        return directionalLightDir;
+    }
+
+    /** Lights sorted into view clusters, filled by the producer. */
+    public LightGrid getLightGrid() {
+        return lightGrid;
+    }
+
+    public DrawList getMainPass() {
+        return mainPass;
+    }
+
+    /** Moving casters of a cascade, drawn every frame. */
+    public DrawList getShadowPass(int cascade) {
+        return shadowPasses[cascade];
+    }
+
+    /** Static casters of a cascade, only drawn when {@link #getStaticShadowKey} changes. */
+    public DrawList getStaticShadowPass(int cascade) {
+        return staticShadowPasses[cascade];
+    }
+
+    /** Identifies the static casters of a cascade and their transforms. */
+    public long getStaticShadowKey(int cascade) {
+        return staticShadowKeys[cascade];
+    }
+
+    public void setStaticShadowKey(int cascade, long key) {
+        staticShadowKeys[cascade] = key;
+    }
+
+    /** Point light shadow faces to draw this frame and the shadow record of every light. */
+    public PointShadowPasses getPointShadows() {
+        return pointShadows;
+    }
+
+    /** The entity open in the editor, or null. Set with the snapshot, on the GL thread. */
+    public void setOpenEntity(Entity entity) {
+        openEntity = entity;
+    }
+
+    /** Copies the open entity's position once the producer has moved the entities. */
+    public void captureOpenEntity() {
+        if (openEntity != null) {
+            openEntityPosition.set(openEntity.getPosition());
+        }
+    }
+
+    public Entity getOpenEntity() {
+        return openEntity;
+    }
+
+    /** Position of the open entity in this packet, see {@link #captureOpenEntity}. */
+    public Vector3f getOpenEntityPosition() {
+        return openEntityPosition;
+    }
+}
@@ -0,0 +1,129 @@
+package renderer;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Two stage frame pipeline: while the GL thread submits frame N, a worker thread simulates and
+ * culls frame N+1.
+ *
+ * There are two {@link FramePacket}s. Each frame the GL thread
+ *   1) waits for the worker to finish the packet it was producing
+ *   2) takes a snapshot (camera, lights) into the other packet and hands it to the worker
+ *   3) submits the finished packet
+ *
+ * so CPU frame time approaches max(simulate + cull, submit) instead of their sum. The price is
+ * one frame of latency: what is on screen was simulated from the input of the previous frame.
+ *
+ * The worker only runs between {@link #advance()} and the next {@link #sync()}. Anything that
+ * changes entities on the GL thread (picking, editing, adding entities) must happen after
+ * {@link #sync()}.
+ */
+public class FramePipeline {
+
+    /**
+     * One step of producing a frame packet.
+     */
+    public interface Stage {
+        void run(FramePacket packet);
+    }
+
+    private final FramePacket[] packets = { new FramePacket(), new FramePacket() };
+    private final Stage snapshot;
+    private final Stage producer;
+    private final ExecutorService worker;
+
+    private Future<?> inFlight;
+    private FramePacket producing;
+    private FramePacket ready;
+
+    private long lastProduceNanos;
+
+    /**
+     * @param snapshot runs on the calling (GL) thread and copies what the producer must not read live
+     * @param producer runs on the worker thread: simulation and culling into the packet's draw lists
+     */
+    public FramePipeline(Stage snapshot, Stage producer) {
+        this.snapshot = snapshot;
+        this.producer = producer;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "frame-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the packet to submit this frame and starts producing the next one on the worker.
+     * The first call produces its packet on the calling thread.
+     */
+    public FramePacket advance() {
+        sync();
+        if (ready == null) {
+            ready = packets[0];
+            snapshot.run(ready);
+            produce(ready);
+        }
+
+        FramePacket current = ready;
+        FramePacket next = current == packets[0] ? packets[1] : packets[0];
+        snapshot.run(next);
+        producing = next;
+        inFlight = worker.submit(() -> produce(next));
+        ready = null;
+        return current;
+    }
+
+    /**
+     * Produces and returns a packet entirely on the calling thread, without any extra latency.
+     */
+    public FramePacket runSerial() {
+        sync();
+        // The next advance() must not submit a packet produced from an older snapshot
+        ready = null;
+        snapshot.run(packets[0]);
+        produce(packets[0]);
+        return packets[0];
+    }
+
+    /**
+     * Waits until the worker is idle. Afterwards the scene can be changed safely.
+     */
+    public void sync() {
+        if (inFlight == null) {
+            return;
+        }
+        try {
+            inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the frame worker", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Frame worker failed", e.getCause());
+        } finally {
+            inFlight = null;
+        }
+        ready = producing;
+        producing = null;
+    }
+
+    private void produce(FramePacket packet) {
+        long start = System.nanoTime();
+        producer.run(packet);
+        lastProduceNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Time the last simulate and cull step took, wherever it ran.
+     */
+    public long getLastProduceNanos() {
+        return lastProduceNanos;
+    }
+
+    public void shutdown() {
+        sync();
+        worker.shutdown();
+    }
+}
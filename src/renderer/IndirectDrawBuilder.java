@@ -0,0 +1,192 @@
+package renderer;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+
+import toolbox.MeshPool;
+
+/**
+ * CPU-side builder for multi-draw indirect command buffers.
+ *
+ * The visible-set stage calls {@link #add} once per visible draw with a batch key (anything
+ * that forces a state change between draws: shader variant, bound textures, ...). {@link #build()}
+ * then groups the draws by batch key and writes:
+ *
+ *   - DrawElementsIndirectCommand records (count, instanceCount, firstIndex, baseVertex, baseInstance)
+ *   - per-draw data records (model matrix index, material index, 0, 0) indexed by baseInstance
+ *   - the model matrices, in the order they were added
+ *
+ * Each batch can then be submitted with a single glMultiDrawElementsIndirect.
+ * No GL calls are made here, so command generation can be checked without a context.
+ */
+public class IndirectDrawBuilder {
+
+    /** ints per DrawElementsIndirectCommand. */
+    public static final int COMMAND_INTS = 5;
+    /** Size of one command in bytes (the stride passed to glMultiDrawElementsIndirect). */
+    public static final int COMMAND_STRIDE = COMMAND_INTS * Integer.BYTES;
+    /** ints per draw data record (ivec4 in the shader). */
+    public static final int DRAW_DATA_INTS = 4;
+    /** floats per model matrix. */
+    public static final int MATRIX_FLOATS = 16;
+
+    // Staging, in add() order.
+    private int drawCount;
+    private int[] batchKeys = new int[256];
+    private int[] firstIndices = new int[256];
+    private int[] indexCounts = new int[256];
+    private int[] baseVertices = new int[256];
+    private int[] materialIndices = new int[256];
+    private float[] matrices = new float[256 * MATRIX_FLOATS];
+    private long[] sortKeys = new long[256];
+
+    // Output, grouped by batch.
+    private int[] commands = new int[256 * COMMAND_INTS];
+    private int[] drawData = new int[256 * DRAW_DATA_INTS];
+    private int batchCount;
+    private int[] batchKeyOut = new int[64];
+    private int[] batchFirst = new int[64];
+    private int[] batchSize = new int[64];
+
+    /** Clears all staged draws so the builder can be reused next frame. */
+    public void reset() {
+        drawCount = 0;
+        batchCount = 0;
+    }
+
+    /**
+     * Stages one draw.
+     *
+     * @param batchKey      draws with the same key end up in the same multi-draw call
+     * @param slot          where the mesh lives in the {@link MeshPool}
+     * @param materialIndex index into the material table
+     * @param model         the model matrix of the draw
+     */
+    public void add(int batchKey, MeshPool.Slot slot, int materialIndex, Matrix4f model) {
+        add(batchKey, slot.firstIndex, slot.indexCount, slot.baseVertex, materialIndex, model);
+    }
+
+    public void add(int batchKey, int firstIndex, int indexCount, int baseVertex, int materialIndex, Matrix4f model) {
+        ensureStagingCapacity(drawCount + 1);
+        int i = drawCount++;
+        batchKeys[i] = batchKey;
+        firstIndices[i] = firstIndex;
+        indexCounts[i] = indexCount;
+        baseVertices[i] = baseVertex;
+        materialIndices[i] = materialIndex;
+        model.get(matrices, i * MATRIX_FLOATS);
+    }
+
+    /**
+     * Groups the staged draws by batch key (stable within a batch) and writes the
+     * command and draw data arrays.
+     */
+    public void build() {
+        batchCount = 0;
+        if (drawCount == 0) {
+            return;
+        }
+        ensureOutputCapacity(drawCount);
+
+        // Batch key in the high bits, add() order in the low bits keeps the sort stable.
+        for (int i = 0; i < drawCount; i++) {
+            sortKeys[i] = ((long) batchKeys[i] << 32) | (i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(sortKeys, 0, drawCount);
+
+        int currentKey = 0;
+        for (int out = 0; out < drawCount; out++) {
+            int src = (int) sortKeys[out];
+            int key = batchKeys[src];
+            if (out == 0 || key != currentKey) {
+                ensureBatchCapacity(batchCount + 1);
+                batchKeyOut[batchCount] = key;
+                batchFirst[batchCount] = out;
+                batchSize[batchCount] = 0;
+                batchCount++;
+                currentKey = key;
+            }
+            batchSize[batchCount - 1]++;
+
+            int c = out * COMMAND_INTS;
+            commands[c] = indexCounts[src];
+            commands[c + 1] = 1;               // instanceCount
+            commands[c + 2] = firstIndices[src];
+            commands[c + 3] = baseVertices[src];
+            commands[c + 4] = out;             // baseInstance == draw id
+
+            int d = out * DRAW_DATA_INTS;
+            drawData[d] = src;                 // model matrix index
+            drawData[d + 1] = materialIndices[src];
+            drawData[d + 2] = 0;
+            drawData[d + 3] = 0;
+        }
+    }
+
+    public int getDrawCount() {
+        return drawCount;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public int getBatchKey(int batch) {
+        return batchKeyOut[batch];
+    }
+
+    /** Index of the first command of a batch (multiply by {@link #COMMAND_STRIDE} for the byte offset). */
+    public int getBatchFirstCommand(int batch) {
+        return batchFirst[batch];
+    }
+
+    public int getBatchCommandCount(int batch) {
+        return batchSize[batch];
+    }
+
+    /** Command records, {@link #COMMAND_INTS} ints each, valid up to {@code getDrawCount() * COMMAND_INTS}. */
+    public int[] getCommands() {
+        return commands;
+    }
+
+    /** Draw data records, {@link #DRAW_DATA_INTS} ints each. */
+    public int[] getDrawData() {
+        return drawData;
+    }
+
+    /** Model matrices, {@link #MATRIX_FLOATS} floats each, in add() order. */
+    public float[] getMatrices() {
+        return matrices;
+    }
+
+    private void ensureStagingCapacity(int draws) {
+        if (draws <= batchKeys.length) {
+            return;
+        }
+        int capacity = Math.max(draws, batchKeys.length * 2);
+        batchKeys = Arrays.copyOf(batchKeys, capacity);
+        firstIndices = Arrays.copyOf(firstIndices, capacity);
+        indexCounts = Arrays.copyOf(indexCounts, capacity);
+        baseVertices = Arrays.copyOf(baseVertices, capacity);
+        materialIndices = Arrays.copyOf(materialIndices, capacity);
+        matrices = Arrays.copyOf(matrices, capacity * MATRIX_FLOATS);
+        sortKeys = Arrays.copyOf(sortKeys, capacity);
+    }
+
+    private void ensureOutputCapacity(int draws) {
+        if (draws * COMMAND_INTS > commands.length) {
+            commands = new int[draws * COMMAND_INTS * 2];
+            drawData = new int[draws * DRAW_DATA_INTS * 2];
+        }
+    }
+
+    private void ensureBatchCapacity(int batches) {
+        if (batches > batchKeyOut.length) {
+            int capacity = batchKeyOut.length * 2;
+            batchKeyOut = Arrays.copyOf(batchKeyOut, capacity);
+            batchFirst = Arrays.copyOf(batchFirst, capacity);
+            batchSize = Arrays.copyOf(batchSize, capacity);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package renderer;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import static org.lwjgl.opengl.GL40.*;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+
+import entities.Entity;
+import toolbox.MeshPool;
+
+/**
+ * Uploads the output of an {@link IndirectDrawBuilder} and submits it with one
+ * glMultiDrawElementsIndirect per batch.
+ *
+ * Bindings used by the indirect vertex shaders:
+ *   - SSBO binding 0: model matrices (mat4[])
+ *   - SSBO binding 1: per-draw data (ivec4[]: model matrix index, material index)
+ *   - vertex attribute 5: draw id (see {@link MeshPool})
+ *
+ * Draws are batched per material because the GL 4.0 pipeline still binds one set of
+ * textures at a time. The material index is written per draw so the shaders can look it up
+ * once textures move to arrays.
+ */
+public class IndirectRenderer {
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    public static final int MATRIX_BINDING = 0;
+    public static final int DRAW_DATA_BINDING = 1;
+
+    /** Called once per batch before its multi-draw so the caller can bind textures/uniforms. */
+    public interface BatchBinder {
+        void bind(int batchKey);
+    }
+
+    private final MeshPool pool;
+
+    // Material table: one representative entity per distinct material.
+    private final Map<MaterialKey, Integer> materialIndices = new HashMap<>();
+    private final List<Entity> materials = new ArrayList<>();
+    private final Map<Entity, Integer> entityMaterials = new IdentityHashMap<>();
+
+    private final int commandBuffer;
+    private final int matrixBuffer;
+    private final int drawDataBuffer;
+
+    private IntBuffer commandData = BufferUtils.createIntBuffer(256 * IndirectDrawBuilder.COMMAND_INTS);
+    private IntBuffer drawData = BufferUtils.createIntBuffer(256 * IndirectDrawBuilder.DRAW_DATA_INTS);
+    private FloatBuffer matrixData = BufferUtils.createFloatBuffer(256 * IndirectDrawBuilder.MATRIX_FLOATS);
+
+    public IndirectRenderer(MeshPool pool) {
+        this.pool = pool;
+        commandBuffer = gl.genBuffers();
+        matrixBuffer = gl.genBuffers();
+        drawDataBuffer = gl.genBuffers();
+    }
+
+    /**
+     * Multi-draw indirect and SSBOs need GL 4.3.
+     */
+    public static boolean isSupported() {
+        return Graphics.device().supportsMultiDrawIndirect();
+    }
+
+    public MeshPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the material index for an entity, registering its material on first use.
+     */
+    public int getMaterialIndex(Entity entity) {
+        Integer cached = entityMaterials.get(entity);
+        if (cached != null) {
+            return cached;
+        }
+        MaterialKey key = new MaterialKey(entity);
+        Integer index = materialIndices.get(key);
+        if (index == null) {
+            index = materials.size();
+            materials.add(entity);
+            materialIndices.put(key, index);
+        }
+        entityMaterials.put(entity, index);
+        return index;
+    }
+
+    /**
+     * Returns an entity that carries the textures and parameters of a material.
+     */
+    public Entity getMaterialEntity(int materialIndex) {
+        return materials.get(materialIndex);
+    }
+
+    /**
+     * Builds, uploads and draws everything staged in the builder.
+     *
+     * @param builder the staged draws
+     * @param mode    primitive mode (GL_PATCHES for the tessellated pipeline, GL_TRIANGLES otherwise)
+     * @param binder  invoked before each batch
+     */
+    public void submit(IndirectDrawBuilder builder, int mode, BatchBinder binder) {
+        builder.build();
+        int draws = builder.getDrawCount();
+        if (draws == 0) {
+            return;
+        }
+        pool.ensureDrawIdCapacity(draws);
+        upload(builder, draws);
+
+        gl.bindVertexArray(pool.getVaoId());
+        gl.bindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        for (int b = 0; b < builder.getBatchCount(); b++) {
+            binder.bind(builder.getBatchKey(b));
+            long offset = (long) builder.getBatchFirstCommand(b) * IndirectDrawBuilder.COMMAND_STRIDE;
+            gl.multiDrawElementsIndirect(mode, GL_UNSIGNED_INT, offset,
+                    builder.getBatchCommandCount(b), IndirectDrawBuilder.COMMAND_STRIDE);
+        }
+        gl.bindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        gl.bindVertexArray(0);
+    }
+
+    private void upload(IndirectDrawBuilder builder, int draws) {
+        int commandInts = draws * IndirectDrawBuilder.COMMAND_INTS;
+        int drawInts = draws * IndirectDrawBuilder.DRAW_DATA_INTS;
+        int matrixFloats = draws * IndirectDrawBuilder.MATRIX_FLOATS;
+
+        if (commandData.capacity() < commandInts) {
+            commandData = BufferUtils.createIntBuffer(commandInts * 2);
+            drawData = BufferUtils.createIntBuffer(drawInts * 2);
+            matrixData = BufferUtils.createFloatBuffer(matrixFloats * 2);
+        }
+
+        commandData.clear();
+        commandData.put(builder.getCommands(), 0, commandInts).flip();
+        drawData.clear();
+        drawData.put(builder.getDrawData(), 0, drawInts).flip();
+        matrixData.clear();
+        matrixData.put(builder.getMatrices(), 0, matrixFloats).flip();
+
+        // Orphan and refill every frame; the data is rebuilt from the visible set anyway.
+        gl.bindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        gl.bufferData(GL_DRAW_INDIRECT_BUFFER, commandData, GL_STREAM_DRAW);
+        gl.bindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+
+        gl.bindBuffer(GL_SHADER_STORAGE_BUFFER, matrixBuffer);
+        gl.bufferData(GL_SHADER_STORAGE_BUFFER, matrixData, GL_STREAM_DRAW);
+        gl.bindBuffer(GL_SHADER_STORAGE_BUFFER, drawDataBuffer);
+        gl.bufferData(GL_SHADER_STORAGE_BUFFER, drawData, GL_STREAM_DRAW);
+        gl.bindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        gl.bindBufferBase(GL_SHADER_STORAGE_BUFFER, MATRIX_BINDING, matrixBuffer);
+        gl.bindBufferBase(GL_SHADER_STORAGE_BUFFER, DRAW_DATA_BINDING, drawDataBuffer);
+    }
+
+    public void cleanup() {
+        gl.deleteBuffers(commandBuffer);
+        gl.deleteBuffers(matrixBuffer);
+        gl.deleteBuffers(drawDataBuffer);
+    }
+
+    /**
+     * Everything that forces a texture/uniform change between two draws.
+     */
+    private static class MaterialKey {
+        private final int[] ids;
+        private final float[] params;
+        private final boolean transparent;
+
+        MaterialKey(Entity e) {
+            ids = new int[] { e.getTextureId(), e.getNormalMapId(), e.getHeighMapId(),
+                    e.getMetallicMap(), e.getRoughnessMap(), e.getAoMap() };
+            float px = 0, py = 0, pz = 0;
+            if (e.getParallaxScale() != null) {
+                px = e.getParallaxScale().x;
+                py = e.getParallaxScale().y;
+                pz = e.getParallaxScale().z;
+            }
+            params = new float[] { e.getShineDamper(), e.getReflectivity(), px, py, pz };
+            transparent = e.isHasTransparency();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MaterialKey)) {
+                return false;
+            }
+            MaterialKey other = (MaterialKey) o;
+            return transparent == other.transparent
+                    && java.util.Arrays.equals(ids, other.ids)
+                    && java.util.Arrays.equals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * java.util.Arrays.hashCode(ids) + java.util.Arrays.hashCode(params))
+                    + (transparent ? 1 : 0);
+        }
+    }
+}
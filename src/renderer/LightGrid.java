@@ -0,0 +1,291 @@
+package renderer;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Light;
+
+/**
+ * Clustered light assignment for forward shading.
+ *
+ * The view frustum is split into a grid of clusters: screen tiles in x and y, and slices in
+ * depth that grow exponentially, so near clusters are small and far ones large. Each light is
+ * a sphere of its effective distance. A light is listed in every cluster its sphere touches,
+ * and a fragment only shades the lights of its own cluster instead of every light in the scene.
+ *
+ * The result is three flat arrays, ready to upload as texture buffers:
+ *   - lights:  3 vec4 per light (position and range, color, attenuation)
+ *   - grid:    offset and count per cluster into the index list
+ *   - indices: light indices, in scene order within each cluster
+ *
+ * The lists are built in two passes over the clusters, one counting and one writing straight
+ * into the final index list, so there is no per-cluster scratch memory to compact. Both passes
+ * work slice by slice, in parallel on the fork-join pool when there are enough lights.
+ */
+public class LightGrid {
+
+    public static final int TILES_X = 16;
+    public static final int TILES_Y = 9;
+    public static final int SLICES = 24;
+    public static final int CLUSTER_COUNT = TILES_X * TILES_Y * SLICES;
+
+    // Depth range of the slices. Anything closer is in the first slice, anything further in the last.
+    public static final float SLICE_NEAR = 1f;
+    public static final float SLICE_FAR = 3000f;
+
+    // Lights below this are assigned on the calling thread
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    private static final float SLICE_SCALE = (float) (SLICES / Math.log(SLICE_FAR / SLICE_NEAR));
+    private static final float SLICE_BIAS = (float) (-SLICES * Math.log(SLICE_NEAR) / Math.log(SLICE_FAR / SLICE_NEAR));
+
+    // Output
+    private float[] lightData = new float[16 * 12];
+    private int lightCount;
+    private final int[] grid = new int[CLUSTER_COUNT * 2];
+    private int[] indices = new int[1024];
+    private int indexCount;
+
+    // Lights in view space and the clusters they can touch
+    private float[] spheres = new float[16 * 4];
+    private int[] ranges = new int[16 * 6]; // slice, tile x, tile y: first and last
+
+    // Next free slot of every cluster in indices while writing
+    private final int[] cursors = new int[CLUSTER_COUNT];
+
+    // View space bounds of the clusters, min and max per axis. A cluster's box is separable:
+    // z only depends on the slice, x on slice and tile column, y on slice and tile row.
+    private final float[] sliceZ = new float[SLICES * 2];
+    private final float[] tileX = new float[SLICES * TILES_X * 2];
+    private final float[] tileY = new float[SLICES * TILES_Y * 2];
+    private float boxesM00 = Float.NaN, boxesM11 = Float.NaN;
+
+    private final Vector3f viewPosition = new Vector3f();
+
+    /**
+     * Assigns the lights to the clusters of the given view.
+     *
+     * @param projection symmetric perspective projection
+     */
+    public void build(List<Light> lights, Matrix4f view, Matrix4f projection) {
+        float m00 = projection.m00(), m11 = projection.m11();
+        if (m00 != boxesM00 || m11 != boxesM11) {
+            buildClusterBoxes(m00, m11);
+        }
+
+        // 1) Light data, view space spheres and cluster ranges
+        lightCount = lights.size();
+        if (lightData.length < lightCount * 12) {
+            lightData = new float[lightCount * 12];
+            spheres = new float[lightCount * 4];
+            ranges = new int[lightCount * 6];
+        }
+        for (int i = 0; i < lightCount; i++) {
+            Light light = lights.get(i);
+            Vector3f p = light.getPosition(), c = light.getColor(), a = light.getAttenuation();
+            float radius = light.getEffectiveDistance();
+            int d = i * 12;
+            lightData[d] = p.x; lightData[d + 1] = p.y; lightData[d + 2] = p.z; lightData[d + 3] = radius;
+            lightData[d + 4] = c.x; lightData[d + 5] = c.y; lightData[d + 6] = c.z; lightData[d + 7] = 0;
+            lightData[d + 8] = a.x; lightData[d + 9] = a.y; lightData[d + 10] = a.z; lightData[d + 11] = 0;
+
+            view.transformPosition(p, viewPosition);
+            spheres[i * 4] = viewPosition.x;
+            spheres[i * 4 + 1] = viewPosition.y;
+            spheres[i * 4 + 2] = viewPosition.z;
+            spheres[i * 4 + 3] = radius;
+            // Dark lights and lights without reach are in no cluster, the shader skipped them anyway
+            boolean dark = c.lengthSquared() < 0.001f * 0.001f;
+            computeRange(i, dark || !(radius > 0), m00, m11);
+        }
+
+        // 2) Count the lights of every cluster. Each slice only touches its own clusters.
+        forEachSlice(false);
+
+        // 3) Offsets into the index list
+        indexCount = 0;
+        for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+            grid[cluster * 2] = indexCount;
+            cursors[cluster] = indexCount;
+            indexCount += grid[cluster * 2 + 1];
+        }
+        if (indices.length < indexCount) {
+            indices = new int[Math.max(indexCount, indices.length * 2)];
+        }
+
+        // 4) Write the lists
+        forEachSlice(true);
+    }
+
+    private void forEachSlice(boolean write) {
+        if (lightCount >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, SLICES).parallel().forEach(slice -> fillSlice(slice, write));
+        } else {
+            for (int slice = 0; slice < SLICES; slice++) {
+                fillSlice(slice, write);
+            }
+        }
+    }
+
+    /**
+     * Conservative slice and tile range of a light, from the corners of its view space box.
+     */
+    private void computeRange(int light, boolean empty, float m00, float m11) {
+        int r = light * 6;
+        if (empty) {
+            ranges[r] = 0;
+            ranges[r + 1] = -1;
+            return;
+        }
+        float x = spheres[light * 4], y = spheres[light * 4 + 1], z = spheres[light * 4 + 2], radius = spheres[light * 4 + 3];
+        // View space looks down -z, depth is -z
+        float nearDepth = -z - radius, farDepth = -z + radius;
+        if (farDepth <= 0) {
+            ranges[r] = 0;
+            ranges[r + 1] = -1; // Behind the camera
+            return;
+        }
+        ranges[r] = sliceOf(nearDepth);
+        ranges[r + 1] = sliceOf(farDepth);
+
+        if (nearDepth <= SLICE_NEAR * 0.5f || Float.isInfinite(radius)) {
+            // Reaches the camera, every tile may be affected
+            ranges[r + 2] = 0;
+            ranges[r + 3] = TILES_X - 1;
+            ranges[r + 4] = 0;
+            ranges[r + 5] = TILES_Y - 1;
+            return;
+        }
+        // x / depth is monotonic in both, so the corners give the extremes
+        float minX = Math.min((x - radius) / nearDepth, (x - radius) / farDepth) * m00;
+        float maxX = Math.max((x + radius) / nearDepth, (x + radius) / farDepth) * m00;
+        float minY = Math.min((y - radius) / nearDepth, (y - radius) / farDepth) * m11;
+        float maxY = Math.max((y + radius) / nearDepth, (y + radius) / farDepth) * m11;
+        ranges[r + 2] = tileOf(minX, TILES_X);
+        ranges[r + 3] = tileOf(maxX, TILES_X);
+        ranges[r + 4] = tileOf(minY, TILES_Y);
+        ranges[r + 5] = tileOf(maxY, TILES_Y);
+    }
+
+    private static int sliceOf(float depth) {
+        if (depth <= SLICE_NEAR) {
+            return 0;
+        }
+        return Math.min(SLICES - 1, (int) (Math.log(depth) * SLICE_SCALE + SLICE_BIAS));
+    }
+
+    private static int tileOf(float ndc, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor((ndc * 0.5f + 0.5f) * tiles)));
+    }
+
+    /**
+     * Counts (write false) or writes (write true) the lights of every cluster in a slice.
+     */
+    private void fillSlice(int slice, boolean write) {
+        int first = slice * TILES_X * TILES_Y;
+        if (!write) {
+            for (int cluster = first; cluster < first + TILES_X * TILES_Y; cluster++) {
+                grid[cluster * 2 + 1] = 0;
+            }
+        }
+        for (int light = 0; light < lightCount; light++) {
+            int r = light * 6;
+            if (slice < ranges[r] || slice > ranges[r + 1]) {
+                continue;
+            }
+            float x = spheres[light * 4], y = spheres[light * 4 + 1], z = spheres[light * 4 + 2], radius = spheres[light * 4 + 3];
+            boolean everywhere = Float.isInfinite(radius);
+            // Squared distance to the box, axis by axis, so whole rows can be skipped
+            float radiusSquared = radius * radius;
+            float dz = distanceOutside(z, sliceZ, slice);
+            for (int ty = ranges[r + 4]; ty <= ranges[r + 5]; ty++) {
+                float dy = distanceOutside(y, tileY, slice * TILES_Y + ty);
+                float rowSquared = dz * dz + dy * dy;
+                if (!everywhere && rowSquared > radiusSquared) {
+                    continue;
+                }
+                for (int tx = ranges[r + 2]; tx <= ranges[r + 3]; tx++) {
+                    float dx = distanceOutside(x, tileX, slice * TILES_X + tx);
+                    if (everywhere || rowSquared + dx * dx <= radiusSquared) {
+                        int cluster = first + ty * TILES_X + tx;
+                        if (write) {
+                            indices[cursors[cluster]++] = light;
+                        } else {
+                            grid[cluster * 2 + 1]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Distance from v to the interval at bounds[i * 2] .. bounds[i * 2 + 1], 0 inside it. */
+    private static float distanceOutside(float v, float[] bounds, int i) {
+        return v - Math.max(bounds[i * 2], Math.min(v, bounds[i * 2 + 1]));
+    }
+
+    /**
+     * View space bounds of the clusters. Only depend on the projection.
+     */
+    private void buildClusterBoxes(float m00, float m11) {
+        for (int slice = 0; slice < SLICES; slice++) {
+            float near = slice == 0 ? 0 : sliceDepth(slice);
+            float far = slice == SLICES - 1 ? MasterRenderer.FAR_PLANE : sliceDepth(slice + 1);
+            sliceZ[slice * 2] = -far;
+            sliceZ[slice * 2 + 1] = -near;
+            for (int ty = 0; ty < TILES_Y; ty++) {
+                float y0 = (ty / (float) TILES_Y * 2 - 1) / m11;
+                float y1 = ((ty + 1) / (float) TILES_Y * 2 - 1) / m11;
+                int b = (slice * TILES_Y + ty) * 2;
+                tileY[b] = Math.min(y0 * near, y0 * far);
+                tileY[b + 1] = Math.max(y1 * near, y1 * far);
+            }
+            for (int tx = 0; tx < TILES_X; tx++) {
+                float x0 = (tx / (float) TILES_X * 2 - 1) / m00;
+                float x1 = ((tx + 1) / (float) TILES_X * 2 - 1) / m00;
+                int b = (slice * TILES_X + tx) * 2;
+                tileX[b] = Math.min(x0 * near, x0 * far);
+                tileX[b + 1] = Math.max(x1 * near, x1 * far);
+            }
+        }
+        boxesM00 = m00;
+        boxesM11 = m11;
+    }
+
+    /** View depth where a slice starts. */
+    private static float sliceDepth(int slice) {
+        return (float) Math.exp((slice - SLICE_BIAS) / SLICE_SCALE);
+    }
+
+    /** Scale and bias that turn log(view depth) into a slice index, for the shader. */
+    public static float getSliceScale() {
+        return SLICE_SCALE;
+    }
+
+    public static float getSliceBias() {
+        return SLICE_BIAS;
+    }
+
+    public float[] getLightData() {
+        return lightData;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    public int[] getGrid() {
+        return grid;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+}
@@ -0,0 +1,122 @@
+package renderer;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL40.*;
+
+/**
+ * Texture buffers holding a {@link LightGrid} for the fragment shader.
+ *
+ *   lightData    (samplerBuffer,  RGBA32F) 3 texels per light
+ *   clusterGrid  (isamplerBuffer, RG32I)   offset and count per cluster
+ *   lightIndices (isamplerBuffer, R32I)    light indices of all clusters
+ *
+ * Texture buffers are core since GL 3.1, so this works with the GLSL 400 shaders.
+ * The buffers are re-specified every frame, letting the driver orphan the old storage.
+ */
+public class LightGridBuffers {
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private final int lightBuffer, gridBuffer, indexBuffer;
+    private final int lightTexture, gridTexture, indexTexture;
+
+    private FloatBuffer lightStaging = allocateFloats(16 * 12);
+    private IntBuffer gridStaging = allocateInts(LightGrid.CLUSTER_COUNT * 2);
+    private IntBuffer indexStaging = allocateInts(1024);
+
+    public LightGridBuffers() {
+        lightBuffer = gl.genBuffers();
+        gridBuffer = gl.genBuffers();
+        indexBuffer = gl.genBuffers();
+        lightTexture = createTexture(lightBuffer, GL_RGBA32F);
+        gridTexture = createTexture(gridBuffer, GL_RG32I);
+        indexTexture = createTexture(indexBuffer, GL_R32I);
+    }
+
+    private int createTexture(int buffer, int format) {
+        // A texture buffer needs storage before it can be attached
+        gl.bindBuffer(GL_TEXTURE_BUFFER, buffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, 16, GL_STREAM_DRAW);
+        int texture = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_BUFFER, texture);
+        gl.texBuffer(GL_TEXTURE_BUFFER, format, buffer);
+        gl.bindTexture(GL_TEXTURE_BUFFER, 0);
+        gl.bindBuffer(GL_TEXTURE_BUFFER, 0);
+        return texture;
+    }
+
+    /**
+     * Uploads the grid. Empty lists still upload one element, a buffer texture of size zero
+     * is not allowed everywhere.
+     */
+    public void upload(LightGrid grid) {
+        int lightFloats = Math.max(4, grid.getLightCount() * 12);
+        if (lightStaging.capacity() < lightFloats) {
+            lightStaging = allocateFloats(lightFloats);
+        }
+        lightStaging.clear();
+        lightStaging.put(grid.getLightData(), 0, grid.getLightCount() * 12);
+        while (lightStaging.position() < lightFloats) {
+            lightStaging.put(0);
+        }
+        lightStaging.flip();
+        gl.bindBuffer(GL_TEXTURE_BUFFER, lightBuffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, lightStaging, GL_STREAM_DRAW);
+
+        gridStaging.clear();
+        gridStaging.put(grid.getGrid()).flip();
+        gl.bindBuffer(GL_TEXTURE_BUFFER, gridBuffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, gridStaging, GL_STREAM_DRAW);
+
+        int indexCount = Math.max(1, grid.getIndexCount());
+        if (indexStaging.capacity() < indexCount) {
+            indexStaging = allocateInts(Math.max(indexCount, indexStaging.capacity() * 2));
+        }
+        indexStaging.clear();
+        indexStaging.put(grid.getIndices(), 0, grid.getIndexCount());
+        if (grid.getIndexCount() == 0) {
+            indexStaging.put(0);
+        }
+        indexStaging.flip();
+        gl.bindBuffer(GL_TEXTURE_BUFFER, indexBuffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, indexStaging, GL_STREAM_DRAW);
+        gl.bindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Binds the three textures to consecutive units, starting at firstUnit (0 for GL_TEXTURE0).
+     */
+    public void bind(int firstUnit) {
+        gl.activeTexture(GL_TEXTURE0 + firstUnit);
+        gl.bindTexture(GL_TEXTURE_BUFFER, lightTexture);
+        gl.activeTexture(GL_TEXTURE0 + firstUnit + 1);
+        gl.bindTexture(GL_TEXTURE_BUFFER, gridTexture);
+        gl.activeTexture(GL_TEXTURE0 + firstUnit + 2);
+        gl.bindTexture(GL_TEXTURE_BUFFER, indexTexture);
+        gl.activeTexture(GL_TEXTURE0);
+    }
+
+    public void cleanup() {
+        gl.deleteTextures(lightTexture);
+        gl.deleteTextures(gridTexture);
+        gl.deleteTextures(indexTexture);
+        gl.deleteBuffers(lightBuffer);
+        gl.deleteBuffers(gridBuffer);
+        gl.deleteBuffers(indexBuffer);
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static IntBuffer allocateInts(int count) {
+        return ByteBuffer.allocateDirect(count * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
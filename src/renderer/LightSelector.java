@@ -0,0 +1,254 @@
+package renderer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Vector3f;
+
+import entities.Light;
+
+/**
+ * Picks the few lights that matter most for one draw.
+ *
+ * Every frame {@link #build} puts the point lights into a spatial hash of world space cells.
+ * {@link #select} then only scores the lights in the cells a bounding sphere overlaps, by their
+ * attenuation at the nearest point of the sphere times their brightness, and keeps the best
+ * {@link #MAX_LIGHTS}.
+ *
+ * Lights without a range limit (the sun and moon) are always kept, and light 0 always is so
+ * the shader's sun shadow stays attached to it. Dark lights are never selected.
+ *
+ * Pure Java, but not thread safe: one selector per thread.
+ */
+public class LightSelector {
+
+    /** Most lights per draw, the size of the drawLights uniform array. */
+    public static final int MAX_LIGHTS = 8;
+
+    private static final float CELL_SIZE = 64f;
+    private static final int TABLE_SIZE = 1024; // buckets, power of two
+    // Lights spanning more cells than this per axis are scored for every draw instead
+    private static final int MAX_CELLS_PER_AXIS = 8;
+    // Spheres overlapping more cells than this score all point lights instead of walking cells
+    private static final int MAX_QUERY_CELLS = 64;
+
+    // Per light, refreshed by build
+    private int lightCount;
+    private float[] spheres = new float[16 * 4]; // x, y, z, effective distance
+    private float[] brightness = new float[16];
+    private Light[] lights = new Light[16];
+
+    // Lights that go into every draw and lights too big for the hash
+    private int[] always = new int[16];
+    private int alwaysCount;
+    private int[] wide = new int[16];
+    private int wideCount;
+    private int[] hashed = new int[16];
+    private int hashedCount;
+
+    // Spatial hash: bucket b lists bucketLights[bucketStart[b] .. bucketStart[b + 1])
+    private final int[] bucketStart = new int[TABLE_SIZE + 1];
+    private final int[] bucketCursor = new int[TABLE_SIZE];
+    private int[] bucketLights = new int[64];
+
+    // Each light is scored once per query even if it is in several of the visited buckets
+    private int[] stamps = new int[16];
+    private int stamp;
+
+    // Best lights of the current query, highest score first
+    private final int[] best = new int[MAX_LIGHTS];
+    private final float[] bestScores = new float[MAX_LIGHTS];
+    private int bestCount;
+
+    /**
+     * Prepares the lights of a frame. Index 0 is treated as the sun.
+     */
+    public void build(List<Light> frameLights) {
+        lightCount = frameLights.size();
+        if (lights.length < lightCount) {
+            int capacity = Math.max(lightCount, lights.length * 2);
+            lights = new Light[capacity];
+            spheres = new float[capacity * 4];
+            brightness = new float[capacity];
+            always = new int[capacity];
+            wide = new int[capacity];
+            hashed = new int[capacity];
+            stamps = new int[capacity];
+        }
+
+        // 1) Sort the lights into always, wide and hashed
+        alwaysCount = 0;
+        wideCount = 0;
+        hashedCount = 0;
+        for (int i = 0; i < lightCount; i++) {
+            Light light = frameLights.get(i);
+            Vector3f p = light.getPosition(), c = light.getColor();
+            float range = light.getEffectiveDistance();
+            lights[i] = light;
+            spheres[i * 4] = p.x;
+            spheres[i * 4 + 1] = p.y;
+            spheres[i * 4 + 2] = p.z;
+            spheres[i * 4 + 3] = range;
+            brightness[i] = Math.max(c.x, Math.max(c.y, c.z));
+
+            if (i == 0 || (Float.isInfinite(range) && brightness[i] > 0.001f)) {
+                always[alwaysCount++] = i;
+            } else if (brightness[i] <= 0.001f || !(range > 0)) {
+                continue; // Contributes nothing anywhere
+            } else if (range * 2 > MAX_CELLS_PER_AXIS * CELL_SIZE) {
+                wide[wideCount++] = i;
+            } else {
+                hashed[hashedCount++] = i;
+            }
+        }
+
+        // 2) Count the entries of every bucket, then turn the counts into offsets
+        Arrays.fill(bucketStart, 0);
+        for (int k = 0; k < hashedCount; k++) {
+            forEachCell(hashed[k], false);
+        }
+        int total = 0;
+        for (int b = 0; b < TABLE_SIZE; b++) {
+            int count = bucketStart[b];
+            bucketStart[b] = total;
+            bucketCursor[b] = total;
+            total += count;
+        }
+        bucketStart[TABLE_SIZE] = total;
+        if (bucketLights.length < total) {
+            bucketLights = new int[Math.max(total, bucketLights.length * 2)];
+        }
+
+        // 3) Fill the buckets
+        for (int k = 0; k < hashedCount; k++) {
+            forEachCell(hashed[k], true);
+        }
+    }
+
+    /** Counts (write false) or adds (write true) a light in every bucket its box overlaps. */
+    private void forEachCell(int light, boolean write) {
+        float x = spheres[light * 4], y = spheres[light * 4 + 1], z = spheres[light * 4 + 2], r = spheres[light * 4 + 3];
+        int x0 = cell(x - r), x1 = cell(x + r);
+        int y0 = cell(y - r), y1 = cell(y + r);
+        int z0 = cell(z - r), z1 = cell(z + r);
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cx = x0; cx <= x1; cx++) {
+                    int b = bucket(cx, cy, cz);
+                    if (write) {
+                        bucketLights[bucketCursor[b]++] = light;
+                    } else {
+                        bucketStart[b]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the lights for a bounding sphere.
+     *
+     * @param out    receives the light indices, in ascending order
+     * @param offset first element of out to write
+     * @return number of lights written, at most {@link #MAX_LIGHTS}
+     */
+    public int select(float x, float y, float z, float radius, int[] out, int offset) {
+        bestCount = 0;
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        // 1) Lights every draw gets
+        int kept = Math.min(alwaysCount, MAX_LIGHTS);
+        for (int k = 0; k < kept; k++) {
+            out[offset + k] = always[k];
+        }
+
+        // 2) Score the point lights near the sphere
+        if (kept < MAX_LIGHTS) {
+            for (int k = 0; k < wideCount; k++) {
+                consider(wide[k], x, y, z, radius, MAX_LIGHTS - kept);
+            }
+            int x0 = cell(x - radius), x1 = cell(x + radius);
+            int y0 = cell(y - radius), y1 = cell(y + radius);
+            int z0 = cell(z - radius), z1 = cell(z + radius);
+            long cells = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+            if (cells > MAX_QUERY_CELLS) {
+                for (int k = 0; k < hashedCount; k++) {
+                    consider(hashed[k], x, y, z, radius, MAX_LIGHTS - kept);
+                }
+            } else {
+                for (int cz = z0; cz <= z1; cz++) {
+                    for (int cy = y0; cy <= y1; cy++) {
+                        for (int cx = x0; cx <= x1; cx++) {
+                            int b = bucket(cx, cy, cz);
+                            for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+                                consider(bucketLights[e], x, y, z, radius, MAX_LIGHTS - kept);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // 3) Ascending light order, so equal sets always shade the same way
+        for (int k = 0; k < bestCount; k++) {
+            out[offset + kept + k] = best[k];
+        }
+        int count = kept + bestCount;
+        Arrays.sort(out, offset, offset + count);
+        return count;
+    }
+
+    /** Scores a light and keeps it if it is among the best slots so far. */
+    private void consider(int light, float x, float y, float z, float radius, int slots) {
+        if (stamps[light] == stamp) {
+            return;
+        }
+        stamps[light] = stamp;
+
+        float dx = spheres[light * 4] - x, dy = spheres[light * 4 + 1] - y, dz = spheres[light * 4 + 2] - z;
+        float range = spheres[light * 4 + 3];
+        float reach = range + radius;
+        float distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared > reach * reach) {
+            return;
+        }
+        // Strongest at the point of the sphere nearest to the light
+        float distance = Math.max(0, (float) Math.sqrt(distanceSquared) - radius);
+        float score = brightness[light] * Light.calculateLightContribution(lights[light], distance);
+        if (score <= 0 || (bestCount == slots && score <= bestScores[slots - 1])) {
+            return;
+        }
+
+        // Insertion into the sorted best list
+        int i = Math.min(bestCount, slots - 1);
+        while (i > 0 && bestScores[i - 1] < score) {
+            bestScores[i] = bestScores[i - 1];
+            best[i] = best[i - 1];
+            i--;
+        }
+        bestScores[i] = score;
+        best[i] = light;
+        bestCount = Math.min(bestCount + 1, slots);
+    }
+
+    private static int cell(float v) {
+        return (int) Math.floor(v / CELL_SIZE);
+    }
+
+    private static int bucket(int cx, int cy, int cz) {
+        return ((cx * 73856093) ^ (cy * 19349663) ^ (cz * 83492791)) & (TABLE_SIZE - 1);
+    }
+
+    /** Lights given to every draw, the sun first. */
+    public int getAlwaysCount() {
+        return alwaysCount;
+    }
+
+    /** Point lights in the spatial hash. */
+    public int getHashedCount() {
+        return hashedCount;
+    }
+}
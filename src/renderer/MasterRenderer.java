@@ -1,23 +1,35 @@
 package renderer;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.system.MemoryStack;
 import org.lwjgl.util.vector.Vector2f;
 
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import entities.SceneStore;
+import occlusion.OcclusionCuller;
+import profiler.Profiler;
 import settings.EngineSettings;
+import shaders.ShaderFeatures;
 import shaders.ShaderProgram;
-import shadows.ShadowRenderer;
+import shaders.ShaderVariantCache;
+import shadows.PointShadowRenderer;
+import shadows.ShadowCascades;
 import toolbox.Equations;
 import toolbox.Frustum;
 import toolbox.Mesh;
+import toolbox.MeshPool;
+import toolbox.RadixSort;
 
-import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.lwjgl.opengl.GL11.GL_NO_ERROR;
@@ -26,24 +38,86 @@ import static org.lwjgl.opengl.GL11.glGetError;
 import static org.lwjgl.opengl.GL40.*;
 
 public class MasterRenderer {
+
+	private final GraphicsDevice gl = Graphics.device();
 	
 	public static final float NEAR_PLANE = 0.1f;
 	public static final float FOV = 90;
 	public static final float FAR_PLANE = 2000000000;
-
+	
     private final ShaderProgram shader;
+    private final ShaderProgram directShader;
     private final Matrix4f projectionMatrix;
     
     private static int screenWidth;
 	private static int screenHeight;
+	// Size the scene is rendered at, smaller than the screen with dynamic resolution
+	private int renderWidth;
+	private int renderHeight;
     
     private Frustum frustum;
     
+    // Multi-draw indirect path (only created once a mesh pool is set and GL 4.3 is available)
+    private ShaderProgram indirectShader;
+    private IndirectRenderer indirectRenderer;
+    private final IndirectDrawBuilder indirectBuilder = new IndirectDrawBuilder();
+    
+    // Used by the list based render() that culls and submits in one go
+    private final FramePacket serialPacket = new FramePacket();
+    private final Matrix4f modelScratch = new Matrix4f();
+    private int[] visibleIds = new int[0];
+    
+    // Clustered light lists for the fragment shader
+    private static final int LIGHT_GRID_UNIT = 7;
+    private final LightGridBuffers lightGridBuffers;
+    
+    // Point light shadow atlas and records, the two units after the light grid
+    private static final int POINT_SHADOW_UNIT = LIGHT_GRID_UNIT + 3;
+    private PointShadowRenderer pointShadows;
+    
+    // Per draw light lists, only used by the producer thread
+    private final LightSelector lightSelector = new LightSelector();
+    private final int[] drawLights = new int[LightSelector.MAX_LIGHTS];
+    private int drawLightCount;
+    
+    // Pass sorting, only used by the producer thread. Key: pass in bits 22-23, shader variant in
+    // bits 16-21 (just the tessellation bit without variants, 0 for transparent draws, they
+    // must stay in depth order), depth below.
+    private static final int PASS_OPAQUE = 0, PASS_ALPHA_TESTED = 1, PASS_TRANSPARENT = 2;
+    private static final int DEPTH_KEY_BITS = 16;
+    private static final int VARIANT_KEY_SHIFT = DEPTH_KEY_BITS;
+    private static final int PASS_KEY_SHIFT = VARIANT_KEY_SHIFT + ShaderFeatures.BITS;
+    private static final float DEPTH_KEY_SCALE = ((1 << DEPTH_KEY_BITS) - 1) / 32f; // log2 of the depth fits in 32
+    private final RadixSort radixSort = new RadixSort();
+    private int[] sortKeys = new int[256];
+    
+    // Main shader compiled per material feature set, see EngineSettings.ShaderVariants.
+    // Programs used so far this frame already have the frame uniforms.
+    private final ShaderVariantCache variants;
+    private final List<ShaderProgram> framePrograms = new ArrayList<>();
+    private ShaderProgram current;
+    private int currentPass;
+    private static final int UNKNOWN_LIGHT_COUNT = -2;
+    
+    // Screen space tessellation of height mapped surfaces
+    private static final float TESS_PIXELS_PER_EDGE = 24f;
+    private static final float MAX_TESS_LEVEL = 8f;
+    
+    // Optional depth pre-pass, timed with the main pass as profiler passes
+    public static final String PRE_PASS = "Depth pre-pass";
+    public static final String MAIN_PASS = "Main pass";
+    private final ShaderProgram depthShader;
+    
+    // Optional CPU occlusion culling after the frustum test
+    private OcclusionCuller occlusionCuller;
+    
     
     public MasterRenderer(int width, int height) {
     	
     	this.screenHeight = height;
     	this.screenWidth = width;
+    	this.renderWidth = width;
+    	this.renderHeight = height;
       
     	
 	   String vertex =  "src/shaders/vertex.glsl";
@@ -52,38 +126,22 @@ public class MasterRenderer {
 	   String geometry =  "src/shaders/geometry.glsl";
 	   String fragment =  "src/shaders/fragment.glsl";
 	   
-	   String[] additionalVertexShaders = new String[] {
-			   
-	   };
-            
-	   String[] additionalFragmentShaders = new String[] {
-			   "src/shadersModular/fresnel.glsl",
-			   "src/shadersModular/parallaxMapping.glsl",
-			   "src/shadersModular/computeNormal.glsl",
-			   "src/shadersModular/computeLightContribution.glsl",
-			   "src/shadersModular/calculatePOMShadow.glsl",
-			   "src/shadersModular/calculatedDirectionalShadows.glsl",
-			   
-	   };
-	   
-	   String[] additionalGeometryShaders = new String[] {
-			  
-	   };
-        
-	   shader = new ShaderProgram(vertex, tess_control, tess_eval, geometry,fragment, 
-			   additionalVertexShaders,
-			   additionalFragmentShaders,
-			   additionalGeometryShaders
-			   
-			   );
+	   // fragment.glsl #includes its modules from src/shadersModular
+	   shader = new ShaderProgram(vertex, tess_control, tess_eval, geometry, fragment);
+	   // Everything without a height map skips tessellation and the geometry stage
+	   directShader = new ShaderProgram(vertex, null, null, null, fragment,
+			   Collections.singletonMap(ShaderFeatures.NO_TESSELLATION, ""));
+	   variants = new ShaderVariantCache(vertex, tess_control, tess_eval, geometry, fragment);
         
         //General settings
-        glFrontFace(GL_CW);
-        glEnable(GL_MULTISAMPLE);
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        gl.frontFace(GL_CW);
+        gl.enable(GL_MULTISAMPLE);
+        gl.enable(GL_BLEND);
+        gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         frustum = new Frustum();
+        lightGridBuffers = new LightGridBuffers();
+        depthShader = new ShaderProgram("src/shaders/vertex_depth.glsl", null, null, null, "src/shaders/fragment_depth.glsl");
 
 
         // 2) Create your perspective projection
@@ -116,84 +174,470 @@ public class MasterRenderer {
         return new Matrix4f().ortho2D(0.0f, screenWidth, 0.0f, screenHeight);
     	//return new Matrix4f().ortho(0, 1, 1, 0, -1, 1);
     }
+    
+    /**
+     * Culls the main pass against occluders as well, when {@link EngineSettings#OcclusionCulling} is on.
+     */
+    public void setOcclusionCuller(OcclusionCuller culler) {
+    	this.occlusionCuller = culler;
+    }
+    
+    public OcclusionCuller getOcclusionCuller() {
+    	return occlusionCuller;
+    }
+    
+    /** Samples the point light shadows this renderer draws, without one no point light casts. */
+    public void setPointShadows(PointShadowRenderer pointShadows) {
+    	this.pointShadows = pointShadows;
+    }
+    
+    /**
+     * Enables the multi-draw indirect path for every mesh in the pool.
+     * Does nothing if the driver does not support GL 4.3.
+     */
+    public void setMeshPool(MeshPool pool) {
+    	if (!IndirectRenderer.isSupported()) {
+    		System.err.println("[MasterRenderer] GL 4.3 not available, multi-draw indirect disabled.");
+    		return;
+    	}
+    	
+    	// Materials change per draw inside a multi-draw, so this one keeps the feature uniforms.
+    	// Height mapped entities stay out of the multi-draw, so it needs no tessellation.
+    	indirectShader = new ShaderProgram("src/shaders/vertex_indirect.glsl", null, null, null,
+    			"src/shaders/fragment.glsl",
+    			Collections.singletonMap(ShaderFeatures.NO_TESSELLATION, ""));
+    	indirectRenderer = new IndirectRenderer(pool);
+    }
 
 	/**
      * Render all entities from the perspective of the camera.
+     * Culls and submits on the calling thread, see {@link #render(FramePacket, int)} for the pipelined path.
      */
     public void render(List<Entity> entities, List<Light> lights, Camera camera, int shadowMap) {
+        serialPacket.snapshot(0, camera, projectionMatrix, lights, lights.get(0));
+        collectVisible(entities, serialPacket.getView(), serialPacket.getMainPass());
+        assignLights(serialPacket);
+        render(serialPacket, shadowMap);
+    }
+    
+    /**
+     * Sorts the packet's lights into the clusters of its view and, with
+     * {@link EngineSettings#PerDrawLights}, picks the lights of every visible draw.
+     * Pure Java, safe to call from the frame worker.
+     */
+    public void assignLights(FramePacket packet) {
+        packet.getLightGrid().build(packet.getLights(), packet.getView(), packet.getProjection());
+        if (EngineSettings.PerDrawLights) {
+        	lightSelector.build(packet.getLights());
+        	FramePacket.DrawList visible = packet.getMainPass();
+        	for (int i = 0; i < visible.size(); i++) {
+        		visible.selectLights(i, lightSelector, visible.getEntity(i).getBoundingRadius());
+        	}
+        }
+    }
+    
+    /**
+     * Frustum culls the entities against the camera and stores the visible ones with a copy of
+     * their model matrix. Pure Java, safe to call from the frame worker.
+     */
+    public void collectVisible(List<Entity> entities, Matrix4f view, FramePacket.DrawList out) {
+        frustum.calculateFrustum(projectionMatrix, view);
+        for (Entity entity : entities) {
+        	if (frustum.contains(entity.getPosition(), entity.getBoundingRadius())) {
+        		out.add(entity, entity.getModelMatrix());
+        	}
+        }
+        sortPasses(out, view);
+    }
+    
+    /**
+     * Same as {@link #collectVisible(List, Matrix4f, FramePacket.DrawList)}, but culls the
+     * bounding spheres of a {@link SceneStore} in one pass over its arrays.
+     */
+    public void collectVisible(SceneStore scene, Matrix4f view, FramePacket.DrawList out) {
+        frustum.calculateFrustum(projectionMatrix, view);
+        if (visibleIds.length < scene.getIdLimit()) {
+        	visibleIds = new int[scene.getIdLimit()];
+        }
+        int count = scene.cull(frustum, visibleIds);
+        if (occlusionCuller != null && EngineSettings.OcclusionCulling) {
+        	count = removeOccluded(scene, view, count);
+        }
+        float[] matrices = scene.getMatrices();
+        for (int i = 0; i < count; i++) {
+        	int id = visibleIds[i];
+        	out.add(scene.getEntity(id), matrices, id * 16);
+        }
+        sortPasses(out, view);
+    }
+    
+    /**
+     * Orders a draw list into its passes with one radix sort: opaque and alpha tested draws
+     * front to back, so the depth test rejects hidden fragments before the expensive shading,
+     * and transparent draws back to front, so they blend over what is behind them.
+     * With {@link EngineSettings#ShaderVariants} the opaque and alpha tested draws are grouped
+     * by variant first, which costs some front to back order but switches programs once per
+     * variant instead of once per draw.
+     */
+    private void sortPasses(FramePacket.DrawList list, Matrix4f view) {
+    	int size = list.size();
+    	if (sortKeys.length < size) {
+    		sortKeys = new int[Math.max(size, sortKeys.length * 2)];
+    	}
+    	int[] order = list.getOrder();
+    	int opaque = 0, alphaTested = 0;
+    	for (int i = 0; i < size; i++) {
+    		Entity entity = list.getEntity(i);
+    		int pass = passOf(entity);
+    		// Logarithmic depth keeps the precision relative, near draws need it most
+    		float depth = Math.max(0, list.getViewDepth(i, view));
+    		int depthKey = Math.min((1 << DEPTH_KEY_BITS) - 1,
+    				(int) (Math.log(1 + depth) * (1 / Math.log(2)) * DEPTH_KEY_SCALE));
+    		if (pass == PASS_TRANSPARENT) {
+    			depthKey = (1 << DEPTH_KEY_BITS) - 1 - depthKey;
+    		} else if (pass == PASS_OPAQUE) {
+    			opaque++;
+    		} else {
+    			alphaTested++;
+    		}
+    		int variant = pass == PASS_TRANSPARENT ? 0 : ShaderFeatures.of(entity, pass != PASS_OPAQUE);
+    		if (!EngineSettings.ShaderVariants) {
+    			variant &= ShaderFeatures.HEIGHT_MAP; // Tessellated or not
+    		}
+    		sortKeys[i] = pass << PASS_KEY_SHIFT | variant << VARIANT_KEY_SHIFT | depthKey;
+    		order[i] = i;
+    	}
+    	radixSort.sort(sortKeys, order, size, PASS_KEY_SHIFT + 2);
+    	list.setPassCounts(opaque, alphaTested);
+    }
+    
+    /** Height mapped entities are drawn as patches, everything else as plain triangles. */
+    private static boolean isTessellated(Entity entity) {
+    	return ShaderFeatures.isTessellated(ShaderFeatures.of(entity, false));
+    }
+    
+    private static int passOf(Entity entity) {
+    	return entity.isAlphaTested() ? PASS_ALPHA_TESTED
+    			: entity.isHasTransparency() ? PASS_TRANSPARENT : PASS_OPAQUE;
+    }
+    
+    /**
+     * Draws the occluders for this view and drops the frustum survivors they hide.
+     *
+     * @return number of ids left in visibleIds
+     */
+    private int removeOccluded(SceneStore scene, Matrix4f view, int count) {
+    	occlusionCuller.render(scene, projectionMatrix, view, frustum);
+    	float[] bounds = scene.getBounds();
+    	int kept = 0;
+    	for (int i = 0; i < count; i++) {
+    		int id = visibleIds[i];
+    		if (occlusionCuller.isVisible(bounds[id * 4], bounds[id * 4 + 1], bounds[id * 4 + 2], bounds[id * 4 + 3])) {
+    			visibleIds[kept++] = id;
+    		}
+    	}
+    	return kept;
+    }
+    
+    /**
+     * Submits the main pass of a packet. Matrices come from the packet, never from the entities,
+     * so the entities may already be moving for the next frame.
+     */
+    public void render(FramePacket packet, int shadowMap) {
     	
-    	
-        
-     // 2. Reset viewport to window dimensions to prevent distortion
-        glViewport(0, 0, this.screenWidth, this.screenHeight);
+     // 2. Reset viewport to the render size to prevent distortion
+        gl.viewport(0, 0, renderWidth, renderHeight);
 
         // 3. Clear the screen (color and depth buffers)
-        glClearColor(0.2f, 0.3f, 0.4f, 1.0f);
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        gl.clearColor(0.2f, 0.3f, 0.4f, 1.0f);
+        gl.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
         
     
 
-        // 2) Use our pipeline
-        shader.bind();
+        // 1) Light lists of this frame, shared by both programs
+        lightGridBuffers.upload(packet.getLightGrid());
+        lightGridBuffers.bind(LIGHT_GRID_UNIT);
+        if (pointShadows != null) {
+        	pointShadows.bind(POINT_SHADOW_UNIT);
+        }
         
-    	
+        boolean useIndirect = EngineSettings.MultiDrawIndirect && indirectRenderer != null;
+        if (useIndirect) {
+        	indirectBuilder.reset();
+        }
+        MeshPool pool = useIndirect ? indirectRenderer.getPool() : null;
+        FramePacket.DrawList visible = packet.getMainPass();
+        int[] order = visible.getOrder();
+        int opaqueEnd = visible.getOpaqueCount();
+        int alphaTestedEnd = opaqueEnd + visible.getAlphaTestedCount();
+        
+        // 2) Depth of the directly drawn opaque draws, so the heavy shading below only runs for
+        //    the fragments that end up visible
+        boolean prePass = EngineSettings.DepthPrePass && opaqueEnd > 0;
+        if (prePass) {
+        	renderDepthPrePass(packet, pool);
+        }
+
+        // 3) Programs get the camera, light and shadow matrices of the packet when first used
+        Profiler.beginPass(MAIN_PASS);
+        framePrograms.clear();
+        current = null;
         
         //shader.setUniform1i("debugMode", EngineSettings.ShaderDebug.getValue());
         
-        //Calculate if the lights 
-        
-        shader.setUniformLights("lights", lights);
+        // 4) Opaque draws front to back, with the model matrix captured for this frame.
+        //    Meshes that live in the mesh pool are collected for the multi-draw instead.
+        //    After the pre-pass only the nearest surface passes GL_EQUAL, and depth is final.
+        applyPassState(PASS_OPAQUE);
+        if (prePass) {
+        	gl.depthFunc(GL_EQUAL);
+        	gl.depthMask(false);
+        }
+        boolean equalDepth = prePass;
+        for (int k = 0; k < opaqueEnd; k++) {
+        	int i = order[k];
+        	Entity entity = visible.getEntity(i);
+        	Matrix4f model = visible.getModel(i, modelScratch);
+        	boolean tessellated = isTessellated(entity);
+        	MeshPool.Slot slot = useIndirect && !tessellated ? pool.getSlot(entity.getMesh()) : null;
+        	if (slot != null) {
+        		int material = indirectRenderer.getMaterialIndex(entity);
+        		indirectBuilder.add(material, slot, material, model);
+        	} else {
+        		if (prePass && tessellated == equalDepth) {
+        			// Tessellated draws are not in the pre-pass, they depth test normally
+        			equalDepth = !tessellated;
+        			gl.depthFunc(equalDepth ? GL_EQUAL : GL_LESS);
+        			gl.depthMask(!equalDepth);
+        		}
+        		useProgram(programFor(entity, PASS_OPAQUE), packet, PASS_OPAQUE, tessellated);
+        		loadDrawLights(visible, i);
+        		drawEntity(entity, model, shadowMap, tessellated);
+        	}
+        }
+        if (prePass) {
+        	gl.depthFunc(GL_LESS);
+        	gl.depthMask(true);
+        }
         
-        shader.setUniform3f("cameraPos",
-        	    camera.getPosition().x,
-        	    camera.getPosition().y,
-        	    camera.getPosition().z
-        	);
-
-        // 3) Upload the "view" matrix from the camera
-        Matrix4f view = camera.getViewMatrix();
-
-        // 4) Upload the projection matrix
-        // We'll do it once at start (you could do it once only if it never changes)
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(16);
-
-            // setUniformMat4(...) is from ShaderProgram
-            projectionMatrix.get(fb);
-            shader.setUniformMat4("projection", false, fb);
-
-            fb.clear();
-            view.get(fb);
-            shader.setUniformMat4("view", false, fb);
-            
-         
-            
+        // 5) Everything that lives in the mesh pool goes out as one multi-draw per material
+        if (useIndirect && indirectBuilder.getDrawCount() > 0) {
+        	useProgram(indirectShader, packet, PASS_OPAQUE, false);
+        	indirectRenderer.submit(indirectBuilder, GL_TRIANGLES, material -> 
+        		bindMaterial(indirectShader, indirectRenderer.getMaterialEntity(material), shadowMap));
         }
         
-        shader.setUniformMat4("lightSpaceMatrix", ShadowRenderer.createLightSpaceMatrix(lights.get(0), camera));
-        Vector3f lightDir = new Vector3f(lights.get(0).getPosition()).normalize();
-        lightDir.z = -lightDir.z;
-        lightDir.x = -lightDir.x;
+        // 6) Alpha tested draws front to back, then transparent ones back to front over
+        //    everything opaque
+        for (int k = opaqueEnd; k < visible.size(); k++) {
+        	int pass = k < alphaTestedEnd ? PASS_ALPHA_TESTED : PASS_TRANSPARENT;
+        	if (k == opaqueEnd || k == alphaTestedEnd) {
+        		applyPassState(pass);
+        	}
+        	int i = order[k];
+        	Entity entity = visible.getEntity(i);
+        	boolean tessellated = isTessellated(entity);
+        	useProgram(programFor(entity, pass), packet, pass, tessellated);
+        	loadDrawLights(visible, i);
+        	drawEntity(entity, visible.getModel(i, modelScratch), shadowMap, tessellated);
+        }
+        if (current != null) {
+        	current.unbind();
+        	current = null;
+        }
         
-        shader.setUniform3f("directionalLightDir", lightDir);
-   
+        Profiler.endPass();
         
-        frustum.calculateFrustum(projectionMatrix, view);
-        // 5) For each entity, build the model matrix and draw
-        for (Entity entity : entities) {
-        	if (frustum.contains(entity.getPosition(), entity.getMesh().getFurthestPoint() * entity.getScale()))
-        		drawEntity(entity, shadowMap);
+        // 7) The renderers after this one expect blending on, as set up in the constructor
+        gl.enable(GL_BLEND);
+        gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        gl.enable(GL11.GL_CULL_FACE);
+    }
+    
+    /**
+     * Writes the depth of the opaque draws that are drawn one by one, with the position-only
+     * VAO of their mesh and no tessellation. Pooled meshes are left out, they are drawn by the
+     * multi-draw after the GL_EQUAL pass and depth test normally against this. So are
+     * tessellated meshes, subdividing does not reproduce this depth bit for bit.
+     */
+    private void renderDepthPrePass(FramePacket packet, MeshPool pool) {
+    	Profiler.beginPass(PRE_PASS);
+    	depthShader.bind();
+    	depthShader.setUniformMat4("projection", false, packet.getProjection());
+    	depthShader.setUniformMat4("view", false, packet.getView());
+    	gl.colorMask(false, false, false, false);
+    	gl.enable(GL11.GL_CULL_FACE);
+    	gl.cullFace(GL11.GL_BACK);
+    	
+    	FramePacket.DrawList visible = packet.getMainPass();
+    	int[] order = visible.getOrder();
+    	for (int k = 0; k < visible.getOpaqueCount(); k++) {
+    		int i = order[k];
+    		Entity entity = visible.getEntity(i);
+    		Mesh mesh = entity.getMesh();
+    		if (isTessellated(entity) || (pool != null && pool.getSlot(mesh) != null)) {
+    			continue;
+    		}
+    		depthShader.setUniformMat4("model", false, visible.getModel(i, modelScratch));
+    		gl.bindVertexArray(mesh.getPositionVaoId());
+    		gl.drawArrays(GL_TRIANGLES, 0, mesh.getVertexCount());
+    	}
+    	gl.bindVertexArray(0);
+    	
+    	gl.colorMask(true, true, true, true);
+    	depthShader.unbind();
+    	Profiler.endPass();
+    }
+    
+    /** Smoothed GPU time of the depth pre-pass in milliseconds, 0 while it is off. */
+    public float getPrePassMillis() {
+    	return EngineSettings.DepthPrePass ? Profiler.getGpuMillis(PRE_PASS) : 0;
+    }
+    
+    /** Smoothed GPU time of the main pass (opaque, alpha tested and transparent) in milliseconds. */
+    public float getMainPassMillis() {
+    	return Profiler.getGpuMillis(MAIN_PASS);
+    }
+    
+    /**
+     * Blend and cull state of a pass, set once per pass instead of once per draw.
+     *
+     * Transparent draws keep writing depth: the shader still outputs alpha 1 and relies on
+     * discard for the see-through texels, so the depth test is what orders a mesh's own
+     * triangles.
+     */
+    private void applyPassState(int pass) {
+    	if (pass == PASS_TRANSPARENT) {
+    		gl.disable(GL11.GL_CULL_FACE);
+    		gl.enable(GL_BLEND);
+    		gl.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    	} else if (pass == PASS_ALPHA_TESTED) {
+    		gl.disable(GL11.GL_CULL_FACE);
+    		gl.disable(GL_BLEND);
+    	} else {
+    		gl.enable(GL11.GL_CULL_FACE);
+    		gl.cullFace(GL11.GL_BACK);
+    		gl.disable(GL_BLEND);
+    	}
+    }
+    
+    /**
+     * The program an entity is drawn with in a pass: its variant, or the uber shader with or
+     * without tessellation while {@link EngineSettings#ShaderVariants} is off.
+     */
+    private ShaderProgram programFor(Entity entity, int pass) {
+    	if (!EngineSettings.ShaderVariants) {
+    		return isTessellated(entity) ? shader : directShader;
+    	}
+    	// Alpha testing is part of the variant, every pass but the opaque one needs it
+    	return variants.get(ShaderFeatures.of(entity, pass != PASS_OPAQUE));
+    }
+    
+    /**
+     * Programs without the VARIANT define read the material features and the pass from uniforms.
+     */
+    private boolean hasFeatureUniforms(ShaderProgram program) {
+    	return program == shader || program == directShader || program == indirectShader;
+    }
+    
+    /**
+     * Binds a program for the following draws. Draws are sorted by variant, so this switches
+     * rarely. The frame uniforms are uploaded the first time a program is used in a frame.
+     */
+    private void useProgram(ShaderProgram program, FramePacket packet, int pass, boolean tessellated) {
+    	if (program == current && pass == currentPass) {
+    		return;
+    	}
+    	if (program != current) {
+    		program.bind();
+    		current = program;
+    		drawLightCount = UNKNOWN_LIGHT_COUNT; // Whatever this program was left with
+    		if (!framePrograms.contains(program)) {
+    			loadFrameUniforms(program, packet, tessellated);
+    			framePrograms.add(program);
+    		}
+    	}
+    	if (hasFeatureUniforms(program)) {
+    		// Only the opaque pass skips the alpha discard
+    		program.setUniform1i("isOpaquePass", pass == PASS_OPAQUE ? 1 : 0);
+    	}
+    	currentPass = pass;
+    }
+    
+    /**
+     * Compiles the variants the given entities need now, so the first frame that shows them
+     * does not stall on the compiler.
+     */
+    public void warmUpVariants(Iterable<Entity> entities) {
+    	ShaderProgram.beginBatch();
+    	for (Entity entity : entities) {
+    		int pass = passOf(entity);
+    		variants.get(ShaderFeatures.of(entity, pass != PASS_OPAQUE));
+    	}
+    	ShaderProgram.endBatch();
+    	System.out.println("[Shaders] " + variants.getCompiledCount() + " variants ready");
+    }
+    
+    /**
+     * Uploads everything that is the same for every draw of the frame.
+     *
+     * @param tessellated the program has the tessellation stages and their uniforms
+     */
+    private void loadFrameUniforms(ShaderProgram program, FramePacket packet, boolean tessellated) {
+        program.setUniform3f("cameraPos", packet.getCameraPosition());
+        
+        program.setUniform1i("lightData", LIGHT_GRID_UNIT);
+        program.setUniform1i("clusterGrid", LIGHT_GRID_UNIT + 1);
+        program.setUniform1i("lightIndices", LIGHT_GRID_UNIT + 2);
+        program.setUniform2f("clusterTileScale", LightGrid.TILES_X / (float) renderWidth, LightGrid.TILES_Y / (float) renderHeight);
+        program.setUniform2f("clusterSliceScaleBias", LightGrid.getSliceScale(), LightGrid.getSliceBias());
+        program.setUniform1i("drawLightCount", -1); // Cluster lists unless a draw has its own
+        drawLightCount = -1;
+
+        program.setUniformMat4("projection", false, packet.getProjection());
+        program.setUniformMat4("view", false, packet.getView());
+        
+        // Unused cascades keep their old matrix, cascadeCount stops the shader before them
+        ShadowCascades cascades = packet.getShadowCascades();
+        program.setUniformMat4("lightSpaceMatrices", false, cascades.getPackedMatrices());
+        program.setUniform4f("cascadeSplits", cascadeSplit(cascades, 0), cascadeSplit(cascades, 1),
+        		cascadeSplit(cascades, 2), cascadeSplit(cascades, 3));
+        program.setUniform1i("cascadeCount", cascades.getCount());
+        program.setUniform3f("directionalLightDir", packet.getDirectionalLightDir());
+        // Always set, two sampler types must not share a unit even when nothing is bound
+        program.setUniform1i("pointShadowAtlas", POINT_SHADOW_UNIT);
+        program.setUniform1i("pointShadowData", POINT_SHADOW_UNIT + 1);
+        
+        if (tessellated) {
+        	program.setUniform2f("viewportSize", renderWidth, renderHeight);
+        	program.setUniform1f("tessPixelsPerEdge", TESS_PIXELS_PER_EDGE);
+        	program.setUniform1f("maxTessLevel", MAX_TESS_LEVEL);
         }
+    }
 
-        shader.unbind();
-       
-      
+    private static float cascadeSplit(ShadowCascades cascades, int cascade) {
+    	return cascade < cascades.getCount() ? cascades.getSplit(cascade) : 0;
     }
 
-    private void drawEntity(Entity entity, int shadowMap) {
-        // 1) Build model matrix from the entity's transform
-    	
-    	Matrix4f model = entity.getModelMatrix();
+    /**
+     * Uploads the lights picked for a draw. Draws without a list go back to the cluster lists.
+     */
+    private void loadDrawLights(FramePacket.DrawList visible, int index) {
+    	int count = visible.getLightCount(index);
+    	if (count < 0 && drawLightCount == -1) {
+    		return;
+    	}
+    	if (count >= 0) {
+    		System.arraycopy(visible.getLights(), index * LightSelector.MAX_LIGHTS, drawLights, 0, count);
+    		Arrays.fill(drawLights, count, LightSelector.MAX_LIGHTS, 0);
+    		current.setUniform1iv("drawLights", drawLights);
+    	}
+    	current.setUniform1i("drawLightCount", count);
+    	drawLightCount = count;
+    }
+
+    private void drawEntity(Entity entity, Matrix4f model, int shadowMap, boolean tessellated) {
+        // 1) The model matrix was captured when the frame was culled
     			
     			/*new Matrix4f()
     		    .identity()
@@ -209,18 +653,33 @@ public class MasterRenderer {
     	
     	
     	
-        // 2) Upload "model" uniform
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(16);
-            model.get(fb);
-            shader.setUniformMat4("model", false, fb);
-        }
-        
-        
+        // 2) Upload "model" uniform to the program bound by useProgram
+        current.setUniformMat4("model", false, model);
         
+        bindMaterial(current, entity, shadowMap);
+
+        //  Bind the entity's mesh
+        Mesh mesh = entity.getMesh();
+        gl.bindVertexArray(mesh.getVaoId());
+
+        // The tessellated programs take GL_PATCHES, the others plain triangles
+        if (tessellated) {
+        	gl.patchParameteri(GL_PATCH_VERTICES, 3);
+        	gl.drawArrays(GL_PATCHES, 0, mesh.getVertexCount());
+        } else {
+        	gl.drawArrays(GL_TRIANGLES, 0, mesh.getVertexCount());
+        }
+
+        gl.bindVertexArray(0);
+    }
+    
+    /**
+     * Binds the textures and uploads the material uniforms of an entity.
+     */
+    private void bindMaterial(ShaderProgram shader, Entity entity, int shadowMap) {
         //upload the texture
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, entity.getTextureId());
+        gl.activeTexture(GL_TEXTURE0);
+        gl.bindTexture(GL_TEXTURE_2D, entity.getTextureId());
         shader.setUniform1i("diffuseTexture", 0);
         
         
@@ -239,14 +698,14 @@ public class MasterRenderer {
         
         
         if (hasNormalMap) {
-        	glActiveTexture(GL_TEXTURE1);
-            glBindTexture(GL_TEXTURE_2D, entity.getNormalMapId());
+        	gl.activeTexture(GL_TEXTURE1);
+            gl.bindTexture(GL_TEXTURE_2D, entity.getNormalMapId());
             shader.setUniform1i("normalMap", 1);
         }
         
         if (hasHeightMap) {
-        	 glActiveTexture(GL_TEXTURE2);
-             glBindTexture(GL_TEXTURE_2D, entity.getHeighMapId());
+        	 gl.activeTexture(GL_TEXTURE2);
+             gl.bindTexture(GL_TEXTURE_2D, entity.getHeighMapId());
              shader.setUniform1i("heightMap", 2);
              //parallax scale
              if (entity.getParallaxScale() != null) {
@@ -259,61 +718,38 @@ public class MasterRenderer {
 
         // If a texture ID != 0, we bind it. Otherwise skip binding
         if (hasMetallic) {
-            glActiveTexture(GL_TEXTURE3);
-            glBindTexture(GL_TEXTURE_2D, entity.getMetallicMap());
+            gl.activeTexture(GL_TEXTURE3);
+            gl.bindTexture(GL_TEXTURE_2D, entity.getMetallicMap());
             shader.setUniform1i("metallicMap", 3);
         }
         if (hasRoughness) {
-            glActiveTexture(GL_TEXTURE4);
-            glBindTexture(GL_TEXTURE_2D, entity.getRoughnessMap());
+            gl.activeTexture(GL_TEXTURE4);
+            gl.bindTexture(GL_TEXTURE_2D, entity.getRoughnessMap());
             shader.setUniform1i("roughnessMap", 4);
         }
         if (hasAo) {
-            glActiveTexture(GL_TEXTURE5);
-            glBindTexture(GL_TEXTURE_2D, entity.getAoMap());
+            gl.activeTexture(GL_TEXTURE5);
+            gl.bindTexture(GL_TEXTURE_2D, entity.getAoMap());
             shader.setUniform1i("aoMap", 5);
         }
         
-        glActiveTexture(GL_TEXTURE6);
-        glBindTexture(GL_TEXTURE_2D, shadowMap);
+        gl.activeTexture(GL_TEXTURE6);
+        gl.bindTexture(GL_TEXTURE_2D_ARRAY, shadowMap);
         shader.setUniform1i("shadowMap", 6);
 
-        // Now pass these booleans to the shader
-        shader.setUniform1i("hasMetallic",  hasMetallic ? 1 : 0);
-        shader.setUniform1i("hasRoughness", hasRoughness ? 1 : 0);
-        shader.setUniform1i("hasAo",        hasAo ? 1 : 0);
-        
-        shader.setUniform1i("hasNormal",  hasNormalMap ? 1 : 0);
-        shader.setUniform1i("hasHeight", hasHeightMap ? 1 : 0);
-        shader.setUniform1f("isOpaquePass", (entity.getNormalMapId() != 0) ? 1 : 0);
+        // Now pass these booleans to the shader, variants have them compiled in
+        if (hasFeatureUniforms(shader)) {
+        	shader.setUniform1i("hasMetallic",  hasMetallic ? 1 : 0);
+        	shader.setUniform1i("hasRoughness", hasRoughness ? 1 : 0);
+        	shader.setUniform1i("hasAo",        hasAo ? 1 : 0);
+        	
+        	shader.setUniform1i("hasNormal",  hasNormalMap ? 1 : 0);
+        	shader.setUniform1i("hasHeight", hasHeightMap ? 1 : 0);
+        }
         
         // If you still use "shineDamper"/"reflectivity" for older code, you can set them
         shader.setUniform1f("shineDamper", entity.getShineDamper());
         shader.setUniform1f("reflectivity", entity.getReflectivity());
-        
-    
-        if (entity.isHasTransparency()) {
-        	GL11.glDisable(GL11.GL_CULL_FACE);
-        	glEnable(GL_BLEND);
-        	glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-    		//GL11.glCullFace(GL11.GL_BACK);
-        } else {
-        	GL11.glEnable(GL11.GL_CULL_FACE);
-    		GL11.glCullFace(GL11.GL_BACK);
-        }
-        
-
-        
-
-        //  Bind the entity's mesh
-        Mesh mesh = entity.getMesh();
-        glBindVertexArray(mesh.getVaoId());
-
-        // Because we have tessellation in the pipeline, use GL_PATCHES
-        glPatchParameteri(GL_PATCH_VERTICES, 3);
-        glDrawArrays(GL_PATCHES, 0, mesh.getVertexCount());
-
-        glBindVertexArray(0);
     }
     
     
@@ -360,11 +796,28 @@ public class MasterRenderer {
 		this.screenHeight = screenHeight;
 	}
 
+	/**
+	 * Size of the target the scene is drawn into. The screen size stays what the UI is laid
+	 * out in.
+	 */
+	public void setRenderSize(int width, int height) {
+		this.renderWidth = width;
+		this.renderHeight = height;
+	}
+
 	/**
      * Cleanup the shader (call at end of program).
      */
     public void cleanup() {
         shader.destroy();
+        directShader.destroy();
+        variants.destroy();
+        depthShader.destroy();
+        lightGridBuffers.cleanup();
+        if (indirectRenderer != null) {
+        	indirectShader.destroy();
+        	indirectRenderer.cleanup();
+        }
     }
     
    
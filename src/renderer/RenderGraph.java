@@ -0,0 +1,456 @@
+package renderer;
+
+import static org.lwjgl.opengl.GL30.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import profiler.Profiler;
+
+/**
+ * The full-screen passes of a frame and the textures they hand to each other.
+ *
+ * Passes are added in submission order and declare what they read and write. {@link #compile}
+ * works out the rest without touching GL, so it can be checked anywhere:
+ *   1) passes whose output nothing reads are culled, walking back from the passes that write
+ *      the {@link #BACKBUFFER}
+ *   2) every transient texture lives from the first to the last remaining pass that uses it
+ *   3) transient textures of the same size and format whose lifetimes do not overlap share one
+ *      physical texture
+ *   4) the attachments of every pass become a render target, and a pass only binds its target
+ *      when the pass before it drew into a different one
+ *
+ * {@link RenderTargetPool} creates the textures and framebuffers of a compiled graph, and
+ * {@link #execute} runs it. Build and compile the graph again only when a pass or a size
+ * changes, executing it does not allocate.
+ *
+ * A pass must leave its target bound and draw to the whole of it: the viewport is only set
+ * when the target is bound.
+ */
+public class RenderGraph {
+
+    /** The default framebuffer, written by the passes that end the frame. */
+    public static final int BACKBUFFER = 0;
+
+    /** What a pass does once its target is bound. */
+    public interface PassBody {
+        void run(RenderTargetPool targets);
+    }
+
+    /** A pass and the resources it declared, see {@link #addPass}. */
+    public final class Pass {
+        private final String name;
+        private final PassBody body;
+        private final List<Integer> reads = new ArrayList<>();
+        private final List<Integer> writes = new ArrayList<>();
+        private String profilerPass;
+
+        private Pass(String name, PassBody body) {
+            this.name = name;
+            this.body = body;
+        }
+
+        /** The pass samples a resource written by an earlier pass. */
+        public Pass read(int resource) {
+            checkResource(resource);
+            reads.add(resource);
+            return this;
+        }
+
+        /**
+         * The pass draws into a resource. Color textures are attached in the order they are
+         * written, a depth texture goes to the depth attachment.
+         */
+        public Pass write(int resource) {
+            checkResource(resource);
+            writes.add(resource);
+            return this;
+        }
+
+        /** Consecutive passes of the same profiler pass are measured as one, see {@link Profiler#beginPass}. */
+        public Pass profile(String profilerPass) {
+            this.profilerPass = profilerPass;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final List<String> resourceNames = new ArrayList<>();
+    private int[] widths = new int[8], heights = new int[8], formats = new int[8];
+    private final List<Pass> passes = new ArrayList<>();
+
+    // Compiled
+    private boolean compiled;
+    private int[] schedule = new int[0];      // Indices of the passes that survived culling, in order
+    private int[] passTarget = new int[0];    // Per scheduled pass
+    private boolean[] passBinds = new boolean[0];
+    private int[] firstUse = new int[0], lastUse = new int[0]; // Schedule positions per resource, -1 if unused
+    private int[] physical = new int[0];      // Physical texture per resource, -1 for the backbuffer and unused ones
+    private int physicalCount;
+    private int[] physicalResource = new int[0]; // A resource of every physical texture, for its size and format
+    private int[][] targetColors = new int[0][]; // Physical textures attached per target, target 0 is the backbuffer
+    private int[] targetDepth = new int[0];
+
+    /**
+     * @param width  width of the default framebuffer in pixels
+     * @param height height of the default framebuffer in pixels
+     */
+    public RenderGraph(int width, int height) {
+        addResource("Backbuffer", width, height, GL_RGBA8);
+    }
+
+    /**
+     * Declares a texture that only lives within the frame. It has no contents before the first
+     * pass that writes it.
+     *
+     * @param internalFormat a sized format such as GL_RGBA16F or GL_DEPTH_COMPONENT24
+     * @return the resource to read and write
+     */
+    public int createTexture(String name, int width, int height, int internalFormat) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(name + " has no area: " + width + "x" + height);
+        }
+        return addResource(name, width, height, internalFormat);
+    }
+
+    private int addResource(String name, int width, int height, int internalFormat) {
+        int resource = resourceNames.size();
+        if (resource == widths.length) {
+            widths = Arrays.copyOf(widths, resource * 2);
+            heights = Arrays.copyOf(heights, resource * 2);
+            formats = Arrays.copyOf(formats, resource * 2);
+        }
+        resourceNames.add(name);
+        widths[resource] = width;
+        heights[resource] = height;
+        formats[resource] = internalFormat;
+        compiled = false;
+        return resource;
+    }
+
+    /** Adds a pass after the ones already added. Declare its resources on the returned pass. */
+    public Pass addPass(String name, PassBody body) {
+        Pass pass = new Pass(name, body);
+        passes.add(pass);
+        compiled = false;
+        return pass;
+    }
+
+    /**
+     * Culls, schedules and aliases the passes and resources added so far.
+     *
+     * @throws IllegalStateException if a pass reads a texture no earlier pass writes, samples
+     *                               the texture it draws into, or draws into the backbuffer
+     *                               and a texture at once
+     */
+    public void compile() {
+        int resourceCount = resourceNames.size();
+        int passCount = passes.size();
+
+        // 1) Walk back from the backbuffer, a pass is needed when a later needed pass reads what it writes
+        boolean[] needed = new boolean[resourceCount];
+        boolean[] alive = new boolean[passCount];
+        needed[BACKBUFFER] = true;
+        int aliveCount = 0;
+        for (int p = passCount - 1; p >= 0; p--) {
+            Pass pass = passes.get(p);
+            for (int resource : pass.writes) {
+                alive[p] |= needed[resource];
+            }
+            if (alive[p]) {
+                aliveCount++;
+                for (int resource : pass.reads) {
+                    needed[resource] = true;
+                }
+            }
+        }
+        schedule = new int[aliveCount];
+        for (int p = 0, s = 0; p < passCount; p++) {
+            if (alive[p]) {
+                schedule[s++] = p;
+            }
+        }
+
+        // 2) Lifetimes, and reads of textures nothing has written yet
+        firstUse = new int[resourceCount];
+        lastUse = new int[resourceCount];
+        Arrays.fill(firstUse, -1);
+        Arrays.fill(lastUse, -1);
+        for (int s = 0; s < schedule.length; s++) {
+            Pass pass = passes.get(schedule[s]);
+            for (int resource : pass.reads) {
+                if (firstUse[resource] < 0) {
+                    throw new IllegalStateException(pass.name + " reads " + resourceNames.get(resource)
+                            + " before any pass writes it");
+                }
+                if (pass.writes.contains(resource)) {
+                    throw new IllegalStateException(pass.name + " reads " + resourceNames.get(resource)
+                            + " while drawing into it");
+                }
+                lastUse[resource] = s;
+            }
+            for (int resource : pass.writes) {
+                if (firstUse[resource] < 0) {
+                    firstUse[resource] = s;
+                }
+                lastUse[resource] = s;
+            }
+        }
+
+        // 3) Alias, a physical texture is free again after the last pass that uses its resource
+        physical = new int[resourceCount];
+        Arrays.fill(physical, -1);
+        physicalCount = 0;
+        physicalResource = new int[resourceCount];
+        boolean[] free = new boolean[resourceCount];
+        for (int s = 0; s < schedule.length; s++) {
+            for (int resource = 1; resource < resourceCount; resource++) {
+                if (firstUse[resource] != s) {
+                    continue;
+                }
+                int match = -1;
+                for (int candidate = 0; candidate < physicalCount && match < 0; candidate++) {
+                    int other = physicalResource[candidate];
+                    if (free[candidate] && widths[other] == widths[resource] && heights[other] == heights[resource]
+                            && formats[other] == formats[resource]) {
+                        match = candidate;
+                    }
+                }
+                if (match < 0) {
+                    match = physicalCount++;
+                }
+                free[match] = false;
+                physical[resource] = match;
+                physicalResource[match] = resource;
+            }
+            for (int resource = 1; resource < resourceCount; resource++) {
+                if (lastUse[resource] == s) {
+                    free[physical[resource]] = true;
+                }
+            }
+        }
+
+        // 4) Render targets, the same attachments share one framebuffer
+        List<int[]> colors = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        colors.add(new int[0]);
+        depths.add(-1);
+        passTarget = new int[schedule.length];
+        passBinds = new boolean[schedule.length];
+        for (int s = 0; s < schedule.length; s++) {
+            Pass pass = passes.get(schedule[s]);
+            int target = 0;
+            if (!pass.writes.contains(BACKBUFFER)) {
+                int[] attached = new int[pass.writes.size()];
+                int colorCount = 0, depth = -1;
+                for (int resource : pass.writes) {
+                    if (isDepthFormat(formats[resource])) {
+                        depth = physical[resource];
+                    } else {
+                        attached[colorCount++] = physical[resource];
+                    }
+                }
+                attached = Arrays.copyOf(attached, colorCount);
+                target = -1;
+                for (int t = 1; t < colors.size() && target < 0; t++) {
+                    if (Arrays.equals(colors.get(t), attached) && depths.get(t) == depth) {
+                        target = t;
+                    }
+                }
+                if (target < 0) {
+                    target = colors.size();
+                    colors.add(attached);
+                    depths.add(depth);
+                }
+            } else if (pass.writes.size() > 1) {
+                throw new IllegalStateException(pass.name + " draws into the backbuffer and a texture at once");
+            }
+            passTarget[s] = target;
+            passBinds[s] = s == 0 || passTarget[s - 1] != target;
+        }
+        targetColors = colors.toArray(new int[0][]);
+        targetDepth = new int[depths.size()];
+        for (int t = 0; t < targetDepth.length; t++) {
+            targetDepth[t] = depths.get(t);
+        }
+        compiled = true;
+    }
+
+    /**
+     * Runs the compiled passes: binds a pass's target when it differs from the previous one,
+     * then runs its body.
+     */
+    public void execute(RenderTargetPool targets) {
+        if (!compiled) {
+            throw new IllegalStateException("Render graph changed since it was compiled");
+        }
+        String openProfilerPass = null;
+        for (int s = 0; s < schedule.length; s++) {
+            Pass pass = passes.get(schedule[s]);
+            if (pass.profilerPass != openProfilerPass) {
+                if (openProfilerPass != null) {
+                    Profiler.endPass();
+                }
+                openProfilerPass = pass.profilerPass;
+                if (openProfilerPass != null) {
+                    Profiler.beginPass(openProfilerPass);
+                }
+            }
+            if (passBinds[s]) {
+                targets.bindTarget(passTarget[s]);
+            }
+            pass.body.run(targets);
+        }
+        if (openProfilerPass != null) {
+            Profiler.endPass();
+        }
+    }
+
+    static boolean isDepthFormat(int internalFormat) {
+        return internalFormat == GL_DEPTH_COMPONENT16 || internalFormat == GL_DEPTH_COMPONENT24
+                || internalFormat == GL_DEPTH_COMPONENT32 || internalFormat == GL_DEPTH_COMPONENT32F
+                || internalFormat == GL_DEPTH_COMPONENT;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public int getResourceCount() {
+        return resourceNames.size();
+    }
+
+    public String getResourceName(int resource) {
+        return resourceNames.get(resource);
+    }
+
+    public int getWidth(int resource) {
+        return widths[resource];
+    }
+
+    public int getHeight(int resource) {
+        return heights[resource];
+    }
+
+    public int getFormat(int resource) {
+        return formats[resource];
+    }
+
+    /** Whether a pass survived culling in the last compile. */
+    public boolean isScheduled(Pass pass) {
+        int index = passes.indexOf(pass);
+        for (int p : schedule) {
+            if (p == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Number of passes that survived culling. */
+    public int getScheduledCount() {
+        return schedule.length;
+    }
+
+    /** Position in the schedule of the first pass that uses a resource, -1 if none does. */
+    public int getFirstUse(int resource) {
+        return firstUse[resource];
+    }
+
+    /** Position in the schedule of the last pass that uses a resource, -1 if none does. */
+    public int getLastUse(int resource) {
+        return lastUse[resource];
+    }
+
+    /** Physical texture of a transient resource, -1 for the backbuffer and unused resources. */
+    public int getPhysical(int resource) {
+        return physical[resource];
+    }
+
+    public int getPhysicalCount() {
+        return physicalCount;
+    }
+
+    /** A resource stored in a physical texture, all of them share its size and format. */
+    public int getPhysicalResource(int physicalTexture) {
+        return physicalResource[physicalTexture];
+    }
+
+    /** Render targets of the compiled graph, target 0 is the backbuffer. */
+    public int getTargetCount() {
+        return targetColors.length;
+    }
+
+    /** Physical textures on the color attachments of a target, in attachment order. */
+    public int[] getTargetColors(int target) {
+        return targetColors[target];
+    }
+
+    /** Physical texture on the depth attachment of a target, -1 if it has none. */
+    public int getTargetDepth(int target) {
+        return targetDepth[target];
+    }
+
+    /** Size of a target in pixels, from its first attachment. */
+    public int getTargetWidth(int target) {
+        return widths[targetResource(target)];
+    }
+
+    public int getTargetHeight(int target) {
+        return heights[targetResource(target)];
+    }
+
+    private int targetResource(int target) {
+        if (target == 0) {
+            return BACKBUFFER;
+        }
+        int first = targetColors[target].length > 0 ? targetColors[target][0] : targetDepth[target];
+        return physicalResource[first];
+    }
+
+    /** Number of framebuffer binds one execution makes. */
+    public int getBindCount() {
+        int binds = 0;
+        for (boolean bind : passBinds) {
+            if (bind) {
+                binds++;
+            }
+        }
+        return binds;
+    }
+
+    /** The compiled schedule, one line per pass, for logs. */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        text.append(schedule.length).append(" of ").append(passes.size()).append(" passes, ")
+            .append(physicalCount).append(" textures for ").append(resourceNames.size() - 1).append(" resources, ")
+            .append(getBindCount()).append(" framebuffer binds\n");
+        for (int p = 0, s = 0; p < passes.size(); p++) {
+            Pass pass = passes.get(p);
+            if (s >= schedule.length || schedule[s] != p) {
+                text.append("  culled ").append(pass.name).append('\n');
+                continue;
+            }
+            text.append(passBinds[s] ? "  bind   " : "         ").append(pass.name).append(" ->");
+            for (int resource : pass.writes) {
+                text.append(' ').append(resourceNames.get(resource));
+                if (resource != BACKBUFFER) {
+                    text.append('#').append(physical[resource]);
+                }
+            }
+            text.append('\n');
+            s++;
+        }
+        return text.toString();
+    }
+
+    private void checkResource(int resource) {
+        if (resource < 0 || resource >= resourceNames.size()) {
+            throw new IllegalArgumentException("Unknown render graph resource " + resource);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package renderer;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The textures and framebuffers behind a compiled {@link RenderGraph}.
+ *
+ * One texture per physical texture of the graph and one framebuffer per render target.
+ * {@link #update} keeps the textures whose size and format did not change, so compiling the
+ * graph again (after toggling a pass) does not reallocate the screen sized ones. Textures the
+ * new graph has no use for wait as spares, up to {@link #MAX_SPARES}, so switching between a
+ * few render sizes (dynamic resolution) stops allocating once every size has been seen.
+ */
+public class RenderTargetPool {
+
+    /** Unused textures kept for a later graph, the oldest is deleted first. */
+    public static final int MAX_SPARES = 32;
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private RenderGraph graph;
+
+    private int[] textures = new int[0];
+    private int[] textureWidths = new int[0], textureHeights = new int[0], textureFormats = new int[0];
+    private int[] framebuffers = new int[0]; // Per target, 0 for the backbuffer
+
+    private final int[] spares = new int[MAX_SPARES];
+    private final int[] spareWidths = new int[MAX_SPARES], spareHeights = new int[MAX_SPARES], spareFormats = new int[MAX_SPARES];
+    private int spareCount;
+
+    /**
+     * Creates, keeps or deletes textures and framebuffers so they match a compiled graph.
+     */
+    public void update(RenderGraph graph) {
+        if (!graph.isCompiled()) {
+            throw new IllegalStateException("Compile the render graph before updating its targets");
+        }
+        this.graph = graph;
+
+        // 1) Textures, kept when their slot still wants the same size and format, else from the spares
+        int count = graph.getPhysicalCount();
+        for (int i = 0; i < textures.length; i++) {
+            if (i >= count || !fits(i, graph.getPhysicalResource(i))) {
+                addSpare(textures[i], textureWidths[i], textureHeights[i], textureFormats[i]);
+                textures[i] = 0;
+            }
+        }
+        textures = Arrays.copyOf(textures, count);
+        textureWidths = Arrays.copyOf(textureWidths, count);
+        textureHeights = Arrays.copyOf(textureHeights, count);
+        textureFormats = Arrays.copyOf(textureFormats, count);
+        for (int i = 0; i < count; i++) {
+            if (textures[i] != 0) {
+                continue;
+            }
+            int resource = graph.getPhysicalResource(i);
+            int width = graph.getWidth(resource), height = graph.getHeight(resource), format = graph.getFormat(resource);
+            textures[i] = takeSpare(width, height, format);
+            if (textures[i] == 0) {
+                textures[i] = createTexture(width, height, format);
+            }
+            textureWidths[i] = width;
+            textureHeights[i] = height;
+            textureFormats[i] = format;
+        }
+
+        // 2) Framebuffers, cheap enough to build again
+        for (int fbo : framebuffers) {
+            if (fbo != 0) {
+                gl.deleteFramebuffers(fbo);
+            }
+        }
+        framebuffers = new int[graph.getTargetCount()];
+        for (int target = 1; target < framebuffers.length; target++) {
+            framebuffers[target] = createFramebuffer(graph.getTargetColors(target), graph.getTargetDepth(target));
+        }
+        gl.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    private boolean fits(int slot, int resource) {
+        return textureWidths[slot] == graph.getWidth(resource) && textureHeights[slot] == graph.getHeight(resource)
+                && textureFormats[slot] == graph.getFormat(resource);
+    }
+
+    private void addSpare(int texture, int width, int height, int format) {
+        if (spareCount == MAX_SPARES) {
+            gl.deleteTextures(spares[0]);
+            removeSpare(0);
+        }
+        spares[spareCount] = texture;
+        spareWidths[spareCount] = width;
+        spareHeights[spareCount] = height;
+        spareFormats[spareCount] = format;
+        spareCount++;
+    }
+
+    /** A spare of that size and format, or 0 if there is none. */
+    private int takeSpare(int width, int height, int format) {
+        for (int i = 0; i < spareCount; i++) {
+            if (spareWidths[i] == width && spareHeights[i] == height && spareFormats[i] == format) {
+                int texture = spares[i];
+                removeSpare(i);
+                return texture;
+            }
+        }
+        return 0;
+    }
+
+    private void removeSpare(int index) {
+        int tail = spareCount - index - 1;
+        System.arraycopy(spares, index + 1, spares, index, tail);
+        System.arraycopy(spareWidths, index + 1, spareWidths, index, tail);
+        System.arraycopy(spareHeights, index + 1, spareHeights, index, tail);
+        System.arraycopy(spareFormats, index + 1, spareFormats, index, tail);
+        spareCount--;
+    }
+
+    /** Textures allocated by this pool, in use or spare. */
+    public int getTextureCount() {
+        return textures.length + spareCount;
+    }
+
+    private int createTexture(int width, int height, int format) {
+        boolean depth = RenderGraph.isDepthFormat(format);
+        int texture = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D, texture);
+        gl.texImage2D(GL_TEXTURE_2D, 0, format, width, height, 0, depth ? GL_DEPTH_COMPONENT : GL_RGBA,
+                GL_FLOAT, (ByteBuffer) null);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, depth ? GL_NEAREST : GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, depth ? GL_NEAREST : GL_LINEAR);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        gl.bindTexture(GL_TEXTURE_2D, 0);
+        return texture;
+    }
+
+    private int createFramebuffer(int[] colors, int depth) {
+        int fbo = gl.genFramebuffers();
+        gl.bindFramebuffer(GL_FRAMEBUFFER, fbo);
+        int[] drawBuffers = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            gl.framebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0 + i, GL_TEXTURE_2D, textures[colors[i]], 0);
+            drawBuffers[i] = GL_COLOR_ATTACHMENT0 + i;
+        }
+        if (depth >= 0) {
+            gl.framebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, textures[depth], 0);
+        }
+        if (colors.length == 0) {
+            gl.drawBuffer(GL_NONE);
+            gl.readBuffer(GL_NONE);
+        } else {
+            gl.drawBuffers(drawBuffers);
+        }
+        if (gl.checkFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Error: Render graph framebuffer is not complete!");
+        }
+        return fbo;
+    }
+
+    /** Binds a target of the graph and sets the viewport to its size. */
+    void bindTarget(int target) {
+        gl.bindFramebuffer(GL_FRAMEBUFFER, framebuffers[target]);
+        gl.viewport(0, 0, graph.getTargetWidth(target), graph.getTargetHeight(target));
+    }
+
+    /** GL texture of a resource in the graph this pool was last updated with. */
+    public int getTexture(int resource) {
+        return textures[graph.getPhysical(resource)];
+    }
+
+    public void cleanUp() {
+        for (int texture : textures) {
+            gl.deleteTextures(texture);
+        }
+        for (int i = 0; i < spareCount; i++) {
+            gl.deleteTextures(spares[i]);
+        }
+        spareCount = 0;
+        for (int fbo : framebuffers) {
+            if (fbo != 0) {
+                gl.deleteFramebuffers(fbo);
+            }
+        }
+        textures = new int[0];
+        framebuffers = new int[0];
+    }
+}
@@ -0,0 +1,145 @@
+package renderer;
+
+/**
+ * Picks the scale the scene is rendered at from the GPU time of the last frames.
+ *
+ * The GPU time comes in two parts: passes whose cost follows the pixel count (scene, bloom) and
+ * passes that cost the same at any scale (shadow maps, UI). The fixed part is taken off the
+ * budget, and a PID controller on the error between what is left and the scaled part (as a
+ * fraction of the budget, so the gains do not depend on the budget) moves a continuous scale
+ * between minScale and maxScale. When the fixed part alone is over the budget the scale goes
+ * to minScale, it is all the controller can do. The scale that is applied snaps to steps, so
+ * only a handful of target sizes ever exist, and only moves when the continuous scale is most
+ * of a step away from it.
+ *
+ * GPU timer results are a few frames late and smoothed, so after every change the controller
+ * waits {@link #SETTLE_FRAMES} frames before it looks at the timings again. Without that it
+ * would keep lowering the scale while the timings still show the old resolution. The integral
+ * is then set so the output starts at the new scale instead of jumping back.
+ *
+ * A step up is only taken when the time it predicts (the scaled part grows with the square of
+ * the scale, the fixed part stays) fits the budget. Otherwise a load just between two steps
+ * would flip between them.
+ *
+ * Pure Java: feed it synthetic timings to check how it settles.
+ */
+public class ResolutionController {
+
+    // Gains per frame, on the error as a fraction of the budget
+    private static final float KP = 0.2f;
+    private static final float KI = 0.02f;
+    private static final float KD = 0.3f;
+
+    /** Frames to ignore the timings for after the scale changed. */
+    public static final int SETTLE_FRAMES = 20;
+    /** The applied scale moves when the continuous one is this many steps away from it. */
+    private static final float HYSTERESIS = 0.75f;
+
+    private final float budgetMillis;
+    private final float minScale;
+    private final float maxScale;
+    private final float step;
+
+    private float integral;
+    private float previousError;
+    private boolean hasPrevious;
+    private float output;
+    private float scale;
+    private int settleFrames;
+    private int changes;
+
+    /**
+     * @param budgetMillis GPU milliseconds per frame to aim for
+     * @param minScale     smallest scale, 0.5 renders a quarter of the pixels
+     * @param maxScale     largest scale, usually 1
+     * @param step         the applied scale is minScale plus a whole number of steps
+     */
+    public ResolutionController(float budgetMillis, float minScale, float maxScale, float step) {
+        if (budgetMillis <= 0 || minScale <= 0 || minScale > maxScale || step <= 0) {
+            throw new IllegalArgumentException("Invalid resolution controller range");
+        }
+        this.budgetMillis = budgetMillis;
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.step = step;
+        reset();
+    }
+
+    /** Back to the largest scale, forgetting the timings so far. */
+    public void reset() {
+        integral = 0;
+        hasPrevious = false;
+        output = maxScale;
+        scale = maxScale;
+        settleFrames = 0;
+    }
+
+    /**
+     * Takes the GPU time of the newest measured frame and returns the scale to render the next
+     * one at. Call once per frame.
+     *
+     * @param scaledMillis GPU time of the passes rendered at the scale, 0 or less while there is
+     *                     no measurement yet, the scale is kept
+     * @param fixedMillis  GPU time of the passes that do not depend on the scale
+     */
+    public float update(float scaledMillis, float fixedMillis) {
+        if (settleFrames > 0) {
+            settleFrames--;
+            return scale;
+        }
+        if (scaledMillis <= 0) {
+            return scale;
+        }
+        fixedMillis = Math.max(0, fixedMillis);
+
+        // 1) PID, a positive error is headroom
+        float error = (budgetMillis - fixedMillis - scaledMillis) / budgetMillis;
+        float derivative = hasPrevious ? error - previousError : 0;
+        previousError = error;
+        hasPrevious = true;
+        float previousIntegral = integral;
+        float candidate = integral + error;
+        float unclamped = maxScale + KP * error + KI * candidate + KD * derivative;
+        // No wind-up against a limit the scale already sits at
+        if ((unclamped < maxScale || error < 0) && (unclamped > minScale || error > 0)) {
+            integral = candidate;
+        }
+        output = clamp(maxScale + KP * error + KI * integral + KD * derivative);
+
+        // 2) Snap to a step, with hysteresis against flickering between two sizes
+        if (Math.abs(output - scale) > step * HYSTERESIS) {
+            float snapped = clamp(minScale + Math.round((output - minScale) / step) * step);
+            float ratio = snapped / scale;
+            if (snapped > scale && fixedMillis + scaledMillis * ratio * ratio > budgetMillis) {
+                // Would not fit, and no wind-up while held below it either
+                integral = previousIntegral;
+            } else if (snapped != scale) {
+                scale = snapped;
+                integral = (scale - maxScale) / KI;
+                settleFrames = SETTLE_FRAMES;
+                hasPrevious = false;
+                changes++;
+            }
+        }
+        return scale;
+    }
+
+    private float clamp(float value) {
+        return Math.max(minScale, Math.min(maxScale, value));
+    }
+
+    /** The applied scale, one of the steps. */
+    public float getScale() {
+        return scale;
+    }
+
+    /** The controller's continuous scale before snapping. */
+    public float getOutput() {
+        return output;
+    }
+
+    /** Number of times the applied scale changed. */
+    public int getChanges() {
+        return changes;
+    }
+}
@@ -1,5 +1,7 @@
 package settings;
 
+import graphics.Graphics;
+
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.glfw.GLFW.glfwGetKey;
 
@@ -12,7 +14,7 @@ import org.lwjgl.opengl.GL11;
 
 import entities.Entity;
 import entities.Light;
-import main.Main;
+import profiler.Profiler;
 import toolbox.Mesh;
 
 public class EngineSettings {
@@ -31,9 +33,30 @@ public class EngineSettings {
 	
 	//Graphics
 	public static DebugMode ShaderDebug = DebugMode.STANDARD_RENDERING;
+	public static boolean MultiDrawIndirect = false; // Pool static meshes and draw them with glMultiDrawElementsIndirect (GL 4.3)
+	public static boolean PerDrawLights = false; // Shade each draw with its most relevant lights instead of its clusters' lights
+	public static boolean DepthPrePass = false; // Lay down opaque depth first, then shade each pixel once with GL_EQUAL
+	public static boolean ShaderVariants = false; // Draw each material with a shader compiled for its maps instead of the uber shader's uniform branches
+	public static boolean ShaderBinaryCache = true; // Keep linked program binaries in cache/shaders and skip compiling on the next launch
+	public static int ShadowCascades = 4; // Directional shadow cascades (1 to 4), read when the shadow renderer is created
+	public static int ShadowMapResolution = 2048; // Width and height of every cascade in texels, read when the shadow renderer is created
+	public static float ShadowDistance = 6000f; // View distance the last shadow cascade ends at
+	public static boolean ShadowCache = true; // Keep the shadow depth of static casters between frames, draw only moving casters every frame
+	public static boolean PointLightShadows = true; // Cube face shadows for point lights with castShadow, packed into one atlas
+	public static int PointShadowAtlasSize = 4096; // Width and height of the point shadow atlas in texels, read when the renderer is created
+	public static int PointShadowFaceBudget = 6; // Most point shadow cube faces drawn per frame, the rest are refreshed round robin
+	public static boolean Bloom = true; // Bright pass and mip chain glow, the render graph culls its passes when off
+	public static boolean Vignette = false; // Darken the screen edges in a post-processing pass after bloom
+	public static boolean DynamicResolution = false; // Render the scene and bloom at the scale a GPU frame time controller picks, upsampled and sharpened by the bloom combine
+	public static float DynamicResolutionBudget = 14f; // GPU milliseconds per frame the resolution controller aims for, read when it is created
+	public static float DynamicResolutionMinScale = 0.5f; // Smallest render scale, read when the resolution controller is created
 	
 	//Computation
-	public static boolean MemoryUsage = false;
+	public static boolean MemoryUsage = false; // Print p50/p95/p99/max frame time, frames over budget and GC pauses once a second
+	public static boolean FrameStatsCsv = false; // Append the same statistics to traces/frame-times.csv
+	public static boolean PipelinedFrames = false; // Simulate and cull the next frame on a worker thread while this one is submitted (adds one frame of latency)
+	public static boolean OcclusionCulling = false; // Rasterize the largest static meshes on the CPU and skip what they hide
+	public static boolean ProfilerOverlay = false; // Show CPU and GPU time per scope (F3), F4 captures a Chrome trace to traces/
 	
 	//Editor
 	public static boolean MouseItemPicker = true;
@@ -54,6 +77,8 @@ public class EngineSettings {
 	
 	
 	public static boolean keyPressing = false;
+	private static boolean overlayKeyPressing = false;
+	private static boolean captureKeyPressing = false;
 	
 	public static void updateSettings(long window) {
 		
@@ -76,15 +101,15 @@ public class EngineSettings {
 		
 		//OpenGL
 		if (PointMode) {
-			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_FILL);
+			Graphics.device().polygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_FILL);
 		}
 		
 		if (WireFrameMode) {
-			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
+			Graphics.device().polygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_LINE);
 		}
 		
 		if (PointMode) {
-			GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_POINT);
+			Graphics.device().polygonMode(GL11.GL_FRONT_AND_BACK, GL11.GL_POINT);
 		}
 		
 		
@@ -93,18 +118,26 @@ public class EngineSettings {
 		
 		
 		//Computation
-		if (MemoryUsage) {
-			 long totalMem = Runtime.getRuntime().totalMemory();
-		        long freeMem  = Runtime.getRuntime().freeMemory();
-		        long usedMem  = totalMem - freeMem;
-		        // Convert to MB
-		        long usedMB = usedMem / (1024 * 1024);
-		        long totalMB= totalMem / (1024 * 1024);
-
-		        // 2) Print
-		        System.out.println("FPS: " + Main.currentFPS + " | Used Memory: " + usedMB + " MB / " + totalMB + " MB");
+		if (glfwGetKey(window, GLFW_KEY_F3) == GLFW_PRESS) {
+		    if (!overlayKeyPressing) {
+		        ProfilerOverlay = !ProfilerOverlay;
+		        overlayKeyPressing = true;
+		    }
+		} else {
+			overlayKeyPressing = false;
 		}
 		
+		if (glfwGetKey(window, GLFW_KEY_F4) == GLFW_PRESS) {
+		    if (!captureKeyPressing) {
+		        Profiler.capture(300, "traces/trace-" + System.currentTimeMillis() + ".json");
+		        captureKeyPressing = true;
+		    }
+		} else {
+			captureKeyPressing = false;
+		}
+		
+		// MemoryUsage and FrameStatsCsv are reported by Main once a second of frames is recorded
+		
 		//Selected Entity and Light
 		if (SelectedEntity != null)
 			OpenEntity = SelectedEntity;
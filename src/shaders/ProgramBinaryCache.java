@@ -0,0 +1,117 @@
+package shaders;
+
+import static org.lwjgl.opengl.GL11.GL_RENDERER;
+import static org.lwjgl.opengl.GL11.GL_VENDOR;
+import static org.lwjgl.opengl.GL11.GL_VERSION;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+import settings.EngineSettings;
+
+/**
+ * Linked program binaries on disk, so later launches skip the GLSL compiler.
+ *
+ * A binary is stored under the SHA-256 of the final stage sources and the driver's vendor,
+ * renderer and version strings, so editing a shader or updating the driver misses the cache.
+ * Each file is the binary format as a 4 byte int followed by the binary. Drivers may still
+ * reject a binary, {@link ShaderProgram} then compiles the sources and overwrites it.
+ */
+public final class ProgramBinaryCache {
+
+    private static final Path DIRECTORY = Paths.get("cache", "shaders");
+
+    private static byte[] driver;
+
+    private ProgramBinaryCache() {
+    }
+
+    public static boolean isEnabled() {
+        return EngineSettings.ShaderBinaryCache && Graphics.device().supportsProgramBinary();
+    }
+
+    /**
+     * @param sources source of every stage, null for unused stages
+     */
+    public static String key(String[] sources) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JRE has SHA-256
+        }
+        digest.update(driver());
+        for (String source : sources) {
+            // The separator keeps "ab" + "" apart from "a" + "b"
+            digest.update((byte) (source == null ? 0 : 1));
+            if (source != null) {
+                digest.update(source.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] driver() {
+        if (driver == null) {
+            GraphicsDevice gl = Graphics.device();
+            String id = gl.getString(GL_VENDOR) + "\n" + gl.getString(GL_RENDERER) + "\n" + gl.getString(GL_VERSION) + "\n";
+            driver = id.getBytes(StandardCharsets.UTF_8);
+        }
+        return driver;
+    }
+
+    /**
+     * @param format receives the binary format in format[0]
+     * @return the stored binary, or null if there is none
+     */
+    public static byte[] load(String key, int[] format) {
+        Path file = DIRECTORY.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (data.remaining() <= 4) {
+                return null;
+            }
+            format[0] = data.getInt();
+            byte[] binary = new byte[data.remaining()];
+            data.get(binary);
+            return binary;
+        } catch (IOException e) {
+            System.err.println("[Shaders] Could not read " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so an interrupted write never leaves half a binary.
+     * Failing to write only costs the next launch a compile.
+     */
+    public static void store(String key, int format, byte[] binary) {
+        Path file = DIRECTORY.resolve(key + ".bin");
+        try {
+            Files.createDirectories(DIRECTORY);
+            Path temp = DIRECTORY.resolve(key + ".tmp");
+            ByteBuffer data = ByteBuffer.allocate(4 + binary.length);
+            data.putInt(format).put(binary);
+            Files.write(temp, data.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("[Shaders] Could not write " + file + ": " + e.getMessage());
+        }
+    }
+}
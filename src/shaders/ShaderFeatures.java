@@ -0,0 +1,106 @@
+package shaders;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import entities.Entity;
+import toolbox.Material;
+
+/**
+ * The material features a variant of the main shader is compiled for, one bit each.
+ *
+ * The bits of a material or entity form its variant key. Every set bit becomes a #define, so
+ * the checks on it in fragment.glsl are constants and the unused branches compile out.
+ */
+public final class ShaderFeatures {
+
+    public static final int NORMAL_MAP = 1;
+    public static final int HEIGHT_MAP = 1 << 1;
+    public static final int METALLIC_MAP = 1 << 2;
+    public static final int ROUGHNESS_MAP = 1 << 3;
+    public static final int AO_MAP = 1 << 4;
+    /** Discards cut out texels. Set by the pass, not the material. */
+    public static final int ALPHA_TEST = 1 << 5;
+
+    public static final int BITS = 6;
+    /** Number of possible variant keys. */
+    public static final int COUNT = 1 << BITS;
+
+    /** Always defined in a variant, fragment.glsl falls back to uniforms without it. */
+    public static final String VARIANT = "VARIANT";
+    /** Defined for programs without tessellation and geometry stages. */
+    public static final String NO_TESSELLATION = "NO_TESSELLATION";
+
+    private static final String[] DEFINES = {
+            "HAS_NORMAL_MAP",
+            "HAS_HEIGHT_MAP",
+            "HAS_METALLIC_MAP",
+            "HAS_ROUGHNESS_MAP",
+            "HAS_AO_MAP",
+            "ALPHA_TEST",
+    };
+
+    private ShaderFeatures() {
+    }
+
+    public static int of(Entity entity, boolean alphaTest) {
+        return of(entity.getNormalMapId(), entity.getHeighMapId(), entity.getMetallicMap(),
+                entity.getRoughnessMap(), entity.getAoMap(), alphaTest);
+    }
+
+    public static int of(Material material, boolean alphaTest) {
+        return of(material.normalTextureId, material.heightMapId, material.metallicMapId,
+                material.roughnessMapId, material.aoMapId, alphaTest);
+    }
+
+    private static int of(int normal, int height, int metallic, int roughness, int ao, boolean alphaTest) {
+        int features = 0;
+        if (normal != 0) features |= NORMAL_MAP;
+        if (height != 0) features |= HEIGHT_MAP;
+        if (metallic != 0) features |= METALLIC_MAP;
+        if (roughness != 0) features |= ROUGHNESS_MAP;
+        if (ao != 0) features |= AO_MAP;
+        if (alphaTest) features |= ALPHA_TEST;
+        return features;
+    }
+
+    /**
+     * Whether a variant goes through the tessellation stages. Only height mapped surfaces do,
+     * everything else takes the vertex and fragment stages alone.
+     */
+    public static boolean isTessellated(int features) {
+        return (features & HEIGHT_MAP) != 0;
+    }
+
+    /** The #defines of a variant key, for {@link ShaderPreprocessor}. */
+    public static Map<String, String> toDefines(int features) {
+        Map<String, String> defines = new LinkedHashMap<>();
+        defines.put(VARIANT, "");
+        if (!isTessellated(features)) {
+            defines.put(NO_TESSELLATION, "");
+        }
+        for (int bit = 0; bit < BITS; bit++) {
+            if ((features & (1 << bit)) != 0) {
+                defines.put(DEFINES[bit], "");
+            }
+        }
+        return defines;
+    }
+
+    /** Readable key for logs, like "HAS_NORMAL_MAP|ALPHA_TEST". */
+    public static String describe(int features) {
+        if (features == 0) {
+            return "none";
+        }
+        StringBuilder name = new StringBuilder();
+        for (int bit = 0; bit < BITS; bit++) {
+            if ((features & (1 << bit)) != 0) {
+                if (name.length() > 0) {
+                    name.append('|');
+                }
+                name.append(DEFINES[bit]);
+            }
+        }
+        return name.toString();
+    }
+}
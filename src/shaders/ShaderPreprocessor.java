@@ -0,0 +1,85 @@
+package shaders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a shader file into the source handed to the GL.
+ *
+ *   #include "file.glsl"   is replaced by that file, resolved relative to the including file.
+ *                          Every file is included once, later includes of it are dropped.
+ *   defines                are inserted as #define lines right after #version, so a shader
+ *                          can be compiled in several variants with #ifdef.
+ *
+ * Everything else, #ifdef included, is left to the GLSL compiler.
+ */
+public final class ShaderPreprocessor {
+
+    private static final String INCLUDE = "#include";
+
+    private ShaderPreprocessor() {
+    }
+
+    /**
+     * @param defines name and value of every #define, the value may be empty
+     */
+    public static String process(String path, Map<String, String> defines) {
+        StringBuilder body = new StringBuilder();
+        include(Paths.get(path).toAbsolutePath().normalize(), new HashSet<>(), body);
+
+        // 1) The defines go after #version, which has to stay the first statement
+        StringBuilder define = new StringBuilder();
+        for (Map.Entry<String, String> entry : defines.entrySet()) {
+            define.append("#define ").append(entry.getKey());
+            if (!entry.getValue().isEmpty()) {
+                define.append(' ').append(entry.getValue());
+            }
+            define.append('\n');
+        }
+        if (define.length() == 0) {
+            return body.toString();
+        }
+        int version = body.indexOf("#version");
+        int insertAt = version < 0 ? 0 : body.indexOf("\n", version) + 1;
+        if (version >= 0 && insertAt == 0) {
+            body.append('\n');
+            insertAt = body.length();
+        }
+        return body.insert(insertAt, define).toString();
+    }
+
+    private static void include(Path file, Set<Path> included, StringBuilder out) {
+        if (!included.add(file)) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load shader file: " + file, e);
+        }
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith(INCLUDE)) {
+                include(resolve(file, trimmed), included, out);
+            } else {
+                out.append(line).append('\n');
+            }
+        }
+    }
+
+    private static Path resolve(Path from, String directive) {
+        int open = directive.indexOf('"');
+        int close = directive.lastIndexOf('"');
+        if (open < 0 || close <= open) {
+            throw new RuntimeException("Malformed include in " + from + ": " + directive);
+        }
+        return from.getParent().resolve(directive.substring(open + 1, close)).normalize();
+    }
+}
@@ -1,5 +1,8 @@
 package shaders;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix3f;
 import org.joml.Matrix3fc;
 import org.joml.Matrix4f;
@@ -15,100 +18,93 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.nio.FloatBuffer;
 
 import static org.lwjgl.opengl.GL40.*;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
 
 public class ShaderProgram {
+    private final GraphicsDevice gl = Graphics.device();
+
     private final int programId;
 
+    private static final int[] STAGES = {
+            GL_VERTEX_SHADER, GL_TESS_CONTROL_SHADER, GL_TESS_EVALUATION_SHADER, GL_GEOMETRY_SHADER, GL_FRAGMENT_SHADER
+    };
+    // glMaxShaderCompilerThreadsKHR value that lets the driver pick
+    private static final int ALL_COMPILER_THREADS = 0xFFFFFFFF;
+
+    // Programs waiting for endBatch, and what the current batch did
+    private static List<ShaderProgram> batch;
+    private static int batchDepth;
+    private static long batchStart;
+    private static int compiledPrograms, cachedPrograms;
+
+    // Until the link is checked: the compiled stages. Paths name them in errors.
+    private int[] shaders;
+    private final String[] paths;
+    private final String cacheKey;
+
+    // Scratch storage for matrix uploads (no MemoryStack, so it also works headless)
+    private final float[] mat4Scratch = new float[16];
+    private final float[] mat3Scratch = new float[9];
+
     //For a straight path
     public ShaderProgram(String vertPath,
                          String tessControlPath,
                          String tessEvalPath,
                          String geomPath,
                          String fragPath) {
-        // Create a program handle
-        programId = glCreateProgram();
-        if (programId == 0) {
-            throw new IllegalStateException("Could not create ShaderProgram!");
-        }
-
-        // Compile each shader if the path is not null
-        int vs = compileShader(vertPath, GL_VERTEX_SHADER);
-        int tcs = compileShader(tessControlPath, GL_TESS_CONTROL_SHADER);
-        int tes = compileShader(tessEvalPath, GL_TESS_EVALUATION_SHADER);
-        int gs = compileShader(geomPath, GL_GEOMETRY_SHADER);
-        int fs = compileShader(fragPath, GL_FRAGMENT_SHADER);
-
-        // Attach shaders
-        if (vs != 0) glAttachShader(programId, vs);
-        if (tcs != 0) glAttachShader(programId, tcs);
-        if (tes != 0) glAttachShader(programId, tes);
-        if (gs != 0) glAttachShader(programId, gs);
-        if (fs != 0) glAttachShader(programId, fs);
-
-        // Link the program
-        glLinkProgram(programId);
-
-        // Check for linking errors
-        int linked = glGetProgrami(programId, GL_LINK_STATUS);
-        if (linked == 0) {
-            String log = glGetProgramInfoLog(programId);
-            throw new RuntimeException("Program link failed:\n" + log);
-        }
-
-        // Detach and delete shaders after successful linking
-        if (vs != 0) {
-            glDetachShader(programId, vs);
-            glDeleteShader(vs);
-        }
-        if (tcs != 0) {
-            glDetachShader(programId, tcs);
-            glDeleteShader(tcs);
-        }
-        if (tes != 0) {
-            glDetachShader(programId, tes);
-            glDeleteShader(tes);
-        }
-        if (gs != 0) {
-            glDetachShader(programId, gs);
-            glDeleteShader(gs);
-        }
-        if (fs != 0) {
-            glDetachShader(programId, fs);
-            glDeleteShader(fs);
-        }
+        this(vertPath, tessControlPath, tessEvalPath, geomPath, fragPath, Collections.emptyMap());
     }
 
-    private static int compileShader(String filePath, int type) {
-        if (filePath == null) return 0; // If no shader provided, skip
-
-        String source = null;
-        try {
-            source = new String(Files.readAllBytes(Paths.get(filePath)));
-        } catch (IOException e) {
-            e.printStackTrace();
-            return 0;
-        }
-        int shaderId = glCreateShader(type);
-        glShaderSource(shaderId, source);
-        glCompileShader(shaderId);
-
-        // Check compile status
-        int status = glGetShaderi(shaderId, GL_COMPILE_STATUS);
-        if (status == GL_FALSE) {
-            String log = glGetShaderInfoLog(shaderId);
-            throw new RuntimeException("Shader compile error (" + filePath + "):\n" + log);
-        }
+    /**
+     * Straight path with every stage run through {@link ShaderPreprocessor}, so the files may
+     * #include others and #ifdef on the given defines.
+     */
+    public ShaderProgram(String vertPath,
+                         String tessControlPath,
+                         String tessEvalPath,
+                         String geomPath,
+                         String fragPath,
+                         Map<String, String> defines) {
+        this(new String[] {
+                preprocess(vertPath, defines),
+                preprocess(tessControlPath, defines),
+                preprocess(tessEvalPath, defines),
+                preprocess(geomPath, defines),
+                preprocess(fragPath, defines)
+        }, new String[] {vertPath, tessControlPath, tessEvalPath, geomPath, fragPath});
+    }
 
-        return shaderId;
+    private static String preprocess(String filePath, Map<String, String> defines) {
+        return filePath == null ? null : ShaderPreprocessor.process(filePath, defines); // If no shader provided, skip
     }
     //
     
     
     //For a modular approach
+    public ShaderProgram(String vertPath,
+		            String tessControlPath,
+		            String tessEvalPath,
+		            String geomPath,
+		            String fragPath,
+		            String[] additionalVertexShaders,
+		            String[] additionalFragmentShaders,
+		            String[] additionalGeometryShaders) {
+		this(new String[] {
+				loadShaderSource(concatenatePaths(vertPath, additionalVertexShaders)),
+				loadShaderSource(new String[]{tessControlPath}),
+				loadShaderSource(new String[]{tessEvalPath}),
+				loadShaderSource(concatenatePaths(geomPath, additionalGeometryShaders)),
+				loadShaderSource(concatenatePaths(fragPath, additionalFragmentShaders))
+		}, new String[] {vertPath, tessControlPath, tessEvalPath, geomPath, fragPath});
+	}
+
         private static String loadShaderSource(String[] filePaths) {
         StringBuilder source = new StringBuilder();
         for (String filePath : filePaths) {
@@ -131,129 +127,159 @@ public class ShaderProgram {
         System.arraycopy(additionalPaths, 0, allPaths, 1, additionalPaths.length);
         return allPaths;
     }
-
+    //
     
-    private static int compileShader(String type, String[] filePaths) {
-    // Load and concatenate the shader files
-    String source = loadShaderSource(filePaths);
-
-    // Select the correct shader type based on the argument
-    int shaderType;
-    switch (type) {
-        case "vertex":
-            shaderType = GL_VERTEX_SHADER;
-            break;
-        case "fragment":
-            shaderType = GL_FRAGMENT_SHADER;
-            break;
-        case "geometry":
-            shaderType = GL_GEOMETRY_SHADER;
-            break;
-        case "tessellation_control":
-            shaderType = GL_TESS_CONTROL_SHADER;
-            break;
-        case "tessellation_eval":
-            shaderType = GL_TESS_EVALUATION_SHADER;
-            break;
-        default:
-            throw new IllegalArgumentException("Unknown shader type: " + type);
-    }
-
-    int shaderId = glCreateShader(shaderType);
-    glShaderSource(shaderId, source);
-    glCompileShader(shaderId);
-
-    // Check for compile status
-    int status = glGetShaderi(shaderId, GL_COMPILE_STATUS);
-    if (status == GL_FALSE) {
-        String log = glGetShaderInfoLog(shaderId);
-        throw new RuntimeException("Shader compile error:\n" + log);
-    }
-
-    return shaderId;
-}
-
     
-    public ShaderProgram(String vertPath,
-		            String tessControlPath,
-		            String tessEvalPath,
-		            String geomPath,
-		            String fragPath,
-		            String[] additionalVertexShaders,
-		            String[] additionalFragmentShaders,
-		            String[] additionalGeometryShaders) {
-		// Create a program handle
-		programId = glCreateProgram();
-		if (programId == 0) {
-		throw new IllegalStateException("Could not create ShaderProgram!");
-		}
-		
-		// Compile the main shaders if the path is not null
-		int vs = compileShader("vertex", concatenatePaths(vertPath, additionalVertexShaders));
-		int tcs = compileShader("tessellation_control", new String[]{tessControlPath});
-		int tes = compileShader("tessellation_eval", new String[]{tessEvalPath});
-		int gs = compileShader("geometry", concatenatePaths(geomPath, additionalGeometryShaders));
-		int fs = compileShader("fragment", concatenatePaths(fragPath, additionalFragmentShaders));
-		
-		// Attach the shaders
-		glAttachShader(programId, vs);
-		glAttachShader(programId, tcs);
-		glAttachShader(programId, tes);
-		glAttachShader(programId, gs);
-		glAttachShader(programId, fs);
-		
-		// Link the program
-		glLinkProgram(programId);
-		
-		// Check for linking errors
-		int linked = glGetProgrami(programId, GL_LINK_STATUS);
-		if (linked == 0) {
-		String log = glGetProgramInfoLog(programId);
-		throw new RuntimeException("Program link failed:\n" + log);
-		}
-		
-		// Detach and delete shaders after successful linking
-		glDetachShader(programId, vs);
-		glDetachShader(programId, tcs);
-		glDetachShader(programId, tes);
-		glDetachShader(programId, gs);
-		glDetachShader(programId, fs);
-		
-		glDeleteShader(vs);
-		glDeleteShader(tcs);
-		glDeleteShader(tes);
-		glDeleteShader(gs);
-		glDeleteShader(fs);
-		}
+    /**
+     * Builds the program from the final source of every stage, null for unused stages.
+     *
+     * 1) A binary stored by an earlier launch with the same sources and driver is loaded
+     *    instead of compiling, see {@link ProgramBinaryCache}.
+     * 2) Otherwise the stages are compiled and linked. The result is checked right away, or
+     *    by {@link #endBatch} so the driver can compile several programs at once.
+     */
+    private ShaderProgram(String[] sources, String[] paths) {
+        // Create a program handle
+        programId = gl.createProgram();
+        if (programId == 0) {
+            throw new IllegalStateException("Could not create ShaderProgram!");
+        }
+        this.paths = paths;
+        cacheKey = ProgramBinaryCache.isEnabled() ? ProgramBinaryCache.key(sources) : null;
+        if (cacheKey != null && loadBinary()) {
+            cachedPrograms++;
+            return;
+        }
 
+        // Compile each shader if there is a source
+        shaders = new int[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            if (sources[i] != null) {
+                shaders[i] = gl.createShader(STAGES[i]);
+                gl.shaderSource(shaders[i], sources[i]);
+                gl.compileShader(shaders[i]);
+                gl.attachShader(programId, shaders[i]);
+            }
+        }
+        if (cacheKey != null) {
+            gl.programParameteri(programId, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+        gl.linkProgram(programId);
+        compiledPrograms++;
 
-    
-    //
+        if (batch != null) {
+            batch.add(this);
+        } else {
+            finishLink();
+        }
+    }
+
+    private boolean loadBinary() {
+        int[] format = new int[1];
+        byte[] binary = ProgramBinaryCache.load(cacheKey, format);
+        if (binary == null) {
+            return false;
+        }
+        gl.programBinary(programId, format[0], binary);
+        // Drivers reject binaries of other driver builds, compiling overwrites the stale file
+        return gl.getProgrami(programId, GL_LINK_STATUS) == GL_TRUE;
+    }
+
+    /**
+     * Checks the compile and link status, which waits for the driver, then frees the shaders
+     * and stores the binary.
+     */
+    private void finishLink() {
+        // Check compile status
+        for (int i = 0; i < STAGES.length; i++) {
+            if (shaders[i] != 0 && gl.getShaderi(shaders[i], GL_COMPILE_STATUS) == GL_FALSE) {
+                String log = gl.getShaderInfoLog(shaders[i]);
+                throw new RuntimeException("Shader compile error (" + paths[i] + "):\n" + log);
+            }
+        }
+
+        // Check for linking errors
+        int linked = gl.getProgrami(programId, GL_LINK_STATUS);
+        if (linked == 0) {
+            String log = gl.getProgramInfoLog(programId);
+            throw new RuntimeException("Program link failed:\n" + log);
+        }
+
+        // Detach and delete shaders after successful linking
+        for (int shader : shaders) {
+            if (shader != 0) {
+                gl.detachShader(programId, shader);
+                gl.deleteShader(shader);
+            }
+        }
+        shaders = null;
+
+        if (cacheKey != null) {
+            int[] format = new int[1];
+            byte[] binary = gl.getProgramBinary(programId, format);
+            if (binary.length > 0) {
+                ProgramBinaryCache.store(cacheKey, format[0], binary);
+            }
+        }
+    }
+
+    /**
+     * Until {@link #endBatch}, new programs are linked without waiting for the result, and
+     * with GL_KHR_parallel_shader_compile the driver compiles them on its own threads in the
+     * meantime. Compile errors are only thrown by endBatch. Calls may nest.
+     */
+    public static void beginBatch() {
+        if (batchDepth++ > 0) {
+            return;
+        }
+        GraphicsDevice device = Graphics.device();
+        if (device.supportsParallelShaderCompile()) {
+            device.maxShaderCompilerThreads(ALL_COMPILER_THREADS);
+        }
+        batch = new ArrayList<>();
+        batchStart = System.nanoTime();
+        compiledPrograms = 0;
+        cachedPrograms = 0;
+    }
+
+    /** Waits for the programs of the batch and throws the first compile or link error. */
+    public static void endBatch() {
+        if (--batchDepth > 0) {
+            return;
+        }
+        List<ShaderProgram> programs = batch;
+        batch = null;
+        for (ShaderProgram program : programs) {
+            program.finishLink();
+        }
+        System.out.printf("[Shaders] %d programs ready in %.1f ms, %d from the binary cache%n",
+                compiledPrograms + cachedPrograms, (System.nanoTime() - batchStart) / 1_000_000.0, cachedPrograms);
+    }
     
     
     
     
     // Activate (use) this shader program
     public void bind() {
-        glUseProgram(programId);
+        gl.useProgram(programId);
     }
 
     // Unbind (use no shader program)
     public void unbind() {
-        glUseProgram(0);
+        gl.useProgram(0);
     }
 
     // Delete the shader program
     public void destroy() {
         unbind();
         if (programId != 0) {
-            glDeleteProgram(programId);
+            gl.deleteProgram(programId);
         }
     }
 
     // Uniform utility methods
     public int getUniformLocation(String name) {
-        int loc = glGetUniformLocation(programId, name);
+        int loc = gl.getUniformLocation(programId, name);
         if (loc < 0) {
             System.err.println("Warning: Uniform '" + name + "' not found!");
         }
@@ -263,51 +289,55 @@ public class ShaderProgram {
     public void setUniformMat4(String name, boolean transpose, FloatBuffer matrixBuffer) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniformMatrix4fv(loc, transpose, matrixBuffer);
+            gl.uniformMatrix4fv(loc, transpose, matrixBuffer);
         }
     }
     
     public void setUniformMat4(String name, boolean transpose, float[] matrix) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniformMatrix4fv(loc, transpose, matrix);
+            gl.uniformMatrix4fv(loc, transpose, matrix);
         }
     }
 
     public void setUniformMat4(String name, boolean transpose, Matrix4f matrix) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(16);
-            matrix.get(fb);
-            setUniformMat4(name, transpose, fb);
-        }
+        setUniformMat4(name, transpose, matrix.get(mat4Scratch));
     }
 
 
     public void setUniform1i(String name, int value) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniform1i(loc, value);
+            gl.uniform1i(loc, value);
+        }
+    }
+
+    /** Uploads a whole int array uniform, value.length elements starting at name[0]. */
+    public void setUniform1iv(String name, int[] value) {
+        int loc = getUniformLocation(name);
+        if (loc >= 0) {
+            gl.uniform1iv(loc, value);
         }
     }
 
     public void setUniform3f(String name, float x, float y, float z) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniform3f(loc, x, y, z);
+            gl.uniform3f(loc, x, y, z);
         }
     }
     
     public void setUniform4f(String name, float x, float y, float z, float a) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniform4f(loc, x, y, z, a);
+            gl.uniform4f(loc, x, y, z, a);
         }
     }
     
     public void setUniform4f(String name, Vector4f vec) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniform4f(loc, vec.x, vec.y, vec.z, vec.w);
+            gl.uniform4f(loc, vec.x, vec.y, vec.z, vec.w);
         }
     }
 
@@ -324,17 +354,17 @@ public class ShaderProgram {
     public void setUniformSampler(String name, int textureUnit) {
         int loc = getUniformLocation(name);
         if (loc >= 0) {
-            glUniform1i(loc, textureUnit);
+            gl.uniform1i(loc, textureUnit);
         }
     }
 
     public void setUniform1f(String name, float value) {
-        int location = glGetUniformLocation(programId, name); // Get the uniform location
+        int location = gl.getUniformLocation(programId, name); // Get the uniform location
         if (location < 0) {
             System.err.println("Warning: Uniform '" + name + "' not found in shader program!");
             return;
         }
-        glUniform1f(location, value); // Set the float uniform
+        gl.uniform1f(location, value); // Set the float uniform
     }
     
     public void setUniformLights(String arrayName, List<Light> lights) {
@@ -369,12 +399,7 @@ public class ShaderProgram {
             return;
         }
 
-        // Convert Matrix4f to a FloatBuffer and upload it to the shader
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(16);
-            matrix.get(buffer);
-            glUniformMatrix4fv(location, false, buffer);
-        }
+        gl.uniformMatrix4fv(location, false, matrix.get(mat4Scratch));
     }
     
     public void setUniformMat4(String name, org.lwjgl.util.vector.Matrix4f matrix) {
@@ -388,7 +413,7 @@ public class ShaderProgram {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(16);
             ((Matrix3fc) matrix).get(buffer);
-            glUniformMatrix4fv(location, false, buffer);
+            gl.uniformMatrix4fv(location, false, buffer);
         }
     }
 
@@ -399,28 +424,24 @@ public class ShaderProgram {
             return;
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(9);
-            matrix.get(buffer);
-            // Use glUniformMatrix3fv instead of glUniformMatrix4fv for a 3x3 matrix.
-            glUniformMatrix3fv(location, false, buffer);
-        }
+        // Use glUniformMatrix3fv instead of glUniformMatrix4fv for a 3x3 matrix.
+        gl.uniformMatrix3fv(location, false, matrix.get(mat3Scratch));
     }
 
     public void setUniformMat4(String name, FloatBuffer fb) {
         // Get the location of the uniform variable from the shader program.
-        int location = glGetUniformLocation(programId, name);
+        int location = gl.getUniformLocation(programId, name);
         if (location < 0) {
             System.err.println("Warning: Uniform '" + name + "' not found or is not used in shader.");
             return;
         }
         // Upload the 4x4 matrix. The 'false' flag indicates that the matrix is not transposed.
-        glUniformMatrix4fv(location, false, fb);
+        gl.uniformMatrix4fv(location, false, fb);
     }
 
     public void setUniformMat4Array(String uniformName, FloatBuffer fb, int count) {
         // Get the location of the uniform array in the shader
-        int location = glGetUniformLocation(programId, uniformName);
+        int location = gl.getUniformLocation(programId, uniformName);
         if (location < 0) {
             System.err.println("Warning: Uniform '" + uniformName + "' not found or inactive in shader.");
             return;
@@ -445,7 +466,7 @@ public class ShaderProgram {
         fb.limit(fb.position() + count * 16);
         
         // Upload the matrix array.
-        GL20.glUniformMatrix4fv(location, transpose, fb);
+        gl.uniformMatrix4fv(location, transpose, fb);
         
         // Restore the original limit.
         fb.limit(originalLimit);
@@ -454,7 +475,7 @@ public class ShaderProgram {
 	public void setUniform2f(String name, float f, float g) {
 		 int loc = getUniformLocation(name);
 	        if (loc >= 0) {
-	            glUniform2f(loc, f, g);
+	            gl.uniform2f(loc, f, g);
 	        }
 		
 	}
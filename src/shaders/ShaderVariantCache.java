@@ -0,0 +1,57 @@
+package shaders;
+
+/**
+ * Compiled variants of one shader, by {@link ShaderFeatures} key. Variants that are not
+ * {@link ShaderFeatures#isTessellated tessellated} leave out the tessellation and geometry stages.
+ *
+ * A variant is compiled the first time it is asked for and kept until {@link #destroy}. The
+ * key space is small, so the cache is a plain array.
+ */
+public class ShaderVariantCache {
+
+    private final String vertPath, tessControlPath, tessEvalPath, geomPath, fragPath;
+    private final ShaderProgram[] programs = new ShaderProgram[ShaderFeatures.COUNT];
+    private int compiledCount;
+
+    public ShaderVariantCache(String vertPath, String tessControlPath, String tessEvalPath,
+                              String geomPath, String fragPath) {
+        this.vertPath = vertPath;
+        this.tessControlPath = tessControlPath;
+        this.tessEvalPath = tessEvalPath;
+        this.geomPath = geomPath;
+        this.fragPath = fragPath;
+    }
+
+    /** The program for a variant key, compiled now if this is its first use. Needs the GL context. */
+    public ShaderProgram get(int features) {
+        ShaderProgram program = programs[features];
+        if (program == null) {
+            long start = System.nanoTime();
+            boolean tessellated = ShaderFeatures.isTessellated(features);
+            program = new ShaderProgram(vertPath,
+                    tessellated ? tessControlPath : null,
+                    tessellated ? tessEvalPath : null,
+                    tessellated ? geomPath : null,
+                    fragPath, ShaderFeatures.toDefines(features));
+            programs[features] = program;
+            compiledCount++;
+            System.out.printf("[Shaders] Compiled variant %s in %.1f ms%n",
+                    ShaderFeatures.describe(features), (System.nanoTime() - start) / 1_000_000.0);
+        }
+        return program;
+    }
+
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+    public void destroy() {
+        for (int i = 0; i < programs.length; i++) {
+            if (programs[i] != null) {
+                programs[i].destroy();
+                programs[i] = null;
+            }
+        }
+        compiledCount = 0;
+    }
+}
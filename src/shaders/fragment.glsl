@@ -10,8 +10,20 @@ struct Light {
     float distance;
 };
 
-uniform int numLights;
-uniform Light lights[16];
+// Clustered lights (see renderer/LightGrid.java)
+uniform samplerBuffer lightData;      // 3 texels per light: position + range, color, attenuation
+uniform isamplerBuffer clusterGrid;   // offset and count into lightIndices per cluster
+uniform isamplerBuffer lightIndices;
+uniform vec2 clusterTileScale;        // tiles per pixel in x and y
+uniform vec2 clusterSliceScaleBias;   // slice = log(view depth) * scale + bias
+uniform mat4 view;
+const int CLUSTER_TILES_X = 16;       // LightGrid.TILES_X, TILES_Y and SLICES
+const int CLUSTER_TILES_Y = 9;
+const int CLUSTER_SLICES = 24;
+
+// Lights picked for this draw (see renderer/LightSelector.java), -1 to use the cluster lists
+uniform int drawLightCount;
+uniform int drawLights[8];            // LightSelector.MAX_LIGHTS
 
 uniform vec3 cameraPos;
 
@@ -30,17 +42,56 @@ uniform sampler2D metallicMap;
 uniform sampler2D roughnessMap;
 uniform sampler2D aoMap;
 
+#ifdef VARIANT
+// Compiled for one material (see shaders/ShaderFeatures.java), the checks fold to constants
+#ifdef HAS_NORMAL_MAP
+const int hasNormal = 1;
+#else
+const int hasNormal = 0;
+#endif
+#ifdef HAS_HEIGHT_MAP
+const int hasHeight = 1;
+#else
+const int hasHeight = 0;
+#endif
+#ifdef HAS_METALLIC_MAP
+const int hasMetallic = 1;
+#else
+const int hasMetallic = 0;
+#endif
+#ifdef HAS_ROUGHNESS_MAP
+const int hasRoughness = 1;
+#else
+const int hasRoughness = 0;
+#endif
+#ifdef HAS_AO_MAP
+const int hasAo = 1;
+#else
+const int hasAo = 0;
+#endif
+#ifdef ALPHA_TEST
+const int isOpaquePass = 0;
+#else
+const int isOpaquePass = 1;
+#endif
+#else
 uniform int hasNormal;      // 1 if normalMap is bound, 0 if missing
 uniform int hasHeight;      // 1 if heightMap is bound, 0 if missing
 uniform int hasMetallic;    // 1 if metallicMap is bound, 0 if missing
 uniform int hasRoughness;   // 1 if roughnessMap is bound, 0 if missing
 uniform int hasAo;          // 1 if aoMap is bound, 0 if missing
+uniform int isOpaquePass;   // 1 in the opaque pass, alpha testing is skipped there
+#endif
 
 
-// Shadow mapping uniforms
-uniform sampler2D shadowMap;
-uniform mat4 lightSpaceMatrix;
+// Shadow mapping uniforms (see shadows/ShadowCascades.java)
+uniform sampler2DArray shadowMap;     // one layer per cascade
+uniform mat4 lightSpaceMatrices[4];   // ShadowCascades.MAX_CASCADES
+uniform vec4 cascadeSplits;           // view distance each cascade ends at
+uniform int cascadeCount;
 uniform vec3 directionalLightDir;
+uniform sampler2D pointShadowAtlas;   // cube faces of the point lights (see shadows/PointShadowRenderer.java)
+uniform samplerBuffer pointShadowData; // 4 texels per light: near, far, tile size, enabled; face offsets
 
 // New uniforms for specular lighting (used when no metallic map is provided)
 uniform float shineDamper = 0;
@@ -52,8 +103,6 @@ const float PI = 3.14159265359;
 // Debug uniform
 uniform int debugMode;
 
-// New Uniform for Opaque Pass
-uniform int isOpaquePass;
 
 
 // -----------------------------------------------------------------------------
@@ -78,6 +127,9 @@ vec3 computeLightContribution(Light light, vec3 fragPos, vec3 N, vec3 V, float m
 vec2 parallaxMapping(vec2 texCoords, vec3 viewDirTangent);
 float calculatePOMShadow(vec3 lightDirTangent, vec2 initialUV, float lightDistance, float maxLightDistance);
 float calculatedDirectionalShadows();
+float pointLightShadow(int lightIndex, vec3 lightPosition);
+ivec2 clusterLightRange();
+Light fetchLight(int index);
 
 
 
@@ -186,45 +238,49 @@ void main()
       float shadowFactor = calculatedDirectionalShadows();
       
       
-     // Loop over each light source.
-	   for (int i = 0; i < numLights; i++) {
+     // Loop over the lights of this draw, or of this fragment's cluster.
+	   ivec2 clusterLights = drawLightCount >= 0 ? ivec2(0, drawLightCount) : clusterLightRange();
+	   for (int k = 0; k < clusterLights.y; k++) {
+	    int i = drawLightCount >= 0 ? drawLights[k] : texelFetch(lightIndices, clusterLights.x + k).r;
+	    Light light = fetchLight(i);
 	    // Skip lights with negligible contribution.
-	    if (length(lights[i].color) < 0.001) continue;
+	    if (length(light.color) < 0.001) continue;
 	    
 	    // Compute vector from fragment to light.
-	    vec3 lightVec = lights[i].position - fs_in.wPosition;
+	    vec3 lightVec = light.position - fs_in.wPosition;
 	    float distance = length(lightVec);
 	    
 	    // Early exit: skip if fragment is beyond the light's effective range.
-	    if (distance > lights[i].distance) continue;
+	    if (distance > light.distance) continue;
 	    
 	    // Compute light direction (reuse lightVec).
 	    vec3 lightDir = normalize(lightVec);
 	    
 	    // Compute attenuation only once.
-	    float attenuation = 1.0 / (lights[i].attenuation.x +
-	                                lights[i].attenuation.y * distance +
-	                                lights[i].attenuation.z * distance * distance);
+	    float attenuation = 1.0 / (light.attenuation.x +
+	                                light.attenuation.y * distance +
+	                                light.attenuation.z * distance * distance);
 	    
 	    // Transform light direction to tangent space.
 	    vec3 lightDirTangent = normalize(transpose(TBN) * lightDir);
 	    
 	    // Compute shadow factor using optimized function.
-	    float shadow = calculatePOMShadow(lightDirTangent, parallaxedUV, distance, lights[i].distance);
+	    float shadow = calculatePOMShadow(lightDirTangent, parallaxedUV, distance, light.distance);
 	    shadow = (i == 0) ? shadow * shadowFactor : shadow + shadowFactor;
+	    shadow *= pointLightShadow(i, light.position);
 	    
 	    // Base lighting contribution.
 	    if (hasMetallic == 0 && reflectivity > 0 && shineDamper > 0) {
 	        lighting += shadow * brightnessFactor * 
-	                    computeLightContribution(lights[i], fs_in.wPosition, normal, 
+	                    computeLightContribution(light, fs_in.wPosition, normal, 
 	                                             viewDir, metallic, roughness, ao, baseColor) * attenuation;
 	        vec3 reflectDir = reflect(-lightDir, normal);
 	        float specAngle = max(dot(viewDir, reflectDir), 0.0);
 	        float spec = pow(specAngle, shineDamper);
-	        lighting += spec * reflectivity * lights[i].color * attenuation;
+	        lighting += spec * reflectivity * light.color * attenuation;
 	    } else {
 	        lighting += shadow * brightnessFactor * 
-	                    computeLightContribution(lights[i], fs_in.wPosition, normal, 
+	                    computeLightContribution(light, fs_in.wPosition, normal, 
 	                                             viewDir, metallic, roughness, ao, baseColor);
 	    }
 	}
@@ -253,3 +309,37 @@ void main()
    
 }
 
+// -----------------------------------------------------------------------------
+// Clustered lights
+// -----------------------------------------------------------------------------
+
+// Offset and count of this fragment's cluster in lightIndices
+ivec2 clusterLightRange() {
+    ivec2 tile = ivec2(gl_FragCoord.xy * clusterTileScale);
+    float depth = max(-(view * vec4(fs_in.wPosition, 1.0)).z, 1e-4);
+    int slice = clamp(int(log(depth) * clusterSliceScaleBias.x + clusterSliceScaleBias.y), 0, CLUSTER_SLICES - 1);
+    tile = clamp(tile, ivec2(0), ivec2(CLUSTER_TILES_X - 1, CLUSTER_TILES_Y - 1));
+    int cluster = (slice * CLUSTER_TILES_Y + tile.y) * CLUSTER_TILES_X + tile.x;
+    return texelFetch(clusterGrid, cluster).rg;
+}
+
+Light fetchLight(int index) {
+    vec4 positionRange = texelFetch(lightData, index * 3);
+    Light light;
+    light.position = positionRange.xyz;
+    light.distance = positionRange.w;
+    light.color = texelFetch(lightData, index * 3 + 1).rgb;
+    light.attenuation = texelFetch(lightData, index * 3 + 2).xyz;
+    return light;
+}
+
+// -----------------------------------------------------------------------------
+// Modules
+// -----------------------------------------------------------------------------
+#include "../shadersModular/fresnel.glsl"
+#include "../shadersModular/parallaxMapping.glsl"
+#include "../shadersModular/computeNormal.glsl"
+#include "../shadersModular/computeLightContribution.glsl"
+#include "../shadersModular/calculatePOMShadow.glsl"
+#include "../shadersModular/calculatedDirectionalShadows.glsl"
+#include "../shadersModular/pointShadows.glsl"
@@ -0,0 +1,6 @@
+#version 400 core
+
+// Depth pre-pass: only depth is written, the color buffer is masked off.
+
+void main() {
+}
@@ -18,6 +18,8 @@ out GS_OUT {
     vec3 wBitangent;
 } gs_out;
 
+invariant gl_Position;
+
 void main() {
     for(int i=0; i<3; i++) {
         gs_out.uv        = gs_in[i].uv;
@@ -17,6 +17,56 @@ out TCS_OUT {
     vec3 wBitangent;
 } tcs_out[];
 
+uniform vec2 viewportSize;        // pixels
+uniform float tessPixelsPerEdge;  // target edge length on screen after subdividing
+uniform float maxTessLevel;
+
+// Back faces are only dropped in the opaque pass, the other passes draw both sides
+#ifdef VARIANT
+#ifdef ALPHA_TEST
+const bool cullBackFaces = false;
+#else
+const bool cullBackFaces = true;
+#endif
+#else
+uniform int isOpaquePass;         // shared with fragment.glsl
+#define cullBackFaces (isOpaquePass == 1)
+#endif
+
+vec2 toScreen(vec4 clip) {
+    return (clip.xy / clip.w * 0.5 + 0.5) * viewportSize;
+}
+
+// Subdivisions of an edge from its projected length. Only depends on the two corners, so
+// neighbouring patches agree on the shared edge and no cracks open.
+float edgeLevel(vec4 a, vec4 b) {
+    if (a.w <= 0.0 || b.w <= 0.0) {
+        return maxTessLevel; // Crosses the camera plane, no meaningful screen length
+    }
+    return clamp(distance(toScreen(a), toScreen(b)) / tessPixelsPerEdge, 1.0, maxTessLevel);
+}
+
+// All three corners beyond the same clip plane. The patches are not displaced, so the
+// corners bound them.
+bool outsideFrustum(vec4 a, vec4 b, vec4 c) {
+    return (a.x >  a.w && b.x >  b.w && c.x >  c.w)
+        || (a.x < -a.w && b.x < -b.w && c.x < -c.w)
+        || (a.y >  a.w && b.y >  b.w && c.y >  c.w)
+        || (a.y < -a.w && b.y < -b.w && c.y < -c.w)
+        || (a.z >  a.w && b.z >  b.w && c.z >  c.w)
+        || (a.z < -a.w && b.z < -b.w && c.z < -c.w);
+}
+
+// Front faces wind clockwise on screen (glFrontFace(GL_CW))
+bool backFacing(vec4 a, vec4 b, vec4 c) {
+    if (a.w <= 0.0 || b.w <= 0.0 || c.w <= 0.0) {
+        return false;
+    }
+    vec2 p0 = a.xy / a.w, p1 = b.xy / b.w, p2 = c.xy / c.w;
+    vec2 e1 = p1 - p0, e2 = p2 - p0;
+    return e1.x * e2.y - e1.y * e2.x > 0.0;
+}
+
 void main() {
     gl_out[gl_InvocationID].gl_Position = gl_in[gl_InvocationID].gl_Position;
 
@@ -25,11 +75,22 @@ void main() {
     tcs_out[gl_InvocationID].wNormal   = tcs_in[gl_InvocationID].wNormal;
     tcs_out[gl_InvocationID].wTangent  = tcs_in[gl_InvocationID].wTangent;
     
-   
+    if (gl_InvocationID == 0) {
+        vec4 p0 = gl_in[0].gl_Position, p1 = gl_in[1].gl_Position, p2 = gl_in[2].gl_Position;
+
+        // An outer level of 0 discards the patch before the evaluation and geometry stages
+        if (outsideFrustum(p0, p1, p2) || (cullBackFaces && backFacing(p0, p1, p2))) {
+            gl_TessLevelOuter[0] = 0.0;
+            gl_TessLevelOuter[1] = 0.0;
+            gl_TessLevelOuter[2] = 0.0;
+            gl_TessLevelInner[0] = 0.0;
+            return;
+        }
 
-    // minimal tess
-    gl_TessLevelInner[0] = 1.0;
-    gl_TessLevelOuter[0] = 1.0;
-    gl_TessLevelOuter[1] = 1.0;
-    gl_TessLevelOuter[2] = 1.0;
+        // Outer level i belongs to the edge opposite corner i
+        gl_TessLevelOuter[0] = edgeLevel(p1, p2);
+        gl_TessLevelOuter[1] = edgeLevel(p2, p0);
+        gl_TessLevelOuter[2] = edgeLevel(p0, p1);
+        gl_TessLevelInner[0] = max(gl_TessLevelOuter[0], max(gl_TessLevelOuter[1], gl_TessLevelOuter[2]));
+    }
 }
@@ -17,6 +17,8 @@ out TES_OUT {
     vec3 wBitangent;
 } tes_out;
 
+invariant gl_Position;
+
 void main()
 {
     vec3 b = gl_TessCoord.xyz;
@@ -7,7 +7,11 @@ layout(location = 3) in vec3 inTangent;      // Tangent vector
 layout(location = 4) in vec3 inBitangent;    // Bitangent vector
 
 // Output structure passed to the next stage (geometry or directly to fragment shader)
+#ifdef NO_TESSELLATION
+out GS_OUT {           // Straight to fragment.glsl, see MasterRenderer's untessellated programs
+#else
 out VS_OUT {
+#endif
     vec2 uv;
     vec3 wPosition;    // World-space position
     vec3 wNormal;      // World-space normal
@@ -19,6 +23,9 @@ uniform mat4 model;
 uniform mat4 view;
 uniform mat4 projection;
 
+// Must match vertex_depth.glsl bit for bit for the GL_EQUAL test after the depth pre-pass
+invariant gl_Position;
+
 void main() {
     // Transform the vertex position to world space.
     vec4 worldPos = model * vec4(inPosition, 1.0);
@@ -0,0 +1,18 @@
+#version 400 core
+
+// Depth pre-pass variant of vertex.glsl.
+// Reads only the positions and computes gl_Position with exactly the same expression, so the
+// main pass can depth test against the result with GL_EQUAL.
+
+layout(location = 0) in vec3 inPosition;     // Vertex position
+
+uniform mat4 model;
+uniform mat4 view;
+uniform mat4 projection;
+
+invariant gl_Position;
+
+void main() {
+    vec4 worldPos = model * vec4(inPosition, 1.0);
+    gl_Position = projection * view * worldPos;
+}
@@ -0,0 +1,51 @@
+#version 430 core
+
+// Multi-draw indirect variant of vertex.glsl.
+// The model matrix comes from an SSBO, looked up through the per-draw data record.
+
+layout(location = 0) in vec3 inPosition;     // Vertex position
+layout(location = 1) in vec2 inTexCoord;     // Texture coordinates
+layout(location = 2) in vec3 inNormal;       // Vertex normal (averaged per vertex)
+layout(location = 3) in vec3 inTangent;      // Tangent vector
+layout(location = 4) in vec3 inBitangent;    // Bitangent vector
+layout(location = 5) in int inDrawId;        // Instanced attribute, equals the command's baseInstance
+
+layout(std430, binding = 0) readonly buffer ModelMatrices {
+    mat4 modelMatrices[];
+};
+
+layout(std430, binding = 1) readonly buffer DrawData {
+    ivec4 drawData[]; // x = model matrix index, y = material index
+};
+
+#ifdef NO_TESSELLATION
+out GS_OUT {           // Straight to fragment.glsl
+#else
+out VS_OUT {
+#endif
+    vec2 uv;
+    vec3 wPosition;    // World-space position
+    vec3 wNormal;      // World-space normal
+    vec3 wTangent;     // World-space tangent
+    vec3 wBitangent;   // World-space bitangent
+} vs_out;
+
+uniform mat4 view;
+uniform mat4 projection;
+
+void main() {
+    ivec4 draw = drawData[inDrawId];
+    mat4 model = modelMatrices[draw.x];
+
+    vec4 worldPos = model * vec4(inPosition, 1.0);
+    vs_out.wPosition = worldPos.xyz;
+
+    mat3 normalMatrix = transpose(inverse(mat3(model)));
+    vs_out.wNormal  = normalize(normalMatrix * inNormal);
+    vs_out.wTangent = normalize(normalMatrix * inTangent);
+    vs_out.wBitangent = normalize(normalMatrix * inBitangent);
+
+    vs_out.uv = inTexCoord;
+
+    gl_Position = projection * view * worldPos;
+}
@@ -1,12 +1,13 @@
+// Share of a cascade, at its far end, that fades into the next one
+const float CASCADE_BLEND = 0.1;
 
-float calculatedDirectionalShadows()
+float sampleShadowCascade(int cascade, float bias)
 {
-
 	const float SHADOW_SOFTNESS = 1.0f;
 
 
-    // Transform the fragment position to light space.
-    vec4 fragPosLightSpace = lightSpaceMatrix * vec4(fs_in.wPosition, 1.0);
+    // Transform the fragment position to the cascade's light space.
+    vec4 fragPosLightSpace = lightSpaceMatrices[cascade] * vec4(fs_in.wPosition, 1.0);
     // Perform perspective divide.
     vec3 projCoords = fragPosLightSpace.xyz / fragPosLightSpace.w;
     // Transform from NDC [-1,1] to texture space [0,1].
@@ -16,11 +17,8 @@ float calculatedDirectionalShadows()
     if (projCoords.z > 1.0)
         return 1.0;
     
-    // Apply a bias to help reduce shadow acne.
-    float bias = max(0.0005 * (1.0 - dot(normalize(fs_in.wNormal), normalize(directionalLightDir))), 0.00005);
-    
     // Compute the size of one texel in the shadow map.
-    vec2 texelSize = 1.0 / textureSize(shadowMap, 0);
+    vec2 texelSize = 1.0 / textureSize(shadowMap, 0).xy;
     
     // Use PCF to average the shadow result over a 3x3 kernel.
     float shadow = 0.0;
@@ -31,13 +29,42 @@ float calculatedDirectionalShadows()
         {
             // Offset texture coordinates based on the softness constant.
             vec2 offset = vec2(x, y) * texelSize * SHADOW_SOFTNESS;
-            float closestDepth = texture(shadowMap, projCoords.xy + offset).r;
+            float closestDepth = texture(shadowMap, vec3(projCoords.xy + offset, cascade)).r;
             // If the current depth (with bias) is less than the closest depth, then this sample is lit.
             shadow += (projCoords.z - bias > closestDepth) ? 0.0 : 1.0;
             samples++;
         }
     }
-    shadow /= float(samples);
+    return shadow / float(samples);
+}
+
+float calculatedDirectionalShadows()
+{
+    // Pick the first cascade whose slice reaches this fragment's view depth.
+    float viewDepth = -(view * vec4(fs_in.wPosition, 1.0)).z;
+    int cascade = 0;
+    while (cascade < cascadeCount && viewDepth > cascadeSplits[cascade])
+        cascade++;
+    
+    // Beyond the last cascade there is no shadow.
+    if (cascade == cascadeCount)
+        return 1.0;
+    
+    // Apply a bias to help reduce shadow acne.
+    float bias = max(0.0005 * (1.0 - dot(normalize(fs_in.wNormal), normalize(directionalLightDir))), 0.00005);
+    
+    float shadow = sampleShadowCascade(cascade, bias);
+    
+    // Near the end of the slice, blend into the next cascade so the seam does not show.
+    // The last cascade fades out to full light instead.
+    float sliceStart = cascade == 0 ? 0.0 : cascadeSplits[cascade - 1];
+    float sliceEnd = cascadeSplits[cascade];
+    float blend = 1.0 - (sliceEnd - viewDepth) / ((sliceEnd - sliceStart) * CASCADE_BLEND);
+    if (blend > 0.0)
+    {
+        float next = cascade + 1 < cascadeCount ? sampleShadowCascade(cascade + 1, bias) : 1.0;
+        shadow = mix(shadow, next, blend);
+    }
     
     return shadow;
 }
@@ -0,0 +1,55 @@
+// Point light shadows, cube faces packed into one atlas (see shadows/PointShadowRenderer.java)
+
+// Direction and up vector of the faces +X, -X, +Y, -Y, +Z, -Z, as in PointShadowScheduler
+const vec3 POINT_FACE_FORWARD[6] = vec3[6](vec3(1, 0, 0), vec3(-1, 0, 0), vec3(0, 1, 0),
+                                           vec3(0, -1, 0), vec3(0, 0, 1), vec3(0, 0, -1));
+const vec3 POINT_FACE_UP[6] = vec3[6](vec3(0, -1, 0), vec3(0, -1, 0), vec3(0, 0, 1),
+                                      vec3(0, 0, -1), vec3(0, -1, 0), vec3(0, -1, 0));
+
+float pointLightShadow(int lightIndex, vec3 lightPosition)
+{
+    // near, far, tile size in atlas UV, 1 if the light has a shadow
+    vec4 header = texelFetch(pointShadowData, lightIndex * 4);
+    if (header.w < 0.5)
+        return 1.0;
+    float near = header.x;
+    float far = header.y;
+    float tileScale = header.z;
+    
+    // The face is the major axis of the light vector, projected like the face's camera
+    vec3 v = fs_in.wPosition - lightPosition;
+    vec3 a = abs(v);
+    int face = (a.x >= a.y && a.x >= a.z) ? (v.x >= 0.0 ? 0 : 1)
+             : (a.y >= a.z) ? (v.y >= 0.0 ? 2 : 3)
+             : (v.z >= 0.0 ? 4 : 5);
+    vec3 forward = POINT_FACE_FORWARD[face];
+    vec3 right = normalize(cross(forward, POINT_FACE_UP[face]));
+    vec3 up = cross(right, forward);
+    float depth = dot(v, forward);
+    vec2 ndc = vec2(dot(v, right), dot(v, up)) / depth;
+    
+    vec4 offsets = texelFetch(pointShadowData, lightIndex * 4 + 1 + face / 2);
+    vec2 offset = (face % 2 == 0) ? offsets.xy : offsets.zw;
+    vec2 uv = offset + (ndc * 0.5 + 0.5) * tileScale;
+    
+    // Samples stay inside the face's tile, its neighbours belong to other faces or lights
+    float texel = 1.0 / float(textureSize(pointShadowAtlas, 0).x);
+    vec2 lo = offset + vec2(texel * 0.5);
+    vec2 hi = offset + vec2(tileScale - texel * 0.5);
+    
+    // Compared in linear depth, the bias grows with the world size of a texel
+    float bias = depth * (0.005 + 3.0 * texel / tileScale);
+    
+    float shadow = 0.0;
+    for (int x = -1; x <= 1; ++x)
+    {
+        for (int y = -1; y <= 1; ++y)
+        {
+            vec2 sampleUv = clamp(uv + vec2(x, y) * texel, lo, hi);
+            float ndcDepth = texture(pointShadowAtlas, sampleUv).r * 2.0 - 1.0;
+            float closest = 2.0 * far * near / (far + near - ndcDepth * (far - near));
+            shadow += (depth - bias > closest) ? 0.0 : 1.0;
+        }
+    }
+    return shadow / 9.0;
+}
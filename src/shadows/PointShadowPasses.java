@@ -0,0 +1,120 @@
+package shadows;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+
+import renderer.FramePacket;
+
+/**
+ * Point light shadow work of one frame, part of the {@link FramePacket}.
+ *
+ * The faces {@link PointShadowScheduler} picked for this frame, each with its light's cube face
+ * matrix, its tile of the atlas and its casters, and one record per packet light for the
+ * fragment shader. A record is 4 RGBA texels:
+ *
+ *   0: near, far, tile size in atlas UV, 1 if the light has a complete shadow
+ *   1: atlas UV of the faces +X and -X
+ *   2: atlas UV of the faces +Y and -Y
+ *   3: atlas UV of the faces +Z and -Z
+ */
+public class PointShadowPasses {
+
+    public static final int RECORD_FLOATS = 16;
+
+    private int faceCount;
+    private int[] faceLights = new int[16];
+    private int[] faceRects = new int[16 * 3]; // x, y, size in texels
+    private float[] faceMatrices = new float[16 * 16];
+    private FramePacket.DrawList[] faceCasters = new FramePacket.DrawList[0];
+
+    private float[] records = new float[16 * RECORD_FLOATS];
+    private int lightCount;
+
+    public void clear() {
+        for (int i = 0; i < faceCount; i++) {
+            faceCasters[i].clear();
+        }
+        faceCount = 0;
+        lightCount = 0;
+    }
+
+    /** Adds a face to render this frame, its casters are added to {@link #getCasters}. */
+    public void addFace(int light, int x, int y, int size, Matrix4f matrix) {
+        if (faceCount == faceLights.length) {
+            faceLights = Arrays.copyOf(faceLights, faceCount * 2);
+            faceRects = Arrays.copyOf(faceRects, faceCount * 2 * 3);
+            faceMatrices = Arrays.copyOf(faceMatrices, faceCount * 2 * 16);
+        }
+        if (faceCount == faceCasters.length) {
+            faceCasters = Arrays.copyOf(faceCasters, Math.max(8, faceCount * 2));
+            for (int i = faceCount; i < faceCasters.length; i++) {
+                faceCasters[i] = new FramePacket.DrawList();
+            }
+        }
+        faceLights[faceCount] = light;
+        faceRects[faceCount * 3] = x;
+        faceRects[faceCount * 3 + 1] = y;
+        faceRects[faceCount * 3 + 2] = size;
+        matrix.get(faceMatrices, faceCount * 16);
+        faceCount++;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /** Packet light index of a face. */
+    public int getFaceLight(int face) {
+        return faceLights[face];
+    }
+
+    public int getFaceX(int face) {
+        return faceRects[face * 3];
+    }
+
+    public int getFaceY(int face) {
+        return faceRects[face * 3 + 1];
+    }
+
+    public int getFaceSize(int face) {
+        return faceRects[face * 3 + 2];
+    }
+
+    /** Copies the world to clip space matrix of a face into dest. */
+    public Matrix4f getFaceMatrix(int face, Matrix4f dest) {
+        return dest.set(faceMatrices, face * 16);
+    }
+
+    public FramePacket.DrawList getCasters(int face) {
+        return faceCasters[face];
+    }
+
+    /** Sets the number of lights and clears their records. */
+    public void setLightCount(int count) {
+        if (records.length < count * RECORD_FLOATS) {
+            records = new float[Math.max(count, lightCount * 2) * RECORD_FLOATS];
+        }
+        Arrays.fill(records, 0, count * RECORD_FLOATS, 0);
+        lightCount = count;
+    }
+
+    /** Record of a light, the offsets are 12 floats: u and v of the faces +X, -X, +Y, -Y, +Z, -Z. */
+    public void setRecord(int light, float near, float far, float tileScale, float[] offsets) {
+        int r = light * RECORD_FLOATS;
+        records[r] = near;
+        records[r + 1] = far;
+        records[r + 2] = tileScale;
+        records[r + 3] = 1;
+        System.arraycopy(offsets, 0, records, r + 4, 12);
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    /** {@link #RECORD_FLOATS} floats per light, disabled lights are zero. */
+    public float[] getRecords() {
+        return records;
+    }
+}
@@ -0,0 +1,198 @@
+package shadows;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4f;
+import static org.lwjgl.opengl.GL40.*;
+
+import entities.SceneStore;
+import renderer.FramePacket;
+import settings.EngineSettings;
+import toolbox.Frustum;
+
+/**
+ * Omnidirectional shadows of point lights, packed into one depth atlas.
+ *
+ * Every shadowed light has six tiles in a GL_DEPTH_COMPONENT32F atlas, one per cube face,
+ * handed out by {@link PointShadowScheduler} on the frame worker. Only the faces the scheduler
+ * picked are drawn in a frame, each into its tile with a 90 degree perspective from the light.
+ * The fragment shader finds a light's tiles through a texture buffer of records
+ * (see {@link PointShadowPasses}) and picks the face by the major axis of the light vector
+ * (shadersModular/pointShadows.glsl).
+ */
+public class PointShadowRenderer {
+
+    /** Smallest face tile in texels. */
+    public static final int MIN_TILE = 64;
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private final int atlasSize;
+    private final PointShadowScheduler scheduler; // Frame worker only
+
+    // OpenGL handles
+    private final int atlasTexture;
+    private final int atlasFBO;
+    private final int recordBuffer;
+    private final int recordTexture; // samplerBuffer, RGBA32F
+    private FloatBuffer recordStaging = allocateFloats(16 * PointShadowPasses.RECORD_FLOATS);
+
+    private final ShadowCasterRenderer casterRenderer;
+
+    // Frame worker only, collectCasters runs while the GL thread renders the previous packet
+    private final Frustum faceFrustum = new Frustum();
+    private final Matrix4f cullMatrix = new Matrix4f();
+    private int[] casterIds = new int[0];
+
+    private final Matrix4f faceMatrix = new Matrix4f(); // GL thread only
+
+    /**
+     * @param atlasSize    width and height of the atlas in texels, a power of two. A face gets at
+     *                     most an eighth of it.
+     * @param screenHeight height of the view in pixels, lights are ranked by their size in it
+     */
+    public PointShadowRenderer(int atlasSize, int screenHeight) {
+        this.atlasSize = atlasSize;
+        this.scheduler = new PointShadowScheduler(new ShadowAtlas(atlasSize, Math.min(MIN_TILE, atlasSize)),
+                atlasSize / 8, screenHeight);
+
+        atlasTexture = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D, atlasTexture);
+        gl.texImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT32F, atlasSize, atlasSize, 0,
+                GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        gl.texParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        gl.bindTexture(GL_TEXTURE_2D, 0);
+
+        atlasFBO = gl.genFramebuffers();
+        gl.bindFramebuffer(GL_FRAMEBUFFER, atlasFBO);
+        gl.framebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, atlasTexture, 0);
+        gl.drawBuffer(GL_NONE);
+        gl.readBuffer(GL_NONE);
+        if (gl.checkFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Error: Point shadow framebuffer is not complete!");
+        }
+        gl.clear(GL_DEPTH_BUFFER_BIT);
+        gl.bindFramebuffer(GL_FRAMEBUFFER, 0);
+
+        // A texture buffer needs storage before it can be attached
+        recordBuffer = gl.genBuffers();
+        gl.bindBuffer(GL_TEXTURE_BUFFER, recordBuffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, 16, GL_STREAM_DRAW);
+        recordTexture = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_BUFFER, recordTexture);
+        gl.texBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, recordBuffer);
+        gl.bindTexture(GL_TEXTURE_BUFFER, 0);
+        gl.bindBuffer(GL_TEXTURE_BUFFER, 0);
+
+        casterRenderer = new ShadowCasterRenderer();
+    }
+
+    /**
+     * Schedules this frame's faces within {@link EngineSettings#PointShadowFaceBudget} and culls
+     * their casters. Pure Java, call from the frame worker, one packet at a time.
+     */
+    public void collectCasters(SceneStore scene, FramePacket packet) {
+        PointShadowPasses passes = packet.getPointShadows();
+        passes.clear();
+        if (!EngineSettings.PointLightShadows) {
+            // No faces and empty records, the tiles stay where they are for when it is turned on
+            passes.setLightCount(packet.getLights().size());
+            return;
+        }
+        scheduler.schedule(packet.getLights(), packet.getCameraPosition(), packet.getView(),
+                packet.getProjection(), EngineSettings.PointShadowFaceBudget, passes);
+        if (casterIds.length < scene.getIdLimit()) {
+            casterIds = new int[scene.getIdLimit()];
+        }
+        float[] matrices = scene.getMatrices();
+        for (int face = 0; face < passes.getFaceCount(); face++) {
+            faceFrustum.calculateFrustum(passes.getFaceMatrix(face, cullMatrix));
+            int count = scene.cull(faceFrustum, casterIds);
+            FramePacket.DrawList casters = passes.getCasters(face);
+            for (int i = 0; i < count; i++) {
+                int id = casterIds[i];
+                casters.add(scene.getEntity(id), matrices, id * 16);
+            }
+        }
+    }
+
+    /**
+     * Uploads the packet's shadow records and draws its scheduled faces into the atlas.
+     */
+    public void render(FramePacket packet) {
+        PointShadowPasses passes = packet.getPointShadows();
+        uploadRecords(passes);
+        if (passes.getFaceCount() == 0) {
+            return;
+        }
+
+        gl.bindFramebuffer(GL_FRAMEBUFFER, atlasFBO);
+        gl.enable(GL_SCISSOR_TEST);
+        // Both sides cast, the faces see the casters from every direction
+        gl.disable(GL_CULL_FACE);
+
+        for (int face = 0; face < passes.getFaceCount(); face++) {
+            int x = passes.getFaceX(face), y = passes.getFaceY(face), size = passes.getFaceSize(face);
+            gl.viewport(x, y, size, size);
+            gl.scissor(x, y, size, size);
+            gl.clear(GL_DEPTH_BUFFER_BIT);
+            casterRenderer.render(passes.getCasters(face), passes.getFaceMatrix(face, faceMatrix), null);
+        }
+
+        gl.enable(GL_CULL_FACE);
+        gl.disable(GL_SCISSOR_TEST);
+        gl.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /** Empty lists still upload one texel, a buffer texture of size zero is not allowed everywhere. */
+    private void uploadRecords(PointShadowPasses passes) {
+        int floats = Math.max(4, passes.getLightCount() * PointShadowPasses.RECORD_FLOATS);
+        if (recordStaging.capacity() < floats) {
+            recordStaging = allocateFloats(Math.max(floats, recordStaging.capacity() * 2));
+        }
+        recordStaging.clear();
+        recordStaging.put(passes.getRecords(), 0, passes.getLightCount() * PointShadowPasses.RECORD_FLOATS);
+        while (recordStaging.position() < floats) {
+            recordStaging.put(0);
+        }
+        recordStaging.flip();
+        gl.bindBuffer(GL_TEXTURE_BUFFER, recordBuffer);
+        gl.bufferData(GL_TEXTURE_BUFFER, recordStaging, GL_STREAM_DRAW);
+        gl.bindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Binds the atlas to firstUnit and the records to the unit after it (0 for GL_TEXTURE0).
+     */
+    public void bind(int firstUnit) {
+        gl.activeTexture(GL_TEXTURE0 + firstUnit);
+        gl.bindTexture(GL_TEXTURE_2D, atlasTexture);
+        gl.activeTexture(GL_TEXTURE0 + firstUnit + 1);
+        gl.bindTexture(GL_TEXTURE_BUFFER, recordTexture);
+        gl.activeTexture(GL_TEXTURE0);
+    }
+
+    public int getAtlasSize() {
+        return atlasSize;
+    }
+
+    public void cleanUp() {
+        gl.deleteFramebuffers(atlasFBO);
+        gl.deleteTextures(atlasTexture);
+        gl.deleteTextures(recordTexture);
+        gl.deleteBuffers(recordBuffer);
+        casterRenderer.cleanUp();
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
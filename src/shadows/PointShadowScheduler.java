@@ -0,0 +1,348 @@
+package shadows;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Light;
+import toolbox.Frustum;
+
+/**
+ * Decides which point lights get shadows, how much of the {@link ShadowAtlas} they get, and
+ * which of their cube faces are drawn this frame. Pure Java, no GL, so it runs on the frame
+ * worker and can be driven with made up lights.
+ *
+ * A light's importance is its projected radius in pixels, unlimited with the camera inside its
+ * range and 0 when its range is outside the view. Every face of a light gets a tile of the same
+ * power of two size, close to that radius. Lights are placed in order of importance and may
+ * take the space of less important ones, a light that finds no space at all has no shadow.
+ * Tiles only change size once the radius is well past the next size, so a light moving a bit
+ * does not redraw its faces.
+ *
+ * At most faceBudget faces are drawn per frame, in this order:
+ *   1) faces that have never been drawn, a light only casts once all six have been
+ *   2) faces of lights that moved since they were drawn
+ *   3) faces of lights that would get the largest tile, they are close to the camera, with at
+ *      most half of the budget
+ *   4) round robin over all other faces, so static and far lights catch up on moving casters
+ *
+ * Lights are identified by their index, the sun and the moon before {@link #FIRST_POINT_LIGHT}
+ * use the cascades.
+ */
+public class PointShadowScheduler {
+
+    public static final int FIRST_POINT_LIGHT = 2;
+    public static final int FACES = 6;
+    private static final int ALL_FACES = (1 << FACES) - 1;
+
+    // Direction and up vector of the faces +X, -X, +Y, -Y, +Z, -Z, pointShadows.glsl uses the same
+    private static final float[] FORWARD = { 1, 0, 0,  -1, 0, 0,  0, 1, 0,  0, -1, 0,  0, 0, 1,  0, 0, -1 };
+    private static final float[] UP = { 0, -1, 0,  0, -1, 0,  0, 0, 1,  0, 0, -1,  0, -1, 0,  0, -1, 0 };
+
+    /** Near plane as a share of the light's range. */
+    private static final float NEAR_RATIO = 0.002f;
+    private static final float MIN_NEAR = 0.05f;
+    /** A tile keeps its size while the projected radius stays between these multiples of it. */
+    private static final float SHRINK_BELOW = 0.7f;
+    private static final float GROW_ABOVE = 2.5f;
+
+    private final ShadowAtlas atlas;
+    private final int maxTile;
+    private final int screenHeight;
+
+    // Per light index
+    private float[] importance = new float[0];
+    private int[] tileSizes = new int[0];       // 0 without tiles
+    private int[] handles = new int[0];         // FACES per light
+    private int[] drawnFaces = new int[0];      // Bit per face that has been drawn since the tiles were taken
+    private int[] staleFaces = new int[0];      // Bit per face drawn before the light last moved
+    private float[] drawnLights = new float[0]; // Position and range the faces were drawn with
+    private int[] scheduledFrames = new int[0]; // Per face, the frame it was last scheduled in
+    private int lightCapacity;
+
+    private int[] order = new int[0];
+    private final int[] newHandles = new int[FACES];
+    private final int[] oldHandles = new int[FACES];
+    private final float[] offsets = new float[FACES * 2];
+    private int cursor;
+    private int frame;
+
+    private final Frustum frustum = new Frustum();
+    private final Matrix4f faceMatrix = new Matrix4f();
+
+    /**
+     * @param atlas        the atlas the tiles come from, the scheduler is its only user
+     * @param maxTile      largest tile of a face in texels
+     * @param screenHeight height of the view in pixels, importance is measured in it
+     */
+    public PointShadowScheduler(ShadowAtlas atlas, int maxTile, int screenHeight) {
+        this.atlas = atlas;
+        this.maxTile = Math.max(atlas.getMinTile(), Math.min(maxTile, atlas.getAtlasSize()));
+        this.screenHeight = screenHeight;
+    }
+
+    /**
+     * Assigns tiles, picks this frame's faces and writes every light's record. Allocates
+     * nothing once it has seen the largest number of lights.
+     *
+     * @param faceBudget most faces to draw this frame
+     */
+    public void schedule(List<Light> lights, Vector3f cameraPosition, Matrix4f view, Matrix4f projection,
+            int faceBudget, PointShadowPasses out) {
+        int count = lights.size();
+        ensureCapacity(count);
+        frame++;
+        frustum.calculateFrustum(projection, view);
+        float pixelsPerRadius = projection.m11() * screenHeight * 0.5f;
+
+        // 1) Importance, and give up tiles of lights that are gone, hidden or moved
+        int candidates = 0;
+        for (int i = 0; i < lightCapacity; i++) {
+            float value = i < count ? importance(lights.get(i), i, cameraPosition, pixelsPerRadius) : -1;
+            importance[i] = value;
+            if (value <= 0) {
+                release(i);
+                continue;
+            }
+            if (tileSizes[i] != 0 && lightMoved(lights.get(i), i)) {
+                staleFaces[i] = drawnFaces[i];
+            }
+            order[candidates++] = i;
+        }
+
+        // 2) Most important first
+        for (int k = 1; k < candidates; k++) {
+            int light = order[k];
+            int j = k - 1;
+            while (j >= 0 && importance[order[j]] < importance[light]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = light;
+        }
+
+        // 3) Tiles, taking space from less important lights when it runs out
+        for (int k = 0; k < candidates; k++) {
+            int light = order[k];
+            int wanted = tileSizeFor(importance[light]);
+            int current = tileSizes[light];
+            if (current == 0) {
+                for (int size = wanted; size >= atlas.getMinTile(); size /= 2) {
+                    if (place(light, size, size == wanted)) {
+                        break;
+                    }
+                }
+            } else if (wanted != current && (importance[light] < current * SHRINK_BELOW
+                    || importance[light] >= current * GROW_ABOVE)) {
+                // Keep the old tiles if the new ones do not fit
+                System.arraycopy(handles, light * FACES, oldHandles, 0, FACES);
+                if (place(light, wanted, wanted > current)) {
+                    for (int f = 0; f < FACES; f++) {
+                        atlas.free(oldHandles[f]);
+                    }
+                }
+            }
+        }
+
+        // 4) Faces, most urgent first
+        out.clear();
+        int budget = faceBudget;
+        for (int k = 0; k < candidates && budget > 0; k++) {
+            int light = order[k];
+            budget = scheduleFaces(lights.get(light), light, ~drawnFaces[light] & ALL_FACES, budget, out);
+        }
+        for (int k = 0; k < candidates && budget > 0; k++) {
+            int light = order[k];
+            budget = scheduleFaces(lights.get(light), light, staleFaces[light], budget, out);
+        }
+        int hotBudget = Math.min(budget, faceBudget / 2);
+        budget -= hotBudget;
+        for (int k = 0; k < candidates && hotBudget > 0 && importance[order[k]] >= maxTile; k++) {
+            int light = order[k];
+            hotBudget = scheduleFaces(lights.get(light), light, ALL_FACES, hotBudget, out);
+        }
+        budget += hotBudget;
+        int slots = count * FACES;
+        for (int step = 0; step < slots && budget > 0; step++) {
+            cursor = cursor + 1 < slots ? cursor + 1 : 0;
+            int light = cursor / FACES;
+            if (importance[light] > 0) {
+                budget = scheduleFaces(lights.get(light), light, 1 << (cursor % FACES), budget, out);
+            }
+        }
+
+        // 5) Records of the lights whose six faces are all drawn
+        out.setLightCount(count);
+        float atlasSize = atlas.getAtlasSize();
+        for (int i = 0; i < count; i++) {
+            if (tileSizes[i] == 0 || drawnFaces[i] != ALL_FACES) {
+                continue;
+            }
+            for (int f = 0; f < FACES; f++) {
+                int handle = handles[i * FACES + f];
+                offsets[f * 2] = atlas.getX(handle) / atlasSize;
+                offsets[f * 2 + 1] = atlas.getY(handle) / atlasSize;
+            }
+            float far = drawnLights[i * 4 + 3];
+            out.setRecord(i, nearPlane(far), far, tileSizes[i] / atlasSize, offsets);
+        }
+    }
+
+    /** Tile size of a light's faces in texels, 0 without a shadow. */
+    public int getTileSize(int light) {
+        return light < lightCapacity ? tileSizes[light] : 0;
+    }
+
+    /** Whether every face of a light has been drawn, so the shader uses its shadow. */
+    public boolean isShadowed(int light) {
+        return getTileSize(light) != 0 && drawnFaces[light] == ALL_FACES;
+    }
+
+    /** Importance of a light in the last {@link #schedule}: pixels, 0 if hidden, -1 if not a point light shadow. */
+    public float getImportance(int light) {
+        return light < lightCapacity ? importance[light] : -1;
+    }
+
+    public ShadowAtlas getAtlas() {
+        return atlas;
+    }
+
+    private float importance(Light light, int index, Vector3f cameraPosition, float pixelsPerRadius) {
+        float range = light.getEffectiveDistance();
+        if (index < FIRST_POINT_LIGHT || !light.isCastShadow() || !(range > 0) || Float.isInfinite(range)) {
+            return -1;
+        }
+        Vector3f p = light.getPosition();
+        if (!frustum.contains(p, range)) {
+            return 0;
+        }
+        float distance = p.distance(cameraPosition);
+        return distance <= range ? Float.MAX_VALUE : range * pixelsPerRadius / distance;
+    }
+
+    private int tileSizeFor(float pixels) {
+        if (pixels >= maxTile) {
+            return maxTile;
+        }
+        return Math.max(atlas.getMinTile(), Integer.highestOneBit((int) pixels));
+    }
+
+    private boolean lightMoved(Light light, int index) {
+        Vector3f p = light.getPosition();
+        int d = index * 4;
+        float range = light.getEffectiveDistance();
+        boolean moved = drawnLights[d] != p.x || drawnLights[d + 1] != p.y || drawnLights[d + 2] != p.z
+                || drawnLights[d + 3] != range;
+        drawnLights[d] = p.x;
+        drawnLights[d + 1] = p.y;
+        drawnLights[d + 2] = p.z;
+        drawnLights[d + 3] = range;
+        return moved;
+    }
+
+    /**
+     * Takes six tiles of a size for a light. With evict, less important lights give up their
+     * tiles, least important first, until they fit. The light's old tiles are left alone.
+     */
+    private boolean place(int light, int size, boolean evict) {
+        while (true) {
+            int taken = 0;
+            while (taken < FACES && (newHandles[taken] = atlas.allocate(size)) >= 0) {
+                taken++;
+            }
+            if (taken == FACES) {
+                System.arraycopy(newHandles, 0, handles, light * FACES, FACES);
+                tileSizes[light] = size;
+                drawnFaces[light] = 0;
+                staleFaces[light] = 0;
+                return true;
+            }
+            for (int f = 0; f < taken; f++) {
+                atlas.free(newHandles[f]);
+            }
+            int victim = evict ? leastImportantHolder(light) : -1;
+            if (victim < 0) {
+                return false;
+            }
+            release(victim);
+        }
+    }
+
+    private int leastImportantHolder(int light) {
+        int victim = -1;
+        for (int i = 0; i < lightCapacity; i++) {
+            if (i != light && tileSizes[i] != 0 && importance[i] < importance[light]
+                    && (victim < 0 || importance[i] < importance[victim])) {
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    private void release(int light) {
+        if (tileSizes[light] == 0) {
+            return;
+        }
+        for (int f = 0; f < FACES; f++) {
+            atlas.free(handles[light * FACES + f]);
+        }
+        tileSizes[light] = 0;
+        drawnFaces[light] = 0;
+        staleFaces[light] = 0;
+    }
+
+    /** Adds the faces in the mask that are not scheduled yet this frame, returns the budget left. */
+    private int scheduleFaces(Light light, int index, int faceMask, int budget, PointShadowPasses out) {
+        if (tileSizes[index] == 0) {
+            return budget;
+        }
+        for (int f = 0; f < FACES && budget > 0; f++) {
+            int slot = index * FACES + f;
+            if ((faceMask & (1 << f)) == 0 || scheduledFrames[slot] == frame) {
+                continue;
+            }
+            if (drawnFaces[index] == 0 && staleFaces[index] == 0) {
+                // First face of new tiles, they are drawn with the light where it is now
+                lightMoved(light, index);
+            }
+            int handle = handles[slot];
+            out.addFace(index, atlas.getX(handle), atlas.getY(handle), tileSizes[index], faceMatrix(index, f));
+            scheduledFrames[slot] = frame;
+            drawnFaces[index] |= 1 << f;
+            staleFaces[index] &= ~(1 << f);
+            budget--;
+        }
+        return budget;
+    }
+
+    private Matrix4f faceMatrix(int index, int face) {
+        int d = index * 4;
+        float x = drawnLights[d], y = drawnLights[d + 1], z = drawnLights[d + 2], far = drawnLights[d + 3];
+        int v = face * 3;
+        return faceMatrix.setPerspective((float) Math.PI / 2, 1, nearPlane(far), far)
+                .lookAt(x, y, z, x + FORWARD[v], y + FORWARD[v + 1], z + FORWARD[v + 2],
+                        UP[v], UP[v + 1], UP[v + 2]);
+    }
+
+    private static float nearPlane(float far) {
+        return Math.max(far * NEAR_RATIO, MIN_NEAR);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= lightCapacity) {
+            return;
+        }
+        int capacity = Math.max(count, lightCapacity * 2);
+        importance = Arrays.copyOf(importance, capacity);
+        tileSizes = Arrays.copyOf(tileSizes, capacity);
+        handles = Arrays.copyOf(handles, capacity * FACES);
+        drawnFaces = Arrays.copyOf(drawnFaces, capacity);
+        staleFaces = Arrays.copyOf(staleFaces, capacity);
+        drawnLights = Arrays.copyOf(drawnLights, capacity * 4);
+        scheduledFrames = Arrays.copyOf(scheduledFrames, capacity * FACES);
+        order = Arrays.copyOf(order, capacity);
+        lightCapacity = capacity;
+    }
+}
@@ -0,0 +1,173 @@
+package shadows;
+
+import java.util.Arrays;
+
+/**
+ * Hands out square power of two tiles of a square shadow map atlas.
+ *
+ * The atlas is a quadtree: a free node is split into four children when a smaller tile is
+ * needed, and four free siblings merge back into their parent when freed. A tile is taken
+ * from the smallest free node that fits, so small tiles fill the gaps between other small
+ * tiles before a large area is split. Pure Java, no GL.
+ */
+public class ShadowAtlas {
+
+    private static final byte UNUSED = 0; // Inside a free or used ancestor
+    private static final byte FREE = 1;
+    private static final byte SPLIT = 2;
+    private static final byte USED = 3;
+
+    private final int size;
+    private final int minTile;
+    private final int levels;
+    private final int[] levelStart; // First node of each level, level 0 is the whole atlas
+    private final byte[] states;
+    private int usedArea;
+
+    /**
+     * @param size    width and height of the atlas in texels, a power of two
+     * @param minTile smallest tile that can be allocated, a power of two
+     */
+    public ShadowAtlas(int size, int minTile) {
+        if (Integer.bitCount(size) != 1 || Integer.bitCount(minTile) != 1 || minTile > size) {
+            throw new IllegalArgumentException("Atlas size " + size + " and tile size " + minTile
+                    + " must be powers of two");
+        }
+        this.size = size;
+        this.minTile = minTile;
+        this.levels = Integer.numberOfTrailingZeros(size / minTile) + 1;
+        this.levelStart = new int[levels + 1];
+        for (int level = 0; level < levels; level++) {
+            levelStart[level + 1] = levelStart[level] + (1 << (2 * level));
+        }
+        this.states = new byte[levelStart[levels]];
+        states[0] = FREE;
+    }
+
+    /**
+     * Takes a tile.
+     *
+     * @param tileSize width and height, a power of two between the smallest tile and the atlas size
+     * @return a handle for the getters and {@link #free}, or -1 if no space is left
+     */
+    public int allocate(int tileSize) {
+        int target = levelOf(tileSize);
+        // Smallest free node that fits, split down to the tile size
+        for (int level = target; level >= 0; level--) {
+            for (int node = levelStart[level]; node < levelStart[level + 1]; node++) {
+                if (states[node] != FREE) {
+                    continue;
+                }
+                while (level < target) {
+                    states[node] = SPLIT;
+                    int first = firstChild(node, level);
+                    for (int c = 0; c < 4; c++) {
+                        states[first + c] = FREE;
+                    }
+                    node = first;
+                    level++;
+                }
+                states[node] = USED;
+                usedArea += tileSize * tileSize;
+                return node;
+            }
+        }
+        return -1;
+    }
+
+    /** Gives a tile back. Four free siblings merge into their parent. */
+    public void free(int handle) {
+        if (states[handle] != USED) {
+            throw new IllegalArgumentException("Shadow atlas tile " + handle + " is not allocated");
+        }
+        int level = levelOfNode(handle);
+        usedArea -= getSize(handle) * getSize(handle);
+        states[handle] = FREE;
+        while (level > 0) {
+            int parent = parent(handle, level);
+            int first = firstChild(parent, level - 1);
+            for (int c = 0; c < 4; c++) {
+                if (states[first + c] != FREE) {
+                    return;
+                }
+            }
+            for (int c = 0; c < 4; c++) {
+                states[first + c] = UNUSED;
+            }
+            states[parent] = FREE;
+            handle = parent;
+            level--;
+        }
+    }
+
+    /** Frees every tile. */
+    public void clear() {
+        Arrays.fill(states, UNUSED);
+        states[0] = FREE;
+        usedArea = 0;
+    }
+
+    /** Left edge of a tile in texels. */
+    public int getX(int handle) {
+        int level = levelOfNode(handle);
+        return compact(handle - levelStart[level]) * (size >> level);
+    }
+
+    /** Bottom edge of a tile in texels. */
+    public int getY(int handle) {
+        int level = levelOfNode(handle);
+        return compact((handle - levelStart[level]) >> 1) * (size >> level);
+    }
+
+    public int getSize(int handle) {
+        return size >> levelOfNode(handle);
+    }
+
+    public int getAtlasSize() {
+        return size;
+    }
+
+    public int getMinTile() {
+        return minTile;
+    }
+
+    /** Texels in allocated tiles. */
+    public int getUsedArea() {
+        return usedArea;
+    }
+
+    private int levelOf(int tileSize) {
+        if (Integer.bitCount(tileSize) != 1 || tileSize < minTile || tileSize > size) {
+            throw new IllegalArgumentException("Tile size " + tileSize + " is not a power of two between "
+                    + minTile + " and " + size);
+        }
+        return Integer.numberOfTrailingZeros(size / tileSize);
+    }
+
+    private int levelOfNode(int node) {
+        int level = 0;
+        while (node >= levelStart[level + 1]) {
+            level++;
+        }
+        return level;
+    }
+
+    // Nodes of a level are in Z order, so the four children of a node are next to each other
+    // and the bits of an index interleave its x (even bits) and y (odd bits)
+    private int firstChild(int node, int level) {
+        return levelStart[level + 1] + (node - levelStart[level]) * 4;
+    }
+
+    private int parent(int node, int level) {
+        return levelStart[level - 1] + (node - levelStart[level]) / 4;
+    }
+
+    // Every other bit, starting at bit 0
+    private static int compact(int bits) {
+        int value = 0;
+        for (int bit = 0; bits >> (2 * bit) != 0; bit++) {
+            value |= ((bits >> (2 * bit)) & 1) << bit;
+        }
+        return value;
+    }
+}
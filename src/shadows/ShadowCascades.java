@@ -0,0 +1,160 @@
+package shadows;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import entities.Camera;
+import entities.Light;
+
+/**
+ * Light space matrices of the cascades of a directional shadow map, fitted to slices of the
+ * camera frustum.
+ *
+ * The slices split the range up to the shadow distance between a logarithmic and a uniform
+ * scheme, so the near cascades cover a few metres at full resolution and the last one the
+ * horizon. Every cascade is an orthographic box around the bounding sphere of its slice, with
+ * some margin. The box only moves when the sphere leaves it or the light turns, and then in
+ * whole texels, so shadow edges stay put while the camera moves and a cascade's matrix stays
+ * the same for many frames, which lets {@link ShadowRenderer} keep the static casters' depth.
+ *
+ * The box starts at the light side of the sphere. Casters between it and the light are
+ * clamped onto its near plane by the shadow pass (GL_DEPTH_CLAMP), so they still cast.
+ */
+public class ShadowCascades {
+
+    public static final int MAX_CASCADES = 4;
+
+    /** Share of the logarithmic split scheme, the rest is uniform. */
+    private static final float SPLIT_LAMBDA = 0.75f;
+    /** Extra box radius, as a share of the slice's sphere, the camera can move before it moves. */
+    private static final float MARGIN = 0.2f;
+
+    private final Matrix4f[] matrices = new Matrix4f[MAX_CASCADES];
+    private final float[] splits = new float[MAX_CASCADES];
+    private final float[] packed = new float[MAX_CASCADES * 16];
+    private int count;
+
+    // Where each box is, kept until the slice leaves it
+    private final Vector3f[] anchors = new Vector3f[MAX_CASCADES];
+    private final float[] radii = new float[MAX_CASCADES];
+    private final Vector3f lightDir = new Vector3f();
+
+    private final Vector3f[] corners = new Vector3f[8];
+    private final Vector3f center = new Vector3f();
+
+    public ShadowCascades() {
+        for (int i = 0; i < MAX_CASCADES; i++) {
+            matrices[i] = new Matrix4f();
+            anchors[i] = new Vector3f();
+        }
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] = new Vector3f();
+        }
+    }
+
+    /**
+     * Fits the cascades to the camera. Allocates nothing, it runs every frame.
+     *
+     * @param light      directional light, shining from its position towards the origin
+     * @param projection the camera's perspective projection
+     * @param cascades   number of cascades, at most {@link #MAX_CASCADES}
+     * @param resolution width and height of a cascade in texels
+     * @param distance   view distance the last cascade ends at
+     */
+    public void update(Light light, Camera camera, Matrix4f projection, int cascades, int resolution,
+            float distance) {
+        count = Math.min(cascades, MAX_CASCADES);
+        if (count <= 0 || resolution <= 0) {
+            count = 0;
+            return;
+        }
+
+        // 1) Slice ends, logarithmic blended with uniform
+        float near = projection.perspectiveNear();
+        for (int i = 0; i < count; i++) {
+            float p = (i + 1) / (float) count;
+            float logarithmic = near * (float) Math.pow(distance / near, p);
+            float uniform = near + (distance - near) * p;
+            splits[i] = SPLIT_LAMBDA * logarithmic + (1 - SPLIT_LAMBDA) * uniform;
+        }
+
+        // Same direction convention as the single shadow map had, including the Y flip below
+        Vector3f p = light.getPosition();
+        float invLength = 1.0f / p.length();
+        float dirX = -p.x * invLength, dirY = p.y * invLength, dirZ = -p.z * invLength;
+        boolean vertical = Math.abs(dirY) > 0.99f;
+        boolean lightMoved = lightDir.x != dirX || lightDir.y != dirY || lightDir.z != dirZ;
+        lightDir.set(dirX, dirY, dirZ);
+
+        for (int i = 0; i < count; i++) {
+            // 2) Bounding sphere of the slice. The box radius is rounded up so float noise cannot
+            // change the projection size from one frame to the next.
+            camera.getFrustumCorners(projection, i == 0 ? near : splits[i - 1], splits[i], corners);
+            center.zero();
+            for (Vector3f corner : corners) {
+                center.add(corner);
+            }
+            center.mul(1.0f / corners.length);
+            float radius = 0;
+            for (Vector3f corner : corners) {
+                radius = Math.max(radius, corner.distance(center));
+            }
+            float boxRadius = (float) Math.ceil(radius * (1 + MARGIN));
+
+            // 3) Keep the box while the sphere is still inside it
+            Vector3f anchor = anchors[i];
+            if (!lightMoved && radii[i] == boxRadius && anchor.distance(center) <= boxRadius - radius) {
+                continue;
+            }
+            anchor.set(center);
+            radii[i] = boxRadius;
+
+            // 4) Orthographic box around the anchor, its near plane on the light side.
+            // The scale flips Y before the view, so the light looks at the flipped centre.
+            float cx = anchor.x, cy = -anchor.y, cz = anchor.z;
+            Matrix4f m = matrices[i];
+            m.setOrtho(-boxRadius, boxRadius, -boxRadius, boxRadius, 0, 2 * boxRadius)
+             .lookAt(cx - dirX * boxRadius, cy - dirY * boxRadius, cz - dirZ * boxRadius,
+                     cx, cy, cz,
+                     0, vertical ? 0 : 1, vertical ? 1 : 0)
+             .scale(1, -1, 1);
+
+            // 5) Move the box in whole texels: the world origin has to land on a texel corner
+            float texels = resolution * 0.5f;
+            float originX = m.m30() * texels, originY = m.m31() * texels;
+            m.m30(m.m30() + (Math.round(originX) - originX) / texels);
+            m.m31(m.m31() + (Math.round(originY) - originY) / texels);
+        }
+    }
+
+    /** Copies the matrices and splits of another set of cascades, not where its boxes are kept. */
+    public void set(ShadowCascades other) {
+        count = other.count;
+        for (int i = 0; i < count; i++) {
+            matrices[i].set(other.matrices[i]);
+            splits[i] = other.splits[i];
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** World to light clip space of a cascade. */
+    public Matrix4f getMatrix(int cascade) {
+        return matrices[cascade];
+    }
+
+    /** View distance a cascade ends at. */
+    public float getSplit(int cascade) {
+        return splits[cascade];
+    }
+
+    /** Every cascade's matrix, column major, for a mat4[] uniform. The array is reused. */
+    public float[] getPackedMatrices() {
+        for (int i = 0; i < count; i++) {
+            matrices[i].get(packed, i * 16);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,104 @@
+package shadows;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import org.joml.Matrix4f;
+import static org.lwjgl.opengl.GL40.*;
+
+import entities.Entity;
+import renderer.FramePacket;
+import shaders.ShaderProgram;
+import toolbox.Mesh;
+import toolbox.MeshPool;
+
+/**
+ * Draws shadow casters into whatever depth target is bound, for {@link ShadowRenderer} and
+ * {@link PointShadowRenderer}.
+ *
+ * Opaque casters go first, through a program without a fragment stage worth the name, from
+ * the mesh's position-only VAO and without any texture. Only casters that are see-through
+ * somewhere ({@link Entity#isHasTransparency()} or {@link Entity#isAlphaTested()}) go through
+ * the alpha tested program, from a position and UV VAO, and bind their texture when it differs
+ * from the previous one.
+ */
+class ShadowCasterRenderer {
+
+    private static final float ALPHA_THRESHOLD = 0.1f;
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private final ShaderProgram depthShader;
+    private final ShaderProgram alphaShader;
+
+    private final Matrix4f modelScratch = new Matrix4f();
+
+    ShadowCasterRenderer() {
+        depthShader = new ShaderProgram("src/shadows/vertex.glsl", null, null, null, "src/shadows/fragment_depth.glsl");
+        alphaShader = new ShaderProgram("src/shadows/vertex.glsl", null, null, null, "src/shadows/fragment_alpha.glsl");
+    }
+
+    /** Whether a caster needs its texture to cast the right shape. */
+    static boolean isAlphaTested(Entity entity) {
+        return entity.isHasTransparency() || entity.isAlphaTested();
+    }
+
+    /**
+     * Draws the casters of a list with a world to clip space matrix.
+     *
+     * @param pooled casters whose mesh is in this pool are left out, they are drawn by a
+     *               multi-draw. May be null.
+     */
+    void render(FramePacket.DrawList casters, Matrix4f lightSpaceMatrix, MeshPool pooled) {
+        // 1) Opaque, depth only
+        int alphaTested = 0;
+        depthShader.bind();
+        depthShader.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
+        for (int i = 0; i < casters.size(); i++) {
+            Entity entity = casters.getEntity(i);
+            Mesh mesh = entity.getMesh();
+            if (pooled != null && pooled.getSlot(mesh) != null) {
+                continue;
+            }
+            if (isAlphaTested(entity)) {
+                alphaTested++;
+                continue;
+            }
+            depthShader.setUniformMat4("model", casters.getModel(i, modelScratch));
+            gl.bindVertexArray(mesh.getPositionVaoId());
+            gl.drawArrays(GL_TRIANGLES, 0, mesh.getVertexCount());
+        }
+        depthShader.unbind();
+
+        // 2) Alpha tested, the texture only changes between materials
+        if (alphaTested > 0) {
+            alphaShader.bind();
+            alphaShader.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
+            alphaShader.setUniform1f("alphaThreshold", ALPHA_THRESHOLD);
+            alphaShader.setUniform1i("diffuseMap", 0);
+            gl.activeTexture(GL_TEXTURE0);
+            int boundTexture = -1;
+            for (int i = 0; i < casters.size(); i++) {
+                Entity entity = casters.getEntity(i);
+                Mesh mesh = entity.getMesh();
+                if (!isAlphaTested(entity) || (pooled != null && pooled.getSlot(mesh) != null)) {
+                    continue;
+                }
+                alphaShader.setUniformMat4("model", casters.getModel(i, modelScratch));
+                if (entity.getTextureId() != boundTexture) {
+                    boundTexture = entity.getTextureId();
+                    gl.bindTexture(GL_TEXTURE_2D, boundTexture);
+                }
+                gl.bindVertexArray(mesh.getPositionUvVaoId());
+                gl.drawArrays(GL_TRIANGLES, 0, mesh.getVertexCount());
+            }
+            alphaShader.unbind();
+        }
+        gl.bindVertexArray(0);
+    }
+
+    void cleanUp() {
+        depthShader.destroy();
+        alphaShader.destroy();
+    }
+}
@@ -1,202 +1,333 @@
 package shadows;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix4f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL30;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import entities.SceneStore;
+import renderer.FramePacket;
+import renderer.IndirectDrawBuilder;
+import renderer.IndirectRenderer;
 import renderer.MasterRenderer;
+import settings.EngineSettings;
 import shaders.ShaderProgram;
 import toolbox.Frustum;
+import toolbox.MeshPool;
 
+/**
+ * Cascaded shadow map of the sun or moon.
+ *
+ * The cascades ({@link ShadowCascades}) are layers of one GL_TEXTURE_2D_ARRAY depth texture,
+ * all with the same resolution. Each layer gets its own casters, culled against the
+ * cascade's light space box extruded towards the light, and the fragment shader picks the
+ * layer by view depth (calculatedDirectionalShadows.glsl).
+ *
+ * Static casters are drawn into a second texture array that is kept between frames. A layer
+ * of it is only drawn again when its cascade moves, the light turns, or a static caster is
+ * added, removed or moved. Every frame the kept depth is copied into the shadow map and the
+ * moving casters are drawn on top, and not even that when a cascade has no moving casters.
+ * Changing the mesh or material of a static caster is not noticed.
+ */
 public class ShadowRenderer {
-    private static int shadowWidth = 0;
-    private static int shadowHeight;
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    private static int resolution = 0;
+    private static int cascadeCount;
+    // Boxes are kept here, not in the packets, so every packet gets the same matrices
+    private static final ShadowCascades fitted = new ShadowCascades();
+    // Key of a cascade without static casters
+    private static final long EMPTY_KEY = 17;
     
     // OpenGL handles
     private int depthMapFBO;
-    private int depthMap; // This is the depth texture ID (useful for debugging)
+    private int depthMap; // GL_TEXTURE_2D_ARRAY, one layer per cascade
+
+    // Static caster cache
+    private int staticMapFBO;
+    private int staticMap; // Same layout as depthMap, static casters only
+    private Predicate<Entity> staticCasters;
+    private final Matrix4f[] cachedMatrices = new Matrix4f[ShadowCascades.MAX_CASCADES];
+    private final long[] cachedKeys = new long[ShadowCascades.MAX_CASCADES];
+    private final boolean[] cacheValid = new boolean[ShadowCascades.MAX_CASCADES];
+    private final boolean[] staticOnly = new boolean[ShadowCascades.MAX_CASCADES]; // depthMap layer is a plain copy
     
-    // Our simple shader to render depth only
-    private ShaderProgram shadowShader;
+    // Depth-only programs for opaque and alpha tested casters
+    private ShadowCasterRenderer casterRenderer;
     
-    private Frustum frustum;
+    private final Frustum[] cascadeFrustums = new Frustum[ShadowCascades.MAX_CASCADES];
+    
+    // Multi-draw indirect path (see setMeshPool)
+    private ShaderProgram indirectShadowShader;
+    private IndirectRenderer indirectRenderer;
+    private final IndirectDrawBuilder indirectBuilder = new IndirectDrawBuilder();
+
+    private final Matrix4f modelScratch = new Matrix4f();
+    private int[] casterIds = new int[0];
 
-    public ShadowRenderer(int shadowWidth, int shadowHeight) {
-        this.shadowWidth = shadowWidth;
-        this.shadowHeight = shadowHeight;
-        this.frustum = new Frustum();
-        initShadowFBO();
+    /**
+     * @param resolution width and height of every cascade in texels
+     * @param cascades   number of cascades, at most {@link ShadowCascades#MAX_CASCADES}
+     */
+    public ShadowRenderer(int resolution, int cascades) {
+        ShadowRenderer.resolution = resolution;
+        ShadowRenderer.cascadeCount = Math.max(1, Math.min(cascades, ShadowCascades.MAX_CASCADES));
+        for (int i = 0; i < ShadowCascades.MAX_CASCADES; i++) {
+            cascadeFrustums[i] = new Frustum();
+            cachedMatrices[i] = new Matrix4f();
+        }
+        depthMap = createDepthArray();
+        depthMapFBO = createShadowFBO(depthMap);
+        staticMap = createDepthArray();
+        staticMapFBO = createShadowFBO(staticMap);
         initShadowShader();
     }
 
-    // Initialize the framebuffer and attach a depth texture
-    private void initShadowFBO() {
-        // Generate framebuffer
-        depthMapFBO = glGenFramebuffers();
-
-        // Create depth texture
-        depthMap = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, depthMap);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT,
-                     shadowWidth, shadowHeight, 0,
+    // Create a depth texture array, one layer per cascade
+    private int createDepthArray() {
+        int texture = gl.genTextures();
+        gl.bindTexture(GL_TEXTURE_2D_ARRAY, texture);
+        gl.texImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT32F,
+                     resolution, resolution, cascadeCount, 0,
                      GL_DEPTH_COMPONENT, GL_FLOAT, (java.nio.ByteBuffer) null);
 
         // Set texture parameters
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+        gl.texParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        gl.texParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        gl.texParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
+        gl.texParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
         // Set border color (white – meaning “not in shadow”)
         float[] borderColor = new float[] { 1.0f, 1.0f, 1.0f, 1.0f };
-        glTexParameterfv(GL_TEXTURE_2D, GL_TEXTURE_BORDER_COLOR, borderColor);
+        gl.texParameterfv(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BORDER_COLOR, borderColor);
+        gl.bindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        return texture;
+    }
+
+    // Initialize a framebuffer with the first layer of a depth texture array
+    private int createShadowFBO(int texture) {
+        int fbo = gl.genFramebuffers();
 
-        // Attach depth texture as FBO's depth buffer
-        glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthMap, 0);
+        // Attach the first layer as FBO's depth buffer, renderCascades switches layers
+        gl.bindFramebuffer(GL_FRAMEBUFFER, fbo);
+        gl.framebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture, 0, 0);
         // We are not going to render any color data
-        glDrawBuffer(GL_NONE);
-        glReadBuffer(GL_NONE);
+        gl.drawBuffer(GL_NONE);
+        gl.readBuffer(GL_NONE);
         
-        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+        if (gl.checkFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
             throw new RuntimeException("Error: Shadow framebuffer is not complete!");
         }
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        gl.bindFramebuffer(GL_FRAMEBUFFER, 0);
+        return fbo;
     }
 
-    // Initialize the shadow shader that renders the scene from the light’s perspective.
+    // Initialize the shadow shaders that render the scene from the light’s perspective.
     private void initShadowShader() {
-        // Note: Pass null for shaders you are not using.
-        // Make sure the shader files "shadow.vs" and "shadow.fs" exist at the specified paths.
-        shadowShader = new ShaderProgram("src/shadows/vertex.glsl", null, null, null, "src/shadows/fragment.glsl");
+        casterRenderer = new ShadowCasterRenderer();
     }
 
     /**
-     * Renders the scene’s depth (shadow map) from the light’s point of view.
-     *
-     * @param entities         List of entities to render
-     * @param lightSpaceMatrix The transformation matrix (from world to light space)
+     * Enables the multi-draw indirect path for every mesh in the pool.
+     * Does nothing if the driver does not support GL 4.3.
      */
-    public void renderShadowMap(List<Entity> entities, Matrix4f lightSpaceMatrix, Matrix4f viewMatrix, 
-            Matrix4f projectionMatrix) {
-    	
-    	glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-        glViewport(0, 0, shadowWidth, shadowHeight);
-        
-        glClear(GL_DEPTH_BUFFER_BIT);
-        
-        shadowShader.bind();
-        // Send the light space matrix uniform to the shader
-        shadowShader.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
-        
-        shadowShader.setUniform1f("alphaThreshold", 0.1f); 
-
-        // Render each entity using its model transform
-        frustum.calculateFrustum(projectionMatrix, viewMatrix);
-     
-        for (Entity entity : entities) {
-        	 if (frustum.contains(entity.getPosition(), entity.getMesh().getFurthestPoint() * entity.getScale())) {
-        		 Matrix4f modelMatrix = entity.getModelMatrix();
-                 shadowShader.setUniformMat4("model", modelMatrix);
-                 //System.out.println("entity.getMesh().getFurthestPoint(): " + entity.getMesh().getFurthestPoint());
-                 
-                 shadowShader.setUniform1i("diffuseMap", 0);
-                 glActiveTexture(GL_TEXTURE0);
-                 glBindTexture(GL_TEXTURE_2D, entity.getTextureId());
-                 
-                 if (entity.isHasOpaque() || entity.isHasTransparency())
-                	 shadowShader.setUniform1i("useTexture", 1);
-                 else 
-                	 shadowShader.setUniform1i("useTexture", 0);
-
-                 int vaoID = entity.getMesh().getVaoId();
-                 glBindVertexArray(vaoID);
-                 glDrawArrays(GL_TRIANGLES, 0, entity.getMesh().getVertexCount());
-                 glBindVertexArray(0);
-        	} else {
-        		//System.out.println("skipped!");
-        	}
-           
+    public void setMeshPool(MeshPool pool) {
+        if (!IndirectRenderer.isSupported()) {
+            return;
         }
-       
-        shadowShader.unbind();
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-        
-        
+        indirectShadowShader = new ShaderProgram("src/shadows/vertex_indirect.glsl", null, null, null, "src/shadows/fragment.glsl");
+        indirectRenderer = new IndirectRenderer(pool);
     }
 
-    // Utility function to build the model matrix from an entity's transform.
-    private Matrix4f createModelMatrix(Entity entity) {
-    	Matrix4f model = new Matrix4f()
-    		    .identity()
-    		    .scale(entity.getScale())            // Scale first
-    		    .rotateXYZ(entity.getRotation().x, entity.getRotation().y, entity.getRotation().z)         // Rotate next
-    		    .translate(entity.getPosition());    // Finally translate
-
-    		model.setTranslation(entity.getPosition());
-        return model;
+    /**
+     * Decides which casters are static, their depth is kept between frames while
+     * {@link EngineSettings#ShadowCache} is on. Without a test every caster is drawn every frame.
+     * Called from the frame worker.
+     */
+    public void setStaticCasters(Predicate<Entity> staticCasters) {
+        this.staticCasters = staticCasters;
     }
-    
-    public static Matrix4f createLightSpaceMatrix(Light light, Camera camera) {
-        float orthoSize = 400.0f * 15; 
-        float near = 1.0f;
-        float far = 1800.0f * 15;
-
-        // Light direction (keep your existing inversion logic)
-        Vector3f lightDir = new Vector3f(light.getPosition()).normalize();
-        lightDir.z = -lightDir.z;
-        lightDir.x = -lightDir.x;
 
-        // NEW: Use camera position as the shadow map center
-        Vector3f target = new Vector3f(camera.getPosition()); 
-
-        // Light position relative to CAMERA (not scene center)
-        Vector3f lightPos = new Vector3f(target)
-                           .sub(new Vector3f(lightDir).mul(orthoSize * 2));
+    /**
+     * Renders the shadow passes of a packet with the cascades captured for that frame.
+     */
+    public void renderShadowMap(FramePacket packet) {
+        renderCascades(packet);
+    }
 
-        // Create light view matrix looking at CAMERA POSITION
-        Matrix4f lightView = new Matrix4f().lookAt(
-            lightPos,
-            target,  // Focus on camera
-            new Vector3f(0, 1, 0)
-        );
+    /**
+     * Culls the entities against every cascade of the packet and sorts the casters into its
+     * static and moving shadow passes, with a copy of their model matrix. Pure Java, safe to
+     * call from the frame worker.
+     */
+    public void collectCasters(List<Entity> entities, FramePacket packet) {
+        ShadowCascades cascades = packet.getShadowCascades();
+        for (int c = 0; c < cascades.getCount(); c++) {
+            Frustum frustum = cascadeFrustum(cascades, c);
+            long key = EMPTY_KEY;
+            for (Entity entity : entities) {
+            	if (!frustum.contains(entity.getPosition(), entity.getBoundingRadius())) {
+            		continue;
+            	}
+            	if (isStaticCaster(entity)) {
+            		packet.getStaticShadowPass(c).add(entity, entity.getModelMatrix());
+            		key = (key * 31 + System.identityHashCode(entity)) * 31 + entity.getTransformVersion();
+            	} else {
+            		packet.getShadowPass(c).add(entity, entity.getModelMatrix());
+            	}
+            }
+            packet.setStaticShadowKey(c, key);
+        }
+    }
 
-        Matrix4f lightProjection = new Matrix4f().ortho(
-        	    -orthoSize, orthoSize,
-        	    -orthoSize, orthoSize,
-        	    near, far
-        	);
+    /**
+     * Same as {@link #collectCasters(List, FramePacket)} for a {@link SceneStore}.
+     */
+    public void collectCasters(SceneStore scene, FramePacket packet) {
+        if (casterIds.length < scene.getIdLimit()) {
+        	casterIds = new int[scene.getIdLimit()];
+        }
+        ShadowCascades cascades = packet.getShadowCascades();
+        float[] matrices = scene.getMatrices();
+        for (int c = 0; c < cascades.getCount(); c++) {
+            int count = scene.cull(cascadeFrustum(cascades, c), casterIds);
+            long key = EMPTY_KEY;
+            for (int i = 0; i < count; i++) {
+            	int id = casterIds[i];
+            	Entity entity = scene.getEntity(id);
+            	if (isStaticCaster(entity)) {
+            		packet.getStaticShadowPass(c).add(entity, matrices, id * 16);
+            		// Identity as well, a freed id can come back for another entity at version 0
+            		key = ((key * 31 + id) * 31 + System.identityHashCode(entity)) * 31 + scene.getVersion(id);
+            	} else {
+            		packet.getShadowPass(c).add(entity, matrices, id * 16);
+            	}
+            }
+            packet.setStaticShadowKey(c, key);
+        }
+    }
 
+    /**
+     * The cascade's box without its near plane, so casters between the box and the light are
+     * kept. The shadow pass clamps their depth onto the near plane.
+     */
+    private Frustum cascadeFrustum(ShadowCascades cascades, int cascade) {
+        Frustum frustum = cascadeFrustums[cascade];
+        frustum.calculateFrustum(cascades.getMatrix(cascade));
+        frustum.openPlane(Frustum.NEAR_PLANE);
+        return frustum;
+    }
 
-        Matrix4f lightSpaceMatrix = new Matrix4f();
-        lightProjection.mul(lightView, lightSpaceMatrix);
-        lightSpaceMatrix.scale(1, -1, 1);  // Keep your existing Y-flip
+    private boolean isStaticCaster(Entity entity) {
+        return EngineSettings.ShadowCache && staticCasters != null && staticCasters.test(entity);
+    }
 
-        // NEW: Snap using CAMERA POSITION in light space
-        float texelSize = (2.0f * orthoSize) / shadowWidth;
-        Vector4f origin = new Vector4f(target, 1.0f);  // Camera position
-        lightSpaceMatrix.transform(origin);
-        origin.x = Math.round(origin.x / texelSize) * texelSize;
-        origin.y = Math.round(origin.y / texelSize) * texelSize;
-        Matrix4f adjust = new Matrix4f().translate(-origin.x, -origin.y, 0);
-        lightSpaceMatrix.mul(adjust);
+    /**
+     * Renders each cascade into its layer of the depth texture array: the static casters only
+     * when they changed, then a copy of them and the moving casters.
+     */
+    private void renderCascades(FramePacket packet) {
+        ShadowCascades cascades = packet.getShadowCascades();
+        gl.viewport(0, 0, resolution, resolution);
+        gl.enable(GL_DEPTH_CLAMP);
+        
+        for (int c = 0; c < cascades.getCount(); c++) {
+        	Matrix4f matrix = cascades.getMatrix(c);
+        	long key = packet.getStaticShadowKey(c);
+        	FramePacket.DrawList moving = packet.getShadowPass(c);
+        	
+        	// 1) Static casters into the cache, when they or the cascade changed
+        	gl.bindFramebuffer(GL_FRAMEBUFFER, staticMapFBO);
+        	gl.framebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticMap, 0, c);
+        	if (!cacheValid[c] || cachedKeys[c] != key || !cachedMatrices[c].equals(matrix)) {
+        		gl.clear(GL_DEPTH_BUFFER_BIT);
+        		renderCasters(packet.getStaticShadowPass(c), matrix);
+        		cachedMatrices[c].set(matrix);
+        		cachedKeys[c] = key;
+        		cacheValid[c] = true;
+        		staticOnly[c] = false;
+        	}
+        	
+        	// 2) The layer already is the static depth and nothing moves in it
+        	if (staticOnly[c] && moving.size() == 0) {
+        		continue;
+        	}
+        	
+        	// 3) Start from the static depth and draw the moving casters on top
+        	gl.bindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
+        	gl.framebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap, 0, c);
+        	gl.bindFramebuffer(GL_READ_FRAMEBUFFER, staticMapFBO);
+        	gl.blitFramebuffer(0, 0, resolution, resolution, 0, 0, resolution, resolution,
+        			GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        	gl.bindFramebuffer(GL_READ_FRAMEBUFFER, depthMapFBO);
+        	renderCasters(moving, matrix);
+        	staticOnly[c] = moving.size() == 0;
+        }
+        
+        gl.disable(GL_DEPTH_CLAMP);
+        gl.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
 
-        return lightSpaceMatrix;
+    private void renderCasters(FramePacket.DrawList casters, Matrix4f lightSpaceMatrix) {
+        boolean useIndirect = EngineSettings.MultiDrawIndirect && indirectRenderer != null;
+        MeshPool pool = useIndirect ? indirectRenderer.getPool() : null;
+        casterRenderer.render(casters, lightSpaceMatrix, pool);
+        if (!useIndirect) {
+            return;
+        }
+     
+        // Pooled casters in one multi-draw per texture, the opaque ones need none and share batch 0
+        indirectBuilder.reset();
+        for (int i = 0; i < casters.size(); i++) {
+        	Entity entity = casters.getEntity(i);
+        	MeshPool.Slot slot = pool.getSlot(entity.getMesh());
+        	if (slot != null) {
+        		int batch = ShadowCasterRenderer.isAlphaTested(entity) ? entity.getTextureId() : 0;
+        		indirectBuilder.add(batch, slot, indirectRenderer.getMaterialIndex(entity), casters.getModel(i, modelScratch));
+        	}
+        }
+        
+        if (indirectBuilder.getDrawCount() > 0) {
+            indirectShadowShader.bind();
+            indirectShadowShader.setUniformMat4("lightSpaceMatrix", lightSpaceMatrix);
+            indirectShadowShader.setUniform1f("alphaThreshold", 0.1f);
+            indirectShadowShader.setUniform1i("diffuseMap", 0);
+            indirectRenderer.submit(indirectBuilder, GL_TRIANGLES, batch -> {
+                indirectShadowShader.setUniform1i("useTexture", batch != 0 ? 1 : 0);
+                if (batch != 0) {
+                    gl.activeTexture(GL_TEXTURE0);
+                    gl.bindTexture(GL_TEXTURE_2D, batch);
+                }
+            });
+            indirectShadowShader.unbind();
+        }
     }
 
 
+    /**
+     * Fits the cascades to the camera for the resolution and cascade count this renderer was
+     * created with, up to {@link EngineSettings#ShadowDistance}. No cascades until a renderer
+     * exists. Call on one thread, the boxes are shared.
+     */
+    public static void fitCascades(Light light, Camera camera, Matrix4f projection, ShadowCascades dest) {
+        fitted.update(light, camera, projection, cascadeCount, resolution, EngineSettings.ShadowDistance);
+        dest.set(fitted);
+    }
 
     /**
      * Returns the OpenGL texture ID for the depth map.
-     * You can use this ID to debug by rendering the texture to a quad.
+     * It is a GL_TEXTURE_2D_ARRAY with one layer per cascade.
      *
      * @return the texture ID of the depth (shadow) map.
      */
@@ -206,8 +337,14 @@ public class ShadowRenderer {
 
     // Call this method during cleanup
     public void cleanUp() {
-        glDeleteFramebuffers(depthMapFBO);
-        glDeleteTextures(depthMap);
-        shadowShader.destroy();
+        gl.deleteFramebuffers(depthMapFBO);
+        gl.deleteTextures(depthMap);
+        gl.deleteFramebuffers(staticMapFBO);
+        gl.deleteTextures(staticMap);
+        casterRenderer.cleanUp();
+        if (indirectRenderer != null) {
+            indirectShadowShader.destroy();
+            indirectRenderer.cleanup();
+        }
     }
 }
@@ -0,0 +1,13 @@
+#version 400 core
+
+// Alpha tested shadow casters: texels below the threshold do not cast.
+
+in vec2 passTexCoord;
+
+uniform sampler2D diffuseMap;
+uniform float alphaThreshold;
+
+void main() {
+    if (texture(diffuseMap, passTexCoord).a < alphaThreshold)
+        discard;
+}
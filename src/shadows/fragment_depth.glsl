@@ -0,0 +1,6 @@
+#version 400 core
+
+// Opaque shadow casters: only depth is written, there is no color attachment.
+
+void main() {
+}
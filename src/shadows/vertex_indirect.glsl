@@ -0,0 +1,25 @@
+#version 430 core
+
+// Multi-draw indirect variant of the shadow vertex shader.
+
+layout (location = 0) in vec3 inPosition;
+layout (location = 1) in vec2 inTexCoord;
+layout (location = 5) in int inDrawId;
+
+layout(std430, binding = 0) readonly buffer ModelMatrices {
+    mat4 modelMatrices[];
+};
+
+layout(std430, binding = 1) readonly buffer DrawData {
+    ivec4 drawData[];
+};
+
+uniform mat4 lightSpaceMatrix;
+
+out vec2 passTexCoord;
+
+void main() {
+    mat4 model = modelMatrices[drawData[inDrawId].x];
+    gl_Position = lightSpaceMatrix * model * vec4(inPosition, 1.0);
+    passTexCoord = inTexCoord;
+}
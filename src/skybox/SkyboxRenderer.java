@@ -1,5 +1,8 @@
 package skybox;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Matrix4f;
 import org.joml.Matrix3f;
 import org.joml.Vector3f;
@@ -11,11 +14,26 @@ import entities.Light;
 import static org.lwjgl.opengl.GL40.*;
 
 public class SkyboxRenderer {
+
+    private final GraphicsDevice gl = Graphics.device();
+
     private final int vao, vertexCount;
     private final ShaderProgram shader;
 
-    private Vector3f topColor;
-    private Vector3f bottomColor;
+    private final Vector3f topColor = new Vector3f();
+    private final Vector3f bottomColor = new Vector3f();
+
+    // Sky gradient and sun colors, blended into the fields above and below every frame
+    private static final Vector3f DAY_TOP = new Vector3f(0.2f, 0.5f, 0.8f);
+    private static final Vector3f DAY_BOTTOM = new Vector3f(0.8f, 0.9f, 1.0f);
+    private static final Vector3f SUNSET_TOP = new Vector3f(1.0f, 0.3f, 0.0f);
+    private static final Vector3f SUNSET_BOTTOM = new Vector3f(1.0f, 0.6f, 0.3f);
+    private static final Vector3f NIGHT_TOP = new Vector3f(0.02f, 0.02f, 0.1f);
+    private static final Vector3f NIGHT_BOTTOM = new Vector3f(0.05f, 0.05f, 0.2f);
+    private static final Vector3f NOON_SUN_CORE = new Vector3f(1.0f, 0.9f, 0.6f);  // Bright yellowish white.
+    private static final Vector3f NOON_SUN_HALO = new Vector3f(1.0f, 0.7f, 0.3f);  // Soft halo.
+    private static final Vector3f WARM_SUN_CORE = new Vector3f(1.0f, 0.4f, 0.0f);  // Deep orange.
+    private static final Vector3f WARM_SUN_HALO = new Vector3f(1.0f, 0.3f, 0.0f);  // Intense orange halo.
 
     // Controls progression along the orbit (in radians). 
     // When sunAngle == 0, the sun will be overhead (if orbitRotation==0).
@@ -38,14 +56,19 @@ public class SkyboxRenderer {
     private float currentSunIntensity = 0.0f; // Stores computed intensity for the sun
     
     // Variables for extra sun color and warm tint.
-    private Vector3f sunCoreColor;  // The “core” disk color
-    private Vector3f sunHaloColor;  // The halo (bloom) color
+    private final Vector3f sunCoreColor = new Vector3f();  // The “core” disk color
+    private final Vector3f sunHaloColor = new Vector3f();  // The halo (bloom) color
     private float sunWarmFactor = 0.0f;  // 1 when sun is near horizon, 0 when high in the sky
 
     private boolean loadedSecView = false;
     
     private boolean isSunOut = false;
 
+    // Per frame scratch, so rendering the sky does not allocate
+    private final Vector3f lightScratch = new Vector3f();
+    private final Matrix4f skyboxView = new Matrix4f();
+    private final Matrix3f invRotation = new Matrix3f();
+
     public SkyboxRenderer(long window) {
         this.shader = new ShaderProgram(
                 "src/skybox/skybox_vertex.glsl", null, null, null, "src/skybox/skybox_fragment.glsl");
@@ -53,7 +76,10 @@ public class SkyboxRenderer {
         vao = sphere.getVao();
         vertexCount = sphere.getVertexCount();
 
-        // Scroll callback for sun movement.
+        // Scroll callback for sun movement (no window when running headless).
+        if (window == 0) {
+            return;
+        }
         GLFW.glfwSetScrollCallback(window, (win, xoffset, yoffset) -> {
             // Adjust the sun's progression along the orbit.
             sunAngle += yoffset * scrollSpeed;
@@ -88,11 +114,11 @@ public class SkyboxRenderer {
         // Apply the orbitRotation to rotate the horizontal (x,z) position.
         float sunX = horizontalDistance * (float) Math.cos(orbitRotation);
         float sunZ = horizontalDistance * (float) Math.sin(orbitRotation);
-        sun.setPosition(new Vector3f(sunX, sunY, sunZ));
+        sun.setPosition(lightScratch.set(sunX, sunY, sunZ));
         
         // --- Compute Moon Position as the opposite of the Sun ---
         // Simply invert the sun's position.
-        moon.setPosition(new Vector3f(-sunX, -sunY, -sunZ));
+        moon.setPosition(lightScratch.set(-sunX, -sunY, -sunZ));
         
         // Update our boolean based on the sun's y-position.
         isSunOut = sun.getPosition().y >= 0;
@@ -102,7 +128,7 @@ public class SkyboxRenderer {
         updateLightIntensity(sun, moon, sunHeightFactor);
     
         // Remove translation from view matrix for the skybox.
-        Matrix4f skyboxView = new Matrix4f(viewMatrix).scale(scale);
+        skyboxView.set(viewMatrix).scale(scale);
         skyboxView.m30(0);
         skyboxView.m31(0);
         skyboxView.m32(0);
@@ -133,18 +159,17 @@ public class SkyboxRenderer {
         shader.setUniform1f("sunWarmFactor", sunWarmFactor);
     
         if (loadedSecView) {
-            Matrix3f invRotation = new Matrix3f();
             skyboxView.get3x3(invRotation);
             shader.setUniformMat3("invViewRotation", invRotation);
             loadedSecView = true;
         }
     
         // Render Skybox.
-        glBindVertexArray(vao);
-        glEnableVertexAttribArray(0);
-        glDrawElements(GL_TRIANGLES, vertexCount, GL_UNSIGNED_INT, 0);
-        glDisableVertexAttribArray(0);
-        glBindVertexArray(0);
+        gl.bindVertexArray(vao);
+        gl.enableVertexAttribArray(0);
+        gl.drawElements(GL_TRIANGLES, vertexCount, GL_UNSIGNED_INT, 0);
+        gl.disableVertexAttribArray(0);
+        gl.bindVertexArray(0);
     
         shader.unbind();
     }
@@ -164,44 +189,29 @@ public class SkyboxRenderer {
         // Use smoothstep to get a warm factor that is 1 at the horizon and 0 at or above 200 units.
         sunWarmFactor = 1.0f - smoothstep(0.0f, 0.2f, normalizedAlt);
     
-        // Define “noon” (default) colors.
-        Vector3f noonSunCore  = new Vector3f(1.0f, 0.9f, 0.6f);  // Bright yellowish white.
-        Vector3f noonSunHalo  = new Vector3f(1.0f, 0.7f, 0.3f);  // Soft halo.
-    
-        // Define “warm” colors for sunrise/sunset.
-        Vector3f warmSunCore  = new Vector3f(1.0f, 0.4f, 0.0f);  // Deep orange.
-        Vector3f warmSunHalo  = new Vector3f(1.0f, 0.3f, 0.0f);  // Intense orange halo.
-    
-        // Blend the colors based on the warm factor.
-        sunCoreColor = new Vector3f(noonSunCore).lerp(warmSunCore, sunWarmFactor).mul(currentSunIntensity);
-        sunHaloColor = new Vector3f(noonSunHalo).lerp(warmSunHalo, sunWarmFactor).mul(currentSunIntensity * 0.6f);
+        // Blend the “noon” (default) and “warm” sunrise/sunset colors based on the warm factor.
+        sunCoreColor.set(NOON_SUN_CORE).lerp(WARM_SUN_CORE, sunWarmFactor).mul(currentSunIntensity);
+        sunHaloColor.set(NOON_SUN_HALO).lerp(WARM_SUN_HALO, sunWarmFactor).mul(currentSunIntensity * 0.6f);
     
         // Set the sun’s base color (for extra lights, etc.) using the computed core color.
-        sun.setColor(new Vector3f(sunCoreColor));
+        sun.setColor(sunCoreColor);
     
         // For the moon we use a simple smoothstep (inversely to the sun).
         float moonY = moon.getPosition().y;
         float moonIntensity = smoothstep(-50.0f, 100.0f, moonY) * maxMoonBrightness;
-        moon.setColor(new Vector3f(0.9f, 0.9f, 1.0f).mul(moonIntensity));
+        moon.setColor(lightScratch.set(0.9f, 0.9f, 1.0f).mul(moonIntensity));
     }
     
     private void updateSkyColors(float sunY) {
         float factor = ((sunY + 50.0f) / 100.0f);
 
-        Vector3f dayTop = new Vector3f(0.2f, 0.5f, 0.8f);
-        Vector3f dayBottom = new Vector3f(0.8f, 0.9f, 1.0f);
-        Vector3f sunsetTop = new Vector3f(1.0f, 0.3f, 0.0f);
-        Vector3f sunsetBottom = new Vector3f(1.0f, 0.6f, 0.3f);
-        Vector3f nightTop = new Vector3f(0.02f, 0.02f, 0.1f);
-        Vector3f nightBottom = new Vector3f(0.05f, 0.05f, 0.2f);
-
-        topColor = new Vector3f(nightTop)
-                        .lerp(sunsetTop, smoothstep(-0.2f, 0.2f, factor))
-                        .lerp(dayTop, smoothstep(0.2f, 0.7f, factor));
+        topColor.set(NIGHT_TOP)
+                        .lerp(SUNSET_TOP, smoothstep(-0.2f, 0.2f, factor))
+                        .lerp(DAY_TOP, smoothstep(0.2f, 0.7f, factor));
 
-        bottomColor = new Vector3f(nightBottom)
-                        .lerp(sunsetBottom, smoothstep(-0.2f, 0.2f, factor))
-                        .lerp(dayBottom, smoothstep(0.2f, 0.7f, factor));
+        bottomColor.set(NIGHT_BOTTOM)
+                        .lerp(SUNSET_BOTTOM, smoothstep(-0.2f, 0.2f, factor))
+                        .lerp(DAY_BOTTOM, smoothstep(0.2f, 0.7f, factor));
     }
 
     // Helper: clamp a value between min and max.
@@ -217,7 +227,7 @@ public class SkyboxRenderer {
 
     public void cleanUp() {
         shader.destroy();
-        glDeleteVertexArrays(vao);
+        gl.deleteVertexArrays(vao);
     }
 
     public boolean isSunOut() {
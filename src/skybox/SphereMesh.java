@@ -1,5 +1,8 @@
 package skybox;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.lwjgl.BufferUtils;
 
 import java.nio.FloatBuffer;
@@ -8,6 +11,9 @@ import java.nio.IntBuffer;
 import static org.lwjgl.opengl.GL40.*;
 
 public class SphereMesh {
+
+    private final GraphicsDevice gl = Graphics.device();
+
     private final int vao, vertexCount;
 
     public SphereMesh(int resolution) {
@@ -17,25 +23,25 @@ public class SphereMesh {
 
         vertexCount = indices.length;
 
-        vao = glGenVertexArrays();
-        glBindVertexArray(vao);
+        vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
 
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
         FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(vertices.length);
         vertexBuffer.put(vertices).flip();
-        glBufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, vertexBuffer, GL_STATIC_DRAW);
 
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 3 * Float.BYTES, 0);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 3 * Float.BYTES, 0);
+        gl.enableVertexAttribArray(0);
 
-        int ebo = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
+        int ebo = gl.genBuffers();
+        gl.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
         IntBuffer indexBuffer = BufferUtils.createIntBuffer(indices.length);
         indexBuffer.put(indices).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ELEMENT_ARRAY_BUFFER, indexBuffer, GL_STATIC_DRAW);
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
     }
 
     public int getVao() {
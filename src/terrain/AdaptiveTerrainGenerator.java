@@ -1,5 +1,8 @@
 package terrain;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.lwjgl.system.MemoryUtil;
@@ -16,6 +19,8 @@ import static org.lwjgl.opengl.GL30.*;
 
 public class AdaptiveTerrainGenerator {
 
+    private final GraphicsDevice gl = Graphics.device();
+
     private float size;
     private OpenSimplexNoise noise;
     
@@ -145,49 +150,49 @@ public class AdaptiveTerrainGenerator {
         }
 
         // Create and bind the VAO.
-        int vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
+        int vaoId = gl.genVertexArrays();
+        gl.bindVertexArray(vaoId);
 
         // Positions.
-        int posVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, posVboId);
+        int posVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, posVboId);
         FloatBuffer verticesBuffer = MemoryUtil.memAllocFloat(vertices.length);
         verticesBuffer.put(vertices).flip();
-        glBufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(verticesBuffer);
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(0);
 
         // Texture Coordinates.
-        int texVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, texVboId);
+        int texVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, texVboId);
         FloatBuffer texBuffer = MemoryUtil.memAllocFloat(texCoords.length);
         texBuffer.put(texCoords).flip();
-        glBufferData(GL_ARRAY_BUFFER, texBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, texBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(texBuffer);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(1);
 
         // Blend Values.
-        int blendVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, blendVboId);
+        int blendVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, blendVboId);
         FloatBuffer blendBuffer = MemoryUtil.memAllocFloat(blendValues.length);
         blendBuffer.put(blendValues).flip();
-        glBufferData(GL_ARRAY_BUFFER, blendBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, blendBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(blendBuffer);
-        glVertexAttribPointer(2, 1, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(2);
+        gl.vertexAttribPointer(2, 1, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(2);
 
         // Indices.
-        int indexVboId = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
+        int indexVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
         IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.length);
         indicesBuffer.put(indices).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(indicesBuffer);
 
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        gl.bindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.bindVertexArray(0);
 
         return new PatchMesh(vaoId, indices.length);
     }
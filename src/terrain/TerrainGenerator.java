@@ -1,5 +1,8 @@
 package terrain;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import org.lwjgl.system.MemoryUtil;
 import toolbox.Mesh;
 
@@ -12,6 +15,8 @@ import static org.lwjgl.opengl.GL30.*;
 
 public class TerrainGenerator {
 
+    private final GraphicsDevice gl = Graphics.device();
+
     private Mesh terrainMesh;
     private float size;
     private int resolution;
@@ -100,50 +105,50 @@ public class TerrainGenerator {
         }
 
         // Create and bind the VAO.
-        int vaoId = glGenVertexArrays();
-        glBindVertexArray(vaoId);
+        int vaoId = gl.genVertexArrays();
+        gl.bindVertexArray(vaoId);
 
         // --- Vertex Positions (Attribute 0) ---
-        int posVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, posVboId);
+        int posVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, posVboId);
         FloatBuffer verticesBuffer = MemoryUtil.memAllocFloat(vertices.length);
         verticesBuffer.put(vertices).flip();
-        glBufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(verticesBuffer);
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(0);
 
         // --- Texture Coordinates (Attribute 1) ---
-        int texVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, texVboId);
+        int texVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, texVboId);
         FloatBuffer texBuffer = MemoryUtil.memAllocFloat(texCoords.length);
         texBuffer.put(texCoords).flip();
-        glBufferData(GL_ARRAY_BUFFER, texBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, texBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(texBuffer);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(1);
         
         // --- Blend Values (Attribute 2) ---
-        int blendVboId = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, blendVboId);
+        int blendVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, blendVboId);
         FloatBuffer blendBuffer = MemoryUtil.memAllocFloat(blendValues.length);
         blendBuffer.put(blendValues).flip();
-        glBufferData(GL_ARRAY_BUFFER, blendBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, blendBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(blendBuffer);
-        glVertexAttribPointer(2, 1, GL_FLOAT, false, 0, 0);
-        glEnableVertexAttribArray(2);
+        gl.vertexAttribPointer(2, 1, GL_FLOAT, false, 0, 0);
+        gl.enableVertexAttribArray(2);
 
         // --- Indices ---
-        int indexVboId = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
+        int indexVboId = gl.genBuffers();
+        gl.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
         IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.length);
         indicesBuffer.put(indices).flip();
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+        gl.bufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
         MemoryUtil.memFree(indicesBuffer);
 
         // Unbind the VAO (the EBO remains bound to it).
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        gl.bindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.bindVertexArray(0);
 
         // (Optional) Compute a bounding sphere value if needed.
         float furthest = 0;
@@ -1,5 +1,8 @@
 package terrain;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import entities.Light;
 import shaders.ShaderProgram;
 import org.joml.Matrix4f;
@@ -14,6 +17,8 @@ import static org.lwjgl.opengl.GL40.*;
 
 public class TerrainRenderer {
 
+    private final GraphicsDevice gl = Graphics.device();
+
     private ShaderProgram terrainShader;
     private Map<String, Integer> textureMap;
 
@@ -68,8 +73,8 @@ public class TerrainRenderer {
         // Bind textures.
         int textureUnit = 0;
         for (String uniformName : getTextureUniformNames()) {
-            glActiveTexture(GL_TEXTURE0 + textureUnit);
-            glBindTexture(GL_TEXTURE_2D, getTexture(uniformName));
+            gl.activeTexture(GL_TEXTURE0 + textureUnit);
+            gl.bindTexture(GL_TEXTURE_2D, getTexture(uniformName));
             terrainShader.setUniformSampler(uniformName, textureUnit);
             textureUnit++;
         }
@@ -86,13 +91,13 @@ public class TerrainRenderer {
         }
         
         // Set patch size (3 vertices per patch).
-        glPatchParameteri(GL_PATCH_VERTICES, 3);
+        gl.patchParameteri(GL_PATCH_VERTICES, 3);
         
         // Render each adaptive patch.
         for (AdaptiveTerrainGenerator.PatchMesh patch : patches) {
-            glBindVertexArray(patch.vaoId);
-            glDrawElements(GL_PATCHES, patch.indexCount, GL_UNSIGNED_INT, 0);
-            glBindVertexArray(0);
+            gl.bindVertexArray(patch.vaoId);
+            gl.drawElements(GL_PATCHES, patch.indexCount, GL_UNSIGNED_INT, 0);
+            gl.bindVertexArray(0);
         }
         
         terrainShader.unbind();
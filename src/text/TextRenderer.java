@@ -1,22 +1,28 @@
 package text;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import static org.lwjgl.opengl.GL30.*;
 import org.joml.Matrix4f;
 import org.joml.Vector4f;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import org.lwjgl.system.MemoryStack;
+import java.util.Arrays;
+import org.lwjgl.BufferUtils;
 import shaders.ShaderProgram;
 
 public class TextRenderer {
+
     public enum TextAlignment { LEFT, CENTER, RIGHT }
     
+    private final GraphicsDevice gl = Graphics.device();
+
     private final Font font;
     private final ShaderProgram shader;
     private final int vao;
     private final int vbo;
     private final int maxChars;
+    private final FloatBuffer vertexBuffer;
     
     // Rendering parameters
     private final Vector4f textColor = new Vector4f(1, 1, 1, 1);
@@ -24,9 +30,16 @@ public class TextRenderer {
     private float edgeSmoothness = 0.1f;
     private float outlineWidth = 0.3f;
 
+    // Lines of the text being drawn: line i is text[lineStarts[i] .. lineEnds[i]). Kept between
+    // calls, so drawing text does not allocate.
+    private int[] lineStarts = new int[8];
+    private int[] lineEnds = new int[8];
+    private int lineCount;
+
     public TextRenderer(Font font, int maxChars) {
         this.font = font;
         this.maxChars = maxChars;
+        this.vertexBuffer = BufferUtils.createFloatBuffer(maxChars * 6 * 4);
         this.shader = createShader();
         this.vao = createVAO();
         this.vbo = createVBO();
@@ -43,74 +56,92 @@ public class TextRenderer {
     }
 
     private int createVAO() {
-        int vao = glGenVertexArrays();
-        glBindVertexArray(vao);
+        int vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
         return vao;
     }
 
     private int createVBO() {
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferData(GL_ARRAY_BUFFER, maxChars * 6 * 4 * 4, GL_DYNAMIC_DRAW);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.bufferData(GL_ARRAY_BUFFER, maxChars * 6 * 4 * 4, GL_DYNAMIC_DRAW);
         
-        glVertexAttribPointer(0, 2, GL_FLOAT, false, 16, 0);
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, 16, 8);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(0, 2, GL_FLOAT, false, 16, 0);
+        gl.enableVertexAttribArray(0);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, 16, 8);
+        gl.enableVertexAttribArray(1);
         
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
         return vbo;
     }
 
-    public void renderText(String text, float x, float y, float scale, 
+    /**
+     * Draws text, wrapped at spaces to fit maxWidth. Takes any CharSequence, so text that changes
+     * every frame can be built in a reused StringBuilder instead of a new String.
+     */
+    public void renderText(CharSequence text, float x, float y, float scale, 
                           Matrix4f projection, float maxWidth, TextAlignment alignment) {
-        List<String> lines = wrapText(text, scale, maxWidth);
+        wrapText(text, scale, maxWidth);
         float lineHeight = font.getLineHeight() * scale;
         
         shader.bind();
         setupShaderUniforms(projection);
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, font.getTextureID());
+        gl.activeTexture(GL_TEXTURE0);
+        gl.bindTexture(GL_TEXTURE_2D, font.getTextureID());
 
-        for (int i = 0; i < lines.size(); i++) {
-            String line = lines.get(i);
-            float lineWidth = calculateStringWidth(line, scale);
+        for (int i = 0; i < lineCount; i++) {
+            float lineWidth = calculateStringWidth(text, lineStarts[i], lineEnds[i], scale);
             float xOffset = calculateXOffset(alignment, lineWidth, maxWidth);
-            renderLine(line, x + xOffset, y + (i * lineHeight), scale);
+            renderLine(text, lineStarts[i], lineEnds[i], x + xOffset, y + (i * lineHeight), scale);
         }
         
         shader.unbind();
     }
 
-    private List<String> wrapText(String text, float scale, float maxWidth) {
-        List<String> lines = new ArrayList<>();
-        String[] words = text.split(" ");
-        StringBuilder currentLine = new StringBuilder();
+    /** Splits the text into lines at spaces, filling lineStarts and lineEnds. */
+    private void wrapText(CharSequence text, float scale, float maxWidth) {
+        lineCount = 0;
+        float spaceWidth = calculateStringWidth(" ", scale);
+        int lineStart = -1, lineEnd = 0;
         float currentWidth = 0;
         
-        for (String word : words) {
-            float wordWidth = calculateStringWidth(word, scale);
+        int wordStart = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != ' ') {
+                continue;
+            }
+            // A word ends at i
+            float wordWidth = calculateStringWidth(text, wordStart, i, scale);
             
-            if (currentLine.isEmpty()) {
-                currentLine.append(word);
+            if (lineStart < 0 || lineEnd == lineStart) {
+                lineStart = wordStart;
                 currentWidth = wordWidth;
             } else {
-                float spaceWidth = calculateStringWidth(" ", scale);
                 float potentialWidth = currentWidth + spaceWidth + wordWidth;
                 
                 if (potentialWidth <= maxWidth) {
-                    currentLine.append(" ").append(word);
                     currentWidth = potentialWidth;
                 } else {
-                    lines.add(currentLine.toString());
-                    currentLine = new StringBuilder(word);
+                    addLine(lineStart, lineEnd);
+                    lineStart = wordStart;
                     currentWidth = wordWidth;
                 }
             }
+            lineEnd = i;
+            wordStart = i + 1;
         }
         
-        if (!currentLine.isEmpty()) lines.add(currentLine.toString());
-        return lines;
+        if (lineStart >= 0 && lineEnd > lineStart) addLine(lineStart, lineEnd);
+    }
+
+    private void addLine(int start, int end) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        }
+        lineStarts[lineCount] = start;
+        lineEnds[lineCount] = end;
+        lineCount++;
     }
 
     private float calculateXOffset(TextAlignment alignment, float lineWidth, float maxWidth) {
@@ -129,23 +160,24 @@ public class TextRenderer {
         shader.setUniform1f("outlineWidth", outlineWidth);
     }
 
-    private void renderLine(String text, float x, float y, float scale) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer buffer = stack.mallocFloat(text.length() * 6 * 4);
-            float cursorX = x;
-            float cursorY = y + font.getBase() * scale;
+    private void renderLine(CharSequence text, int start, int end, float x, float y, float scale) {
+        vertexBuffer.clear();
+        float cursorX = x;
+        float cursorY = y + font.getBase() * scale;
 
-            for (char c : text.toCharArray()) {
-                Font.Character ch = font.getCharacter(c);
-                if (ch == null) continue;
-
-                addCharacterVertices(buffer, cursorX, cursorY, ch, scale);
-                cursorX += ch.xadvance * scale;
-            }
+        // The VBO holds maxChars glyphs, anything past that is dropped
+        int glyphs = 0;
+        for (int i = start; i < end && glyphs < maxChars; i++) {
+            Font.Character ch = font.getCharacter(text.charAt(i));
+            if (ch == null) continue;
 
-            updateVBO(buffer);
-            drawText(text.length());
+            addCharacterVertices(vertexBuffer, cursorX, cursorY, ch, scale);
+            cursorX += ch.xadvance * scale;
+            glyphs++;
         }
+
+        updateVBO(vertexBuffer);
+        drawText(glyphs);
     }
 
     private void addCharacterVertices(FloatBuffer buffer, float cursorX, float cursorY, 
@@ -173,14 +205,14 @@ public class TextRenderer {
 
     private void updateVBO(FloatBuffer buffer) {
         buffer.flip();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.bufferSubData(GL_ARRAY_BUFFER, 0, buffer);
     }
 
     private void drawText(int charCount) {
-        glBindVertexArray(vao);
-        glDrawArrays(GL_TRIANGLES, 0, charCount * 6);
-        glBindVertexArray(0);
+        gl.bindVertexArray(vao);
+        gl.drawArrays(GL_TRIANGLES, 0, charCount * 6);
+        gl.bindVertexArray(0);
     }
 
     // Configuration methods
@@ -200,18 +232,49 @@ public class TextRenderer {
         this.outlineWidth = width;
     }
 
-    public float calculateStringWidth(String text, float scale) {
+    public float calculateStringWidth(CharSequence text, float scale) {
+        return calculateStringWidth(text, 0, text.length(), scale);
+    }
+
+    private float calculateStringWidth(CharSequence text, int start, int end, float scale) {
         float width = 0;
-        for (char c : text.toCharArray()) {
-            Font.Character ch = font.getCharacter(c);
+        for (int i = start; i < end; i++) {
+            Font.Character ch = font.getCharacter(text.charAt(i));
             if (ch != null) width += ch.xadvance * scale;
         }
         return width;
     }
 
+    /**
+     * Appends a number with a fixed count of decimals, like String.format("%.2f") but without
+     * allocating. Meant for text redrawn every frame.
+     */
+    public static StringBuilder appendFixed(StringBuilder out, float value, int decimals) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return out.append(value);
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long fixed = Math.round(Math.abs((double) value) * scale);
+        if (value < 0 && fixed != 0) {
+            out.append('-');
+        }
+        out.append(fixed / scale);
+        if (decimals > 0) {
+            out.append('.');
+            long fraction = fixed % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                out.append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return out;
+    }
+
     public void cleanUp() {
-        glDeleteVertexArrays(vao);
-        glDeleteBuffers(vbo);
+        gl.deleteVertexArrays(vao);
+        gl.deleteBuffers(vbo);
         shader.destroy();
     }
 
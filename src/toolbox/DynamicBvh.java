@@ -0,0 +1,692 @@
+package toolbox;
+
+import java.util.Arrays;
+
+/**
+ * Dynamic bounding volume hierarchy of axis aligned boxes, used as the spatial index of a scene.
+ *
+ * Every object is a leaf (a "proxy") holding a box that is a little larger than the object, so
+ * small movements do not touch the tree at all. Larger movements refit the ancestors, and an
+ * object that left its old neighbourhood is removed and inserted again. Insertion picks the
+ * sibling with the lowest surface area cost and rotations keep the tree balanced. For content
+ * that was loaded in one go, {@link #rebuild()} builds the whole tree top down with a binned
+ * surface area heuristic, which gives tighter trees than incremental insertion.
+ *
+ * Queries (frustum, ray, sphere) visit only the nodes they touch, so they cost O(log n + hits)
+ * instead of a scan over every object. They return the user data of the leaves whose enlarged
+ * box passed, callers test the exact bounds when they need to.
+ *
+ * Nodes are stored as arrays indexed by node id. Not thread safe.
+ */
+public class DynamicBvh {
+
+    public static final int NULL_NODE = -1;
+
+    private static final int BINS = 12;
+    // A leaf that moved further than this many times its own size is inserted again
+    private static final float REINSERT_FACTOR = 1f;
+
+    private float margin = 1f;
+
+    // Per node
+    private float[] boxes;    // minX, minY, minZ, maxX, maxY, maxZ
+    private int[] parent;     // next free node while the node is on the free list
+    private int[] child1;
+    private int[] child2;
+    private int[] height;     // 0 for leaves, -1 for free nodes
+    private int[] userData;
+
+    private int capacity;
+    private int root = NULL_NODE;
+    private int freeList = NULL_NODE;
+    private int leafCount;
+
+    private int[] stack = new int[64];
+
+    // Scratch for rebuild()
+    private int[] buildLeaves = new int[0];
+    private float[] buildCentroids = new float[0];
+    private final int[] binCounts = new int[BINS];
+    private final float[] binBoxes = new float[BINS * 6];
+    private final float[] rightAreas = new float[BINS];
+
+    public DynamicBvh() {
+        this(64);
+    }
+
+    public DynamicBvh(int initialCapacity) {
+        capacity = 0;
+        grow(Math.max(16, initialCapacity));
+    }
+
+    /**
+     * How much leaf boxes are enlarged on every side. Larger margins mean fewer tree updates for
+     * moving objects and looser query results.
+     */
+    public void setMargin(float margin) {
+        this.margin = margin;
+    }
+
+    // Proxies
+
+    /**
+     * Adds an object with the given bounds.
+     *
+     * @return the proxy id used to move or remove the object
+     */
+    public int createProxy(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, int data) {
+        int leaf = allocateNode();
+        setBox(leaf, minX - margin, minY - margin, minZ - margin, maxX + margin, maxY + margin, maxZ + margin);
+        userData[leaf] = data;
+        height[leaf] = 0;
+        insertLeaf(leaf);
+        leafCount++;
+        return leaf;
+    }
+
+    public void destroyProxy(int proxy) {
+        removeLeaf(proxy);
+        freeNode(proxy);
+        leafCount--;
+    }
+
+    /**
+     * Updates the bounds of an object.
+     *
+     * @return true if the tree changed
+     */
+    public boolean moveProxy(int proxy, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int b = proxy * 6;
+        // 1) Still inside the enlarged box, nothing to do
+        if (boxes[b] <= minX && boxes[b + 1] <= minY && boxes[b + 2] <= minZ
+                && boxes[b + 3] >= maxX && boxes[b + 4] >= maxY && boxes[b + 5] >= maxZ) {
+            return false;
+        }
+
+        float oldCenterX = (boxes[b] + boxes[b + 3]) * 0.5f;
+        float oldCenterY = (boxes[b + 1] + boxes[b + 4]) * 0.5f;
+        float oldCenterZ = (boxes[b + 2] + boxes[b + 5]) * 0.5f;
+        setBox(proxy, minX - margin, minY - margin, minZ - margin, maxX + margin, maxY + margin, maxZ + margin);
+
+        float dx = (minX + maxX) * 0.5f - oldCenterX;
+        float dy = (minY + maxY) * 0.5f - oldCenterY;
+        float dz = (minZ + maxZ) * 0.5f - oldCenterZ;
+        float size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) + 2 * margin;
+        if (dx * dx + dy * dy + dz * dz > size * size * REINSERT_FACTOR * REINSERT_FACTOR) {
+            // 2) Moved to a different part of the scene, find it a new place
+            removeLeaf(proxy);
+            insertLeaf(proxy);
+        } else {
+            // 3) Moved a little, grow the ancestors so they contain it again
+            refitAncestors(parent[proxy]);
+        }
+        return true;
+    }
+
+    public int getUserData(int proxy) {
+        return userData[proxy];
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    public int getHeight() {
+        return root == NULL_NODE ? 0 : height[root];
+    }
+
+    // Queries
+
+    /**
+     * Collects the user data of every leaf whose box touches the frustum. Subtrees that are
+     * completely inside are added without testing their children.
+     *
+     * @param out must hold at least {@link #getLeafCount()} entries
+     * @return number of entries written
+     */
+    public int queryFrustum(Frustum frustum, int[] out) {
+        if (root == NULL_NODE) {
+            return 0;
+        }
+        int count = 0;
+        int top = 0;
+        // Node and the planes it still has to be tested against travel together on the stack
+        push(top++, root);
+        push(top++, Frustum.ALL_PLANES);
+        while (top > 0) {
+            int mask = stack[--top];
+            int node = stack[--top];
+            int b = node * 6;
+            mask = frustum.classifyAabb(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5], mask);
+            if (mask == Frustum.OUTSIDE) {
+                continue;
+            }
+            if (mask == 0) {
+                count = collectLeaves(node, out, count, top);
+            } else if (height[node] == 0) {
+                out[count++] = userData[node];
+            } else {
+                push(top++, child1[node]);
+                push(top++, mask);
+                push(top++, child2[node]);
+                push(top++, mask);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the user data of every leaf whose box is hit by the ray within maxDistance.
+     * The direction does not have to be normalized, maxDistance is in units of its length.
+     */
+    public int queryRay(float originX, float originY, float originZ, float dirX, float dirY, float dirZ,
+            float maxDistance, int[] out) {
+        if (root == NULL_NODE) {
+            return 0;
+        }
+        float invX = 1f / dirX, invY = 1f / dirY, invZ = 1f / dirZ;
+        int count = 0;
+        int top = 0;
+        push(top++, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            // Slab test
+            float t1 = (boxes[b] - originX) * invX, t2 = (boxes[b + 3] - originX) * invX;
+            float tMin = Math.min(t1, t2), tMax = Math.max(t1, t2);
+            t1 = (boxes[b + 1] - originY) * invY;
+            t2 = (boxes[b + 4] - originY) * invY;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            t1 = (boxes[b + 2] - originZ) * invZ;
+            t2 = (boxes[b + 5] - originZ) * invZ;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMax < Math.max(tMin, 0f) || tMin > maxDistance) {
+                continue;
+            }
+            if (height[node] == 0) {
+                out[count++] = userData[node];
+            } else {
+                push(top++, child1[node]);
+                push(top++, child2[node]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the user data of every leaf whose box overlaps the sphere.
+     */
+    public int querySphere(float x, float y, float z, float radius, int[] out) {
+        if (root == NULL_NODE) {
+            return 0;
+        }
+        float radiusSquared = radius * radius;
+        int count = 0;
+        int top = 0;
+        push(top++, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            // Distance from the sphere center to the closest point of the box
+            float dx = Math.max(0, Math.max(boxes[b] - x, x - boxes[b + 3]));
+            float dy = Math.max(0, Math.max(boxes[b + 1] - y, y - boxes[b + 4]));
+            float dz = Math.max(0, Math.max(boxes[b + 2] - z, z - boxes[b + 5]));
+            if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                continue;
+            }
+            if (height[node] == 0) {
+                out[count++] = userData[node];
+            } else {
+                push(top++, child1[node]);
+                push(top++, child2[node]);
+            }
+        }
+        return count;
+    }
+
+    private int collectLeaves(int subtree, int[] out, int count, int top) {
+        int start = top;
+        push(top++, subtree);
+        while (top > start) {
+            int node = stack[--top];
+            if (height[node] == 0) {
+                out[count++] = userData[node];
+            } else {
+                push(top++, child1[node]);
+                push(top++, child2[node]);
+            }
+        }
+        return count;
+    }
+
+    private void push(int index, int value) {
+        if (index == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[index] = value;
+    }
+
+    // Rebuild
+
+    /**
+     * Throws away the inner nodes and builds the tree again top down, splitting every node
+     * where the binned surface area heuristic is lowest. Proxy ids stay valid.
+     */
+    public void rebuild() {
+        if (leafCount < 3) {
+            return;
+        }
+        if (buildLeaves.length < leafCount) {
+            buildLeaves = new int[leafCount];
+            buildCentroids = new float[leafCount * 3];
+        }
+        // 1) Collect the leaves and free every inner node
+        int leaves = 0;
+        for (int node = 0; node < capacity; node++) {
+            if (height[node] == 0) {
+                buildLeaves[leaves++] = node;
+            } else if (height[node] > 0) {
+                freeNode(node);
+            }
+        }
+        for (int i = 0; i < leaves; i++) {
+            int b = buildLeaves[i] * 6;
+            buildCentroids[i * 3] = (boxes[b] + boxes[b + 3]) * 0.5f;
+            buildCentroids[i * 3 + 1] = (boxes[b + 1] + boxes[b + 4]) * 0.5f;
+            buildCentroids[i * 3 + 2] = (boxes[b + 2] + boxes[b + 5]) * 0.5f;
+        }
+        // 2) Build
+        root = build(0, leaves);
+        parent[root] = NULL_NODE;
+    }
+
+    private int build(int start, int end) {
+        if (end - start == 1) {
+            return buildLeaves[start];
+        }
+
+        // 1) Centroid bounds, the split axis is the longest one
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = start; i < end; i++) {
+            float cx = buildCentroids[i * 3], cy = buildCentroids[i * 3 + 1], cz = buildCentroids[i * 3 + 2];
+            minX = Math.min(minX, cx); maxX = Math.max(maxX, cx);
+            minY = Math.min(minY, cy); maxY = Math.max(maxY, cy);
+            minZ = Math.min(minZ, cz); maxZ = Math.max(maxZ, cz);
+        }
+        int axis = 0;
+        float axisMin = minX, extent = maxX - minX;
+        if (maxY - minY > extent) { axis = 1; axisMin = minY; extent = maxY - minY; }
+        if (maxZ - minZ > extent) { axis = 2; axisMin = minZ; extent = maxZ - minZ; }
+
+        int mid;
+        if (extent <= 0) {
+            // All centroids in one spot, any split is as good as another
+            mid = (start + end) >>> 1;
+        } else {
+            mid = partitionSah(start, end, axis, axisMin, extent);
+        }
+
+        int node = allocateNode();
+        int left = build(start, mid);
+        int right = build(mid, end);
+        child1[node] = left;
+        child2[node] = right;
+        parent[left] = node;
+        parent[right] = node;
+        height[node] = 1 + Math.max(height[left], height[right]);
+        setUnion(node, left, right);
+        return node;
+    }
+
+    private int partitionSah(int start, int end, int axis, float axisMin, float extent) {
+        // 1) Drop every leaf into a bin along the axis
+        Arrays.fill(binCounts, 0);
+        for (int i = 0; i < BINS; i++) {
+            resetBox(binBoxes, i * 6);
+        }
+        float scale = BINS / extent;
+        for (int i = start; i < end; i++) {
+            int bin = Math.min(BINS - 1, (int) ((buildCentroids[i * 3 + axis] - axisMin) * scale));
+            binCounts[bin]++;
+            unionInto(binBoxes, bin * 6, boxes, buildLeaves[i] * 6);
+        }
+
+        // 2) Surface area of everything right of each split, then sweep from the left
+        float rMinX = Float.MAX_VALUE, rMinY = Float.MAX_VALUE, rMinZ = Float.MAX_VALUE;
+        float rMaxX = -Float.MAX_VALUE, rMaxY = -Float.MAX_VALUE, rMaxZ = -Float.MAX_VALUE;
+        for (int i = BINS - 1; i > 0; i--) {
+            int b = i * 6;
+            if (binCounts[i] > 0) {
+                rMinX = Math.min(rMinX, binBoxes[b]); rMinY = Math.min(rMinY, binBoxes[b + 1]); rMinZ = Math.min(rMinZ, binBoxes[b + 2]);
+                rMaxX = Math.max(rMaxX, binBoxes[b + 3]); rMaxY = Math.max(rMaxY, binBoxes[b + 4]); rMaxZ = Math.max(rMaxZ, binBoxes[b + 5]);
+            }
+            rightAreas[i] = area(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ);
+        }
+
+        float lMinX = Float.MAX_VALUE, lMinY = Float.MAX_VALUE, lMinZ = Float.MAX_VALUE;
+        float lMaxX = -Float.MAX_VALUE, lMaxY = -Float.MAX_VALUE, lMaxZ = -Float.MAX_VALUE;
+        int leftCount = 0;
+        int bestSplit = -1;
+        float bestCost = Float.MAX_VALUE;
+        for (int i = 0; i < BINS - 1; i++) {
+            int b = i * 6;
+            if (binCounts[i] > 0) {
+                lMinX = Math.min(lMinX, binBoxes[b]); lMinY = Math.min(lMinY, binBoxes[b + 1]); lMinZ = Math.min(lMinZ, binBoxes[b + 2]);
+                lMaxX = Math.max(lMaxX, binBoxes[b + 3]); lMaxY = Math.max(lMaxY, binBoxes[b + 4]); lMaxZ = Math.max(lMaxZ, binBoxes[b + 5]);
+            }
+            leftCount += binCounts[i];
+            int rightCount = (end - start) - leftCount;
+            if (leftCount == 0 || rightCount == 0) {
+                continue;
+            }
+            float cost = leftCount * area(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ) + rightCount * rightAreas[i + 1];
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSplit = i;
+            }
+        }
+        if (bestSplit < 0) {
+            return (start + end) >>> 1;
+        }
+
+        // 3) Partition the leaves in place
+        int i = start, j = end - 1;
+        while (i <= j) {
+            int bin = Math.min(BINS - 1, (int) ((buildCentroids[i * 3 + axis] - axisMin) * scale));
+            if (bin <= bestSplit) {
+                i++;
+            } else {
+                swapLeaves(i, j--);
+            }
+        }
+        return i;
+    }
+
+    private void swapLeaves(int a, int b) {
+        int leaf = buildLeaves[a];
+        buildLeaves[a] = buildLeaves[b];
+        buildLeaves[b] = leaf;
+        for (int k = 0; k < 3; k++) {
+            float c = buildCentroids[a * 3 + k];
+            buildCentroids[a * 3 + k] = buildCentroids[b * 3 + k];
+            buildCentroids[b * 3 + k] = c;
+        }
+    }
+
+    // Incremental insert and remove
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL_NODE) {
+            root = leaf;
+            parent[leaf] = NULL_NODE;
+            return;
+        }
+
+        // 1) Walk down to the cheapest sibling
+        int lb = leaf * 6;
+        int index = root;
+        while (height[index] > 0) {
+            int c1 = child1[index];
+            int c2 = child2[index];
+            float area = area(index);
+            float combinedArea = unionArea(index, lb);
+
+            // Cost of making a new parent for this node and the leaf
+            float cost = 2 * combinedArea;
+            // Minimum cost of pushing the leaf further down the tree
+            float inheritanceCost = 2 * (combinedArea - area);
+
+            float cost1 = descendCost(c1, lb) + inheritanceCost;
+            float cost2 = descendCost(c2, lb) + inheritanceCost;
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? c1 : c2;
+        }
+        int sibling = index;
+
+        // 2) New parent for the sibling and the leaf
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        userData[newParent] = -1;
+        setUnion(newParent, leaf, sibling);
+        height[newParent] = height[sibling] + 1;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        if (oldParent != NULL_NODE) {
+            if (child1[oldParent] == sibling) {
+                child1[oldParent] = newParent;
+            } else {
+                child2[oldParent] = newParent;
+            }
+        } else {
+            root = newParent;
+        }
+
+        // 3) Fix heights and boxes on the way back up
+        index = parent[leaf];
+        while (index != NULL_NODE) {
+            index = balance(index);
+            int c1 = child1[index];
+            int c2 = child2[index];
+            height[index] = 1 + Math.max(height[c1], height[c2]);
+            setUnion(index, c1, c2);
+            index = parent[index];
+        }
+    }
+
+    private float descendCost(int child, int leafBox) {
+        float combined = unionArea(child, leafBox);
+        if (height[child] == 0) {
+            return combined;
+        }
+        return combined - area(child);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL_NODE;
+            return;
+        }
+        int p = parent[leaf];
+        int grandParent = parent[p];
+        int sibling = child1[p] == leaf ? child2[p] : child1[p];
+
+        if (grandParent != NULL_NODE) {
+            if (child1[grandParent] == p) {
+                child1[grandParent] = sibling;
+            } else {
+                child2[grandParent] = sibling;
+            }
+            parent[sibling] = grandParent;
+            freeNode(p);
+
+            int index = grandParent;
+            while (index != NULL_NODE) {
+                index = balance(index);
+                int c1 = child1[index];
+                int c2 = child2[index];
+                setUnion(index, c1, c2);
+                height[index] = 1 + Math.max(height[c1], height[c2]);
+                index = parent[index];
+            }
+        } else {
+            root = sibling;
+            parent[sibling] = NULL_NODE;
+            freeNode(p);
+        }
+    }
+
+    private void refitAncestors(int index) {
+        while (index != NULL_NODE) {
+            int b = index * 6;
+            float minX = boxes[b], minY = boxes[b + 1], minZ = boxes[b + 2];
+            float maxX = boxes[b + 3], maxY = boxes[b + 4], maxZ = boxes[b + 5];
+            setUnion(index, child1[index], child2[index]);
+            if (boxes[b] == minX && boxes[b + 1] == minY && boxes[b + 2] == minZ
+                    && boxes[b + 3] == maxX && boxes[b + 4] == maxY && boxes[b + 5] == maxZ) {
+                return; // Nothing above can change either
+            }
+            index = parent[index];
+        }
+    }
+
+    /**
+     * Rotates the subtree at a if it is out of balance and returns its new root.
+     */
+    private int balance(int a) {
+        if (height[a] < 2) {
+            return a;
+        }
+        int b = child1[a];
+        int c = child2[a];
+        int diff = height[c] - height[b];
+        if (diff > 1) {
+            return rotate(a, c, b);
+        }
+        if (diff < -1) {
+            return rotate(a, b, c);
+        }
+        return a;
+    }
+
+    /**
+     * Lifts the taller child "up" above a, a keeps "other" and the shorter grandchild.
+     */
+    private int rotate(int a, int up, int other) {
+        int f = child1[up];
+        int g = child2[up];
+
+        // Swap a and up
+        child1[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+        if (parent[up] != NULL_NODE) {
+            if (child1[parent[up]] == a) {
+                child1[parent[up]] = up;
+            } else {
+                child2[parent[up]] = up;
+            }
+        } else {
+            root = up;
+        }
+
+        // The taller grandchild stays under up, the other one moves to a
+        int keep = height[f] > height[g] ? f : g;
+        int move = keep == f ? g : f;
+        child2[up] = keep;
+        if (child1[a] == up) {
+            child1[a] = move;
+        } else {
+            child2[a] = move;
+        }
+        parent[move] = a;
+
+        setUnion(a, other, move);
+        height[a] = 1 + Math.max(height[other], height[move]);
+        setUnion(up, a, keep);
+        height[up] = 1 + Math.max(height[a], height[keep]);
+        return up;
+    }
+
+    // Node pool
+
+    private int allocateNode() {
+        if (freeList == NULL_NODE) {
+            int old = capacity;
+            grow(capacity * 2);
+            // grow() put the new nodes on the free list
+            assert freeList == old;
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL_NODE;
+        child1[node] = NULL_NODE;
+        child2[node] = NULL_NODE;
+        height[node] = 0;
+        userData[node] = -1;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        parent[node] = freeList;
+        height[node] = -1;
+        freeList = node;
+    }
+
+    private void grow(int newCapacity) {
+        boxes = boxes == null ? new float[newCapacity * 6] : Arrays.copyOf(boxes, newCapacity * 6);
+        parent = parent == null ? new int[newCapacity] : Arrays.copyOf(parent, newCapacity);
+        child1 = child1 == null ? new int[newCapacity] : Arrays.copyOf(child1, newCapacity);
+        child2 = child2 == null ? new int[newCapacity] : Arrays.copyOf(child2, newCapacity);
+        height = height == null ? new int[newCapacity] : Arrays.copyOf(height, newCapacity);
+        userData = userData == null ? new int[newCapacity] : Arrays.copyOf(userData, newCapacity);
+        // Chain the new nodes in front of the free list, lowest id first
+        for (int node = newCapacity - 1; node >= capacity; node--) {
+            freeNode(node);
+        }
+        capacity = newCapacity;
+    }
+
+    // Box helpers
+
+    private void setBox(int node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int b = node * 6;
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = minZ;
+        boxes[b + 3] = maxX;
+        boxes[b + 4] = maxY;
+        boxes[b + 5] = maxZ;
+    }
+
+    private void setUnion(int node, int a, int b) {
+        int n = node * 6, ia = a * 6, ib = b * 6;
+        boxes[n] = Math.min(boxes[ia], boxes[ib]);
+        boxes[n + 1] = Math.min(boxes[ia + 1], boxes[ib + 1]);
+        boxes[n + 2] = Math.min(boxes[ia + 2], boxes[ib + 2]);
+        boxes[n + 3] = Math.max(boxes[ia + 3], boxes[ib + 3]);
+        boxes[n + 4] = Math.max(boxes[ia + 4], boxes[ib + 4]);
+        boxes[n + 5] = Math.max(boxes[ia + 5], boxes[ib + 5]);
+    }
+
+    private float area(int node) {
+        int b = node * 6;
+        return area(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+    }
+
+    /** Surface area of the union of node and the box starting at offset other. */
+    private float unionArea(int node, int other) {
+        int b = node * 6;
+        return area(Math.min(boxes[b], boxes[other]), Math.min(boxes[b + 1], boxes[other + 1]), Math.min(boxes[b + 2], boxes[other + 2]),
+                Math.max(boxes[b + 3], boxes[other + 3]), Math.max(boxes[b + 4], boxes[other + 4]), Math.max(boxes[b + 5], boxes[other + 5]));
+    }
+
+    private static float area(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0; // Empty box
+        }
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private static void resetBox(float[] box, int offset) {
+        box[offset] = box[offset + 1] = box[offset + 2] = Float.MAX_VALUE;
+        box[offset + 3] = box[offset + 4] = box[offset + 5] = -Float.MAX_VALUE;
+    }
+
+    private static void unionInto(float[] dest, int d, float[] src, int s) {
+        dest[d] = Math.min(dest[d], src[s]);
+        dest[d + 1] = Math.min(dest[d + 1], src[s + 1]);
+        dest[d + 2] = Math.min(dest[d + 2], src[s + 2]);
+        dest[d + 3] = Math.max(dest[d + 3], src[s + 3]);
+        dest[d + 4] = Math.max(dest[d + 4], src[s + 4]);
+        dest[d + 5] = Math.max(dest[d + 5], src[s + 5]);
+    }
+}
@@ -1,16 +1,44 @@
 package toolbox;
 
+import java.util.Arrays;
+
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
 
+/**
+ * View frustum as six planes (left, right, bottom, top, near, far) for sphere and box culling.
+ *
+ * Every instance owns its planes, packed as a, b, c, d in a float[24], with normals pointing
+ * inwards. Nothing is allocated after construction, neither when the planes are rebuilt nor
+ * when testing.
+ *
+ * The batch methods take packed arrays (spheres as x, y, z, r and boxes as minX, minY, minZ,
+ * maxX, maxY, maxZ) and write an index list or a bitset. They remember, per object index, the
+ * plane that last rejected the object and try that plane first next time. With a slowly moving
+ * camera most culled objects are rejected by a single plane test. The cache is only a hint, so
+ * reusing a frustum for a different set of objects is still correct, just not faster.
+ */
 public class Frustum {
-    private static final Vector4f[] coefficients = new Vector4f[6];
+
+    public static final int PLANE_COUNT = 6;
+    /** Index of the near plane, for {@link #openPlane}. */
+    public static final int NEAR_PLANE = 4;
+
+    /** Plane mask with every plane still to be tested, the starting mask for {@link #classifyAabb}. */
+    public static final int ALL_PLANES = (1 << PLANE_COUNT) - 1;
+    /** Returned by {@link #classifyAabb} for a box that is completely outside. */
+    public static final int OUTSIDE = -1;
+
+    private final float[] planes = new float[PLANE_COUNT * 4];
+    private final Matrix4f combined = new Matrix4f();
     private float bufferDistance = 1.0f; // Adjust this value as needed
 
+    // Plane that last rejected each object, by index in the batch
+    private byte[] lastRejected = new byte[0];
+
     /**
      * Sets the buffer distance for the frustum.
-     * 
+     *
      * @param bufferDistance The distance to buffer behind the viewpoint.
      */
     public void setBufferDistance(float bufferDistance) {
@@ -25,71 +53,58 @@ public class Frustum {
      * @param view             The view matrix.
      */
     public void calculateFrustum(Matrix4f projectionMatrix, Matrix4f view) {
-        // Combine the projection and view matrices
-        Matrix4f combined = new Matrix4f();
-        projectionMatrix.mul(view, combined);
-
-        // Extract planes from the combined matrix
-        coefficients[0] = new Vector4f(
-                combined.m00() + combined.m03(), // Left
-                combined.m10() + combined.m13(),
-                combined.m20() + combined.m23(),
-                combined.m30() + combined.m33()
-        );
-        coefficients[1] = new Vector4f(
-                combined.m03() - combined.m00(), // Right
-                combined.m13() - combined.m10(),
-                combined.m23() - combined.m20(),
-                combined.m33() - combined.m30()
-        );
-        coefficients[2] = new Vector4f(
-                combined.m01() + combined.m03(), // Bottom
-                combined.m11() + combined.m13(),
-                combined.m21() + combined.m23(),
-                combined.m31() + combined.m33()
-        );
-        coefficients[3] = new Vector4f(
-                combined.m03() - combined.m01(), // Top
-                combined.m13() - combined.m11(),
-                combined.m23() - combined.m21(),
-                combined.m33() - combined.m31()
-        );
-        coefficients[4] = new Vector4f(
-                combined.m02() + combined.m03(), // Near
-                combined.m12() + combined.m13(),
-                combined.m22() + combined.m23(),
-                combined.m32() + combined.m33()
-        );
-        coefficients[5] = new Vector4f(
-                combined.m03() - combined.m02(), // Far
-                combined.m13() - combined.m12(),
-                combined.m23() - combined.m22(),
-                combined.m33() - combined.m32()
-        );
-
-        // Normalize and offset each plane
-        for (int i = 0; i < 6; i++) {
-            normalizeAndOffsetPlane(coefficients[i], bufferDistance);
-        }
+        calculateFrustum(projectionMatrix.mul(view, combined));
     }
 
     /**
-     * Normalizes a plane and offsets it by the buffer distance.
-     *
-     * @param plane  The plane to normalize and offset.
-     * @param buffer The buffer distance.
+     * Calculates the frustum planes of an already combined projection * view matrix.
      */
-    private void normalizeAndOffsetPlane(Vector4f plane, float buffer) {
-        float length = plane.x * plane.x + plane.y * plane.y + plane.z * plane.z;
-        length = (float) Math.sqrt(length);
-        plane.x /= length;
-        plane.y /= length;
-        plane.z /= length;
-        plane.w /= length;
+    public void calculateFrustum(Matrix4f viewProjection) {
+        Matrix4f m = viewProjection;
+        setPlanes(m.m00(), m.m01(), m.m02(), m.m03(), m.m10(), m.m11(), m.m12(), m.m13(),
+                m.m20(), m.m21(), m.m22(), m.m23(), m.m30(), m.m31(), m.m32(), m.m33());
+    }
 
+    private void setPlanes(float m00, float m01, float m02, float m03, float m10, float m11, float m12, float m13,
+            float m20, float m21, float m22, float m23, float m30, float m31, float m32, float m33) {
+        setPlane(0, m03 + m00, m13 + m10, m23 + m20, m33 + m30); // Left
+        setPlane(1, m03 - m00, m13 - m10, m23 - m20, m33 - m30); // Right
+        setPlane(2, m03 + m01, m13 + m11, m23 + m21, m33 + m31); // Bottom
+        setPlane(3, m03 - m01, m13 - m11, m23 - m21, m33 - m31); // Top
+        setPlane(4, m03 + m02, m13 + m12, m23 + m22, m33 + m32); // Near
+        setPlane(5, m03 - m02, m13 - m12, m23 - m22, m33 - m32); // Far
+    }
+
+    /**
+     * Normalizes a plane and offsets it by the buffer distance.
+     */
+    private void setPlane(int index, float a, float b, float c, float d) {
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        int i = index * 4;
+        planes[i] = a / length;
+        planes[i + 1] = b / length;
+        planes[i + 2] = c / length;
         // Offset the plane outward by the buffer distance
-        // Positive buffer moves the plane outward along its normal
-        plane.w += buffer;
+        planes[i + 3] = d / length + bufferDistance;
+    }
+
+    /**
+     * Removes a plane until the planes are calculated again: everything is inside it. Opening
+     * the near plane of a light's box extrudes it towards the light.
+     */
+    public void openPlane(int index) {
+        int i = index * 4;
+        planes[i] = 0;
+        planes[i + 1] = 0;
+        planes[i + 2] = 0;
+        planes[i + 3] = Float.MAX_VALUE;
+    }
+
+    /**
+     * The six planes as a, b, c, d. Do not modify.
+     */
+    public float[] getPlanes() {
+        return planes;
     }
 
     /**
@@ -100,13 +115,174 @@ public class Frustum {
      * @return True if the sphere is inside the frustum, false otherwise.
      */
     public boolean contains(Vector3f position, float radius) {
-        Vector4f point = new Vector4f(position, 1.0f);
-        for (int i = 0; i < 6; i++) {
-            float distance = coefficients[i].dot(point);
-            if (distance < -radius) {
+        return contains(position.x, position.y, position.z, radius);
+    }
+
+    /**
+     * Same as {@link #contains(Vector3f, float)} for a sphere given as plain floats.
+     */
+    public boolean contains(float x, float y, float z, float radius) {
+        for (int i = 0; i < planes.length; i += 4) {
+            if (planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < -radius) {
                 return false; // Sphere is completely outside this plane
             }
         }
         return true; // Sphere is inside or intersects all planes
     }
+
+    /**
+     * Checks if an axis aligned box is at least partly inside the frustum.
+     */
+    public boolean containsAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        for (int i = 0; i < planes.length; i += 4) {
+            // Corner of the box furthest along the plane normal
+            float d = Math.max(planes[i] * minX, planes[i] * maxX)
+                    + Math.max(planes[i + 1] * minY, planes[i + 1] * maxY)
+                    + Math.max(planes[i + 2] * minZ, planes[i + 2] * maxZ)
+                    + planes[i + 3];
+            if (d < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Classifies an axis aligned box against the planes set in mask, for hierarchical culling.
+     * A child can never straddle a plane its parent was completely inside of, so only the
+     * planes the parent straddled have to be tested again.
+     *
+     * @return {@link #OUTSIDE}, or the planes the box straddles (0 if it is completely inside)
+     */
+    public int classifyAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, int mask) {
+        int straddled = 0;
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            if ((mask & (1 << plane)) == 0) {
+                continue;
+            }
+            int p = plane * 4;
+            float a = planes[p], b = planes[p + 1], c = planes[p + 2];
+            // Corners of the box furthest along and against the plane normal
+            float far = Math.max(a * minX, a * maxX) + Math.max(b * minY, b * maxY) + Math.max(c * minZ, c * maxZ) + planes[p + 3];
+            if (far < 0) {
+                return OUTSIDE;
+            }
+            float near = Math.min(a * minX, a * maxX) + Math.min(b * minY, b * maxY) + Math.min(c * minZ, c * maxZ) + planes[p + 3];
+            if (near < 0) {
+                straddled |= 1 << plane;
+            }
+        }
+        return straddled;
+    }
+
+    // Batch culling
+
+    /**
+     * Culls count spheres packed as x, y, z, r and writes the indices of the visible ones.
+     *
+     * @param out must hold at least count indices
+     * @return number of visible spheres
+     */
+    public int cullSpheres(float[] spheres, int count, int[] out) {
+        byte[] cache = planeCache(count);
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            if (sphereVisible(spheres, i, cache)) {
+                out[visible++] = i;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Culls count spheres packed as x, y, z, r and sets bit i of visibleBits for every visible one.
+     *
+     * @param visibleBits must hold at least (count + 63) / 64 longs, cleared by this method
+     * @return number of visible spheres
+     */
+    public int cullSpheres(float[] spheres, int count, long[] visibleBits) {
+        byte[] cache = planeCache(count);
+        Arrays.fill(visibleBits, 0, (count + 63) >>> 6, 0L);
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            if (sphereVisible(spheres, i, cache)) {
+                visibleBits[i >>> 6] |= 1L << i;
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Culls count boxes packed as minX, minY, minZ, maxX, maxY, maxZ and writes the indices of
+     * the visible ones.
+     *
+     * @param out must hold at least count indices
+     * @return number of visible boxes
+     */
+    public int cullAabbs(float[] boxes, int count, int[] out) {
+        byte[] cache = planeCache(count);
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            if (aabbVisible(boxes, i, cache)) {
+                out[visible++] = i;
+            }
+        }
+        return visible;
+    }
+
+    private boolean sphereVisible(float[] spheres, int index, byte[] cache) {
+        int s = index * 4;
+        float x = spheres[s], y = spheres[s + 1], z = spheres[s + 2], r = -spheres[s + 3];
+
+        // 1) The plane that rejected the sphere last time
+        int first = cache[index];
+        int p = first * 4;
+        if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < r) {
+            return false;
+        }
+        // 2) The others
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            p = plane * 4;
+            if (plane != first && planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < r) {
+                cache[index] = (byte) plane;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean aabbVisible(float[] boxes, int index, byte[] cache) {
+        int b = index * 6;
+        float minX = boxes[b], minY = boxes[b + 1], minZ = boxes[b + 2];
+        float maxX = boxes[b + 3], maxY = boxes[b + 4], maxZ = boxes[b + 5];
+
+        int first = cache[index];
+        if (aabbOutside(first, minX, minY, minZ, maxX, maxY, maxZ)) {
+            return false;
+        }
+        for (int plane = 0; plane < PLANE_COUNT; plane++) {
+            if (plane != first && aabbOutside(plane, minX, minY, minZ, maxX, maxY, maxZ)) {
+                cache[index] = (byte) plane;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean aabbOutside(int plane, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        int p = plane * 4;
+        float d = Math.max(planes[p] * minX, planes[p] * maxX)
+                + Math.max(planes[p + 1] * minY, planes[p + 1] * maxY)
+                + Math.max(planes[p + 2] * minZ, planes[p + 2] * maxZ)
+                + planes[p + 3];
+        return d < 0;
+    }
+
+    private byte[] planeCache(int count) {
+        if (lastRejected.length < count) {
+            lastRejected = Arrays.copyOf(lastRejected, Math.max(count, lastRejected.length * 2));
+        }
+        return lastRejected;
+    }
 }
@@ -1,5 +1,8 @@
 package toolbox;
 
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -12,6 +15,8 @@ public class Mesh {
     private final int vertexCount;
     private float furthestPoint;
     private MeshData meshData;
+    private int positionVaoId; // Created on first use, see getPositionVaoId
+    private int positionUvVaoId; // Created on first use, see getPositionUvVaoId
 
     public Mesh(int vaoId, int vertexCount) {
         this.vaoId = vaoId;
@@ -38,13 +43,15 @@ public class Mesh {
      * @param meshData The MeshData containing the interleaved vertex attributes.
      */
     public Mesh(MeshData meshData) {
+        GraphicsDevice gl = Graphics.device();
+
         // Create a new VAO.
-        int vao = glGenVertexArrays();
-        glBindVertexArray(vao);
+        int vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
 
         // Create a new VBO and bind it.
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
 
         // Convert the finalData array into a FloatBuffer.
         FloatBuffer fb = ByteBuffer
@@ -54,29 +61,29 @@ public class Mesh {
         fb.put(meshData.finalData).flip();
 
         // Upload the vertex data to the VBO.
-        glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        gl.bufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
 
         // Each vertex consists of 11 floats.
         int stride = 11 * Float.BYTES;
 
         // Vertex positions (location 0): 3 floats, starting at offset 0.
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
+        gl.enableVertexAttribArray(0);
 
         // Texture coordinates (location 1): 2 floats, starting at offset 3 * Float.BYTES.
-        glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
+        gl.enableVertexAttribArray(1);
 
         // Normals (location 2): 3 floats, starting at offset 5 * Float.BYTES.
-        glVertexAttribPointer(2, 3, GL_FLOAT, false, stride, 5L * Float.BYTES);
-        glEnableVertexAttribArray(2);
+        gl.vertexAttribPointer(2, 3, GL_FLOAT, false, stride, 5L * Float.BYTES);
+        gl.enableVertexAttribArray(2);
 
         // Tangents (location 3): 3 floats, starting at offset 8 * Float.BYTES.
-        glVertexAttribPointer(3, 3, GL_FLOAT, false, stride, 8L * Float.BYTES);
-        glEnableVertexAttribArray(3);
+        gl.vertexAttribPointer(3, 3, GL_FLOAT, false, stride, 8L * Float.BYTES);
+        gl.enableVertexAttribArray(3);
 
         // Unbind the VAO to prevent accidental modification.
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
 
         // Store the VAO ID, vertex count, and furthest distance.
         this.vaoId = vao;
@@ -97,6 +104,68 @@ public class Mesh {
         return vaoId;
     }
 
+    /**
+     * A VAO with only the positions (location 0), tightly packed, for depth-only passes. Those
+     * fetch 12 bytes per vertex instead of 44. Built on the first call from the CPU side data,
+     * meshes without it return the full VAO, which has the positions at location 0 as well.
+     */
+    public int getPositionVaoId() {
+        if (positionVaoId == 0) {
+            positionVaoId = createPackedVao(3);
+        }
+        return positionVaoId;
+    }
+
+    /**
+     * Same as {@link #getPositionVaoId()} with the UVs at location 1, 20 bytes per vertex, for
+     * depth passes that alpha test.
+     */
+    public int getPositionUvVaoId() {
+        if (positionUvVaoId == 0) {
+            positionUvVaoId = createPackedVao(5);
+        }
+        return positionUvVaoId;
+    }
+
+    /**
+     * Copies the first floats of every vertex (position, then UV) into a VBO of their own.
+     * Returns the full VAO when there is no CPU side data.
+     */
+    private int createPackedVao(int floats) {
+        if (meshData == null || meshData.finalData == null) {
+            return vaoId;
+        }
+        GraphicsDevice gl = Graphics.device();
+
+        // 1) Pull the attributes out of the interleaved data
+        float[] data = meshData.finalData;
+        int vertices = data.length / 11;
+        FloatBuffer fb = ByteBuffer
+                .allocateDirect(vertices * floats * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int v = 0; v < vertices; v++) {
+            fb.put(data, v * 11, floats);
+        }
+        fb.flip();
+
+        // 2) Own VAO and VBO
+        int stride = floats * Float.BYTES;
+        int vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.bufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
+        gl.enableVertexAttribArray(0);
+        if (floats >= 5) {
+            gl.vertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
+            gl.enableVertexAttribArray(1);
+        }
+        gl.bindVertexArray(0);
+        return vao;
+    }
+
     public int getVertexCount() {
         return vertexCount;
     }
@@ -109,6 +178,10 @@ public class Mesh {
         this.furthestPoint = furthestPoint;
     }
 
+	public MeshData getMeshData() {
+		return meshData;
+	}
+
 	public float[] getVertices() {
 		return this.meshData.getVertices();
 	}
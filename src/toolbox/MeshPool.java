@@ -0,0 +1,227 @@
+package toolbox;
+
+import graphics.Graphics;
+import graphics.GraphicsDevice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL40.*;
+
+/**
+ * Shared vertex/index "mega-buffer" for static meshes.
+ *
+ * Every mesh added to the pool is appended to one big interleaved vertex array
+ * (same 11 float layout as {@link Mesh}) and one big index array. Each mesh gets a
+ * {@link Slot} describing where it lives (first index, index count, base vertex), which
+ * is exactly what a DrawElementsIndirectCommand needs.
+ *
+ * Adding meshes is pure Java so the layout can be built and checked without a GL context.
+ * {@link #upload()} creates the VAO once all meshes are in.
+ *
+ * The VAO also carries an instanced integer attribute (location 5) holding 0..N-1.
+ * Because instanced attributes respect baseInstance, a command's baseInstance becomes
+ * the draw id the vertex shader uses to look up its per-draw data.
+ */
+public class MeshPool {
+
+    private final GraphicsDevice gl = Graphics.device();
+
+    public static final int FLOATS_PER_VERTEX = 11;
+    public static final int DRAW_ID_LOCATION = 5;
+
+    /** Where a mesh lives inside the pool. */
+    public static class Slot {
+        public final int firstIndex;
+        public final int indexCount;
+        public final int baseVertex;
+
+        public Slot(int firstIndex, int indexCount, int baseVertex) {
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+            this.baseVertex = baseVertex;
+        }
+    }
+
+    private final Map<Mesh, Slot> slots = new IdentityHashMap<>();
+
+    private float[] vertexData = new float[FLOATS_PER_VERTEX * 1024];
+    private int vertexCount;
+    private int[] indexData = new int[1024];
+    private int indexCount;
+
+    // GL handles (0 until upload()).
+    private int vaoId;
+    private int vboId;
+    private int iboId;
+    private int drawIdVbo;
+    private int drawIdCapacity;
+
+    /**
+     * Appends a mesh to the pool. Meshes without CPU-side data cannot be pooled.
+     *
+     * @return the slot of the mesh, or null if the mesh has no MeshData.
+     */
+    public Slot add(Mesh mesh) {
+        Slot existing = slots.get(mesh);
+        if (existing != null) {
+            return existing;
+        }
+        MeshData data = mesh.getMeshData();
+        if (data == null || data.finalData == null) {
+            return null;
+        }
+        if (vaoId != 0) {
+            throw new IllegalStateException("MeshPool has already been uploaded.");
+        }
+
+        int meshVertices = data.finalData.length / FLOATS_PER_VERTEX;
+        int[] meshIndices = data.indices;
+        int meshIndexCount = (meshIndices != null) ? meshIndices.length : meshVertices;
+
+        ensureVertexCapacity((vertexCount + meshVertices) * FLOATS_PER_VERTEX);
+        ensureIndexCapacity(indexCount + meshIndexCount);
+
+        System.arraycopy(data.finalData, 0, vertexData, vertexCount * FLOATS_PER_VERTEX, meshVertices * FLOATS_PER_VERTEX);
+        if (meshIndices != null) {
+            System.arraycopy(meshIndices, 0, indexData, indexCount, meshIndexCount);
+        } else {
+            for (int i = 0; i < meshIndexCount; i++) {
+                indexData[indexCount + i] = i;
+            }
+        }
+
+        Slot slot = new Slot(indexCount, meshIndexCount, vertexCount);
+        slots.put(mesh, slot);
+        vertexCount += meshVertices;
+        indexCount += meshIndexCount;
+        return slot;
+    }
+
+    public boolean contains(Mesh mesh) {
+        return slots.containsKey(mesh);
+    }
+
+    public Slot getSlot(Mesh mesh) {
+        return slots.get(mesh);
+    }
+
+    public int getMeshCount() {
+        return slots.size();
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * Creates the shared VAO, vertex buffer and index buffer from everything added so far.
+     */
+    public void upload() {
+        vaoId = gl.genVertexArrays();
+        gl.bindVertexArray(vaoId);
+
+        vboId = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vboId);
+        FloatBuffer fb = ByteBuffer.allocateDirect(vertexCount * FLOATS_PER_VERTEX * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        fb.put(vertexData, 0, vertexCount * FLOATS_PER_VERTEX).flip();
+        gl.bufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
+
+        int stride = FLOATS_PER_VERTEX * Float.BYTES;
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0L);
+        gl.enableVertexAttribArray(0);
+        gl.vertexAttribPointer(1, 2, GL_FLOAT, false, stride, 3L * Float.BYTES);
+        gl.enableVertexAttribArray(1);
+        gl.vertexAttribPointer(2, 3, GL_FLOAT, false, stride, 5L * Float.BYTES);
+        gl.enableVertexAttribArray(2);
+        gl.vertexAttribPointer(3, 3, GL_FLOAT, false, stride, 8L * Float.BYTES);
+        gl.enableVertexAttribArray(3);
+
+        iboId = gl.genBuffers();
+        gl.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, iboId);
+        IntBuffer ib = ByteBuffer.allocateDirect(indexCount * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        ib.put(indexData, 0, indexCount).flip();
+        gl.bufferData(GL_ELEMENT_ARRAY_BUFFER, ib, GL_STATIC_DRAW);
+
+        drawIdVbo = gl.genBuffers();
+        ensureDrawIdCapacity(Math.max(slots.size(), 256));
+
+        gl.bindVertexArray(0);
+
+        // The CPU copies are no longer needed once they live on the GPU.
+        vertexData = null;
+        indexData = null;
+    }
+
+    /**
+     * Makes sure the instanced draw id attribute covers at least {@code draws} draws.
+     */
+    public void ensureDrawIdCapacity(int draws) {
+        if (draws <= drawIdCapacity) {
+            return;
+        }
+        int capacity = Math.max(draws, drawIdCapacity * 2);
+        IntBuffer ids = ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        for (int i = 0; i < capacity; i++) {
+            ids.put(i);
+        }
+        ids.flip();
+
+        gl.bindVertexArray(vaoId);
+        gl.bindBuffer(GL_ARRAY_BUFFER, drawIdVbo);
+        gl.bufferData(GL_ARRAY_BUFFER, ids, GL_STATIC_DRAW);
+        gl.vertexAttribIPointer(DRAW_ID_LOCATION, 1, GL_INT, Integer.BYTES, 0L);
+        gl.vertexAttribDivisor(DRAW_ID_LOCATION, 1);
+        gl.enableVertexAttribArray(DRAW_ID_LOCATION);
+        gl.bindVertexArray(0);
+        drawIdCapacity = capacity;
+    }
+
+    public int getVaoId() {
+        return vaoId;
+    }
+
+    public boolean isUploaded() {
+        return vaoId != 0;
+    }
+
+    public void cleanup() {
+        if (vaoId != 0) {
+            gl.deleteBuffers(vboId);
+            gl.deleteBuffers(iboId);
+            gl.deleteBuffers(drawIdVbo);
+            gl.deleteVertexArrays(vaoId);
+            vaoId = 0;
+        }
+    }
+
+    private void ensureVertexCapacity(int floats) {
+        if (floats > vertexData.length) {
+            float[] grown = new float[Math.max(floats, vertexData.length * 2)];
+            System.arraycopy(vertexData, 0, grown, 0, vertexCount * FLOATS_PER_VERTEX);
+            vertexData = grown;
+        }
+    }
+
+    private void ensureIndexCapacity(int ints) {
+        if (ints > indexData.length) {
+            int[] grown = new int[Math.max(ints, indexData.length * 2)];
+            System.arraycopy(indexData, 0, grown, 0, indexCount);
+            indexData = grown;
+        }
+    }
+}
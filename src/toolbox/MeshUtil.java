@@ -1,8 +1,7 @@
 package toolbox;
 
-import org.lwjgl.system.MemoryStack;
-
-import java.nio.FloatBuffer;
+import graphics.Graphics;
+import graphics.GraphicsDevice;
 
 import static org.lwjgl.opengl.GL40.*;
 
@@ -65,28 +64,25 @@ public class MeshUtil {
                 -0.5f, -0.5f, +0.5f,  1f,0f,1f,
         };
 
-        int vao = glGenVertexArrays();
-        glBindVertexArray(vao);
+        GraphicsDevice gl = Graphics.device();
+        int vao = gl.genVertexArrays();
+        gl.bindVertexArray(vao);
 
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
 
         // Upload data
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(vertices.length);
-            fb.put(vertices).flip();
-            glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
-        }
+        gl.bufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
 
         // Position at location=0
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 6 * Float.BYTES, 0L);
-        glEnableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 6 * Float.BYTES, 0L);
+        gl.enableVertexAttribArray(0);
 
         // Color at location=1
-        glVertexAttribPointer(1, 3, GL_FLOAT, false, 6 * Float.BYTES, 3L * Float.BYTES);
-        glEnableVertexAttribArray(1);
+        gl.vertexAttribPointer(1, 3, GL_FLOAT, false, 6 * Float.BYTES, 3L * Float.BYTES);
+        gl.enableVertexAttribArray(1);
 
-        glBindVertexArray(0);
+        gl.bindVertexArray(0);
         return vao;
     }
     
@@ -147,22 +143,19 @@ public class MeshUtil {
             vertices[index + 2] = 0.0f;
         }
         
-        circleVAO = glGenVertexArrays();
-        glBindVertexArray(circleVAO);
+        GraphicsDevice gl = Graphics.device();
+        circleVAO = gl.genVertexArrays();
+        gl.bindVertexArray(circleVAO);
         
-        int vbo = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            FloatBuffer fb = stack.mallocFloat(vertices.length);
-            fb.put(vertices).flip();
-            glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
-        }
+        int vbo = gl.genBuffers();
+        gl.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        gl.bufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
         
         // Set attribute 0 to be the position (3 floats per vertex)
-        glEnableVertexAttribArray(0);
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 3 * Float.BYTES, 0L);
+        gl.enableVertexAttribArray(0);
+        gl.vertexAttribPointer(0, 3, GL_FLOAT, false, 3 * Float.BYTES, 0L);
         
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        gl.bindBuffer(GL_ARRAY_BUFFER, 0);
+        gl.bindVertexArray(0);
     }
 }
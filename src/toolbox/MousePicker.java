@@ -12,6 +12,7 @@ import java.util.Stack;
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import entities.SceneStore;
 import settings.EngineSettings;
 
 /**
@@ -34,6 +35,9 @@ public class MousePicker {
     // Scene references.
     private List<Entity> entities;
     private List<Light> lights;
+    private SceneStore scene;             // Optional, picks through its spatial index.
+    private int[] pickIds = new int[0];
+    private final double[] mouseX = new double[1], mouseY = new double[1]; // Cursor, read every update
 
     // Undo/Redo stacks.
     private Stack<TransformState> undoStack = new Stack<>();
@@ -120,6 +124,14 @@ public class MousePicker {
         this.lights = lights;
     }
     
+    /**
+     * Lets entity picking ask the scene's spatial index for the entities under the ray
+     * instead of testing every entity.
+     */
+    public void setScene(SceneStore scene) {
+        this.scene = scene;
+    }
+
     /**
      * Public getter for the current translation drag constraint.
      */
@@ -157,7 +169,7 @@ public class MousePicker {
         
         float debugLength = 10.0f;
         if (EngineSettings.SelectedEntity != null) {
-            float objectRadius = EngineSettings.SelectedEntity.getMesh().getFurthestPoint() * EngineSettings.SelectedEntity.getScale();
+            float objectRadius = EngineSettings.SelectedEntity.getBoundingRadius();
             debugLength = 200.0f * objectRadius;
         }
         
@@ -216,7 +228,7 @@ public class MousePicker {
         
         float debugRadius = 10.0f;
         if (EngineSettings.SelectedEntity != null) {
-            float objectRadius = EngineSettings.SelectedEntity.getMesh().getFurthestPoint() * EngineSettings.SelectedEntity.getScale();
+            float objectRadius = EngineSettings.SelectedEntity.getBoundingRadius();
             debugRadius = 1.0f * objectRadius;
         }
         
@@ -248,8 +260,6 @@ public class MousePicker {
         boolean leftPressed = (GLFW.glfwGetMouseButton(window, GLFW.GLFW_MOUSE_BUTTON_LEFT) == GLFW.GLFW_PRESS);
         boolean rightPressed = (GLFW.glfwGetMouseButton(window, GLFW.GLFW_MOUSE_BUTTON_RIGHT) == GLFW.GLFW_PRESS);
 
-        double[] mouseX = new double[1];
-        double[] mouseY = new double[1];
         GLFW.glfwGetCursorPos(window, mouseX, mouseY);
         
         // Determine which mouse button is pressed.
@@ -327,7 +337,7 @@ public class MousePicker {
                         targetEntity.getPosition(),
                         targetEntity.getRotation()));
                     // Apply the previous state.
-                    targetEntity.getPosition().set(prevState.position);
+                    targetEntity.setPosition(prevState.position);
                     targetEntity.setRotation(prevState.rotation);
                     // Optionally, re-select the object.
                     EngineSettings.SelectedEntity = targetEntity;
@@ -356,7 +366,7 @@ public class MousePicker {
                     undoStack.push(new TransformState(targetEntity,
                         targetEntity.getPosition(),
                         targetEntity.getRotation()));
-                    targetEntity.getPosition().set(redoState.position);
+                    targetEntity.setPosition(redoState.position);
                     targetEntity.setRotation(redoState.rotation);
                     EngineSettings.SelectedEntity = targetEntity;
                     EngineSettings.SelectedLight = null;
@@ -384,11 +394,23 @@ public class MousePicker {
         float closestDist = Float.MAX_VALUE;
         Entity bestEntity = null;
         
-        if (EngineSettings.ObjectPicker) {
+        if (EngineSettings.ObjectPicker && scene != null) {
+            if (pickIds.length < scene.getIdLimit()) {
+                pickIds = new int[scene.getIdLimit()];
+            }
+            int hits = scene.queryRay(ray.origin, ray.direction, Float.MAX_VALUE, pickIds);
+            for (int i = 0; i < hits; i++) {
+                Entity e = scene.getEntity(pickIds[i]);
+                float dist = distanceRayToPoint(ray, e.getPosition());
+                if (dist < closestDist) {
+                    closestDist = dist;
+                    bestEntity = e;
+                }
+            }
+        } else if (EngineSettings.ObjectPicker) {
             for (Entity e : entities) {
                 Vector3f center = e.getPosition();
-                float effectiveScale = e.getScale();
-                float radius = e.getMesh().getFurthestPoint() * effectiveScale;
+                float radius = e.getBoundingRadius();
                 float dist = distanceRayToPoint(ray, center);
                 if (dist < radius && dist < closestDist) {
                     closestDist = dist;
@@ -492,7 +514,7 @@ public class MousePicker {
         }
     
         if (EngineSettings.SelectedEntity != null) {
-            EngineSettings.SelectedEntity.getPosition().set(newPos);
+            EngineSettings.SelectedEntity.setPosition(newPos);
         }
         if (EngineSettings.SelectedLight != null) {
             EngineSettings.SelectedLight.getPosition().set(newPos);
@@ -0,0 +1,69 @@
+package toolbox;
+
+import java.util.Arrays;
+
+/**
+ * Stable LSD radix sort of non-negative int keys with an int payload, 8 bits per pass.
+ *
+ * Linear in the number of keys, so it beats a comparison sort for the few thousand draws of a
+ * frame, and it keeps its scratch arrays between calls so sorting does not allocate. Passes
+ * where every key has the same byte are skipped. Not thread safe.
+ */
+public class RadixSort {
+
+    private int[] keyScratch = new int[256];
+    private int[] valueScratch = new int[256];
+    private final int[] counts = new int[256];
+
+    /**
+     * Sorts keys[0 .. count) ascending and moves values along with them.
+     *
+     * @param keyBits keys are below 1 << keyBits, passes above that are skipped
+     */
+    public void sort(int[] keys, int[] values, int count, int keyBits) {
+        if (count < 2) {
+            return;
+        }
+        if (keyScratch.length < count) {
+            keyScratch = new int[Math.max(count, keyScratch.length * 2)];
+            valueScratch = new int[keyScratch.length];
+        }
+        int[] srcKeys = keys, srcValues = values;
+        int[] dstKeys = keyScratch, dstValues = valueScratch;
+
+        for (int shift = 0; shift < keyBits; shift += 8) {
+            // 1) Histogram of this byte
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                counts[(srcKeys[i] >>> shift) & 0xFF]++;
+            }
+            if (counts[(srcKeys[0] >>> shift) & 0xFF] == count) {
+                continue; // Every key has the same byte, the order would not change
+            }
+
+            // 2) Start of every bucket
+            int offset = 0;
+            for (int b = 0; b < 256; b++) {
+                int c = counts[b];
+                counts[b] = offset;
+                offset += c;
+            }
+
+            // 3) Scatter, in order, which keeps the sort stable
+            for (int i = 0; i < count; i++) {
+                int slot = counts[(srcKeys[i] >>> shift) & 0xFF]++;
+                dstKeys[slot] = srcKeys[i];
+                dstValues[slot] = srcValues[i];
+            }
+
+            int[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+            t = srcValues; srcValues = dstValues; dstValues = t;
+        }
+
+        // An odd number of passes leaves the result in the scratch arrays
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcValues, 0, values, 0, count);
+        }
+    }
+}